@@ -0,0 +1,98 @@
+package emu;
+
+import sos.passportapplet.PassportApplet;
+
+/**
+ * The applet has one command observer and one secure messaging observer. This class installs
+ * both and fans each callback out to the JFR events, the metrics registry and the session
+ * tracer, so that enabling one of them doesn't silence the others.
+ */
+final class ChipObservers {
+
+  private static volatile boolean secureMessagingMetrics;
+
+  private ChipObservers() {
+  }
+
+  /**
+   * Reports every command the applet processes as a {@link JfrEvents.ChipCommand} event and a
+   * trace span. The observer stays installed, but returns before allocating anything while
+   * the event type is disabled and no trace is being recorded.
+   */
+  static void observeCommands() {
+    PassportApplet.setCommandObserver(CommandObserver.INSTANCE);
+  }
+
+  /** Also feeds {@code emu_chip_sm_seconds} from now on; see {@link SimMetrics}. */
+  static void observeSecureMessagingMetrics() {
+    secureMessagingMetrics = true;
+    observeSecureMessaging();
+  }
+
+  /**
+   * Installs the secure messaging observer while metrics or a trace need it, and removes it
+   * otherwise, since it adds two clock reads to every protected command.
+   */
+  static void observeSecureMessaging() {
+    PassportApplet.setSecureMessagingObserver(secureMessagingMetrics || SessionTracer.isActive()
+        ? ChipObservers::onSecureMessaging
+        : null);
+  }
+
+  private static void onSecureMessaging(String mode, boolean wrap, long nanos) {
+    if (secureMessagingMetrics) {
+      SimMetrics.chipSecureMessaging(mode, wrap, nanos);
+    }
+    if (SessionTracer.isActive()) {
+      SessionTracer.complete("sm", wrap ? "SM wrap" : "SM unwrap", System.nanoTime() - nanos, nanos, "mode", mode);
+    }
+  }
+
+  private static final class CommandObserver implements PassportApplet.CommandObserver {
+    static final CommandObserver INSTANCE = new CommandObserver();
+
+    @Override
+    public Object commandStarted(byte ins) {
+      JfrEvents.ChipCommand event = new JfrEvents.ChipCommand();
+      long traceStart = SessionTracer.begin();
+      if (!event.isEnabled() && traceStart == 0L) {
+        return null;
+      }
+      event.begin();
+      return new Observation(event, traceStart);
+    }
+
+    @Override
+    public void commandFinished(Object token, byte ins, String smMode, short sw, short responseLength) {
+      if (!(token instanceof Observation)) {
+        return;
+      }
+      Observation observation = (Observation) token;
+      String insHex = String.format("%02X", ins & 0xFF);
+      String swHex = String.format("%04X", sw & 0xFFFF);
+      if (observation.traceStart != 0L) {
+        SessionTracer.end("chip", "process " + insHex, observation.traceStart,
+            "sw", swHex, "smMode", smMode, "responseBytes", responseLength);
+      }
+      JfrEvents.ChipCommand event = observation.event;
+      event.end();
+      if (event.shouldCommit()) {
+        event.ins = insHex;
+        event.sw = swHex;
+        event.smMode = smMode;
+        event.responseBytes = responseLength;
+        event.commit();
+      }
+    }
+  }
+
+  private static final class Observation {
+    final JfrEvents.ChipCommand event;
+    final long traceStart;
+
+    Observation(JfrEvents.ChipCommand event, long traceStart) {
+      this.event = event;
+      this.traceStart = traceStart;
+    }
+  }
+}
@@ -0,0 +1,214 @@
+package emu;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+
+import org.jmrtd.lds.iso19794.FaceImageInfo;
+
+/**
+ * Streams a single-image ISO 19794-5 DG2 in the same layout {@code DG2File.createISO19794DG2File}
+ * produces for the issuer's fixed face attributes. All TLV lengths follow from the image length,
+ * so the image bytes are copied exactly once: from the source straight into the encoded file.
+ */
+final class Dg2StreamEncoder {
+
+  private static final int DG2_TAG = 0x75;
+  private static final int BIOMETRIC_INFO_GROUP_TAG = 0x7F61;
+  private static final int BIOMETRIC_INFO_TAG = 0x7F60;
+  private static final int BIOMETRIC_DATA_BLOCK_TAG = 0x5F2E;
+
+  /** BHT: biometric type face, subtype none, format owner ISO/IEC JTC1 SC37, format type 0x0008. */
+  private static final byte[] BIOMETRIC_HEADER_TEMPLATE = {
+      (byte) 0xA1, 0x0E,
+      (byte) 0x81, 0x01, 0x02,
+      (byte) 0x82, 0x01, 0x00,
+      (byte) 0x87, 0x02, 0x01, 0x01,
+      (byte) 0x88, 0x02, 0x00, 0x08
+  };
+
+  private static final byte[] NUMBER_OF_INSTANCES = {0x02, 0x01, 0x01};
+
+  /** 'FAC' 00, '010' 00, record length, image count. */
+  private static final int RECORD_HEADER_LENGTH = 14;
+
+  /** Facial information, no feature points, and image information. */
+  private static final int FACE_BLOCK_HEADER_LENGTH = 32;
+
+  private static final int QUALITY = 85;
+
+  private static final int COPY_BUFFER_SIZE = 8192;
+
+  private Dg2StreamEncoder() {
+  }
+
+  /** Total length of the encoded DG2 for an image of {@code imageLength} bytes. */
+  static int encodedLength(int imageLength) {
+    return tlvLength(1, dg2ContentLength(imageLength));
+  }
+
+  /**
+   * Encodes the DG2 for a JPEG or JPEG 2000 image and returns it as an exact-size array, updating
+   * {@code digest} with every byte as it is written. {@code imageDataType} is one of
+   * {@link FaceImageInfo#IMAGE_DATA_TYPE_JPEG} or {@link FaceImageInfo#IMAGE_DATA_TYPE_JPEG2000}.
+   */
+  static byte[] encode(int width, int height, int imageDataType, InputStream image, int imageLength,
+      MessageDigest digest) throws IOException {
+    ExactArrayOutputStream target = new ExactArrayOutputStream(encodedLength(imageLength));
+    OutputStream out = digest != null ? new DigestOutputStream(target, digest) : target;
+    write(out, width, height, imageDataType, image, imageLength);
+    out.flush();
+    return target.toArray();
+  }
+
+  /** Writes the DG2 to {@code out}, copying exactly {@code imageLength} bytes from {@code image}. */
+  static void write(OutputStream out, int width, int height, int imageDataType, InputStream image,
+      int imageLength) throws IOException {
+    if (imageLength < 0) {
+      throw new IllegalArgumentException("imageLength must be >= 0");
+    }
+    int recordLength = RECORD_HEADER_LENGTH + FACE_BLOCK_HEADER_LENGTH + imageLength;
+    int bitLength = BIOMETRIC_HEADER_TEMPLATE.length + tlvLength(2, recordLength);
+    int groupLength = NUMBER_OF_INSTANCES.length + tlvLength(2, bitLength);
+
+    ByteArrayOutputStream header = new ByteArrayOutputStream(128);
+    writeTag(header, DG2_TAG);
+    writeLength(header, dg2ContentLength(imageLength));
+    writeTag(header, BIOMETRIC_INFO_GROUP_TAG);
+    writeLength(header, groupLength);
+    header.write(NUMBER_OF_INSTANCES);
+    writeTag(header, BIOMETRIC_INFO_TAG);
+    writeLength(header, bitLength);
+    header.write(BIOMETRIC_HEADER_TEMPLATE);
+    writeTag(header, BIOMETRIC_DATA_BLOCK_TAG);
+    writeLength(header, recordLength);
+
+    header.write(new byte[] {'F', 'A', 'C', 0, '0', '1', '0', 0});
+    writeInt(header, recordLength);
+    writeShort(header, 1);
+
+    writeInt(header, FACE_BLOCK_HEADER_LENGTH + imageLength);
+    writeShort(header, 0); // feature points
+    header.write(0); // gender unspecified
+    header.write(0); // eye colour unspecified
+    header.write(FaceImageInfo.HAIR_COLOR_UNSPECIFIED);
+    header.write(new byte[3]); // feature mask
+    writeShort(header, FaceImageInfo.EXPRESSION_NEUTRAL);
+    header.write(new byte[6]); // pose angle and uncertainty
+
+    header.write(FaceImageInfo.FACE_IMAGE_TYPE_FULL_FRONTAL);
+    header.write(imageDataType);
+    writeShort(header, width);
+    writeShort(header, height);
+    header.write(FaceImageInfo.IMAGE_COLOR_SPACE_RGB24);
+    header.write(FaceImageInfo.SOURCE_TYPE_STATIC_PHOTO_DIGITAL_CAM);
+    writeShort(header, 0); // device type
+    writeShort(header, QUALITY);
+    header.writeTo(out);
+
+    byte[] buffer = new byte[Math.min(COPY_BUFFER_SIZE, Math.max(1, imageLength))];
+    int remaining = imageLength;
+    while (remaining > 0) {
+      int read = image.read(buffer, 0, Math.min(buffer.length, remaining));
+      if (read < 0) {
+        throw new IOException("Face image ended " + remaining + " bytes early");
+      }
+      out.write(buffer, 0, read);
+      remaining -= read;
+    }
+  }
+
+  private static int dg2ContentLength(int imageLength) {
+    int recordLength = RECORD_HEADER_LENGTH + FACE_BLOCK_HEADER_LENGTH + imageLength;
+    int bitLength = BIOMETRIC_HEADER_TEMPLATE.length + tlvLength(2, recordLength);
+    int groupLength = NUMBER_OF_INSTANCES.length + tlvLength(2, bitLength);
+    return tlvLength(2, groupLength);
+  }
+
+  private static int tlvLength(int tagLength, int valueLength) {
+    return tagLength + lengthOfLength(valueLength) + valueLength;
+  }
+
+  private static int lengthOfLength(int length) {
+    if (length < 0x80) {
+      return 1;
+    }
+    if (length <= 0xFF) {
+      return 2;
+    }
+    if (length <= 0xFFFF) {
+      return 3;
+    }
+    return length <= 0xFFFFFF ? 4 : 5;
+  }
+
+  private static void writeTag(ByteArrayOutputStream out, int tag) {
+    if (tag > 0xFF) {
+      out.write(tag >> 8);
+    }
+    out.write(tag);
+  }
+
+  private static void writeLength(ByteArrayOutputStream out, int length) {
+    int size = lengthOfLength(length);
+    if (size > 1) {
+      out.write(0x80 | (size - 1));
+    }
+    for (int i = size - 2; i >= 0; i--) {
+      out.write(length >>> (8 * i));
+    }
+    if (size == 1) {
+      out.write(length);
+    }
+  }
+
+  private static void writeInt(ByteArrayOutputStream out, int value) {
+    out.write(value >>> 24);
+    out.write(value >>> 16);
+    writeShort(out, value);
+  }
+
+  private static void writeShort(ByteArrayOutputStream out, int value) {
+    out.write(value >>> 8);
+    out.write(value);
+  }
+
+  /** Fixed-capacity sink that hands its array over without a trailing copy. */
+  private static final class ExactArrayOutputStream extends OutputStream {
+    private final byte[] data;
+    private int count;
+
+    ExactArrayOutputStream(int size) {
+      this.data = new byte[size];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      ensureCapacity(1);
+      data[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      ensureCapacity(len);
+      System.arraycopy(b, off, data, count, len);
+      count += len;
+    }
+
+    private void ensureCapacity(int len) throws IOException {
+      if (len > data.length - count) {
+        throw new IOException("DG2 encoding overran its computed length " + data.length);
+      }
+    }
+
+    byte[] toArray() throws IOException {
+      if (count != data.length) {
+        throw new IOException("DG2 encoding produced " + count + " of " + data.length + " bytes");
+      }
+      return data;
+    }
+  }
+}
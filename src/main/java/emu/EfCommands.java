@@ -0,0 +1,118 @@
+package emu;
+
+import javax.smartcardio.CommandAPDU;
+
+/**
+ * Builds CREATE FILE and UPDATE BINARY commands for the passport applet, switching to the
+ * extended encodings once an EF outgrows the 15-bit offset of even-INS UPDATE BINARY.
+ */
+final class EfCommands {
+
+  /** Highest offset even-INS UPDATE BINARY can address in P1-P2. */
+  static final int MAX_SHORT_OFFSET = 0x7FFF;
+
+  /** Chunk size for even-INS UPDATE BINARY (short Lc). */
+  static final int MAX_CHUNK = 0xFF;
+
+  /** Chunk size for odd-INS UPDATE BINARY: Lc minus '54 03 xx xx xx' and '53 81 L'. */
+  static final int MAX_ODD_CHUNK = MAX_CHUNK - 5 - 3;
+
+  private EfCommands() {
+  }
+
+  /** {@code 63 04 size(2) fid(2)}, or {@code 63 06 size(4) fid(2)} above 64 KB. */
+  static byte[] createFileData(short fid, int size) {
+    if (size < 0) {
+      throw new IllegalArgumentException("size must be >= 0");
+    }
+    if (size <= 0xFFFF) {
+      return new byte[] {
+          (byte) 0x63, 0x04,
+          (byte) ((size >> 8) & 0xFF), (byte) (size & 0xFF),
+          (byte) ((fid >> 8) & 0xFF), (byte) (fid & 0xFF)
+      };
+    }
+    return new byte[] {
+        (byte) 0x63, 0x06,
+        (byte) ((size >> 24) & 0xFF), (byte) ((size >> 16) & 0xFF),
+        (byte) ((size >> 8) & 0xFF), (byte) (size & 0xFF),
+        (byte) ((fid >> 8) & 0xFF), (byte) (fid & 0xFF)
+    };
+  }
+
+  /** Largest chunk {@link #updateBinary} accepts at {@code offset}. */
+  static int maxChunk(int offset) {
+    return offset <= MAX_SHORT_OFFSET ? MAX_CHUNK : MAX_ODD_CHUNK;
+  }
+
+  /**
+   * UPDATE BINARY on the currently selected EF. Offsets beyond {@link #MAX_SHORT_OFFSET} use odd
+   * INS 0xD7 with the offset in data object '54' and the payload in '53'.
+   */
+  static CommandAPDU updateBinary(int offset, byte[] chunk) {
+    return updateBinary(offset, chunk, 0, chunk.length);
+  }
+
+  /** As {@link #updateBinary(int, byte[])} for {@code length} bytes of {@code data} at {@code dataOffset}. */
+  static CommandAPDU updateBinary(int offset, byte[] data, int dataOffset, int length) {
+    if (length > maxChunk(offset)) {
+      throw new IllegalArgumentException("chunk too large for offset " + offset + ": " + length);
+    }
+    if (offset <= MAX_SHORT_OFFSET) {
+      return new CommandAPDU(0x00, 0xD6, (offset >> 8) & 0xFF, offset & 0xFF, data, dataOffset, length);
+    }
+    int headerLength = length > 0x7F ? 3 : 2;
+    byte[] command = new byte[5 + headerLength + length];
+    command[0] = 0x54;
+    command[1] = 0x03;
+    command[2] = (byte) ((offset >> 16) & 0xFF);
+    command[3] = (byte) ((offset >> 8) & 0xFF);
+    command[4] = (byte) (offset & 0xFF);
+    command[5] = 0x53;
+    if (headerLength == 3) {
+      command[6] = (byte) 0x81;
+    }
+    command[4 + headerLength] = (byte) length;
+    System.arraycopy(data, dataOffset, command, 5 + headerLength, length);
+    return new CommandAPDU(0x00, 0xD7, 0x00, 0x00, command);
+  }
+
+  /**
+   * READ BINARY on the currently selected EF; beyond {@link #MAX_SHORT_OFFSET} this is odd INS
+   * 0xB1 and the response data is wrapped in '53' (see {@link #unwrapReadData}).
+   */
+  static CommandAPDU readBinary(int offset, int le) {
+    if (offset <= MAX_SHORT_OFFSET) {
+      return new CommandAPDU(0x00, 0xB0, (offset >> 8) & 0xFF, offset & 0xFF, le);
+    }
+    byte[] data = new byte[] {
+        0x54, 0x03,
+        (byte) ((offset >> 16) & 0xFF), (byte) ((offset >> 8) & 0xFF), (byte) (offset & 0xFF)
+    };
+    return new CommandAPDU(0x00, 0xB1, 0x00, 0x00, data, Math.min(0x100, le + 3));
+  }
+
+  /** Strips the '53' wrapper from an odd-INS READ BINARY response; even-INS data is returned as is. */
+  static byte[] unwrapReadData(int offset, byte[] response) {
+    if (offset <= MAX_SHORT_OFFSET) {
+      return response;
+    }
+    if (response.length < 2 || response[0] != 0x53) {
+      throw new IllegalArgumentException("Malformed odd-INS READ BINARY response");
+    }
+    int cursor = 1;
+    int length = response[cursor++] & 0xFF;
+    if (length == 0x81) {
+      length = response[cursor++] & 0xFF;
+    } else if (length == 0x82) {
+      length = ((response[cursor] & 0xFF) << 8) | (response[cursor + 1] & 0xFF);
+      cursor += 2;
+    }
+    if (cursor + length > response.length) {
+      throw new IllegalArgumentException("Truncated odd-INS READ BINARY response");
+    }
+    byte[] data = new byte[length];
+    System.arraycopy(response, cursor, data, 0, length);
+    return data;
+  }
+}
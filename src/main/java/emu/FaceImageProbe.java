@@ -0,0 +1,191 @@
+package emu;
+
+import org.jmrtd.lds.iso19794.FaceImageInfo;
+
+/**
+ * Identifies pre-compressed face images from their headers alone: JPEG by its SOF segment, JPEG 2000
+ * by the JP2 'ihdr' box or, for a bare codestream, the SIZ marker. Nothing is decoded, so a
+ * compliant image can be embedded in DG2 byte for byte.
+ */
+final class FaceImageProbe {
+
+  private static final byte[] JP2_SIGNATURE = {
+      0x00, 0x00, 0x00, 0x0C, 0x6A, 0x50, 0x20, 0x20, 0x0D, 0x0A, (byte) 0x87, 0x0A
+  };
+  private static final int BOX_JP2H = 0x6A703268;
+  private static final int BOX_IHDR = 0x69686472;
+  private static final int BOX_JP2C = 0x6A703263;
+
+  private FaceImageProbe() {
+  }
+
+  static final class Header {
+    private final int imageDataType;
+    private final int width;
+    private final int height;
+
+    Header(int imageDataType, int width, int height) {
+      this.imageDataType = imageDataType;
+      this.width = width;
+      this.height = height;
+    }
+
+    /** {@link FaceImageInfo#IMAGE_DATA_TYPE_JPEG} or {@link FaceImageInfo#IMAGE_DATA_TYPE_JPEG2000}. */
+    int getImageDataType() {
+      return imageDataType;
+    }
+
+    int getWidth() {
+      return width;
+    }
+
+    int getHeight() {
+      return height;
+    }
+  }
+
+  /** Returns the header of a JPEG or JPEG 2000 image, or {@code null} when neither is recognised. */
+  static Header probe(byte[] data) {
+    if (data == null || data.length < 4) {
+      return null;
+    }
+    if ((data[0] & 0xFF) == 0xFF && (data[1] & 0xFF) == 0xD8) {
+      return probeJpeg(data);
+    }
+    if ((data[0] & 0xFF) == 0xFF && (data[1] & 0xFF) == 0x4F
+        && (data[2] & 0xFF) == 0xFF && (data[3] & 0xFF) == 0x51) {
+      return probeCodestream(data, 0, data.length);
+    }
+    if (startsWith(data, JP2_SIGNATURE)) {
+      return probeJp2Boxes(data, JP2_SIGNATURE.length, data.length);
+    }
+    return null;
+  }
+
+  /**
+   * Walks the marker segments up to the first frame header. Only baseline and extended sequential
+   * Huffman frames (SOF0-SOF1) are accepted; progressive, lossless, hierarchical and arithmetic-coded
+   * files are left to the decoding path, which re-encodes them as baseline JPEG.
+   */
+  private static Header probeJpeg(byte[] data) {
+    int pos = 2;
+    while (pos + 4 <= data.length) {
+      if ((data[pos] & 0xFF) != 0xFF) {
+        return null;
+      }
+      int marker = data[pos + 1] & 0xFF;
+      if (marker == 0xFF) {
+        pos++;
+        continue;
+      }
+      if (marker == 0x01 || (marker >= 0xD0 && marker <= 0xD7)) {
+        pos += 2;
+        continue;
+      }
+      if (marker == 0xD9 || marker == 0xDA) {
+        return null;
+      }
+      int segmentLength = readUnsignedShort(data, pos + 2);
+      if (segmentLength < 2) {
+        return null;
+      }
+      if (marker >= 0xC0 && marker <= 0xCF && marker != 0xC4 && marker != 0xC8 && marker != 0xCC) {
+        if (marker > 0xC1 || pos + 9 > data.length) {
+          return null;
+        }
+        int height = readUnsignedShort(data, pos + 5);
+        int width = readUnsignedShort(data, pos + 7);
+        if (width == 0 || height == 0) {
+          return null;
+        }
+        return new Header(FaceImageInfo.IMAGE_DATA_TYPE_JPEG, width, height);
+      }
+      pos += 2 + segmentLength;
+    }
+    return null;
+  }
+
+  private static Header probeJp2Boxes(byte[] data, int start, int end) {
+    int pos = start;
+    while (pos + 8 <= end) {
+      long boxLength = readUnsignedInt(data, pos);
+      int type = (int) readUnsignedInt(data, pos + 4);
+      int headerLength = 8;
+      if (boxLength == 1) {
+        if (pos + 16 > end) {
+          return null;
+        }
+        boxLength = (readUnsignedInt(data, pos + 8) << 32) | readUnsignedInt(data, pos + 12);
+        headerLength = 16;
+      } else if (boxLength == 0) {
+        boxLength = end - pos;
+      }
+      if (boxLength < headerLength || boxLength > end - pos) {
+        return null;
+      }
+      int contentStart = pos + headerLength;
+      int contentEnd = (int) (pos + boxLength);
+      if (type == BOX_JP2H) {
+        return probeJp2Boxes(data, contentStart, contentEnd);
+      }
+      if (type == BOX_IHDR) {
+        if (contentEnd - contentStart < 8) {
+          return null;
+        }
+        long height = readUnsignedInt(data, contentStart);
+        long width = readUnsignedInt(data, contentStart + 4);
+        return header(FaceImageInfo.IMAGE_DATA_TYPE_JPEG2000, width, height);
+      }
+      if (type == BOX_JP2C) {
+        return probeCodestream(data, contentStart, contentEnd);
+      }
+      pos = contentEnd;
+    }
+    return null;
+  }
+
+  /** SOC followed by SIZ: Lsiz, Rsiz, Xsiz, Ysiz, XOsiz, YOsiz. */
+  private static Header probeCodestream(byte[] data, int start, int end) {
+    if (end - start < 24
+        || (data[start] & 0xFF) != 0xFF || (data[start + 1] & 0xFF) != 0x4F
+        || (data[start + 2] & 0xFF) != 0xFF || (data[start + 3] & 0xFF) != 0x51) {
+      return null;
+    }
+    int siz = start + 4;
+    long xsiz = readUnsignedInt(data, siz + 4);
+    long ysiz = readUnsignedInt(data, siz + 8);
+    long xosiz = readUnsignedInt(data, siz + 12);
+    long yosiz = readUnsignedInt(data, siz + 16);
+    return header(FaceImageInfo.IMAGE_DATA_TYPE_JPEG2000, xsiz - xosiz, ysiz - yosiz);
+  }
+
+  private static Header header(int imageDataType, long width, long height) {
+    if (width <= 0 || height <= 0 || width > Integer.MAX_VALUE || height > Integer.MAX_VALUE) {
+      return null;
+    }
+    return new Header(imageDataType, (int) width, (int) height);
+  }
+
+  private static boolean startsWith(byte[] data, byte[] prefix) {
+    if (data.length < prefix.length) {
+      return false;
+    }
+    for (int i = 0; i < prefix.length; i++) {
+      if (data[i] != prefix[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static int readUnsignedShort(byte[] data, int offset) {
+    return ((data[offset] & 0xFF) << 8) | (data[offset + 1] & 0xFF);
+  }
+
+  private static long readUnsignedInt(byte[] data, int offset) {
+    return ((long) (data[offset] & 0xFF) << 24)
+        | ((data[offset + 1] & 0xFF) << 16)
+        | ((data[offset + 2] & 0xFF) << 8)
+        | (data[offset + 3] & 0xFF);
+  }
+}
@@ -0,0 +1,139 @@
+package emu;
+
+import com.licel.jcardsim.smartcardio.CardSimulator;
+import javacard.framework.AID;
+
+import java.nio.ByteBuffer;
+import java.security.KeyPair;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.interfaces.ECPrivateKey;
+import java.security.interfaces.ECPublicKey;
+import java.security.interfaces.RSAPrivateKey;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.jmrtd.PassportService;
+
+import emu.PersonalizationSupport.SODArtifacts;
+import sos.passportapplet.PassportApplet;
+import sos.passportapplet.PersonalizationImage;
+
+/**
+ * Builds {@link PersonalizationImage}s and installs them through the applet's factory-load hook,
+ * replacing the CREATE FILE / UPDATE BINARY / PUT DATA sequence used for protocol-fidelity runs.
+ */
+final class FactoryPersonalization {
+
+  static final int P2_MRZ = 0x62;
+  static final int P2_PACE_SECRETS = 0x65;
+  static final int P2_CHIP_AUTH_KEY = 0x63;
+  static final int P2_AA_MODULUS = 0x60;
+  static final int P2_AA_EXPONENT = 0x61;
+  static final int P1_LIFECYCLE = 0xDE;
+  static final int P2_OPEN_READS = 0xFE;
+  static final int P2_PERSONALIZED = 0xAF;
+  static final int P2_LOCKED = 0xAD;
+
+  private FactoryPersonalization() {
+  }
+
+  /** LDS files from issuer artifacts; key material is added separately by the caller. */
+  static PersonalizationImage fromArtifacts(SODArtifacts artifacts) {
+    return fromArtifacts(artifacts, PersonalizationSupport.buildComBytes(artifacts));
+  }
+
+  static PersonalizationImage fromArtifacts(SODArtifacts artifacts, byte[] comBytes) {
+    PersonalizationImage image = new PersonalizationImage();
+    image.addFile(PassportService.EF_COM, comBytes);
+    for (Map.Entry<Integer, ByteBuffer> entry : new TreeMap<>(artifacts.getDataGroupBuffers()).entrySet()) {
+      image.addFile(dataGroupFid(entry.getKey()), entry.getValue());
+    }
+    image.addFile(PassportService.EF_CARD_ACCESS, artifacts.getCardAccessBuffer());
+    image.addFile(PassportService.EF_SOD, artifacts.getSodBuffer());
+    return image;
+  }
+
+  /** LDS files from a captured passport; real chips never disclose their private keys. */
+  static PersonalizationImage fromProfile(RealPassportProfile profile) {
+    PersonalizationImage image = new PersonalizationImage();
+    image.addFile(PassportService.EF_COM, profile.getComBuffer());
+    for (Map.Entry<Integer, ByteBuffer> entry : new TreeMap<>(profile.getDataGroupBuffers()).entrySet()) {
+      image.addFile(dataGroupFid(entry.getKey()), entry.getValue());
+    }
+    image.addFile(PassportService.EF_CARD_ACCESS, profile.getCardAccessBuffer());
+    image.addFile(PassportService.EF_SOD, profile.getSodBuffer());
+    return image;
+  }
+
+  /** LDS files from a mapped container; key material is added separately by the caller. */
+  static PersonalizationImage fromContainer(LdsContainer container) {
+    PersonalizationImage image = new PersonalizationImage();
+    image.addFile(PassportService.EF_COM, container.getCom());
+    for (Map.Entry<Integer, ByteBuffer> entry : container.getDataGroups().entrySet()) {
+      image.addFile(dataGroupFid(entry.getKey()), entry.getValue());
+    }
+    image.addFile(PassportService.EF_CARD_ACCESS, container.getCardAccess());
+    image.addFile(PassportService.EF_SOD, container.getSod());
+    return image;
+  }
+
+  static boolean addChipAuthenticationKey(PersonalizationImage image, KeyPair keyPair) {
+    if (keyPair == null) {
+      return false;
+    }
+    PrivateKey privateKey = keyPair.getPrivate();
+    PublicKey publicKey = keyPair.getPublic();
+    if (!(privateKey instanceof ECPrivateKey) || !(publicKey instanceof ECPublicKey)) {
+      return false;
+    }
+    image.addPutData(0x00, P2_CHIP_AUTH_KEY,
+        KeyEncodingUtil.buildEcPrivateKeyTlv((ECPrivateKey) privateKey, (ECPublicKey) publicKey));
+    return true;
+  }
+
+  static boolean addActiveAuthenticationKey(PersonalizationImage image, PrivateKey privateKey) {
+    if (!(privateKey instanceof RSAPrivateKey)) {
+      return false;
+    }
+    RSAPrivateKey rsaKey = (RSAPrivateKey) privateKey;
+    byte[] modulus = KeyEncodingUtil.stripLeadingZero(rsaKey.getModulus().toByteArray());
+    byte[] exponent = KeyEncodingUtil.stripLeadingZero(rsaKey.getPrivateExponent().toByteArray());
+    image.addPutData(0x00, P2_AA_MODULUS, KeyEncodingUtil.buildRsaPrivateKeyTlv(P2_AA_MODULUS, modulus));
+    image.addPutData(0x00, P2_AA_EXPONENT, KeyEncodingUtil.buildRsaPrivateKeyTlv(P2_AA_EXPONENT, exponent));
+    return true;
+  }
+
+  static void addOpenComSodReads(PersonalizationImage image, boolean open) {
+    image.addPutData(P1_LIFECYCLE, P2_OPEN_READS, new byte[] {(byte) (open ? 0x01 : 0x00)});
+  }
+
+  static void addPersonalized(PersonalizationImage image) {
+    image.addPutData(P1_LIFECYCLE, P2_PERSONALIZED, new byte[0]);
+  }
+
+  static void addLocked(PersonalizationImage image) {
+    image.addPutData(P1_LIFECYCLE, P2_LOCKED, new byte[0]);
+  }
+
+  /**
+   * Installs the passport applet on {@code simulator} with {@code image} factory-loaded. Returns
+   * {@code false} when the simulator did not route installation through
+   * {@link PassportApplet#install(byte[], short, byte)}; the applet is then installed but empty
+   * and the caller should fall back to APDU personalization.
+   */
+  static boolean install(CardSimulator simulator, AID aid, PersonalizationImage image) {
+    PassportApplet.stagePersonalizationImage(image);
+    boolean consumed = false;
+    try {
+      simulator.installApplet(aid, PassportApplet.class);
+    } finally {
+      consumed = PassportApplet.takeStagedPersonalizationImage() == null;
+    }
+    return consumed;
+  }
+
+  private static short dataGroupFid(int dataGroupNumber) {
+    return (short) (0x0100 | (dataGroupNumber & 0xFF));
+  }
+}
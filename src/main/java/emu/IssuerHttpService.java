@@ -0,0 +1,581 @@
+package emu;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import emu.PersonalizationSupport.SODArtifacts;
+
+/**
+ * Long-running issuance endpoint on the JDK's built-in HTTP server, so test-data clients can
+ * issue documents without starting a JVM per document.
+ *
+ * <ul>
+ *   <li>{@code POST /issue} takes one job document in the {@code --job-json} format, or a JSON
+ *   array of them. The server's base CLI arguments are applied on top, as in an NDJSON feed. Paths
+ *   in posted jobs (output and preview directories, biometric images, trust anchors) must be
+ *   relative, may not contain {@code ..}, and resolve under the service root; others get a
+ *   {@code 400}. The call blocks until every job is issued and returns the results. With
+ *   {@code ?async=true} it returns {@code 202} and a batch id at once. With
+ *   {@code ?format=container}, a single job returns its {@code lds-container.bin}.</li>
+ *   <li>{@code GET /batches/{id}} reports a batch's progress and the results so far.</li>
+ *   <li>{@code GET /batches/{id}/jobs/{index}/{file}} downloads one artifact from a job's output
+ *   directory.</li>
+ *   <li>{@code GET /metrics} reports queue depth, in-flight jobs, micro-batch sizes and latency.</li>
+ * </ul>
+ *
+ * Jobs from concurrent requests are coalesced into micro-batches of up to {@code maxBatch} jobs.
+ * A batch closes when it is full or {@code linger} after its first job arrives. Each
+ * micro-batch builds its artifacts (keys, data groups, SOD) in parallel on a worker pool. The
+ * card step then runs one job at a time on a single issuing thread, because the passport applet
+ * keeps state in static fields. While one micro-batch is on the card, the next one's artifacts
+ * are already being built.
+ */
+public final class IssuerHttpService implements AutoCloseable {
+
+  static final int DEFAULT_MAX_BATCH = 16;
+  static final Duration DEFAULT_LINGER = Duration.ofMillis(20);
+  static final int DEFAULT_QUEUE_CAPACITY = 1024;
+
+  private static final int RETAINED_BATCHES = 1024;
+  private static final int LATENCY_WINDOW = 1024;
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+
+  private final List<String> baseArguments;
+  private final Path root;
+  private final int maxBatch;
+  private final long lingerNanos;
+  private final IssuerSimulator simulator = new IssuerSimulator();
+  private final BlockingQueue<Task> pending;
+  private final BlockingQueue<List<Task>> prepared = new ArrayBlockingQueue<>(1);
+  private final Map<String, Batch> batches = new LinkedHashMap<String, Batch>(16, 0.75f, false) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, Batch> eldest) {
+      return size() > RETAINED_BATCHES && eldest.getValue().isDone();
+    }
+  };
+  private final HttpServer server;
+  private final ExecutorService httpExecutor;
+  private final ExecutorService artifactWorkers;
+  private final Thread coalescer;
+  private final Thread issuer;
+  private final AtomicInteger inFlight = new AtomicInteger();
+  private final AtomicLong issued = new AtomicLong();
+  private final AtomicLong failed = new AtomicLong();
+  private final AtomicLong microBatches = new AtomicLong();
+  private final AtomicLong batchedJobs = new AtomicLong();
+  private final long[] latencies = new long[LATENCY_WINDOW];
+  private long latencyCount;
+  private volatile boolean closed;
+
+  private IssuerHttpService(InetSocketAddress address, List<String> baseArguments, Path root, int maxBatch,
+                            Duration linger, int queueCapacity, int workers) throws IOException {
+    if (maxBatch <= 0 || queueCapacity <= 0 || workers <= 0) {
+      throw new IllegalArgumentException("maxBatch, queueCapacity and workers must be positive");
+    }
+    this.baseArguments = List.copyOf(Objects.requireNonNull(baseArguments, "baseArguments"));
+    this.root = Objects.requireNonNull(root, "root").toAbsolutePath().normalize();
+    this.maxBatch = maxBatch;
+    this.lingerNanos = Objects.requireNonNull(linger, "linger").toNanos();
+    this.pending = new ArrayBlockingQueue<>(queueCapacity);
+    this.server = HttpServer.create(address, 0);
+    this.httpExecutor = Executors.newCachedThreadPool(daemonThreads("issuer-http"));
+    this.artifactWorkers = Executors.newFixedThreadPool(workers, daemonThreads("issuer-http-artifacts"));
+    this.coalescer = new Thread(this::coalesceLoop, "issuer-http-coalescer");
+    this.issuer = new Thread(this::issueLoop, "issuer-http-issue");
+    coalescer.setDaemon(true);
+    issuer.setDaemon(true);
+    server.setExecutor(httpExecutor);
+    server.createContext("/issue", this::handleIssue);
+    server.createContext("/batches/", this::handleBatch);
+    server.createContext("/metrics", this::handleMetrics);
+  }
+
+  /**
+   * Starts with the working directory as service root, default batching, queue capacity and one
+   * artifact worker per processor.
+   */
+  public static IssuerHttpService start(InetSocketAddress address, List<String> baseArguments) throws IOException {
+    return start(address, baseArguments, Paths.get(""), DEFAULT_MAX_BATCH, DEFAULT_LINGER,
+        DEFAULT_QUEUE_CAPACITY, Runtime.getRuntime().availableProcessors());
+  }
+
+  /** Paths in posted jobs resolve under {@code root} and may not leave it. */
+  public static IssuerHttpService start(InetSocketAddress address, List<String> baseArguments, Path root,
+                                        int maxBatch, Duration linger, int queueCapacity, int workers)
+      throws IOException {
+    IssuerHttpService service = new IssuerHttpService(address, baseArguments, root, maxBatch, linger,
+        queueCapacity, workers);
+    service.coalescer.start();
+    service.issuer.start();
+    service.server.start();
+    SimMetrics.bindPoolDepth("issuer_http_queue", service.pending::size);
+    return service;
+  }
+
+  public InetSocketAddress getAddress() {
+    return server.getAddress();
+  }
+
+  @Override
+  public void close() {
+    closed = true;
+    SimMetrics.unbindPoolDepth("issuer_http_queue");
+    server.stop(0);
+    coalescer.interrupt();
+    issuer.interrupt();
+    artifactWorkers.shutdownNow();
+    httpExecutor.shutdownNow();
+  }
+
+  /** Base arguments for posted jobs: everything except the service options themselves. */
+  static List<String> stripServiceArguments(List<String> args) {
+    List<String> options = List.of("--serve", "--service-root", "--max-batch", "--linger-ms", "--queue-capacity",
+        "--artifact-workers");
+    List<String> base = new ArrayList<>();
+    for (int i = 0; i < args.size(); i++) {
+      String arg = args.get(i);
+      if (options.contains(arg)) {
+        i++;
+        continue;
+      }
+      if (options.stream().anyMatch(option -> arg.startsWith(option + "="))) {
+        continue;
+      }
+      base.add(arg);
+    }
+    return base;
+  }
+
+  // --- HTTP handlers ---
+
+  private void handleIssue(HttpExchange exchange) throws IOException {
+    try {
+      if (!"POST".equals(exchange.getRequestMethod())) {
+        sendError(exchange, 405, "Use POST");
+        return;
+      }
+      Map<String, String> query = parseQuery(exchange.getRequestURI());
+      boolean async = Boolean.parseBoolean(query.get("async"));
+      boolean container = "container".equals(query.get("format"));
+
+      List<IssuerJobBuilder> builders;
+      String batchId = UUID.randomUUID().toString();
+      try (InputStream body = exchange.getRequestBody()) {
+        builders = parseJobs(body.readAllBytes(), batchId);
+      } catch (IOException | RuntimeException e) {
+        sendError(exchange, 400, "Invalid job document: " + e.getMessage());
+        return;
+      }
+      if (builders.isEmpty()) {
+        sendError(exchange, 400, "No jobs in request");
+        return;
+      }
+      if (container && (async || builders.size() != 1)) {
+        sendError(exchange, 400, "format=container needs exactly one synchronous job");
+        return;
+      }
+
+      Batch batch = new Batch(batchId, builders.size());
+      List<Task> tasks = new ArrayList<>(builders.size());
+      for (int i = 0; i < builders.size(); i++) {
+        tasks.add(new Task(batch, i, builders.get(i), container));
+      }
+      if (!enqueue(tasks)) {
+        sendError(exchange, 503, "Issuance queue is full; retry later");
+        return;
+      }
+      synchronized (batches) {
+        batches.put(batchId, batch);
+      }
+
+      if (async) {
+        exchange.getResponseHeaders().set("Location", "/batches/" + batchId);
+        sendJson(exchange, 202, batch.toJson(false));
+        return;
+      }
+      try {
+        batch.completion.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        sendError(exchange, 503, "Service is shutting down");
+        return;
+      } catch (ExecutionException e) {
+        sendError(exchange, 500, String.valueOf(e.getCause()));
+        return;
+      }
+      if (container) {
+        Task task = tasks.get(0);
+        if (task.containerPath == null) {
+          sendJson(exchange, 500, batch.toJson(true));
+        } else {
+          exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+          sendFile(exchange, task.containerPath);
+        }
+        return;
+      }
+      sendJson(exchange, 200, batch.toJson(true));
+    } finally {
+      exchange.close();
+    }
+  }
+
+  private void handleBatch(HttpExchange exchange) throws IOException {
+    try {
+      if (!"GET".equals(exchange.getRequestMethod())) {
+        sendError(exchange, 405, "Use GET");
+        return;
+      }
+      String[] parts = exchange.getRequestURI().getPath().substring("/batches/".length()).split("/", 4);
+      Batch batch;
+      synchronized (batches) {
+        batch = batches.get(parts[0]);
+      }
+      if (batch == null) {
+        sendError(exchange, 404, "Unknown batch " + parts[0]);
+        return;
+      }
+      if (parts.length == 1) {
+        sendJson(exchange, 200, batch.toJson(true));
+        return;
+      }
+      if (parts.length != 4 || !"jobs".equals(parts[1])) {
+        sendError(exchange, 404, "Expected /batches/{id}/jobs/{index}/{file}");
+        return;
+      }
+      Task task;
+      try {
+        task = batch.tasks.get(Integer.parseInt(parts[2]));
+      } catch (RuntimeException e) {
+        sendError(exchange, 404, "Unknown job " + parts[2]);
+        return;
+      }
+      Path outputDirectory = task.outputDirectory;
+      Path file = outputDirectory != null ? outputDirectory.resolve(parts[3]).normalize() : null;
+      if (file == null || !file.startsWith(outputDirectory) || !Files.isRegularFile(file)) {
+        sendError(exchange, 404, "No such artifact: " + parts[3]);
+        return;
+      }
+      exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+      sendFile(exchange, file);
+    } finally {
+      exchange.close();
+    }
+  }
+
+  private void handleMetrics(HttpExchange exchange) throws IOException {
+    try {
+      sendJson(exchange, 200, metrics());
+    } finally {
+      exchange.close();
+    }
+  }
+
+  Map<String, Object> metrics() {
+    Map<String, Object> metrics = new LinkedHashMap<>();
+    metrics.put("queueDepth", pending.size());
+    metrics.put("inFlight", inFlight.get());
+    metrics.put("issued", issued.get());
+    metrics.put("failed", failed.get());
+    long batchCount = microBatches.get();
+    metrics.put("microBatches", batchCount);
+    metrics.put("averageMicroBatchSize", batchCount == 0 ? 0.0 : (double) batchedJobs.get() / batchCount);
+    long[] window;
+    synchronized (latencies) {
+      int size = (int) Math.min(latencyCount, LATENCY_WINDOW);
+      window = Arrays.copyOf(latencies, size);
+    }
+    Arrays.sort(window);
+    Map<String, Object> latency = new LinkedHashMap<>();
+    latency.put("samples", window.length);
+    latency.put("p50Millis", percentile(window, 0.50));
+    latency.put("p95Millis", percentile(window, 0.95));
+    latency.put("maxMillis", window.length == 0 ? 0 : window[window.length - 1]);
+    metrics.put("latency", latency);
+    return metrics;
+  }
+
+  // --- Coalescing and issuance ---
+
+  private List<IssuerJobBuilder> parseJobs(byte[] body, String batchId) throws IOException {
+    JsonNode tree = MAPPER.readTree(body);
+    if (tree == null) {
+      return List.of();
+    }
+    List<JsonNode> documents = new ArrayList<>();
+    if (tree.isArray()) {
+      tree.forEach(documents::add);
+    } else {
+      documents.add(tree);
+    }
+    List<IssuerJobBuilder> builders = new ArrayList<>(documents.size());
+    for (int i = 0; i < documents.size(); i++) {
+      IssuerJobBuilder builder = new IssuerJobBuilder()
+          .applyConfinedJsonDocument(documents.get(i).toString(), root)
+          .consumeArguments(baseArguments);
+      builder.nestOutputDirectory(String.format("%s/%04d-%s", batchId, i, builder.getDocumentNumber()));
+      builders.add(builder);
+    }
+    return builders;
+  }
+
+  private boolean enqueue(List<Task> tasks) {
+    synchronized (pending) {
+      if (closed || pending.remainingCapacity() < tasks.size()) {
+        return false;
+      }
+      pending.addAll(tasks);
+      inFlight.addAndGet(tasks.size());
+      return true;
+    }
+  }
+
+  private void coalesceLoop() {
+    try {
+      while (!closed) {
+        List<Task> batch = new ArrayList<>(maxBatch);
+        batch.add(pending.take());
+        long deadline = System.nanoTime() + lingerNanos;
+        while (batch.size() < maxBatch) {
+          Task next = pending.poll(Math.max(0L, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+          if (next == null) {
+            break;
+          }
+          batch.add(next);
+        }
+        microBatches.incrementAndGet();
+        batchedJobs.addAndGet(batch.size());
+        for (Task task : batch) {
+          task.artifacts = artifactWorkers.submit(() -> PersonalizationSupport.buildArtifacts(task.buildJob()));
+        }
+        prepared.put(batch);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void issueLoop() {
+    try {
+      while (!closed) {
+        for (Task task : prepared.take()) {
+          issue(task);
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void issue(Task task) throws InterruptedException {
+    Map<String, Object> result = new LinkedHashMap<>();
+    result.put("index", task.index);
+    long started = System.nanoTime();
+    try {
+      PersonalizationJob job = task.buildJob();
+      result.put("documentNumber", job.getMrzInfo().getDocumentNumber());
+      SODArtifacts artifacts = task.artifacts.get();
+      IssuerSimulator.Options options = task.builder.buildSimulatorOptions();
+      if (task.container) {
+        options.exportLdsContainer(true);
+      }
+      IssuerSimulator.Result outcome = simulator.run(job, options, artifacts);
+      Path outputDirectory = outcome.getOutputDirectory();
+      task.outputDirectory = outputDirectory.toAbsolutePath().normalize();
+      task.containerPath = outcome.getLdsContainerPath().orElse(null);
+      result.put("status", "ok");
+      result.put("outputDirectory", outputDirectory.toString());
+      result.put("files", listFiles(task.outputDirectory));
+      outcome.getPassiveAuthenticationResult().ifPresent(pa ->
+          result.put("passiveAuthentication", pa.isPass() ? "PASS" : "FAIL"));
+      issued.incrementAndGet();
+    } catch (InterruptedException e) {
+      throw e;
+    } catch (Exception e) {
+      Throwable cause = e instanceof ExecutionException && e.getCause() != null ? e.getCause() : e;
+      result.put("status", "error");
+      result.put("error", cause.getMessage() != null ? cause.getMessage() : cause.getClass().getName());
+      failed.incrementAndGet();
+    }
+    long finished = System.nanoTime();
+    result.put("queueMillis", TimeUnit.NANOSECONDS.toMillis(started - task.enqueued));
+    result.put("elapsedMillis", TimeUnit.NANOSECONDS.toMillis(finished - started));
+    recordLatency(TimeUnit.NANOSECONDS.toMillis(finished - task.enqueued));
+    inFlight.decrementAndGet();
+    task.batch.complete(task.index, result);
+  }
+
+  private void recordLatency(long millis) {
+    synchronized (latencies) {
+      latencies[(int) (latencyCount++ % LATENCY_WINDOW)] = millis;
+    }
+  }
+
+  private static long percentile(long[] sorted, double fraction) {
+    if (sorted.length == 0) {
+      return 0;
+    }
+    int index = (int) Math.ceil(fraction * sorted.length) - 1;
+    return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+  }
+
+  private static List<String> listFiles(Path directory) throws IOException {
+    try (Stream<Path> files = Files.walk(directory)) {
+      return files.filter(Files::isRegularFile)
+          .map(file -> directory.relativize(file).toString().replace('\\', '/'))
+          .sorted()
+          .collect(Collectors.toList());
+    }
+  }
+
+  // --- HTTP plumbing ---
+
+  private static Map<String, String> parseQuery(URI uri) {
+    Map<String, String> query = new LinkedHashMap<>();
+    String raw = uri.getQuery();
+    if (raw == null) {
+      return query;
+    }
+    for (String pair : raw.split("&")) {
+      int eq = pair.indexOf('=');
+      if (eq > 0) {
+        query.put(pair.substring(0, eq), pair.substring(eq + 1));
+      } else if (!pair.isEmpty()) {
+        query.put(pair, "true");
+      }
+    }
+    return query;
+  }
+
+  private static void sendJson(HttpExchange exchange, int status, Object body) throws IOException {
+    byte[] bytes = MAPPER.writeValueAsBytes(body);
+    exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+    exchange.sendResponseHeaders(status, bytes.length);
+    try (OutputStream out = exchange.getResponseBody()) {
+      out.write(bytes);
+    }
+  }
+
+  private static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+    Map<String, Object> body = new LinkedHashMap<>();
+    body.put("error", message);
+    sendJson(exchange, status, body);
+  }
+
+  private static void sendFile(HttpExchange exchange, Path file) throws IOException {
+    exchange.sendResponseHeaders(200, Files.size(file));
+    try (OutputStream out = exchange.getResponseBody()) {
+      Files.copy(file, out);
+    }
+  }
+
+  private static ThreadFactory daemonThreads(String prefix) {
+    AtomicInteger counter = new AtomicInteger();
+    return runnable -> {
+      Thread thread = new Thread(runnable, prefix + "-" + counter.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    };
+  }
+
+  private static final class Task {
+    final Batch batch;
+    final int index;
+    final IssuerJobBuilder builder;
+    final boolean container;
+    final long enqueued = System.nanoTime();
+    volatile Future<SODArtifacts> artifacts;
+    volatile Path outputDirectory;
+    volatile Path containerPath;
+    private PersonalizationJob job;
+
+    Task(Batch batch, int index, IssuerJobBuilder builder, boolean container) {
+      this.batch = batch;
+      this.index = index;
+      this.builder = builder;
+      this.container = container;
+      batch.tasks.add(this);
+    }
+
+    /** Built once, on whichever thread needs it first. */
+    synchronized PersonalizationJob buildJob() {
+      if (job == null) {
+        job = builder.buildJob();
+      }
+      return job;
+    }
+  }
+
+  private static final class Batch {
+    final String id;
+    final List<Task> tasks;
+    final Map<Integer, Map<String, Object>> results = new LinkedHashMap<>();
+    final CompletableFuture<Void> completion = new CompletableFuture<>();
+
+    Batch(String id, int size) {
+      this.id = id;
+      this.tasks = new ArrayList<>(size);
+    }
+
+    synchronized void complete(int index, Map<String, Object> result) {
+      results.put(index, result);
+      if (results.size() == tasks.size()) {
+        completion.complete(null);
+      }
+    }
+
+    boolean isDone() {
+      return completion.isDone();
+    }
+
+    synchronized Map<String, Object> toJson(boolean includeResults) {
+      Map<String, Object> json = new LinkedHashMap<>();
+      json.put("batch", id);
+      json.put("status", isDone() ? "done" : "pending");
+      json.put("jobs", tasks.size());
+      json.put("completed", results.size());
+      if (includeResults) {
+        List<Map<String, Object>> ordered = new ArrayList<>(results.size());
+        for (int i = 0; i < tasks.size(); i++) {
+          Map<String, Object> result = results.get(i);
+          if (result != null) {
+            ordered.add(result);
+          }
+        }
+        json.put("results", ordered);
+      }
+      return json;
+    }
+  }
+}
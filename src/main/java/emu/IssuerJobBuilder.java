@@ -3,9 +3,11 @@ package emu;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
 
 import net.sf.scuba.data.Gender;
 
+import org.jmrtd.lds.PACEInfo;
 import org.jmrtd.lds.icao.MRZInfo;
 
 import java.io.IOException;
@@ -28,6 +30,11 @@ import java.util.stream.Collectors;
  */
 public final class IssuerJobBuilder {
 
+  /** Shared, thread-safe reader for job documents; binds straight to {@link JsonConfig}. */
+  private static final ObjectReader JOB_READER = new ObjectMapper()
+      .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false)
+      .readerFor(JsonConfig.class);
+
   private final MrzSpec mrz = new MrzSpec();
   private final BiometricSpec face = new BiometricSpec();
   private final BiometricSpec fingerprint = new BiometricSpec();
@@ -40,6 +47,10 @@ public final class IssuerJobBuilder {
   private Boolean corruptDg2;
   private String digestAlgorithm;
   private String signatureAlgorithm;
+  private String cscaSignatureAlgorithm;
+  private String docSignerCurve;
+  private String cscaCurve;
+  private Integer paceDomainParameterId;
   private Boolean includeCardAccess;
   private Boolean includeTerminalAuthentication;
   private String chipAuthenticationCurve;
@@ -60,6 +71,9 @@ public final class IssuerJobBuilder {
   private Path outputDirectory = Paths.get("target", "issuer");
   private boolean facePreview;
   private Path facePreviewDirectory;
+  private boolean ldsContainer;
+  private boolean factoryLoad;
+  private boolean directTransport;
   private List<Path> validationTrustAnchors = List.of();
   private boolean showHelp;
 
@@ -160,6 +174,19 @@ public final class IssuerJobBuilder {
         }
         int[] dims = parseDimensions(value);
         face.setSize(dims[0], dims[1]);
+      } else if (arg.startsWith("--face-max-size")) {
+        String value = consumeValue(arguments, i, "--face-max-size");
+        if (arg.equals("--face-max-size")) {
+          i++;
+        }
+        int[] dims = parseDimensions(value);
+        face.setMaxSize(dims[0], dims[1]);
+      } else if (arg.startsWith("--face-max-bytes")) {
+        String value = consumeValue(arguments, i, "--face-max-bytes");
+        if (arg.equals("--face-max-bytes")) {
+          i++;
+        }
+        face.maxBytes = Integer.parseInt(value);
       } else if (arg.startsWith("--fingerprint-path")) {
         Path path = Paths.get(consumeValue(arguments, i, "--fingerprint-path"));
         fingerprint.setPath(path);
@@ -193,6 +220,11 @@ public final class IssuerJobBuilder {
         if (arg.equals("--digest")) {
           i++;
         }
+      } else if (arg.startsWith("--csca-signature")) {
+        cscaSignatureAlgorithm = consumeValue(arguments, i, "--csca-signature");
+        if (arg.equals("--csca-signature")) {
+          i++;
+        }
       } else if (arg.startsWith("--signature")) {
         signatureAlgorithm = consumeValue(arguments, i, "--signature");
         if (arg.equals("--signature")) {
@@ -262,6 +294,12 @@ public final class IssuerJobBuilder {
         if (arg.equals("--face-preview-dir")) {
           i++;
         }
+      } else if (arg.equals("--lds-container")) {
+        ldsContainer = true;
+      } else if (arg.equals("--factory-load")) {
+        factoryLoad = true;
+      } else if (arg.equals("--direct-transport")) {
+        directTransport = true;
       } else if (arg.equals("--no-card-access")) {
         includeCardAccess = Boolean.FALSE;
       } else if (arg.equals("--include-card-access")) {
@@ -276,6 +314,21 @@ public final class IssuerJobBuilder {
           i++;
         }
         paceOids.add(value);
+      } else if (arg.startsWith("--pace-domain")) {
+        paceDomainParameterId = parsePaceDomain(consumeValue(arguments, i, "--pace-domain"));
+        if (arg.equals("--pace-domain")) {
+          i++;
+        }
+      } else if (arg.startsWith("--doc-signer-curve")) {
+        docSignerCurve = consumeValue(arguments, i, "--doc-signer-curve");
+        if (arg.equals("--doc-signer-curve")) {
+          i++;
+        }
+      } else if (arg.startsWith("--csca-curve")) {
+        cscaCurve = consumeValue(arguments, i, "--csca-curve");
+        if (arg.equals("--csca-curve")) {
+          i++;
+        }
       } else if (arg.startsWith("--chip-curve")) {
         chipAuthenticationCurve = consumeValue(arguments, i, "--chip-curve");
         if (arg.equals("--chip-curve")) {
@@ -346,9 +399,21 @@ public final class IssuerJobBuilder {
     if (signatureAlgorithm != null) {
       builder.signatureAlgorithm(signatureAlgorithm);
     }
+    if (cscaSignatureAlgorithm != null) {
+      builder.cscaSignatureAlgorithm(cscaSignatureAlgorithm);
+    }
+    if (docSignerCurve != null) {
+      builder.docSignerCurve(docSignerCurve);
+    }
+    if (cscaCurve != null) {
+      builder.cscaCurve(cscaCurve);
+    }
     if (!paceOids.isEmpty()) {
       builder.paceOids(paceOids);
     }
+    if (paceDomainParameterId != null) {
+      builder.paceDomainParameterId(paceDomainParameterId.intValue());
+    }
     if (includeCardAccess != null) {
       builder.includeCardAccess(includeCardAccess.booleanValue());
     }
@@ -393,6 +458,9 @@ public final class IssuerJobBuilder {
         .validate(validate)
         .facePreview(facePreview)
         .facePreviewDirectory(facePreviewDirectory)
+        .exportLdsContainer(ldsContainer)
+        .factoryLoad(factoryLoad)
+        .transport(directTransport ? SimTransport.DIRECT : SimTransport.SMARTCARDIO)
         .validationTrustAnchors(validationTrustAnchors);
   }
 
@@ -412,6 +480,8 @@ public final class IssuerJobBuilder {
     }
     result.getFacePreviewPath().ifPresent(path ->
         logger.accept("Face preview  → " + path.toAbsolutePath()));
+    result.getLdsContainerPath().ifPresent(path ->
+        logger.accept("LDS container → " + path.toAbsolutePath()));
     result.getPassiveAuthenticationResult().ifPresent(pa ->
         logger.accept("Passive Authentication → " + (pa.isPass() ? "PASS" : "FAIL")));
   }
@@ -458,11 +528,92 @@ public final class IssuerJobBuilder {
     return new BigInteger(normalized, radix);
   }
 
+  /** Accepts a standardized PACE parameter ID or a curve name such as {@code P-384} or {@code brainpoolP256r1}. */
+  private static int parsePaceDomain(String value) {
+    switch (value.toLowerCase(Locale.ROOT)) {
+      case "p-192":
+      case "secp192r1":
+        return PACEInfo.PARAM_ID_ECP_NIST_P192_R1;
+      case "brainpoolp192r1":
+        return PACEInfo.PARAM_ID_ECP_BRAINPOOL_P192_R1;
+      case "p-224":
+      case "secp224r1":
+        return PACEInfo.PARAM_ID_ECP_NIST_P224_R1;
+      case "brainpoolp224r1":
+        return PACEInfo.PARAM_ID_ECP_BRAINPOOL_P224_R1;
+      case "p-256":
+      case "secp256r1":
+        return PACEInfo.PARAM_ID_ECP_NIST_P256_R1;
+      case "brainpoolp256r1":
+        return PACEInfo.PARAM_ID_ECP_BRAINPOOL_P256_R1;
+      case "brainpoolp320r1":
+        return PACEInfo.PARAM_ID_ECP_BRAINPOOL_P320_R1;
+      case "p-384":
+      case "secp384r1":
+        return PACEInfo.PARAM_ID_ECP_NIST_P384_R1;
+      case "brainpoolp384r1":
+        return PACEInfo.PARAM_ID_ECP_BRAINPOOL_P384_R1;
+      case "brainpoolp512r1":
+        return PACEInfo.PARAM_ID_ECP_BRAINPOOL_P512_R1;
+      case "p-521":
+      case "secp521r1":
+        return PACEInfo.PARAM_ID_ECP_NIST_P521_R1;
+      default:
+        try {
+          return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+          throw new IllegalArgumentException("Unknown PACE domain: " + value);
+        }
+    }
+  }
+
+  /**
+   * Applies one job document in the {@code --job-json} format, e.g. a line of an NDJSON feed.
+   * Relative paths resolve against {@code baseDir}.
+   */
+  public IssuerJobBuilder applyJsonDocument(String json, Path baseDir) throws IOException {
+    applyJson((JsonConfig) JOB_READER.readValue(json), baseDir, false);
+    return this;
+  }
+
+  /**
+   * Applies a job document from an untrusted client. Every path in it must be relative and free
+   * of {@code ..} segments, and resolves under {@code root}; anything else is rejected with an
+   * {@link IllegalArgumentException}.
+   */
+  public IssuerJobBuilder applyConfinedJsonDocument(String json, Path root) throws IOException {
+    Objects.requireNonNull(root, "root");
+    applyJson((JsonConfig) JOB_READER.readValue(json), root.toAbsolutePath().normalize(), true);
+    return this;
+  }
+
+  /**
+   * Moves the output (and a derived face preview directory) into {@code child}, so that jobs
+   * sharing one output root do not overwrite each other's artifacts.
+   */
+  IssuerJobBuilder nestOutputDirectory(String child) {
+    Path derivedPreview = outputDirectory.resolve("preview");
+    outputDirectory = outputDirectory.resolve(child);
+    if (facePreviewDirectory != null && facePreviewDirectory.equals(derivedPreview)) {
+      facePreviewDirectory = outputDirectory.resolve("preview");
+    }
+    return this;
+  }
+
+  String getDocumentNumber() {
+    return mrz.documentNumber;
+  }
+
+  Path getOutputDirectory() {
+    return outputDirectory;
+  }
+
   private void applyJson(Path jsonPath) throws IOException {
-    ObjectMapper mapper = new ObjectMapper();
-    mapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
-    JsonConfig config = mapper.readValue(jsonPath.toFile(), JsonConfig.class);
-    Path baseDir = jsonPath.toAbsolutePath().getParent();
+    JsonConfig config = JOB_READER.readValue(jsonPath.toFile());
+    applyJson(config, jsonPath.toAbsolutePath().getParent(), false);
+  }
+
+  private void applyJson(JsonConfig config, Path baseDir, boolean confined) {
     if (config.mrz != null) {
       if (config.mrz.documentType != null) {
         mrz.documentType = config.mrz.documentType;
@@ -493,13 +644,13 @@ public final class IssuerJobBuilder {
       }
     }
     if (config.face != null) {
-      applyBiometric(face, config.face, baseDir);
+      applyBiometric(face, config.face, baseDir, confined);
     }
     if (config.fingerprint != null) {
-      applyBiometric(fingerprint, config.fingerprint, baseDir);
+      applyBiometric(fingerprint, config.fingerprint, baseDir, confined);
     }
     if (config.iris != null) {
-      applyBiometric(iris, config.iris, baseDir);
+      applyBiometric(iris, config.iris, baseDir, confined);
     }
     if (config.corruptDg2 != null) {
       corruptDg2 = config.corruptDg2;
@@ -516,10 +667,22 @@ public final class IssuerJobBuilder {
     if (config.signatureAlgorithm != null) {
       signatureAlgorithm = config.signatureAlgorithm;
     }
+    if (config.cscaSignatureAlgorithm != null) {
+      cscaSignatureAlgorithm = config.cscaSignatureAlgorithm;
+    }
+    if (config.docSignerCurve != null) {
+      docSignerCurve = config.docSignerCurve;
+    }
+    if (config.cscaCurve != null) {
+      cscaCurve = config.cscaCurve;
+    }
     if (config.paceOids != null && !config.paceOids.isEmpty()) {
       paceOids.clear();
       paceOids.addAll(config.paceOids);
     }
+    if (config.paceDomain != null) {
+      paceDomainParameterId = parsePaceDomain(config.paceDomain);
+    }
     if (config.includeCardAccess != null) {
       includeCardAccess = config.includeCardAccess;
     }
@@ -568,15 +731,21 @@ public final class IssuerJobBuilder {
     if (config.openReads != null) {
       openComSodReads = config.openReads;
     }
+    if (config.factoryLoad != null) {
+      factoryLoad = config.factoryLoad;
+    }
     if (config.output != null) {
       if (config.output.directory != null) {
-        outputDirectory = resolve(baseDir, config.output.directory);
+        outputDirectory = resolve(baseDir, config.output.directory, confined);
       }
       if (config.output.facePreview != null) {
         facePreview = config.output.facePreview;
       }
       if (config.output.facePreviewDirectory != null) {
-        facePreviewDirectory = resolve(baseDir, config.output.facePreviewDirectory);
+        facePreviewDirectory = resolve(baseDir, config.output.facePreviewDirectory, confined);
+      }
+      if (config.output.ldsContainer != null) {
+        ldsContainer = config.output.ldsContainer;
       }
     }
     if (config.paceSecrets != null) {
@@ -595,23 +764,45 @@ public final class IssuerJobBuilder {
     }
     if (config.validationTrustAnchors != null && !config.validationTrustAnchors.isEmpty()) {
       validationTrustAnchors = config.validationTrustAnchors.stream()
-          .map(path -> resolve(baseDir, path))
+          .map(path -> resolve(baseDir, path, confined))
           .collect(Collectors.toList());
     }
   }
 
-  private Path resolve(Path baseDir, String child) {
+  private Path resolve(Path baseDir, String child, boolean confined) {
     Path base = baseDir != null ? baseDir : Paths.get(".");
-    return base.resolve(child).normalize();
+    if (!confined) {
+      return base.resolve(child).normalize();
+    }
+    Path relative = Paths.get(child);
+    if (relative.isAbsolute() || relative.getRoot() != null) {
+      throw new IllegalArgumentException("Path must be relative: " + child);
+    }
+    for (Path name : relative) {
+      if ("..".equals(name.toString())) {
+        throw new IllegalArgumentException("Path must not contain '..': " + child);
+      }
+    }
+    Path resolved = base.resolve(relative).normalize();
+    if (!resolved.startsWith(base)) {
+      throw new IllegalArgumentException("Path escapes " + base + ": " + child);
+    }
+    return resolved;
   }
 
-  private void applyBiometric(BiometricSpec spec, JsonBiometric config, Path baseDir) {
+  private void applyBiometric(BiometricSpec spec, JsonBiometric config, Path baseDir, boolean confined) {
     if (config.path != null) {
-      spec.setPath(resolve(baseDir, config.path));
+      spec.setPath(resolve(baseDir, config.path, confined));
     }
     if (config.width != null && config.height != null) {
       spec.setSize(config.width, config.height);
     }
+    if (config.maxWidth != null || config.maxHeight != null) {
+      spec.setMaxSize(config.maxWidth, config.maxHeight);
+    }
+    if (config.maxBytes != null) {
+      spec.maxBytes = config.maxBytes;
+    }
   }
 
   @JsonIgnoreProperties(ignoreUnknown = true)
@@ -625,7 +816,11 @@ public final class IssuerJobBuilder {
     public List<Integer> disableDataGroups;
     public String digestAlgorithm;
     public String signatureAlgorithm;
+    public String cscaSignatureAlgorithm;
+    public String docSignerCurve;
+    public String cscaCurve;
     public List<String> paceOids;
+    public String paceDomain;
     public Boolean includeCardAccess;
     public Boolean includeTerminalAuthentication;
     public String chipAuthenticationCurve;
@@ -641,6 +836,7 @@ public final class IssuerJobBuilder {
     public Boolean omitPaceSecrets;
     public Boolean leavePersonalized;
     public Boolean openReads;
+    public Boolean factoryLoad;
     public JsonOutput output;
     public JsonPaceSecrets paceSecrets;
     public List<String> validationTrustAnchors;
@@ -664,6 +860,9 @@ public final class IssuerJobBuilder {
     public String path;
     public Integer width;
     public Integer height;
+    public Integer maxWidth;
+    public Integer maxHeight;
+    public Integer maxBytes;
   }
 
   @JsonIgnoreProperties(ignoreUnknown = true)
@@ -671,6 +870,7 @@ public final class IssuerJobBuilder {
     public String directory;
     public Boolean facePreview;
     public String facePreviewDirectory;
+    public Boolean ldsContainer;
   }
 
   @JsonIgnoreProperties(ignoreUnknown = true)
@@ -685,6 +885,9 @@ public final class IssuerJobBuilder {
     Path path;
     Integer width;
     Integer height;
+    Integer maxWidth;
+    Integer maxHeight;
+    Integer maxBytes;
 
     void setPath(Path path) {
       this.path = path;
@@ -695,12 +898,23 @@ public final class IssuerJobBuilder {
       this.height = height;
     }
 
+    void setMaxSize(Integer maxWidth, Integer maxHeight) {
+      this.maxWidth = maxWidth;
+      this.maxHeight = maxHeight;
+    }
+
     void applyToFace(PersonalizationJob.Builder builder) {
       if (path != null) {
         builder.withFaceImagePath(path);
       } else if (width != null && height != null) {
         builder.withFaceSyntheticSize(width, height);
       }
+      if (maxWidth != null || maxHeight != null || maxBytes != null) {
+        builder.faceImageLimits(
+            maxWidth != null ? maxWidth : Integer.MAX_VALUE,
+            maxHeight != null ? maxHeight : Integer.MAX_VALUE,
+            maxBytes != null ? maxBytes : Integer.MAX_VALUE);
+      }
     }
 
     void applyToFingerprint(PersonalizationJob.Builder builder) {
@@ -0,0 +1,208 @@
+package emu;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Issues one document per line of a newline-delimited JSON feed. Each line is a job document in
+ * the {@code --job-json} format; the base CLI arguments are applied on top, exactly as they would
+ * be over a {@code --job-json} file. Lines are parsed on a reader thread into a bounded queue and
+ * issued in order, with one result line written per document as soon as it completes, so memory
+ * stays flat however long the feed is. The feed streams line by line; each line is a small
+ * document and is bound to the job model in one go by {@link IssuerJobBuilder#applyJsonDocument}.
+ *
+ * <p>Issuance itself stays sequential: the passport applet keeps its lifecycle state in static
+ * fields, so simulated cards cannot be personalised concurrently in one JVM.
+ */
+final class IssuerJobFeed {
+
+  static final int DEFAULT_QUEUE_CAPACITY = 64;
+
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+
+  private final List<String> baseArguments;
+  private final Path baseDirectory;
+  private final int queueCapacity;
+  private final IssuerSimulator simulator;
+
+  IssuerJobFeed(List<String> baseArguments, Path baseDirectory, int queueCapacity) {
+    this(baseArguments, baseDirectory, queueCapacity, new IssuerSimulator());
+  }
+
+  IssuerJobFeed(List<String> baseArguments, Path baseDirectory, int queueCapacity, IssuerSimulator simulator) {
+    if (queueCapacity <= 0) {
+      throw new IllegalArgumentException("queueCapacity must be > 0");
+    }
+    this.baseArguments = List.copyOf(Objects.requireNonNull(baseArguments, "baseArguments"));
+    this.baseDirectory = baseDirectory;
+    this.queueCapacity = queueCapacity;
+    this.simulator = Objects.requireNonNull(simulator, "simulator");
+  }
+
+  static final class Summary {
+    private final long issued;
+    private final long failed;
+
+    Summary(long issued, long failed) {
+      this.issued = issued;
+      this.failed = failed;
+    }
+
+    long getIssued() {
+      return issued;
+    }
+
+    long getFailed() {
+      return failed;
+    }
+  }
+
+  Summary run(InputStream jobs, OutputStream results) throws IOException, InterruptedException {
+    BlockingQueue<Entry> queue = new ArrayBlockingQueue<>(queueCapacity);
+    Thread reader = new Thread(() -> readLines(jobs, queue), "issuer-feed-reader");
+    reader.setDaemon(true);
+    reader.start();
+    SimMetrics.bindPoolDepth("issuer_feed_queue", queue::size);
+
+    long issued = 0;
+    long failed = 0;
+    Writer out = new BufferedWriter(new OutputStreamWriter(results, StandardCharsets.UTF_8));
+    try {
+      while (true) {
+        Entry entry = queue.take();
+        if (entry == Entry.END) {
+          break;
+        }
+        Map<String, Object> result = issue(entry);
+        if ("ok".equals(result.get("status"))) {
+          issued++;
+        } else {
+          failed++;
+        }
+        out.write(MAPPER.writeValueAsString(result));
+        out.write('\n');
+        out.flush();
+      }
+    } finally {
+      SimMetrics.unbindPoolDepth("issuer_feed_queue");
+      reader.interrupt();
+      out.flush();
+    }
+    return new Summary(issued, failed);
+  }
+
+  private void readLines(InputStream jobs, BlockingQueue<Entry> queue) {
+    long lineNumber = 0;
+    try (BufferedReader in = new BufferedReader(new InputStreamReader(jobs, StandardCharsets.UTF_8))) {
+      String line;
+      while ((line = in.readLine()) != null) {
+        lineNumber++;
+        if (line.isBlank()) {
+          continue;
+        }
+        queue.put(parse(lineNumber, line));
+      }
+    } catch (IOException e) {
+      offer(queue, new Entry(lineNumber + 1, null, "Failed to read job feed: " + e.getMessage()));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return;
+    }
+    offer(queue, Entry.END);
+  }
+
+  private Entry parse(long lineNumber, String line) {
+    try {
+      IssuerJobBuilder builder = new IssuerJobBuilder()
+          .applyJsonDocument(line, baseDirectory)
+          .consumeArguments(baseArguments);
+      builder.nestOutputDirectory(String.format("%06d-%s", lineNumber, builder.getDocumentNumber()));
+      return new Entry(lineNumber, builder, null);
+    } catch (IOException | RuntimeException e) {
+      return new Entry(lineNumber, null, e.getMessage());
+    }
+  }
+
+  private Map<String, Object> issue(Entry entry) {
+    Map<String, Object> result = new LinkedHashMap<>();
+    result.put("line", entry.lineNumber);
+    if (entry.builder == null) {
+      result.put("status", "error");
+      result.put("error", entry.error);
+      return result;
+    }
+    long started = System.nanoTime();
+    try {
+      PersonalizationJob job = entry.builder.buildJob();
+      result.put("documentNumber", job.getMrzInfo().getDocumentNumber());
+      IssuerSimulator.Result issued = simulator.run(job, entry.builder.buildSimulatorOptions());
+      result.put("status", "ok");
+      result.put("outputDirectory", issued.getOutputDirectory().toString());
+      result.put("manifest", issued.getManifestPath().toString());
+      issued.getPassiveAuthenticationResult().ifPresent(pa ->
+          result.put("passiveAuthentication", pa.isPass() ? "PASS" : "FAIL"));
+    } catch (Exception e) {
+      result.put("status", "error");
+      result.put("error", e.getMessage() != null ? e.getMessage() : e.getClass().getName());
+    }
+    result.put("elapsedMillis", (System.nanoTime() - started) / 1_000_000L);
+    return result;
+  }
+
+  private static void offer(BlockingQueue<Entry> queue, Entry entry) {
+    try {
+      queue.put(entry);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static final class Entry {
+    static final Entry END = new Entry(-1, null, null);
+
+    final long lineNumber;
+    final IssuerJobBuilder builder;
+    final String error;
+
+    Entry(long lineNumber, IssuerJobBuilder builder, String error) {
+      this.lineNumber = lineNumber;
+      this.builder = builder;
+      this.error = error;
+    }
+  }
+
+  /** Base arguments for feed jobs: everything except the feed options themselves. */
+  static List<String> stripFeedArguments(List<String> args) {
+    List<String> base = new ArrayList<>();
+    for (int i = 0; i < args.size(); i++) {
+      String arg = args.get(i);
+      if (arg.equals("--jobs-ndjson") || arg.equals("--results-ndjson") || arg.equals("--queue-capacity")) {
+        i++;
+        continue;
+      }
+      if (arg.startsWith("--jobs-ndjson=") || arg.startsWith("--results-ndjson=")
+          || arg.startsWith("--queue-capacity=")) {
+        continue;
+      }
+      base.add(arg);
+    }
+    return base;
+  }
+}
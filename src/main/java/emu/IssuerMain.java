@@ -1,9 +1,20 @@
 package emu;
 
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
 import java.util.Arrays;
+import java.util.List;
 
 public final class IssuerMain {
 
+  // The try resources below only scope metrics, recording and tracing to the run; the body never
+  // touches them.
+  @SuppressWarnings("try")
   public static void main(String[] args) throws Exception {
     IssuerJobBuilder builder = new IssuerJobBuilder();
     builder.consumeArguments(Arrays.asList(args));
@@ -12,10 +23,94 @@ public final class IssuerMain {
       return;
     }
 
-    PersonalizationJob job = builder.buildJob();
-    IssuerSimulator simulator = new IssuerSimulator();
-    IssuerSimulator.Result result = simulator.run(job, builder.buildSimulatorOptions());
-    builder.report(result, System.out::println);
+    try (MetricsExporter metrics = MetricsExporter.fromArguments(Arrays.asList(args));
+         JfrEvents.FlightRecording recording = JfrEvents.fromArguments(Arrays.asList(args));
+         SessionTracer tracer = SessionTracer.fromArguments(Arrays.asList(args))) {
+      String servePort = optionValue(args, "--serve");
+      if (servePort != null) {
+        runService(args, Integer.parseInt(servePort));
+        return;
+      }
+
+      String jobsFeed = optionValue(args, "--jobs-ndjson");
+      if (jobsFeed != null) {
+        runFeed(args, builder, jobsFeed);
+        return;
+      }
+
+      PersonalizationJob job = builder.buildJob();
+      IssuerSimulator simulator = new IssuerSimulator();
+      IssuerSimulator.Result result = simulator.run(job, builder.buildSimulatorOptions());
+      builder.report(result, System.out::println);
+    }
+  }
+
+  private static void runFeed(String[] args, IssuerJobBuilder base, String jobsFeed) throws Exception {
+    List<String> baseArguments = IssuerJobFeed.stripFeedArguments(Arrays.asList(args));
+    String resultsTarget = optionValue(args, "--results-ndjson");
+    String capacity = optionValue(args, "--queue-capacity");
+    int queueCapacity = capacity != null ? Integer.parseInt(capacity) : IssuerJobFeed.DEFAULT_QUEUE_CAPACITY;
+
+    boolean fromStdin = "-".equals(jobsFeed);
+    Path baseDirectory = fromStdin ? null : Paths.get(jobsFeed).toAbsolutePath().getParent();
+    Path resultsPath = null;
+    if (!"-".equals(resultsTarget)) {
+      resultsPath = resultsTarget != null
+          ? Paths.get(resultsTarget)
+          : base.getOutputDirectory().resolve("results.ndjson");
+      Path parent = resultsPath.toAbsolutePath().getParent();
+      if (parent != null) {
+        Files.createDirectories(parent);
+      }
+    }
+
+    IssuerJobFeed feed = new IssuerJobFeed(baseArguments, baseDirectory, queueCapacity);
+    IssuerJobFeed.Summary summary;
+    // Only the file streams belong to the feed; stdin and stdout stay open for the summary and
+    // anything printed afterwards.
+    try (InputStream jobsFile = fromStdin ? null : Files.newInputStream(Paths.get(jobsFeed));
+         OutputStream resultsFile = resultsPath != null ? Files.newOutputStream(resultsPath) : null) {
+      summary = feed.run(jobsFile != null ? jobsFile : System.in,
+          resultsFile != null ? resultsFile : System.out);
+    }
+    System.err.println("Issued " + summary.getIssued() + " document(s), " + summary.getFailed() + " failed"
+        + (resultsPath != null ? "; results → " + resultsPath.toAbsolutePath() : ""));
+  }
+
+  private static void runService(String[] args, int port) throws Exception {
+    List<String> baseArguments = IssuerHttpService.stripServiceArguments(Arrays.asList(args));
+    String maxBatch = optionValue(args, "--max-batch");
+    String linger = optionValue(args, "--linger-ms");
+    String capacity = optionValue(args, "--queue-capacity");
+    String workers = optionValue(args, "--artifact-workers");
+    String root = optionValue(args, "--service-root");
+    IssuerHttpService service = IssuerHttpService.start(
+        new InetSocketAddress("127.0.0.1", port),
+        baseArguments,
+        Paths.get(root != null ? root : ""),
+        maxBatch != null ? Integer.parseInt(maxBatch) : IssuerHttpService.DEFAULT_MAX_BATCH,
+        linger != null ? Duration.ofMillis(Long.parseLong(linger)) : IssuerHttpService.DEFAULT_LINGER,
+        capacity != null ? Integer.parseInt(capacity) : IssuerHttpService.DEFAULT_QUEUE_CAPACITY,
+        workers != null ? Integer.parseInt(workers) : Runtime.getRuntime().availableProcessors());
+    Runtime.getRuntime().addShutdownHook(new Thread(service::close, "issuer-http-shutdown"));
+    System.err.println("Issuance service listening on http://" + service.getAddress().getHostString()
+        + ":" + service.getAddress().getPort() + " (POST /issue, GET /batches/{id}, GET /metrics)");
+    Thread.currentThread().join();
+  }
+
+  private static String optionValue(String[] args, String key) {
+    for (int i = 0; i < args.length; i++) {
+      if (args[i].equals(key)) {
+        if (i + 1 >= args.length) {
+          throw new IllegalArgumentException(key + " requires a value");
+        }
+        return args[i + 1];
+      }
+      if (args[i].startsWith(key + "=")) {
+        return args[i].substring(key.length() + 1);
+      }
+    }
+    return null;
   }
 
   private static void printUsage() {
@@ -28,6 +123,8 @@ public final class IssuerMain {
     System.out.println("  --enable-dg <n>            Ensure DG<n> is exported (repeatable)");
     System.out.println("  --disable-dg <n>           Exclude DG<n> from the LDS (repeatable)");
     System.out.println("  --corrupt-dg2              Emit a corrupted DG2 for negative tests");
+    System.out.println("  --face-max-size <WxH>      Re-encode --face-path images larger than this");
+    System.out.println("  --face-max-bytes <n>       Re-encode --face-path images larger than n bytes");
     System.out.println(
         "  --digest <alg>             Override EF.SOD digest algorithm (default "
             + PersonalizationJob.defaultDigestAlgorithm()
@@ -36,6 +133,11 @@ public final class IssuerMain {
         "  --signature <alg>          Override document signer signature (default "
             + PersonalizationJob.defaultSignatureAlgorithm()
             + ")");
+    System.out.println("  --csca-signature <alg>     CSCA certificate signature (default: --signature)");
+    System.out.println("                             ECDSA algorithms use EC keys; *withRSA/PSS or RSASSA-PSS select PSS");
+    System.out.println("  --doc-signer-curve <name>  Document signer curve for ECDSA (default secp256r1)");
+    System.out.println("  --csca-curve <name>        CSCA curve for ECDSA (default secp256r1)");
+    System.out.println("  --pace-domain <id|curve>   PACE domain in EF.CardAccess, e.g. P-384, brainpoolP256r1");
     System.out.println("  --pace-can/--pace-pin/--pace-puk <value>  Seed PACE credentials");
     System.out.println("  --omit-secrets             Skip installing all issuer secrets");
     System.out.println("  --omit-mrz-secret          Skip the MRZ BAC seed while keeping others");
@@ -45,6 +147,29 @@ public final class IssuerMain {
     System.out.println("  --output <dir>             Override artifact directory (default target/issuer)");
     System.out.println("  --face-preview[ -dir <dir>]  Export face preview JPEG from DG2");
     System.out.println("  --validate                 Run Passive Authentication after issuance");
+    System.out.println("  --lds-container            Also export the LDS and chip keys as lds-container.bin");
+    System.out.println("  --factory-load             Load the LDS and secrets at applet install instead of over APDUs");
+    System.out.println("  --direct-transport         Talk to the simulator directly instead of through javax.smartcardio");
+    System.out.println("  --jobs-ndjson <path|->     Issue one document per NDJSON job line (file or stdin);");
+    System.out.println("                             other options apply to every job, output nests per line");
+    System.out.println("  --results-ndjson <path|->  Write per-job results (default <output>/results.ndjson)");
+    System.out.println("  --queue-capacity <n>       Parsed jobs buffered ahead of issuance (default "
+        + IssuerJobFeed.DEFAULT_QUEUE_CAPACITY + "; " + IssuerHttpService.DEFAULT_QUEUE_CAPACITY
+        + " jobs with --serve)");
+    System.out.println("  --serve <port>             Run the HTTP issuance service on 127.0.0.1:<port>;");
+    System.out.println("                             other options apply to every posted job");
+    System.out.println("  --service-root <dir>       Directory posted job paths resolve under (default: working dir);");
+    System.out.println("                             absolute paths and '..' in jobs are rejected");
+    System.out.println("  --max-batch <n>            Jobs coalesced per micro-batch with --serve (default "
+        + IssuerHttpService.DEFAULT_MAX_BATCH + ")");
+    System.out.println("  --linger-ms <n>            Wait for more jobs before closing a micro-batch (default "
+        + IssuerHttpService.DEFAULT_LINGER.toMillis() + ")");
+    System.out.println("  --artifact-workers <n>     Threads building keys, data groups and SODs (default: CPUs)");
+    System.out.println("  --metrics-port <n>         Serve Prometheus metrics at http://127.0.0.1:<n>/metrics");
+    System.out.println("  --metrics-file <path>      Also dump metrics in Prometheus text format to <path>");
+    System.out.println("  --metrics-interval <s>     Seconds between metric dumps (default 15)");
+    System.out.println("  --jfr <file>               Record a flight recording with the emulator's JFR events to <file>");
+    System.out.println("  --trace <file>             Write a Chrome/Perfetto trace of chip commands and SM to <file> at exit");
     System.out.println();
     System.out.println("Example:");
     System.out.println("  mvn -q exec:java -Dexec.mainClass=emu.IssuerMain \\");
@@ -4,6 +4,8 @@ import org.jmrtd.lds.icao.MRZInfo;
 
 import java.io.ByteArrayOutputStream;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Objects;
 
 /**
@@ -15,7 +17,20 @@ final class IssuerSecretEncoder {
   private static final int TAG_DOC_NUMBER = 0x5F1F;
   private static final int TAG_DATE_OF_BIRTH = 0x5F18;
   private static final int TAG_DATE_OF_EXPIRY = 0x5F19;
+  private static final int TAG_PACE_SECRET_CONTAINER = 0x65;
   private static final int TAG_PACE_SECRET_ENTRY = 0x66;
+  private static final int TAG_CURRENT_DATE = 0x67;
+  private static final int TAG_PROVISIONING = 0x68;
+  private static final int TAG_OPEN_READS = 0x69;
+  private static final int TAG_LIFECYCLE_TARGET = 0x6A;
+
+  static final int P2_PROVISIONING = TAG_PROVISIONING;
+  static final int P1_LIFECYCLE = 0xDE;
+  static final int P2_PERSONALIZED = 0xAF;
+  static final int P2_LOCKED = 0xAD;
+  static final int P2_OPEN_READS = 0xFE;
+  /** Largest payload of a short APDU; bigger containers go out as separate commands. */
+  static final int MAX_PROVISIONING_LENGTH = 0xFF;
 
   static final byte KEY_REFERENCE_CAN = 0x02;
   static final byte KEY_REFERENCE_PIN = 0x03;
@@ -74,6 +89,147 @@ final class IssuerSecretEncoder {
     return entryBytes.length == 0 ? null : entryBytes;
   }
 
+  static Provisioning provisioning() {
+    return new Provisioning();
+  }
+
+  /**
+   * Collects the secret and lifecycle steps of a card provisioning run and encodes them as one
+   * provisioning container (PUT DATA P2=0x68), which the applet validates as a whole before
+   * applying any of it. {@link #commands()} lists the same steps as the separate PUT DATA
+   * commands, for chips that reject the container.
+   */
+  static final class Provisioning {
+    private byte[] mrzSeed;
+    private byte[] paceSecrets;
+    private Boolean openComSodReads;
+    private byte[] currentDate;
+    private int lifecycleTarget;
+
+    private Provisioning() {
+    }
+
+    /** MRZ seed as produced by {@link IssuerSecretEncoder#encodeMrzSeed}. */
+    Provisioning mrzSeed(byte[] value) {
+      this.mrzSeed = value;
+      return this;
+    }
+
+    /** 0x66 entries as produced by {@link IssuerSecretEncoder#encodePaceSecrets}; may be null. */
+    Provisioning paceSecrets(byte[] value) {
+      this.paceSecrets = value;
+      return this;
+    }
+
+    Provisioning openComSodReads(Boolean value) {
+      this.openComSodReads = value;
+      return this;
+    }
+
+    /** Six YYMMDD digits, as for PUT DATA P2=0x67. */
+    Provisioning currentDate(byte[] value) {
+      if (value != null && value.length != 6) {
+        throw new IllegalArgumentException("Current date must be 6 digits");
+      }
+      this.currentDate = value;
+      return this;
+    }
+
+    Provisioning personalized() {
+      if (lifecycleTarget != P2_LOCKED) {
+        this.lifecycleTarget = P2_PERSONALIZED;
+      }
+      return this;
+    }
+
+    /** Locks the chip, passing through PERSONALIZED if needed. */
+    Provisioning locked() {
+      this.lifecycleTarget = P2_LOCKED;
+      return this;
+    }
+
+    boolean isEmpty() {
+      return mrzSeed == null && paceSecrets == null && openComSodReads == null
+          && currentDate == null && lifecycleTarget == 0;
+    }
+
+    /**
+     * The provisioning container, or {@code null} when there is nothing to send or it would not
+     * fit a short APDU.
+     */
+    byte[] encode() {
+      if (isEmpty()) {
+        return null;
+      }
+      ByteArrayOutputStream entries = new ByteArrayOutputStream();
+      if (mrzSeed != null) {
+        entries.write(mrzSeed, 0, mrzSeed.length);
+      }
+      if (paceSecrets != null) {
+        writeTlv(entries, TAG_PACE_SECRET_CONTAINER, paceSecrets);
+      }
+      if (currentDate != null) {
+        writeTlv(entries, TAG_CURRENT_DATE, currentDate);
+      }
+      if (openComSodReads != null) {
+        writeTlv(entries, TAG_OPEN_READS, new byte[]{(byte) (openComSodReads ? 0x01 : 0x00)});
+      }
+      if (lifecycleTarget != 0) {
+        writeTlv(entries, TAG_LIFECYCLE_TARGET, new byte[]{(byte) lifecycleTarget});
+      }
+      ByteArrayOutputStream container = new ByteArrayOutputStream();
+      writeTlv(container, TAG_PROVISIONING, entries.toByteArray());
+      return container.size() > MAX_PROVISIONING_LENGTH ? null : container.toByteArray();
+    }
+
+    /** The same steps as separate PUT DATA commands. */
+    List<Command> commands() {
+      List<Command> commands = new ArrayList<>();
+      if (mrzSeed != null) {
+        commands.add(new Command(0x00, TAG_MRZ_CONTAINER, mrzSeed, "PUT MRZ TLV"));
+      }
+      if (paceSecrets != null) {
+        commands.add(new Command(0x00, TAG_PACE_SECRET_CONTAINER, paceSecrets, "PUT PACE secrets TLV"));
+      }
+      if (openComSodReads != null) {
+        commands.add(new Command(P1_LIFECYCLE, P2_OPEN_READS,
+            new byte[]{(byte) (openComSodReads ? 0x01 : 0x00)},
+            openComSodReads ? "ENABLE open COM/SOD reads" : "DISABLE open COM/SOD reads"));
+      }
+      if (currentDate != null) {
+        commands.add(new Command(0x00, TAG_CURRENT_DATE, currentDate, "PUT current date digits"));
+      }
+      if (lifecycleTarget != 0) {
+        commands.add(new Command(P1_LIFECYCLE, P2_PERSONALIZED, new byte[0], "SET LIFECYCLE → PERSONALIZED"));
+      }
+      if (lifecycleTarget == P2_LOCKED) {
+        commands.add(new Command(P1_LIFECYCLE, P2_LOCKED, new byte[0], "SET LIFECYCLE → LOCKED"));
+      }
+      return commands;
+    }
+  }
+
+  /** One PUT DATA command. */
+  static final class Command {
+    final int p1;
+    final int p2;
+    final byte[] data;
+    final String label;
+
+    Command(int p1, int p2, byte[] data, String label) {
+      this.p1 = p1;
+      this.p2 = p2;
+      this.data = data;
+      this.label = label;
+    }
+  }
+
+  private static void writeTlv(ByteArrayOutputStream out, int tag, byte[] value) {
+    writeTag(out, tag);
+    writeLength(out, value.length);
+    out.write(value, 0, value.length);
+  }
+
   private static void appendPaceSecretEntry(ByteArrayOutputStream out, byte keyReference, String value) {
     if (!hasText(value)) {
       return;
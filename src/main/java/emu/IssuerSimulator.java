@@ -17,13 +17,15 @@ import net.sf.scuba.smartcards.TerminalCardService;
 
 import org.jmrtd.BACKey;
 import org.jmrtd.PassportService;
-import org.jmrtd.lds.icao.COMFile;
 import org.jmrtd.lds.icao.MRZInfo;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.security.cert.CertificateEncodingException;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -36,6 +38,7 @@ import java.util.Optional;
 
 import emu.PersonalizationSupport.SODArtifacts;
 import emu.PassiveAuthentication;
+import sos.passportapplet.PersonalizationImage;
 
 /**
  * Service layer that provisions a simulated MRTD and exports issuance artifacts.
@@ -51,101 +54,87 @@ public final class IssuerSimulator {
 
   public Result run(PersonalizationJob job, Options options) throws Exception {
     Objects.requireNonNull(job, "job");
+    return run(job, options, PersonalizationSupport.buildArtifacts(job));
+  }
+
+  /**
+   * Issues {@code job} from artifacts already built by {@link PersonalizationSupport#buildArtifacts}.
+   * Building artifacts is pure key generation, encoding and signing and may run on any thread;
+   * this step drives the simulated card and must not run concurrently with another issuance.
+   */
+  Result run(PersonalizationJob job, Options options, SODArtifacts artifacts) throws Exception {
+    Objects.requireNonNull(job, "job");
+    Objects.requireNonNull(artifacts, "artifacts");
     Options opts = options != null ? options : new Options();
 
     Path outputDir = opts.outputDirectory != null ? opts.outputDirectory : Paths.get("target", "issuer");
     Files.createDirectories(outputDir);
 
-    CardSimulator simulator = new CardSimulator();
-    AID aid = new AID(MRTD_AID, (short) 0, (byte) MRTD_AID.length);
-    simulator.installApplet(aid, sos.passportapplet.PassportApplet.class);
-
-    CardTerminal terminal = CardTerminalSimulator.terminal(simulator);
-    Card card = terminal.connect("*");
-    CardChannel channel = card.getBasicChannel();
-
-    selectApplet(channel);
-
-    int[] tagList = job.getComTagList().stream().mapToInt(Integer::intValue).toArray();
-    COMFile comFile = new COMFile("1.7", "4.0.0", tagList);
-    byte[] comBytes = comFile.getEncoded();
-
-    SODArtifacts artifacts = PersonalizationSupport.buildArtifacts(job);
-
-    createEf(channel, EF_COM, comBytes.length, "CREATE EF.COM");
-    selectEf(channel, EF_COM, "SELECT EF.COM");
-    writeBinary(channel, comBytes, "WRITE EF.COM");
-
-    for (Map.Entry<Integer, byte[]> entry : artifacts.getDataGroupBytesMap().entrySet()) {
-      int dg = entry.getKey();
-      byte[] data = entry.getValue();
-      if (data == null || data.length == 0) {
-        continue;
-      }
-      short fid = (short) (0x0100 | (dg & 0xFF));
-      createEf(channel, fid, data.length, "CREATE EF.DG" + dg);
-      selectEf(channel, fid, "SELECT EF.DG" + dg);
-      writeBinary(channel, data, "WRITE EF.DG" + dg);
-    }
+    byte[] comBytes = PersonalizationSupport.buildComBytes(artifacts);
 
     byte[] cardAccessBytes = artifacts.getCardAccessBytes();
-    if (cardAccessBytes != null && cardAccessBytes.length > 0) {
-      createEf(channel, EF_CARD_ACCESS, cardAccessBytes.length, "CREATE EF.CardAccess");
-      selectEf(channel, EF_CARD_ACCESS, "SELECT EF.CardAccess");
-      writeBinary(channel, cardAccessBytes, "WRITE EF.CardAccess");
-    }
-
-    byte[] sodBytes = artifacts.getSodBytes();
-    createEf(channel, EF_SOD, sodBytes.length, "CREATE EF.SOD");
-    selectEf(channel, EF_SOD, "SELECT EF.SOD");
-    writeBinary(channel, sodBytes, "WRITE EF.SOD");
-
     boolean includeMrzSecret = !opts.omitSecrets && opts.includeMrzSecret;
-    if (includeMrzSecret) {
-      byte[] mrzSeed = IssuerSecretEncoder.encodeMrzSeed(job.getMrzInfo());
-      putData(channel, 0x00, 0x62, mrzSeed, "PUT MRZ TLV");
-    }
-
     boolean includePaceSecrets = !opts.omitSecrets && opts.includePaceSecrets;
-    if (includePaceSecrets) {
-      byte[] paceSecrets = IssuerSecretEncoder.encodePaceSecrets(opts.paceCan, opts.pacePin, opts.pacePuk);
-      if (paceSecrets != null) {
-        putData(channel, 0x00, 0x65, paceSecrets, "PUT PACE secrets TLV");
-      }
-    }
 
-    if (opts.openComSodReads != null) {
-      byte[] toggle = new byte[]{(byte) (opts.openComSodReads.booleanValue() ? 0x01 : 0x00)};
-      putData(channel, 0xDE, 0xFE, toggle,
-          opts.openComSodReads.booleanValue() ? "ENABLE open COM/SOD reads" : "DISABLE open COM/SOD reads");
+    long cardWriteStarted = System.nanoTime();
+    CardSimulator simulator = new CardSimulator();
+    AID aid = new AID(MRTD_AID, (short) 0, (byte) MRTD_AID.length);
+    boolean factoryLoaded = false;
+    if (opts.factoryLoad) {
+      PersonalizationImage image = buildFactoryImage(job, opts, artifacts, comBytes, includeMrzSecret, includePaceSecrets);
+      factoryLoaded = FactoryPersonalization.install(simulator, aid, image);
+    } else {
+      simulator.installApplet(aid, sos.passportapplet.PassportApplet.class);
+    }
+    ChipObservers.observeCommands();
+
+    CardTerminal terminal = null;
+    Card card;
+    if (opts.transport == SimTransport.DIRECT) {
+      card = new SimulatorCardService(simulator).card();
+    } else {
+      terminal = CardTerminalSimulator.terminal(simulator);
+      card = terminal.connect("*");
     }
+    CardChannel channel = card.getBasicChannel();
 
-    for (String lifecycle : job.getLifecycleTargets()) {
-      String normalized = lifecycle.toUpperCase(Locale.ROOT);
-      if ("PERSONALIZED".equals(normalized)) {
-        putData(channel, 0xDE, 0xAF, new byte[0], "SET LIFECYCLE → PERSONALIZED");
-      } else if ("LOCKED".equals(normalized) && !opts.leavePersonalized) {
-        putData(channel, 0xDE, 0xAD, new byte[0], "SET LIFECYCLE → LOCKED");
-      }
+    selectApplet(channel);
+
+    if (!factoryLoaded) {
+      personalizeOverApdus(channel, job, opts, artifacts, comBytes, includeMrzSecret, includePaceSecrets);
     }
 
     card.disconnect(false);
+    SimMetrics.issuanceStage("card_write", cardWriteStarted);
+    long exportStarted = System.nanoTime();
 
     Path facePreviewPath = null;
     if (opts.facePreview) {
-      byte[] dg2Bytes = artifacts.getDataGroupBytes(2);
-      if (dg2Bytes != null && dg2Bytes.length > 0) {
+      ByteBuffer dg2 = artifacts.getDataGroupBuffer(2);
+      if (dg2 != null && dg2.hasRemaining()) {
         Path previewDir = opts.facePreviewDirectory != null ? opts.facePreviewDirectory : outputDir.resolve("preview");
-        facePreviewPath = exportFacePreview(dg2Bytes, previewDir);
+        facePreviewPath = exportFacePreview(dg2, previewDir);
       }
     }
 
     Map<String, Object> manifest = buildManifest(job, artifacts, comBytes, cardAccessBytes, outputDir, facePreviewPath);
+    if (opts.factoryLoad) {
+      manifest.put("factoryLoaded", factoryLoaded);
+    }
+    Path ldsContainerPath = null;
+    if (opts.exportLdsContainer) {
+      ldsContainerPath = LdsContainer.fromArtifacts(artifacts).write(outputDir.resolve("lds-container.bin"));
+      manifest.put("ldsContainer", outputDir.relativize(ldsContainerPath).toString());
+    }
     Path manifestPath = writeManifest(outputDir, manifest);
+    SimMetrics.issuanceStage("export", exportStarted);
 
     PassiveAuthentication.Result paResult = null;
     if (opts.validate) {
-      paResult = runValidation(terminal, job, opts.validationTrustAnchors);
+      CardService validationService = terminal != null
+          ? new TerminalCardService(terminal)
+          : new SimulatorCardService(simulator);
+      paResult = runValidation(validationService, job, opts.validationTrustAnchors);
       if (paResult != null) {
         manifest.put("passiveAuthentication", toManifest(paResult));
         writeManifest(outputDir, manifest);
@@ -174,20 +163,119 @@ public final class IssuerSimulator {
         opts.pacePin,
         opts.pacePuk,
         opts.openComSodReads,
-        opts.leavePersonalized);
+        opts.leavePersonalized,
+        ldsContainerPath);
+  }
+
+  private static void personalizeOverApdus(CardChannel channel,
+                                          PersonalizationJob job,
+                                          Options opts,
+                                          SODArtifacts artifacts,
+                                          byte[] comBytes,
+                                          boolean includeMrzSecret,
+                                          boolean includePaceSecrets) throws Exception {
+    createEf(channel, EF_COM, comBytes.length, "CREATE EF.COM");
+    selectEf(channel, EF_COM, "SELECT EF.COM");
+    writeBinary(channel, comBytes, "WRITE EF.COM");
+
+    for (Map.Entry<Integer, ByteBuffer> entry : artifacts.getDataGroupBuffers().entrySet()) {
+      int dg = entry.getKey();
+      ByteBuffer data = entry.getValue();
+      if (data == null || !data.hasRemaining()) {
+        continue;
+      }
+      short fid = (short) (0x0100 | (dg & 0xFF));
+      createEf(channel, fid, data.remaining(), "CREATE EF.DG" + dg);
+      selectEf(channel, fid, "SELECT EF.DG" + dg);
+      writeBinary(channel, data, "WRITE EF.DG" + dg);
+    }
+
+    byte[] cardAccessBytes = artifacts.getCardAccessBytes();
+    if (cardAccessBytes != null && cardAccessBytes.length > 0) {
+      createEf(channel, EF_CARD_ACCESS, cardAccessBytes.length, "CREATE EF.CardAccess");
+      selectEf(channel, EF_CARD_ACCESS, "SELECT EF.CardAccess");
+      writeBinary(channel, cardAccessBytes, "WRITE EF.CardAccess");
+    }
+
+    byte[] sodBytes = artifacts.getSodBytes();
+    createEf(channel, EF_SOD, sodBytes.length, "CREATE EF.SOD");
+    selectEf(channel, EF_SOD, "SELECT EF.SOD");
+    writeBinary(channel, sodBytes, "WRITE EF.SOD");
+
+    IssuerSecretEncoder.Provisioning provisioning = provisioning(job, opts, includeMrzSecret, includePaceSecrets);
+    byte[] container = provisioning.encode();
+    if (container != null) {
+      ResponseAPDU response = channel.transmit(
+          new CommandAPDU(0x00, 0xDA, 0x00, IssuerSecretEncoder.P2_PROVISIONING, container));
+      if (response.getSW() == 0x9000) {
+        return;
+      }
+      if (response.getSW() != 0x6A86 && response.getSW() != 0x6D00) {
+        throw new CardException(String.format("PUT provisioning container failed: SW=%04X", response.getSW()));
+      }
+    }
+    for (IssuerSecretEncoder.Command command : provisioning.commands()) {
+      putData(channel, command.p1, command.p2, command.data, command.label);
+    }
+  }
+
+  /** Secrets, open-read policy and lifecycle target for one job, as one provisioning step. */
+  private static IssuerSecretEncoder.Provisioning provisioning(PersonalizationJob job,
+                                                               Options opts,
+                                                               boolean includeMrzSecret,
+                                                               boolean includePaceSecrets) {
+    IssuerSecretEncoder.Provisioning provisioning = IssuerSecretEncoder.provisioning();
+    if (includeMrzSecret) {
+      provisioning.mrzSeed(IssuerSecretEncoder.encodeMrzSeed(job.getMrzInfo()));
+    }
+    if (includePaceSecrets) {
+      provisioning.paceSecrets(IssuerSecretEncoder.encodePaceSecrets(opts.paceCan, opts.pacePin, opts.pacePuk));
+    }
+    provisioning.openComSodReads(opts.openComSodReads);
+    for (String lifecycle : job.getLifecycleTargets()) {
+      String normalized = lifecycle.toUpperCase(Locale.ROOT);
+      if ("PERSONALIZED".equals(normalized)) {
+        provisioning.personalized();
+      } else if ("LOCKED".equals(normalized) && !opts.leavePersonalized) {
+        provisioning.locked();
+      }
+    }
+    return provisioning;
+  }
+
+  /**
+   * Mirrors {@link #personalizeOverApdus} as a factory-load image: the same files followed by the
+   * same PUT DATA payloads in the same order.
+   */
+  private static PersonalizationImage buildFactoryImage(PersonalizationJob job,
+                                                        Options opts,
+                                                        SODArtifacts artifacts,
+                                                        byte[] comBytes,
+                                                        boolean includeMrzSecret,
+                                                        boolean includePaceSecrets) {
+    PersonalizationImage image = FactoryPersonalization.fromArtifacts(artifacts, comBytes);
+    IssuerSecretEncoder.Provisioning provisioning = provisioning(job, opts, includeMrzSecret, includePaceSecrets);
+    byte[] container = provisioning.encode();
+    if (container != null) {
+      image.addPutData(0x00, IssuerSecretEncoder.P2_PROVISIONING, container);
+    } else {
+      for (IssuerSecretEncoder.Command command : provisioning.commands()) {
+        image.addPutData(command.p1, command.p2, command.data);
+      }
+    }
+    return image;
   }
 
   private static boolean hasText(String value) {
     return value != null && !value.isBlank();
   }
 
-  private PassiveAuthentication.Result runValidation(CardTerminal terminal,
+  private PassiveAuthentication.Result runValidation(CardService cardService,
                                                      PersonalizationJob job,
                                                      List<Path> trustAnchors) throws Exception {
-    TerminalCardService terminalService = new TerminalCardService(terminal);
-    terminalService.open();
+    cardService.open();
     try {
-      CardService logging = new LoggingCardService(terminalService, null);
+      CardService logging = new LoggingCardService(cardService, null);
       logging.open();
       try {
         PassportService service = new PassportService(
@@ -208,7 +296,7 @@ public final class IssuerSimulator {
         logging.close();
       }
     } finally {
-      terminalService.close();
+      cardService.close();
     }
   }
 
@@ -224,12 +312,7 @@ public final class IssuerSimulator {
   }
 
   private static void createEf(CardChannel channel, short fid, int size, String label) throws CardException {
-    byte[] fcp = new byte[]{
-        (byte) 0x63, 0x04,
-        (byte) ((size >> 8) & 0xFF), (byte) (size & 0xFF),
-        (byte) ((fid >> 8) & 0xFF), (byte) (fid & 0xFF)
-    };
-    transmit(channel, 0x00, 0xE0, 0x00, 0x00, fcp, label);
+    transmit(channel, 0x00, 0xE0, 0x00, 0x00, EfCommands.createFileData(fid, size), label);
   }
 
   private static void selectEf(CardChannel channel, short fid, String label) throws CardException {
@@ -240,10 +323,23 @@ public final class IssuerSimulator {
   private static void writeBinary(CardChannel channel, byte[] data, String label) throws CardException {
     int offset = 0;
     while (offset < data.length) {
-      int len = Math.min(0xFF, data.length - offset);
-      byte[] chunk = java.util.Arrays.copyOfRange(data, offset, offset + len);
-      transmit(channel, 0x00, 0xD6, (offset >> 8) & 0xFF, offset & 0xFF, chunk,
-          label + String.format(" [%d..%d]", offset, offset + len));
+      int len = Math.min(EfCommands.maxChunk(offset), data.length - offset);
+      CommandAPDU update = EfCommands.updateBinary(offset, data, offset, len);
+      transmit(channel, update, label + String.format(" [%d..%d]", offset, offset + len));
+      offset += len;
+    }
+  }
+
+  /** As above for a (possibly read-only) view; copies one chunk at a time. */
+  private static void writeBinary(CardChannel channel, ByteBuffer data, String label) throws CardException {
+    ByteBuffer source = data.duplicate();
+    byte[] chunk = new byte[EfCommands.MAX_CHUNK];
+    int offset = 0;
+    while (source.hasRemaining()) {
+      int len = Math.min(EfCommands.maxChunk(offset), source.remaining());
+      source.get(chunk, 0, len);
+      CommandAPDU update = EfCommands.updateBinary(offset, chunk, 0, len);
+      transmit(channel, update, label + String.format(" [%d..%d]", offset, offset + len));
       offset += len;
     }
   }
@@ -261,7 +357,11 @@ public final class IssuerSimulator {
 
   private static void transmit(CardChannel channel, int cla, int ins, int p1, int p2, byte[] data, String label)
       throws CardException {
-    ResponseAPDU response = channel.transmit(new CommandAPDU(cla, ins, p1, p2, data));
+    transmit(channel, new CommandAPDU(cla, ins, p1, p2, data), label);
+  }
+
+  private static void transmit(CardChannel channel, CommandAPDU command, String label) throws CardException {
+    ResponseAPDU response = channel.transmit(command);
     if (response.getSW() != 0x9000) {
       throw new CardException(String.format("%s failed: SW=%04X", label, response.getSW()));
     }
@@ -292,18 +392,18 @@ public final class IssuerSimulator {
     manifest.put("lifecycleTargets", job.getLifecycleTargets());
 
     List<Map<String, Object>> dataGroups = new ArrayList<>();
-    for (Map.Entry<Integer, byte[]> entry : artifacts.getDataGroupBytesMap().entrySet()) {
+    for (Map.Entry<Integer, ByteBuffer> entry : artifacts.getDataGroupBuffers().entrySet()) {
       int dg = entry.getKey();
-      byte[] data = entry.getValue();
+      ByteBuffer data = entry.getValue();
       if (data == null) {
         continue;
       }
-      Path file = outputDir.resolve(String.format("EF.DG%d.bin", dg));
-      Files.write(file, data);
+      int length = data.remaining();
+      Path file = writeFile(outputDir.resolve(String.format("EF.DG%d.bin", dg)), data);
       Map<String, Object> entryMap = new LinkedHashMap<>();
       entryMap.put("dg", dg);
       entryMap.put("path", outputDir.relativize(file).toString());
-      entryMap.put("length", data.length);
+      entryMap.put("length", length);
       dataGroups.add(entryMap);
     }
     manifest.put("dataGroups", dataGroups);
@@ -312,8 +412,7 @@ public final class IssuerSimulator {
     Files.write(comPath, comBytes);
     manifest.put("efCom", outputDir.relativize(comPath).toString());
 
-    Path sodPath = outputDir.resolve("EF.SOD.bin");
-    Files.write(sodPath, artifacts.getSodBytes());
+    Path sodPath = writeFile(outputDir.resolve("EF.SOD.bin"), artifacts.getSodBuffer());
     manifest.put("efSod", outputDir.relativize(sodPath).toString());
 
     if (cardAccessBytes != null && cardAccessBytes.length > 0) {
@@ -371,12 +470,24 @@ public final class IssuerSimulator {
     return map;
   }
 
-  private Path exportFacePreview(byte[] dg2Bytes, Path directory) throws IOException {
-    if (dg2Bytes == null || dg2Bytes.length == 0 || directory == null) {
+  /** Streams a read-only view to {@code target} without copying it onto the heap first. */
+  private static Path writeFile(Path target, ByteBuffer data) throws IOException {
+    ByteBuffer source = data.duplicate();
+    try (FileChannel channel = FileChannel.open(target, StandardOpenOption.CREATE,
+        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      while (source.hasRemaining()) {
+        channel.write(source);
+      }
+    }
+    return target;
+  }
+
+  private Path exportFacePreview(ByteBuffer dg2Bytes, Path directory) throws IOException {
+    if (dg2Bytes == null || !dg2Bytes.hasRemaining() || directory == null) {
       return null;
     }
     Files.createDirectories(directory);
-    try (java.io.ByteArrayInputStream in = new java.io.ByteArrayInputStream(dg2Bytes)) {
+    try (ByteBufferInputStream in = new ByteBufferInputStream(dg2Bytes)) {
       org.jmrtd.lds.icao.DG2File dg2 = new org.jmrtd.lds.icao.DG2File(in);
       List<org.jmrtd.lds.iso19794.FaceInfo> faces = dg2.getFaceInfos();
       for (int i = 0; i < faces.size(); i++) {
@@ -432,6 +543,9 @@ public final class IssuerSimulator {
     private boolean facePreview;
     private Path facePreviewDirectory;
     private List<Path> validationTrustAnchors = List.of();
+    private boolean exportLdsContainer;
+    private boolean factoryLoad;
+    private SimTransport transport = SimTransport.SMARTCARDIO;
 
     public Options outputDirectory(Path outputDirectory) {
       this.outputDirectory = outputDirectory;
@@ -497,6 +611,30 @@ public final class IssuerSimulator {
       this.validationTrustAnchors = validationTrustAnchors != null ? List.copyOf(validationTrustAnchors) : List.of();
       return this;
     }
+
+    public Options exportLdsContainer(boolean exportLdsContainer) {
+      this.exportLdsContainer = exportLdsContainer;
+      return this;
+    }
+
+    /**
+     * Loads the personalization image directly into the applet at install time instead of
+     * streaming it over CREATE FILE / UPDATE BINARY / PUT DATA. Falls back to APDUs when the
+     * simulator does not honour the install hook.
+     */
+    public Options factoryLoad(boolean factoryLoad) {
+      this.factoryLoad = factoryLoad;
+      return this;
+    }
+
+    /**
+     * {@link SimTransport#DIRECT} personalizes and validates without a jcardsim terminal; the
+     * result then carries no {@link CardTerminal}.
+     */
+    public Options transport(SimTransport transport) {
+      this.transport = Objects.requireNonNull(transport, "transport");
+      return this;
+    }
   }
 
   public static final class Result {
@@ -518,6 +656,7 @@ public final class IssuerSimulator {
     private final String pacePuk;
     private final Boolean openComSodReadsPolicy;
     private final boolean leavePersonalized;
+    private final Path ldsContainerPath;
 
     Result(PersonalizationJob job,
            SODArtifacts artifacts,
@@ -536,7 +675,8 @@ public final class IssuerSimulator {
            String pacePin,
            String pacePuk,
            Boolean openComSodReadsPolicy,
-           boolean leavePersonalized) {
+           boolean leavePersonalized,
+           Path ldsContainerPath) {
       this.job = job;
       this.artifacts = artifacts;
       this.outputDirectory = outputDirectory;
@@ -555,6 +695,7 @@ public final class IssuerSimulator {
       this.pacePuk = pacePuk;
       this.openComSodReadsPolicy = openComSodReadsPolicy;
       this.leavePersonalized = leavePersonalized;
+      this.ldsContainerPath = ldsContainerPath;
     }
 
     public PersonalizationJob getJob() {
@@ -589,6 +730,10 @@ public final class IssuerSimulator {
       return Optional.ofNullable(passiveAuthentication);
     }
 
+    public Optional<Path> getLdsContainerPath() {
+      return Optional.ofNullable(ldsContainerPath);
+    }
+
     CardSimulator getSimulator() {
       return simulator;
     }
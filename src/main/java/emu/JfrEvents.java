@@ -0,0 +1,204 @@
+package emu;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.util.List;
+
+import jdk.jfr.Category;
+import jdk.jfr.Configuration;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Recording;
+import jdk.jfr.StackTrace;
+
+/**
+ * Java Flight Recorder events for the reader session, the APDU link and the simulated chip.
+ * Every type is disabled unless a recording turns it on (by name, e.g.
+ * {@code emu.ApduExchange#enabled=true}, or with {@code --jfr <file>}), and while disabled an
+ * emit site costs an allocation the JIT removes plus one flag check.
+ */
+final class JfrEvents {
+
+  static final String PROTOCOL_STEP = "emu.ProtocolStep";
+  static final String APDU_EXCHANGE = "emu.ApduExchange";
+  static final String CHIP_COMMAND = "emu.ChipCommand";
+
+  private static final String CATEGORY = "Passport Emulator";
+
+  private JfrEvents() {
+  }
+
+  /**
+   * Starts a step that reports the APDU bytes {@code traffic} exchanges until it finishes. The
+   * step is also a span in the {@link SessionTracer} trace, when one is being recorded.
+   */
+  static ProtocolStep beginStep(LoggingCardService traffic) {
+    ProtocolStep event = new ProtocolStep();
+    event.traceStart = SessionTracer.begin();
+    if (event.isEnabled() || event.traceStart != 0L) {
+      event.traffic = traffic;
+      event.baseline = traffic != null ? traffic.getBytesExchanged() : 0L;
+      event.begin();
+    }
+    return event;
+  }
+
+  /**
+   * Starts a recording with the JDK's default settings plus the emulator's events when
+   * {@code --jfr <file>} is in {@code args}. Returns {@code null} otherwise.
+   */
+  static FlightRecording fromArguments(List<String> args) throws IOException {
+    String file = null;
+    for (int i = 0; i < args.size(); i++) {
+      if (args.get(i).equals("--jfr")) {
+        if (i + 1 >= args.size()) {
+          throw new IllegalArgumentException("--jfr requires a value");
+        }
+        file = args.get(i + 1);
+      } else if (args.get(i).startsWith("--jfr=")) {
+        file = args.get(i).substring("--jfr=".length());
+      }
+    }
+    return file != null ? FlightRecording.start(Path.of(file)) : null;
+  }
+
+  /** One authentication protocol, Passive Authentication or data group read. */
+  @Name(PROTOCOL_STEP)
+  @Label("Protocol Step")
+  @Description("PACE, BAC, CA, AA, TA, PA or one data group read, as seen by the reader")
+  @Category(CATEGORY)
+  @Enabled(false)
+  @StackTrace(false)
+  static final class ProtocolStep extends Event {
+
+    @Label("Step")
+    String step;
+
+    @Label("Outcome")
+    String outcome;
+
+    @Label("Bytes")
+    @Description("APDU bytes exchanged during the step, or the size of the file read")
+    @DataAmount
+    long bytes;
+
+    private transient LoggingCardService traffic;
+    private transient long baseline;
+    private transient boolean finished;
+    private transient long traceStart;
+
+    /** Commits with the bytes exchanged since {@link JfrEvents#beginStep}. */
+    void finish(String step, String outcome) {
+      if (isEnabled() || traceStart != 0L) {
+        finish(step, outcome, traffic != null ? traffic.getBytesExchanged() - baseline : 0L);
+      }
+    }
+
+    void finish(String step, String outcome, long bytes) {
+      if (finished) {
+        return;
+      }
+      finished = true;
+      if (traceStart != 0L) {
+        SessionTracer.end("step", step, traceStart, "outcome", outcome, "bytes", bytes);
+      }
+      end();
+      if (shouldCommit()) {
+        this.step = step;
+        this.outcome = outcome;
+        this.bytes = bytes;
+        commit();
+      }
+    }
+  }
+
+  /** One command/response pair on the reader side of the link. */
+  @Name(APDU_EXCHANGE)
+  @Label("APDU Exchange")
+  @Category(CATEGORY)
+  @Enabled(false)
+  @StackTrace(false)
+  static final class ApduExchange extends Event {
+
+    @Label("INS")
+    String ins;
+
+    @Label("Status Word")
+    String sw;
+
+    @Label("Command Bytes")
+    @DataAmount
+    int commandBytes;
+
+    @Label("Response Bytes")
+    @DataAmount
+    int responseBytes;
+
+    @Label("Secure Messaging")
+    boolean protectedApdu;
+  }
+
+  /** One command as processed by the applet, including secure messaging unwrap and wrap. */
+  @Name(CHIP_COMMAND)
+  @Label("Chip Command")
+  @Category(CATEGORY)
+  @Enabled(false)
+  @StackTrace(false)
+  static final class ChipCommand extends Event {
+
+    @Label("INS")
+    String ins;
+
+    @Label("Status Word")
+    String sw;
+
+    @Label("SM Mode")
+    @Description("PACE, BAC/CA, or none for a plain command")
+    String smMode;
+
+    @Label("Response Bytes")
+    @DataAmount
+    int responseBytes;
+  }
+
+  /** A recording written to a file when closed. */
+  static final class FlightRecording implements AutoCloseable {
+    private final Recording recording;
+
+    private FlightRecording(Recording recording) {
+      this.recording = recording;
+    }
+
+    static FlightRecording start(Path destination) throws IOException {
+      Recording recording;
+      try {
+        recording = new Recording(Configuration.getConfiguration("default"));
+      } catch (ParseException e) {
+        throw new IOException("Unable to load the default JFR configuration", e);
+      }
+      recording.setName("emu");
+      recording.enable(PROTOCOL_STEP);
+      recording.enable(APDU_EXCHANGE);
+      recording.enable(CHIP_COMMAND);
+      Path parent = destination.toAbsolutePath().getParent();
+      if (parent != null) {
+        Files.createDirectories(parent);
+      }
+      recording.setDestination(destination);
+      recording.start();
+      return new FlightRecording(recording);
+    }
+
+    @Override
+    public void close() {
+      recording.stop();
+      recording.close();
+    }
+  }
+}
@@ -0,0 +1,86 @@
+package emu;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+
+import net.sf.scuba.smartcards.CardFileInputStream;
+import net.sf.scuba.smartcards.CardServiceException;
+import net.sf.scuba.smartcards.CommandAPDU;
+import net.sf.scuba.smartcards.ResponseAPDU;
+
+import org.jmrtd.PassportService;
+import org.jmrtd.protocol.SecureMessagingWrapper;
+
+/**
+ * Opens EFs through a {@link PassportService}, reading files longer than 65535 bytes itself.
+ * jmrtd 0.8.3 encodes the odd-INS READ BINARY offset as a two-byte DO'54', so its streams wrap
+ * around past 64 KB. Those files are read with {@link EfCommands#readBinary} (three-byte
+ * offsets), each command going through the session's secure messaging wrapper.
+ */
+public final class LargeEfReader {
+
+  /** Longest file left to jmrtd's own input stream. */
+  static final int MAX_JMRTD_LENGTH = 0xFFFF;
+
+  /** Bytes per READ BINARY; SM and the '53' wrapper still fit a short response. */
+  static final int BLOCK_SIZE = 0xDF;
+
+  private LargeEfReader() {
+  }
+
+  /**
+   * Like {@link PassportService#getInputStream(short)}, but correct for files beyond 64 KB. The
+   * one-argument overload is deprecated, but it is the only one that reads with the block size the
+   * service was constructed with; jmrtd has no getter for it.
+   */
+  @SuppressWarnings("deprecation")
+  public static InputStream open(PassportService service, short fid) throws CardServiceException {
+    CardFileInputStream in = service.getInputStream(fid);
+    if (in == null || in.getLength() <= MAX_JMRTD_LENGTH) {
+      return in;
+    }
+    return new ByteArrayInputStream(read(service, fid, in.getLength()));
+  }
+
+  static byte[] read(PassportService service, short fid, int length) throws CardServiceException {
+    byte[] select = {(byte) ((fid >> 8) & 0xFF), (byte) (fid & 0xFF)};
+    transmit(service, new CommandAPDU(0x00, 0xA4, 0x02, 0x0C, select), fid, 0);
+    byte[] contents = new byte[length];
+    int offset = 0;
+    while (offset < length) {
+      int le = Math.min(BLOCK_SIZE, length - offset);
+      ResponseAPDU response = transmit(service,
+          new CommandAPDU(EfCommands.readBinary(offset, le).getBytes()), fid, offset);
+      byte[] chunk;
+      try {
+        chunk = EfCommands.unwrapReadData(offset, response.getData());
+      } catch (IllegalArgumentException e) {
+        throw new CardServiceException(String.format("EF %04X at offset %d: %s", fid & 0xFFFF, offset,
+            e.getMessage()), e);
+      }
+      if (chunk.length == 0) {
+        throw new CardServiceException(String.format("EF %04X ended at offset %d of %d",
+            fid & 0xFFFF, offset, length));
+      }
+      int count = Math.min(chunk.length, length - offset);
+      System.arraycopy(chunk, 0, contents, offset, count);
+      offset += count;
+    }
+    return contents;
+  }
+
+  private static ResponseAPDU transmit(PassportService service, CommandAPDU command, short fid, int offset)
+      throws CardServiceException {
+    SecureMessagingWrapper wrapper = service.getWrapper();
+    ResponseAPDU response = service.transmit(wrapper != null ? wrapper.wrap(command) : command);
+    if (wrapper != null) {
+      response = wrapper.unwrap(response);
+    }
+    int sw = response.getSW();
+    if (sw != 0x9000) {
+      throw new CardServiceException(String.format("EF %04X: INS %02X at offset %d failed: SW=%04X",
+          fid & 0xFFFF, command.getINS() & 0xFF, offset, sw), sw);
+    }
+    return response;
+  }
+}
@@ -0,0 +1,458 @@
+package emu;
+
+import org.jmrtd.lds.icao.MRZInfo;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import emu.PersonalizationSupport.SODArtifacts;
+
+/**
+ * Single-file, indexed container for a complete LDS image plus optional chip key material.
+ *
+ * <p>Layout (big endian):</p>
+ * <pre>
+ *   header   : magic "EMRTDLDS" (8) | version u16 | entry count u16 | reserved u32
+ *   index    : per entry id u16 | reserved u16 | offset u64 | length u32 | SHA-256 (32)
+ *   payloads : raw entry bytes at the offsets recorded in the index
+ * </pre>
+ *
+ * <p>Entry ids reuse the ICAO file identifiers for LDS files (DGn = {@code 0x0100 | n}, EF.COM
+ * {@code 0x011E}, EF.SOD {@code 0x011D}, EF.CardAccess {@code 0x011C}); key material and MRZ
+ * metadata use ids in the {@code 0xF000} range. Opened containers are memory mapped and every
+ * accessor hands out read-only slices of the mapping, so DG payloads are never copied onto the
+ * heap in bulk.</p>
+ */
+public final class LdsContainer {
+
+  public static final int ENTRY_CARD_ACCESS = 0x011C;
+  public static final int ENTRY_SOD = 0x011D;
+  public static final int ENTRY_COM = 0x011E;
+  public static final int ENTRY_CA_PRIVATE_KEY = 0xF001;
+  public static final int ENTRY_CA_PUBLIC_KEY = 0xF002;
+  public static final int ENTRY_AA_PRIVATE_KEY = 0xF003;
+  public static final int ENTRY_AA_PUBLIC_KEY = 0xF004;
+  public static final int ENTRY_DOCUMENT_NUMBER = 0xF101;
+  public static final int ENTRY_DATE_OF_BIRTH = 0xF102;
+  public static final int ENTRY_DATE_OF_EXPIRY = 0xF103;
+
+  private static final byte[] MAGIC = "EMRTDLDS".getBytes(StandardCharsets.US_ASCII);
+  private static final int VERSION = 1;
+  private static final int HEADER_LENGTH = 16;
+  private static final int DIGEST_LENGTH = 32;
+  private static final int INDEX_ENTRY_LENGTH = 16 + DIGEST_LENGTH;
+
+  private final Path path;
+  private final ByteBuffer mapping;
+  private final SortedMap<Integer, IndexEntry> index;
+
+  private LdsContainer(Path path, ByteBuffer mapping, SortedMap<Integer, IndexEntry> index) {
+    this.path = path;
+    this.mapping = mapping;
+    this.index = index;
+  }
+
+  public static int dataGroupEntry(int dataGroupNumber) {
+    if (dataGroupNumber < 1 || dataGroupNumber > 16) {
+      throw new IllegalArgumentException("Data group must be between 1 and 16: " + dataGroupNumber);
+    }
+    return 0x0100 | dataGroupNumber;
+  }
+
+  /** Maps {@code path} read-only and parses its index. */
+  public static LdsContainer open(Path path) throws IOException {
+    MappedByteBuffer mapped;
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+    ByteBuffer buffer = mapped.asReadOnlyBuffer().order(ByteOrder.BIG_ENDIAN);
+    if (buffer.remaining() < HEADER_LENGTH) {
+      throw new IOException("LDS container too short: " + path);
+    }
+    byte[] magic = new byte[MAGIC.length];
+    buffer.get(magic);
+    if (!Arrays.equals(magic, MAGIC)) {
+      throw new IOException("Not an LDS container: " + path);
+    }
+    int version = buffer.getShort() & 0xFFFF;
+    if (version != VERSION) {
+      throw new IOException("Unsupported LDS container version " + version + ": " + path);
+    }
+    int count = buffer.getShort() & 0xFFFF;
+    buffer.getInt();
+    long indexEnd = HEADER_LENGTH + (long) count * INDEX_ENTRY_LENGTH;
+    if (indexEnd > buffer.limit()) {
+      throw new IOException("LDS container index truncated: " + path);
+    }
+    SortedMap<Integer, IndexEntry> index = new TreeMap<>();
+    for (int i = 0; i < count; i++) {
+      int id = buffer.getShort() & 0xFFFF;
+      buffer.getShort();
+      long offset = buffer.getLong();
+      long length = buffer.getInt() & 0xFFFFFFFFL;
+      byte[] digest = new byte[DIGEST_LENGTH];
+      buffer.get(digest);
+      if (offset < indexEnd || length > Integer.MAX_VALUE || offset + length > buffer.limit()) {
+        throw new IOException(String.format("LDS container entry %04X out of bounds: %s", id, path));
+      }
+      if (index.put(id, new IndexEntry((int) offset, (int) length, digest)) != null) {
+        throw new IOException(String.format("Duplicate LDS container entry %04X: %s", id, path));
+      }
+    }
+    return new LdsContainer(path, buffer, Collections.unmodifiableSortedMap(index));
+  }
+
+  public Path getPath() {
+    return path;
+  }
+
+  public boolean contains(int entryId) {
+    return index.containsKey(entryId);
+  }
+
+  /** Returns a read-only view of the entry, or {@code null} when absent. */
+  public ByteBuffer getEntry(int entryId) {
+    IndexEntry entry = index.get(entryId);
+    if (entry == null) {
+      return null;
+    }
+    ByteBuffer view = mapping.duplicate();
+    view.limit(entry.offset + entry.length);
+    view.position(entry.offset);
+    return view.slice().asReadOnlyBuffer();
+  }
+
+  public ByteBuffer getCom() {
+    return getEntry(ENTRY_COM);
+  }
+
+  public ByteBuffer getSod() {
+    return getEntry(ENTRY_SOD);
+  }
+
+  public ByteBuffer getCardAccess() {
+    return getEntry(ENTRY_CARD_ACCESS);
+  }
+
+  public ByteBuffer getDataGroup(int dataGroupNumber) {
+    return getEntry(dataGroupEntry(dataGroupNumber));
+  }
+
+  /** Returns read-only views of all present data groups keyed by DG number. */
+  public SortedMap<Integer, ByteBuffer> getDataGroups() {
+    SortedMap<Integer, ByteBuffer> dataGroups = new TreeMap<>();
+    for (int dg = 1; dg <= 16; dg++) {
+      ByteBuffer view = getEntry(dataGroupEntry(dg));
+      if (view != null) {
+        dataGroups.put(dg, view);
+      }
+    }
+    return Collections.unmodifiableSortedMap(dataGroups);
+  }
+
+  public String getDocumentNumber() {
+    return getText(ENTRY_DOCUMENT_NUMBER);
+  }
+
+  public String getDateOfBirth() {
+    return getText(ENTRY_DATE_OF_BIRTH);
+  }
+
+  public String getDateOfExpiry() {
+    return getText(ENTRY_DATE_OF_EXPIRY);
+  }
+
+  /** Decodes the EC Chip Authentication key pair, or returns {@code null} when not stored. */
+  public KeyPair getChipAuthenticationKeyPair() throws IOException {
+    return decodeKeyPair("EC", ENTRY_CA_PUBLIC_KEY, ENTRY_CA_PRIVATE_KEY);
+  }
+
+  /** Decodes the RSA Active Authentication key pair, or returns {@code null} when not stored. */
+  public KeyPair getActiveAuthenticationKeyPair() throws IOException {
+    return decodeKeyPair("RSA", ENTRY_AA_PUBLIC_KEY, ENTRY_AA_PRIVATE_KEY);
+  }
+
+  /** Recomputes every entry digest and returns the ids whose contents do not match the index. */
+  public List<Integer> verifyDigests() {
+    List<Integer> mismatches = new ArrayList<>();
+    for (Map.Entry<Integer, IndexEntry> entry : index.entrySet()) {
+      MessageDigest digest = sha256();
+      digest.update(getEntry(entry.getKey()));
+      if (!MessageDigest.isEqual(digest.digest(), entry.getValue().digest)) {
+        mismatches.add(entry.getKey());
+      }
+    }
+    return mismatches;
+  }
+
+  /** Exposes the LDS as a profile backed by read-only slices of the mapping; nothing is copied. */
+  public RealPassportProfile toRealPassportProfile() {
+    return RealPassportProfile.fromBuffers(
+        getDocumentNumber(),
+        getDateOfBirth(),
+        getDateOfExpiry(),
+        getDataGroups(),
+        getCom(),
+        getSod(),
+        getCardAccess());
+  }
+
+  public static Writer writer() {
+    return new Writer();
+  }
+
+  /** Prepares a writer holding the issuer output and the chip keys needed for CA/AA. */
+  public static Writer fromArtifacts(SODArtifacts artifacts) {
+    Writer writer = new Writer();
+    PersonalizationJob job = artifacts.getJob();
+    writer.com(PersonalizationSupport.buildComBytes(artifacts));
+    for (Map.Entry<Integer, ByteBuffer> entry : artifacts.getDataGroupBuffers().entrySet()) {
+      writer.dataGroup(entry.getKey(), entry.getValue());
+    }
+    writer.sod(artifacts.getSodBuffer());
+    writer.cardAccess(artifacts.getCardAccessBuffer());
+    if (job != null && job.getMrzInfo() != null) {
+      MRZInfo mrz = job.getMrzInfo();
+      writer.mrz(
+          MrzUtil.ensureDocumentNumberLength(mrz.getDocumentNumber(), mrz.getDocumentCode()),
+          mrz.getDateOfBirth(),
+          mrz.getDateOfExpiry());
+    }
+    writer.chipAuthenticationKeyPair(artifacts.getChipAuthKeyPair());
+    writer.activeAuthenticationKeyPair(artifacts.getAaKeyPair());
+    return writer;
+  }
+
+  /** Prepares a writer holding a captured passport profile (no private keys are available). */
+  public static Writer fromProfile(RealPassportProfile profile) {
+    Writer writer = new Writer();
+    writer.com(profile.getComBuffer());
+    for (Map.Entry<Integer, ByteBuffer> entry : profile.getDataGroupBuffers().entrySet()) {
+      writer.dataGroup(entry.getKey(), entry.getValue());
+    }
+    writer.sod(profile.getSodBuffer());
+    writer.cardAccess(profile.getCardAccessBuffer());
+    writer.mrz(profile.getDocumentNumber(), profile.getDateOfBirth(), profile.getDateOfExpiry());
+    return writer;
+  }
+
+  private String getText(int entryId) {
+    ByteBuffer view = getEntry(entryId);
+    return view != null ? StandardCharsets.UTF_8.decode(view).toString() : null;
+  }
+
+  private KeyPair decodeKeyPair(String algorithm, int publicId, int privateId) throws IOException {
+    ByteBuffer publicView = getEntry(publicId);
+    ByteBuffer privateView = getEntry(privateId);
+    if (publicView == null && privateView == null) {
+      return null;
+    }
+    try {
+      KeyFactory factory = KeyFactory.getInstance(algorithm);
+      PublicKey publicKey = publicView != null
+          ? factory.generatePublic(new X509EncodedKeySpec(toBytes(publicView)))
+          : null;
+      PrivateKey privateKey = privateView != null
+          ? factory.generatePrivate(new PKCS8EncodedKeySpec(toBytes(privateView)))
+          : null;
+      return new KeyPair(publicKey, privateKey);
+    } catch (Exception e) {
+      throw new IOException("Failed to decode " + algorithm + " key material from " + path, e);
+    }
+  }
+
+  private static byte[] toBytes(ByteBuffer view) {
+    if (view == null) {
+      return null;
+    }
+    byte[] bytes = new byte[view.remaining()];
+    view.duplicate().get(bytes);
+    return bytes;
+  }
+
+  private static MessageDigest sha256() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 not available", e);
+    }
+  }
+
+  private static final class IndexEntry {
+    final int offset;
+    final int length;
+    final byte[] digest;
+
+    IndexEntry(int offset, int length, byte[] digest) {
+      this.offset = offset;
+      this.length = length;
+      this.digest = digest;
+    }
+  }
+
+  /**
+   * Collects entries in memory and writes them as one container file. Arrays are copied on
+   * {@code put}; buffers are kept as read-only views and streamed to disk without copying.
+   */
+  public static final class Writer {
+    private final SortedMap<Integer, ByteBuffer> entries = new TreeMap<>();
+
+    private Writer() {
+    }
+
+    public Writer put(int entryId, byte[] data) {
+      return put(entryId, data != null ? ByteBuffer.wrap(data.clone()) : null);
+    }
+
+    /** Stores a view of the remaining bytes of {@code data}; callers must not modify them later. */
+    public Writer put(int entryId, ByteBuffer data) {
+      if (entryId < 0 || entryId > 0xFFFF) {
+        throw new IllegalArgumentException("Entry id must fit in 16 bits: " + entryId);
+      }
+      if (data == null || !data.hasRemaining()) {
+        entries.remove(entryId);
+      } else {
+        entries.put(entryId, data.slice().asReadOnlyBuffer());
+      }
+      return this;
+    }
+
+    public Writer com(byte[] data) {
+      return put(ENTRY_COM, data);
+    }
+
+    public Writer com(ByteBuffer data) {
+      return put(ENTRY_COM, data);
+    }
+
+    public Writer sod(byte[] data) {
+      return put(ENTRY_SOD, data);
+    }
+
+    public Writer sod(ByteBuffer data) {
+      return put(ENTRY_SOD, data);
+    }
+
+    public Writer cardAccess(byte[] data) {
+      return put(ENTRY_CARD_ACCESS, data);
+    }
+
+    public Writer cardAccess(ByteBuffer data) {
+      return put(ENTRY_CARD_ACCESS, data);
+    }
+
+    public Writer dataGroup(int dataGroupNumber, byte[] data) {
+      return put(dataGroupEntry(dataGroupNumber), data);
+    }
+
+    public Writer dataGroup(int dataGroupNumber, ByteBuffer data) {
+      return put(dataGroupEntry(dataGroupNumber), data);
+    }
+
+    public Writer mrz(String documentNumber, String dateOfBirth, String dateOfExpiry) {
+      put(ENTRY_DOCUMENT_NUMBER, utf8(documentNumber));
+      put(ENTRY_DATE_OF_BIRTH, utf8(dateOfBirth));
+      return put(ENTRY_DATE_OF_EXPIRY, utf8(dateOfExpiry));
+    }
+
+    public Writer chipAuthenticationKeyPair(KeyPair keyPair) {
+      return keyPair(ENTRY_CA_PUBLIC_KEY, ENTRY_CA_PRIVATE_KEY, keyPair);
+    }
+
+    public Writer activeAuthenticationKeyPair(KeyPair keyPair) {
+      return keyPair(ENTRY_AA_PUBLIC_KEY, ENTRY_AA_PRIVATE_KEY, keyPair);
+    }
+
+    /**
+     * Writes the container via a sibling temporary file that is moved over {@code target}, atomically
+     * where the file system supports it, so readers never see a partially written container.
+     */
+    public Path write(Path target) throws IOException {
+      Path parent = target.toAbsolutePath().getParent();
+      if (parent != null) {
+        Files.createDirectories(parent);
+      }
+      int count = entries.size();
+      ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH + count * INDEX_ENTRY_LENGTH)
+          .order(ByteOrder.BIG_ENDIAN);
+      header.put(MAGIC);
+      header.putShort((short) VERSION);
+      header.putShort((short) count);
+      header.putInt(0);
+      long offset = header.capacity();
+      for (Map.Entry<Integer, ByteBuffer> entry : entries.entrySet()) {
+        ByteBuffer data = entry.getValue();
+        MessageDigest digest = sha256();
+        digest.update(data.duplicate());
+        header.putShort((short) entry.getKey().intValue());
+        header.putShort((short) 0);
+        header.putLong(offset);
+        header.putInt(data.remaining());
+        header.put(digest.digest());
+        offset += data.remaining();
+      }
+      header.flip();
+
+      Path temp = Files.createTempFile(parent, target.getFileName().toString(), ".tmp");
+      try {
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING)) {
+          writeFully(channel, header);
+          for (ByteBuffer data : entries.values()) {
+            writeFully(channel, data.duplicate());
+          }
+          channel.force(false);
+        }
+        try {
+          Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+          Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+      } finally {
+        Files.deleteIfExists(temp);
+      }
+      return target;
+    }
+
+    private Writer keyPair(int publicId, int privateId, KeyPair keyPair) {
+      PublicKey publicKey = keyPair != null ? keyPair.getPublic() : null;
+      PrivateKey privateKey = keyPair != null ? keyPair.getPrivate() : null;
+      put(publicId, publicKey != null ? publicKey.getEncoded() : null);
+      return put(privateId, privateKey != null ? privateKey.getEncoded() : null);
+    }
+
+    private static byte[] utf8(String value) {
+      return value != null ? value.getBytes(StandardCharsets.UTF_8) : null;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+    }
+  }
+}
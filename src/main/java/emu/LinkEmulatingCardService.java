@@ -0,0 +1,126 @@
+package emu;
+
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.locks.LockSupport;
+
+import net.sf.scuba.smartcards.CardService;
+import net.sf.scuba.smartcards.CardServiceException;
+import net.sf.scuba.smartcards.CommandAPDU;
+import net.sf.scuba.smartcards.ResponseAPDU;
+
+/**
+ * Decorator that makes each APDU take as long as it would over a contactless link described
+ * by a {@link LinkProfile}. The simulated chip's own time counts toward the modelled time, so
+ * only the difference is waited. With a profile that isn't real time, nothing waits, and
+ * {@link #getModeledNanos()} forecasts how long the session would take on a real reader.
+ */
+final class LinkEmulatingCardService extends CardService {
+
+  private final CardService delegate;
+  private final LinkProfile profile;
+  private final SplittableRandom random;
+  private long modeledNanos;
+  private long exchanges;
+  private long retransmissions;
+
+  LinkEmulatingCardService(CardService delegate, LinkProfile profile) {
+    this.delegate = delegate;
+    this.profile = profile;
+    this.random = profile.getSeed() != null
+        ? new SplittableRandom(profile.getSeed())
+        : new SplittableRandom(new Random().nextLong());
+  }
+
+  @Override
+  public void open() throws CardServiceException {
+    delegate.open();
+  }
+
+  @Override
+  public boolean isOpen() {
+    return delegate.isOpen();
+  }
+
+  @Override
+  public void close() {
+    delegate.close();
+  }
+
+  @Override
+  public boolean isConnectionLost(Exception e) {
+    try {
+      return delegate.isConnectionLost(e);
+    } catch (AbstractMethodError error) {
+      // Same fallback as LoggingCardService for services that predate the hook.
+      return false;
+    }
+  }
+
+  @Override
+  public byte[] getATR() throws CardServiceException {
+    return delegate.getATR();
+  }
+
+  @Override
+  public ResponseAPDU transmit(CommandAPDU apdu) throws CardServiceException {
+    long started = System.nanoTime();
+    ResponseAPDU response = delegate.transmit(apdu);
+    int responseBytes = response.getBytes().length;
+    long modeled = profile.exchangeNanos(apdu.getINS(), apdu.getBytes().length, responseBytes,
+        (apdu.getCLA() & 0x0C) == 0x0C);
+    double jitter = profile.getJitter();
+    if (jitter > 0) {
+      modeled = Math.round(modeled * (1 + jitter * (2 * random.nextDouble() - 1)));
+    }
+    int losses = 0;
+    while (profile.getLossProbability() > 0 && random.nextDouble() < profile.getLossProbability()) {
+      losses++;
+      if (losses > profile.getMaxRetries()) {
+        break;
+      }
+      modeled += profile.retransmissionNanos(responseBytes);
+    }
+    exchanges++;
+    retransmissions += Math.min(losses, profile.getMaxRetries());
+    modeledNanos += modeled;
+    waitUntil(started + modeled);
+    if (losses > profile.getMaxRetries()) {
+      throw new CardServiceException(String.format(
+          "Emulated link timeout: INS %02X response lost %d times", apdu.getINS() & 0xFF, losses));
+    }
+    return response;
+  }
+
+  /** Total modelled link and chip time so far. */
+  long getModeledNanos() {
+    return modeledNanos;
+  }
+
+  long getExchanges() {
+    return exchanges;
+  }
+
+  /** Lost responses that were recovered by retransmission. */
+  long getRetransmissions() {
+    return retransmissions;
+  }
+
+  LinkProfile getProfile() {
+    return profile;
+  }
+
+  private void waitUntil(long deadline) {
+    if (!profile.isRealTime()) {
+      return;
+    }
+    long remaining;
+    while ((remaining = deadline - System.nanoTime()) > 0) {
+      LockSupport.parkNanos(remaining);
+      if (Thread.interrupted()) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+    }
+  }
+}
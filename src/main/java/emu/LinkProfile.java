@@ -0,0 +1,357 @@
+package emu;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Timing model of a contactless ISO/IEC 14443-4 link and the chip behind it, used by
+ * {@link LinkEmulatingCardService}. An APDU is split into I-blocks of at most FSC (reader to
+ * card) or FSD (card to reader) bytes. Each block carries a PCB byte and a CRC, every byte
+ * costs nine bit times (eight data bits plus parity), and every frame waits a frame delay
+ * before the other side answers. Chained blocks are acknowledged with R(ACK) frames. On top of
+ * the air time comes a per-instruction processing time, plus a per-byte cost for secure
+ * messaging.
+ *
+ * <p>Jitter scales each exchange by a uniform factor in {@code [1 - jitter, 1 + jitter]}. A
+ * lost response costs one frame waiting time and a retransmission; after
+ * {@link #getMaxRetries()} losses in a row the exchange fails.
+ */
+public final class LinkProfile {
+
+  /** Frame overhead of an I-block or R-block without CID/NAD: PCB plus CRC_A. */
+  static final int BLOCK_OVERHEAD = 3;
+  static final int BITS_PER_BYTE = 9;
+
+  private final String name;
+  private final int bitRateKbps;
+  private final int fsd;
+  private final int fsc;
+  private final long frameDelayNanos;
+  private final Map<Integer, Long> processingNanosByIns;
+  private final long defaultProcessingNanos;
+  private final long smNanosPerByte;
+  private final double jitter;
+  private final double lossProbability;
+  private final long frameWaitingNanos;
+  private final int maxRetries;
+  private final boolean realTime;
+  private final Long seed;
+
+  private LinkProfile(Builder builder) {
+    this.name = builder.name;
+    this.bitRateKbps = builder.bitRateKbps;
+    this.fsd = builder.fsd;
+    this.fsc = builder.fsc;
+    this.frameDelayNanos = builder.frameDelayNanos;
+    this.processingNanosByIns = Map.copyOf(builder.processingNanosByIns);
+    this.defaultProcessingNanos = builder.defaultProcessingNanos;
+    this.smNanosPerByte = builder.smNanosPerByte;
+    this.jitter = builder.jitter;
+    this.lossProbability = builder.lossProbability;
+    this.frameWaitingNanos = builder.frameWaitingNanos;
+    this.maxRetries = builder.maxRetries;
+    this.realTime = builder.realTime;
+    this.seed = builder.seed;
+  }
+
+  /**
+   * Parses {@code <bit rate>[,key=value...]}, for example {@code 106},
+   * {@code 424,fsc=128,chip=slow,jitter=0.1} or {@code 848,loss=0.001,realtime=false}. The bit
+   * rate is 106, 212, 424 or 848 (kbit/s). Keys: {@code fsd}, {@code fsc}, {@code chip}
+   * ({@code fast}, {@code typical}, {@code slow}), {@code jitter}, {@code loss},
+   * {@code fwt-ms}, {@code retries}, {@code realtime} and {@code seed}.
+   */
+  public static LinkProfile parse(String spec) {
+    Objects.requireNonNull(spec, "spec");
+    String[] parts = spec.split(",");
+    Builder builder = new Builder().bitRateKbps(Integer.parseInt(parts[0].trim()));
+    for (int i = 1; i < parts.length; i++) {
+      String part = parts[i].trim();
+      int eq = part.indexOf('=');
+      if (eq <= 0) {
+        throw new IllegalArgumentException("Expected key=value in link profile: " + part);
+      }
+      String key = part.substring(0, eq).trim().toLowerCase(Locale.ROOT);
+      String value = part.substring(eq + 1).trim();
+      switch (key) {
+        case "fsd":
+          builder.fsd(Integer.parseInt(value));
+          break;
+        case "fsc":
+          builder.fsc(Integer.parseInt(value));
+          break;
+        case "chip":
+          builder.chip(value);
+          break;
+        case "jitter":
+          builder.jitter(Double.parseDouble(value));
+          break;
+        case "loss":
+          builder.lossProbability(Double.parseDouble(value));
+          break;
+        case "fwt-ms":
+          builder.frameWaitingTime(TimeUnit.MICROSECONDS.toNanos(Math.round(Double.parseDouble(value) * 1000)));
+          break;
+        case "retries":
+          builder.maxRetries(Integer.parseInt(value));
+          break;
+        case "realtime":
+          builder.realTime(Boolean.parseBoolean(value));
+          break;
+        case "seed":
+          builder.seed(Long.parseLong(value));
+          break;
+        default:
+          throw new IllegalArgumentException("Unknown link profile key: " + key);
+      }
+    }
+    return builder.name(spec.trim()).build();
+  }
+
+  /**
+   * Modelled time for one exchange without jitter or losses: air time for the command and
+   * response blocks, the R(ACK)s between chained blocks, one frame delay per frame, and the
+   * chip's processing time.
+   */
+  public long exchangeNanos(int ins, int commandBytes, int responseBytes, boolean protectedApdu) {
+    int commandBlocks = blocks(commandBytes, fsc);
+    int responseBlocks = blocks(responseBytes, fsd);
+    int acks = (commandBlocks - 1) + (responseBlocks - 1);
+    long airBytes = commandBytes + responseBytes
+        + (long) (commandBlocks + responseBlocks + acks) * BLOCK_OVERHEAD;
+    long frames = commandBlocks + responseBlocks + acks;
+    return airNanos(airBytes) + frames * frameDelayNanos + processingNanos(ins, commandBytes, responseBytes, protectedApdu);
+  }
+
+  /** Time to resend the last response block after it was lost. */
+  long retransmissionNanos(int responseBytes) {
+    int lastBlock = Math.min(Math.max(responseBytes, 0), fsd - BLOCK_OVERHEAD);
+    return frameWaitingNanos
+        + airNanos(BLOCK_OVERHEAD) + frameDelayNanos
+        + airNanos(lastBlock + BLOCK_OVERHEAD) + frameDelayNanos;
+  }
+
+  long processingNanos(int ins, int commandBytes, int responseBytes, boolean protectedApdu) {
+    long processing = processingNanosByIns.getOrDefault(ins & 0xFF, defaultProcessingNanos);
+    if (protectedApdu) {
+      processing += smNanosPerByte * (commandBytes + responseBytes);
+    }
+    return processing;
+  }
+
+  /** One bit lasts 1/kbps milliseconds, i.e. 10^6/kbps nanoseconds. */
+  private long airNanos(long bytes) {
+    return bytes * BITS_PER_BYTE * 1_000_000L / bitRateKbps;
+  }
+
+  private static int blocks(int bytes, int frameSize) {
+    int payload = frameSize - BLOCK_OVERHEAD;
+    return Math.max(1, (bytes + payload - 1) / payload);
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public int getBitRateKbps() {
+    return bitRateKbps;
+  }
+
+  public int getFsd() {
+    return fsd;
+  }
+
+  public int getFsc() {
+    return fsc;
+  }
+
+  public double getJitter() {
+    return jitter;
+  }
+
+  public double getLossProbability() {
+    return lossProbability;
+  }
+
+  public int getMaxRetries() {
+    return maxRetries;
+  }
+
+  /** Whether the decorator actually waits; otherwise it only accumulates the modelled time. */
+  public boolean isRealTime() {
+    return realTime;
+  }
+
+  /** Seed for jitter and losses, or {@code null} for a fresh sequence per service. */
+  public Long getSeed() {
+    return seed;
+  }
+
+  @Override
+  public String toString() {
+    return name;
+  }
+
+  public static final class Builder {
+    String name;
+    int bitRateKbps = 106;
+    int fsd = 256;
+    int fsc = 256;
+    long frameDelayNanos = TimeUnit.MICROSECONDS.toNanos(100);
+    final Map<Integer, Long> processingNanosByIns = new HashMap<>();
+    long defaultProcessingNanos;
+    long smNanosPerByte;
+    double jitter;
+    double lossProbability;
+    long frameWaitingNanos = TimeUnit.MICROSECONDS.toNanos(77_300);
+    int maxRetries = 2;
+    boolean realTime = true;
+    Long seed;
+
+    public Builder() {
+      chip("typical");
+    }
+
+    public Builder name(String value) {
+      this.name = value;
+      return this;
+    }
+
+    /** 106, 212, 424 or 848 kbit/s. */
+    public Builder bitRateKbps(int value) {
+      if (value != 106 && value != 212 && value != 424 && value != 848) {
+        throw new IllegalArgumentException("ISO 14443 bit rate must be 106, 212, 424 or 848 kbit/s: " + value);
+      }
+      this.bitRateKbps = value;
+      return this;
+    }
+
+    /** Largest frame the reader accepts (FSD), 16 to 4096 bytes including overhead. */
+    public Builder fsd(int value) {
+      this.fsd = requireFrameSize(value, "FSD");
+      return this;
+    }
+
+    /** Largest frame the card accepts (FSC), 16 to 4096 bytes including overhead. */
+    public Builder fsc(int value) {
+      this.fsc = requireFrameSize(value, "FSC");
+      return this;
+    }
+
+    public Builder frameDelay(long nanos) {
+      this.frameDelayNanos = requireNonNegative(nanos, "frame delay");
+      return this;
+    }
+
+    /**
+     * Chip processing times. {@code typical} is a current secure element; {@code fast} halves
+     * every time and {@code slow} doubles it.
+     */
+    public Builder chip(String profile) {
+      double scale;
+      switch (profile.toLowerCase(Locale.ROOT)) {
+        case "fast":
+          scale = 0.5;
+          break;
+        case "typical":
+          scale = 1.0;
+          break;
+        case "slow":
+          scale = 2.0;
+          break;
+        default:
+          throw new IllegalArgumentException("Unknown chip profile: " + profile);
+      }
+      processingNanosByIns.clear();
+      processing(0xA4, scaled(1_500, scale));   // SELECT
+      processing(0xB0, scaled(2_000, scale));   // READ BINARY
+      processing(0xB1, scaled(2_500, scale));   // READ BINARY (odd INS)
+      processing(0x84, scaled(3_000, scale));   // GET CHALLENGE
+      processing(0x82, scaled(15_000, scale));  // MUTUAL/EXTERNAL AUTHENTICATE
+      processing(0x88, scaled(120_000, scale)); // INTERNAL AUTHENTICATE (AA signature)
+      processing(0x86, scaled(40_000, scale));  // GENERAL AUTHENTICATE (PACE/CA key agreement)
+      processing(0x22, scaled(2_000, scale));   // MSE:SET
+      processing(0x2A, scaled(60_000, scale));  // PSO:VERIFY CERTIFICATE
+      this.defaultProcessingNanos = TimeUnit.MICROSECONDS.toNanos(scaled(3_000, scale));
+      this.smNanosPerByte = Math.round(4_000 * scale);
+      return this;
+    }
+
+    /** Processing time for {@code ins}, in microseconds. */
+    public Builder processing(int ins, long micros) {
+      processingNanosByIns.put(ins & 0xFF, TimeUnit.MICROSECONDS.toNanos(requireNonNegative(micros, "processing")));
+      return this;
+    }
+
+    public Builder smNanosPerByte(long value) {
+      this.smNanosPerByte = requireNonNegative(value, "SM cost");
+      return this;
+    }
+
+    /** Relative jitter, 0 to 1. */
+    public Builder jitter(double value) {
+      if (value < 0 || value >= 1) {
+        throw new IllegalArgumentException("jitter must be in [0, 1): " + value);
+      }
+      this.jitter = value;
+      return this;
+    }
+
+    /** Probability that a response is lost and has to be retransmitted. */
+    public Builder lossProbability(double value) {
+      if (value < 0 || value >= 1) {
+        throw new IllegalArgumentException("loss probability must be in [0, 1): " + value);
+      }
+      this.lossProbability = value;
+      return this;
+    }
+
+    public Builder frameWaitingTime(long nanos) {
+      this.frameWaitingNanos = requireNonNegative(nanos, "frame waiting time");
+      return this;
+    }
+
+    public Builder maxRetries(int value) {
+      this.maxRetries = (int) requireNonNegative(value, "retries");
+      return this;
+    }
+
+    public Builder realTime(boolean value) {
+      this.realTime = value;
+      return this;
+    }
+
+    public Builder seed(Long value) {
+      this.seed = value;
+      return this;
+    }
+
+    public LinkProfile build() {
+      if (name == null) {
+        name = bitRateKbps + ",fsd=" + fsd + ",fsc=" + fsc;
+      }
+      return new LinkProfile(this);
+    }
+
+    private static long scaled(long micros, double scale) {
+      return Math.round(micros * scale);
+    }
+
+    private static int requireFrameSize(int value, String label) {
+      if (value < 16 || value > 4096) {
+        throw new IllegalArgumentException(label + " must be between 16 and 4096 bytes: " + value);
+      }
+      return value;
+    }
+
+    private static long requireNonNegative(long value, String label) {
+      if (value < 0) {
+        throw new IllegalArgumentException(label + " must be >= 0");
+      }
+      return value;
+    }
+  }
+}
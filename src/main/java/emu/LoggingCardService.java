@@ -12,6 +12,7 @@ final class LoggingCardService extends CardService {
 
   private final CardService delegate;
   private final SimEvents events;
+  private long bytesExchanged;
 
   LoggingCardService(CardService delegate, SimEvents events) {
     this.delegate = delegate;
@@ -63,7 +64,29 @@ final class LoggingCardService extends CardService {
         apdu.getNc(),
         apdu.getNe(),
         protectedApdu ? " [SM]" : ""));
+    long started = System.nanoTime();
+    long traceStart = SessionTracer.begin();
+    JfrEvents.ApduExchange exchange = new JfrEvents.ApduExchange();
+    exchange.begin();
     ResponseAPDU response = delegate.transmit(apdu);
+    exchange.end();
+    SimMetrics.apdu(apdu.getINS(), response.getSW(), started);
+    int commandBytes = apdu.getBytes().length;
+    int responseBytes = response.getBytes().length;
+    bytesExchanged += commandBytes + responseBytes;
+    if (traceStart != 0L) {
+      SessionTracer.end("apdu", String.format("INS %02X", apdu.getINS() & 0xFF), traceStart,
+          "sw", String.format("%04X", response.getSW()), "commandBytes", commandBytes,
+          "responseBytes", responseBytes, "protected", protectedApdu);
+    }
+    if (exchange.shouldCommit()) {
+      exchange.ins = String.format("%02X", apdu.getINS() & 0xFF);
+      exchange.sw = String.format("%04X", response.getSW());
+      exchange.commandBytes = commandBytes;
+      exchange.responseBytes = responseBytes;
+      exchange.protectedApdu = protectedApdu;
+      exchange.commit();
+    }
     events.onLog(SimLogCategory.APDU, String.format(
         "<- SW=%04X dataLen=%d%s",
         response.getSW(),
@@ -72,6 +95,11 @@ final class LoggingCardService extends CardService {
     return response;
   }
 
+  /** Command plus response bytes, status words included, since this service was created. */
+  long getBytesExchanged() {
+    return bytesExchanged;
+  }
+
   private static boolean isSecureMessaging(int cla) {
     int smBits = cla & 0x0C;
     return smBits == 0x0C;
@@ -0,0 +1,167 @@
+package emu;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Publishes a {@link MetricsRegistry} for a local Prometheus. The registry can be served at
+ * {@code GET /metrics} on an HTTP port, or dumped periodically to a file that node_exporter's
+ * textfile collector picks up. Each dump replaces the file atomically, and a final dump is
+ * written on {@link #close()}.
+ */
+public final class MetricsExporter implements AutoCloseable {
+
+  static final Duration DEFAULT_DUMP_INTERVAL = Duration.ofSeconds(15);
+
+  private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+  private final MetricsRegistry registry;
+  private final HttpServer server;
+  private final ScheduledExecutorService dumper;
+  private final Path dumpFile;
+
+  private MetricsExporter(MetricsRegistry registry, InetSocketAddress address, Path dumpFile, Duration interval)
+      throws IOException {
+    this.registry = Objects.requireNonNull(registry, "registry");
+    this.dumpFile = dumpFile;
+    if (address != null) {
+      server = HttpServer.create(address, 0);
+      server.createContext("/metrics", this::handleScrape);
+      server.setExecutor(Executors.newSingleThreadExecutor(runnable -> daemon(runnable, "metrics-http")));
+    } else {
+      server = null;
+    }
+    if (dumpFile != null) {
+      Path parent = dumpFile.toAbsolutePath().getParent();
+      if (parent != null) {
+        Files.createDirectories(parent);
+      }
+      dumper = Executors.newSingleThreadScheduledExecutor(runnable -> daemon(runnable, "metrics-dump"));
+      long millis = Math.max(1L, interval.toMillis());
+      dumper.scheduleAtFixedRate(this::dumpQuietly, millis, millis, TimeUnit.MILLISECONDS);
+    } else {
+      dumper = null;
+    }
+  }
+
+  /**
+   * Starts exporting {@code registry}. {@code address} (HTTP) and {@code dumpFile} are each
+   * optional; pass {@code null} to skip one.
+   */
+  public static MetricsExporter start(MetricsRegistry registry, InetSocketAddress address, Path dumpFile,
+                                      Duration interval) throws IOException {
+    MetricsExporter exporter = new MetricsExporter(registry, address, dumpFile, interval);
+    if (exporter.server != null) {
+      exporter.server.start();
+    }
+    return exporter;
+  }
+
+  /**
+   * Starts an exporter for the shared registry from {@code --metrics-port <n>},
+   * {@code --metrics-file <path>} and {@code --metrics-interval <seconds>} in {@code args}.
+   * Returns {@code null} when neither the port nor the file is given.
+   */
+  public static MetricsExporter fromArguments(List<String> args) throws IOException {
+    String port = optionValue(args, "--metrics-port");
+    String file = optionValue(args, "--metrics-file");
+    String interval = optionValue(args, "--metrics-interval");
+    if (port == null && file == null) {
+      return null;
+    }
+    SimMetrics.observeChipSecureMessaging();
+    return start(MetricsRegistry.shared(),
+        port != null ? new InetSocketAddress("127.0.0.1", Integer.parseInt(port)) : null,
+        file != null ? Path.of(file) : null,
+        interval != null ? Duration.ofSeconds(Long.parseLong(interval)) : DEFAULT_DUMP_INTERVAL);
+  }
+
+  /** The bound HTTP address, or {@code null} when only dumping to a file. */
+  public InetSocketAddress getAddress() {
+    return server != null ? server.getAddress() : null;
+  }
+
+  /** Writes the dump file now. */
+  public void dump() throws IOException {
+    if (dumpFile == null) {
+      return;
+    }
+    Path temp = dumpFile.resolveSibling(dumpFile.getFileName() + ".tmp");
+    try (Writer out = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+      registry.writePrometheus(out);
+    }
+    try {
+      Files.move(temp, dumpFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      Files.move(temp, dumpFile, StandardCopyOption.REPLACE_EXISTING);
+    }
+  }
+
+  @Override
+  public void close() {
+    if (server != null) {
+      server.stop(0);
+    }
+    if (dumper != null) {
+      dumper.shutdownNow();
+      dumpQuietly();
+    }
+  }
+
+  private void handleScrape(HttpExchange exchange) throws IOException {
+    try {
+      byte[] body = registry.scrape().getBytes(StandardCharsets.UTF_8);
+      exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+      exchange.sendResponseHeaders(200, body.length);
+      try (OutputStream out = exchange.getResponseBody()) {
+        out.write(body);
+      }
+    } finally {
+      exchange.close();
+    }
+  }
+
+  private void dumpQuietly() {
+    try {
+      dump();
+    } catch (IOException e) {
+      System.err.println("Unable to write metrics to " + dumpFile + ": " + e.getMessage());
+    }
+  }
+
+  private static String optionValue(List<String> args, String key) {
+    for (int i = 0; i < args.size(); i++) {
+      if (args.get(i).equals(key)) {
+        if (i + 1 >= args.size()) {
+          throw new IllegalArgumentException(key + " requires a value");
+        }
+        return args.get(i + 1);
+      }
+      if (args.get(i).startsWith(key + "=")) {
+        return args.get(i).substring(key.length() + 1);
+      }
+    }
+    return null;
+  }
+
+  private static Thread daemon(Runnable body, String name) {
+    Thread thread = new Thread(body, name);
+    thread.setDaemon(true);
+    return thread;
+  }
+}
@@ -0,0 +1,305 @@
+package emu;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+import java.util.function.Supplier;
+
+/**
+ * In-process counters, gauges and histograms rendered in the Prometheus text exposition format.
+ * Metrics are created on first use and looked up by name afterwards, so hot paths can call
+ * {@code shared().counter(...)} without keeping a reference. Each metric declares its label
+ * names once, and every update passes the values in the same order. Updates use
+ * {@link LongAdder}/{@link DoubleAdder}, so concurrent sessions don't contend on one lock.
+ * {@link MetricsExporter} publishes the registry over HTTP or to a file.
+ */
+public final class MetricsRegistry {
+
+  /** Seconds, from half a millisecond (an SM unwrap) to half a minute (an RSA-4096 keygen). */
+  static final double[] DEFAULT_SECONDS_BUCKETS = {
+      0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30
+  };
+
+  private static final MetricsRegistry SHARED = new MetricsRegistry();
+
+  private final Map<String, Metric> metrics = new ConcurrentHashMap<>();
+
+  /** Registry used by the simulator's own instrumentation. */
+  public static MetricsRegistry shared() {
+    return SHARED;
+  }
+
+  public Counter counter(String name, String help, String... labelNames) {
+    return register(name, Counter.class, () -> new Counter(name, help, labelNames));
+  }
+
+  public Gauge gauge(String name, String help, String... labelNames) {
+    return register(name, Gauge.class, () -> new Gauge(name, help, labelNames));
+  }
+
+  public Histogram histogram(String name, String help, String... labelNames) {
+    return histogram(name, help, DEFAULT_SECONDS_BUCKETS, labelNames);
+  }
+
+  public Histogram histogram(String name, String help, double[] buckets, String... labelNames) {
+    return register(name, Histogram.class, () -> new Histogram(name, help, buckets, labelNames));
+  }
+
+  /** Writes every metric, sorted by name, in the Prometheus text format (version 0.0.4). */
+  public void writePrometheus(Appendable out) throws IOException {
+    List<Metric> sorted = new ArrayList<>(metrics.values());
+    sorted.sort((a, b) -> a.name.compareTo(b.name));
+    for (Metric metric : sorted) {
+      out.append("# HELP ").append(metric.name).append(' ').append(escapeHelp(metric.help)).append('\n');
+      out.append("# TYPE ").append(metric.name).append(' ').append(metric.type()).append('\n');
+      metric.write(out);
+    }
+  }
+
+  public String scrape() {
+    StringBuilder out = new StringBuilder();
+    try {
+      writePrometheus(out);
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+    return out.toString();
+  }
+
+  /** Drops every metric; for tests. */
+  void clear() {
+    metrics.clear();
+  }
+
+  private <T extends Metric> T register(String name, Class<T> type, Supplier<T> factory) {
+    Metric metric = metrics.computeIfAbsent(name, n -> factory.get());
+    if (!type.isInstance(metric)) {
+      throw new IllegalArgumentException(name + " is already registered as a " + metric.type());
+    }
+    return type.cast(metric);
+  }
+
+  private static String escapeHelp(String help) {
+    return help.replace("\\", "\\\\").replace("\n", "\\n");
+  }
+
+  private static String escapeLabel(String value) {
+    return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+  }
+
+  private static String format(double value) {
+    if (Double.isInfinite(value)) {
+      return value > 0 ? "+Inf" : "-Inf";
+    }
+    if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+      return Long.toString((long) value);
+    }
+    return Double.toString(value);
+  }
+
+  private abstract static class Metric {
+    final String name;
+    final String help;
+    final String[] labelNames;
+
+    Metric(String name, String help, String[] labelNames) {
+      if (!name.matches("[a-zA-Z_:][a-zA-Z0-9_:]*")) {
+        throw new IllegalArgumentException("Invalid metric name: " + name);
+      }
+      this.name = name;
+      this.help = Objects.requireNonNull(help, "help");
+      this.labelNames = labelNames.clone();
+    }
+
+    abstract String type();
+
+    abstract void write(Appendable out) throws IOException;
+
+    List<String> key(String[] labelValues) {
+      if (labelValues.length != labelNames.length) {
+        throw new IllegalArgumentException(name + " expects labels " + Arrays.toString(labelNames));
+      }
+      return List.of(labelValues);
+    }
+
+    void writeSample(Appendable out, String sampleName, List<String> labelValues, String extraName,
+                     String extraValue, String value) throws IOException {
+      out.append(sampleName);
+      if (!labelValues.isEmpty() || extraName != null) {
+        out.append('{');
+        boolean first = true;
+        for (int i = 0; i < labelNames.length; i++) {
+          if (!first) {
+            out.append(',');
+          }
+          out.append(labelNames[i]).append("=\"").append(escapeLabel(labelValues.get(i))).append('"');
+          first = false;
+        }
+        if (extraName != null) {
+          if (!first) {
+            out.append(',');
+          }
+          out.append(extraName).append("=\"").append(extraValue).append('"');
+        }
+        out.append('}');
+      }
+      out.append(' ').append(value).append('\n');
+    }
+  }
+
+  /** Monotonic count, e.g. APDUs exchanged. */
+  public static final class Counter extends Metric {
+    private final Map<List<String>, LongAdder> children = new ConcurrentHashMap<>();
+
+    private Counter(String name, String help, String[] labelNames) {
+      super(name, help, labelNames);
+    }
+
+    public void inc(String... labelValues) {
+      add(1, labelValues);
+    }
+
+    public void add(long amount, String... labelValues) {
+      if (amount < 0) {
+        throw new IllegalArgumentException("Counters only go up");
+      }
+      children.computeIfAbsent(key(labelValues), k -> new LongAdder()).add(amount);
+    }
+
+    public long get(String... labelValues) {
+      LongAdder child = children.get(key(labelValues));
+      return child != null ? child.sum() : 0L;
+    }
+
+    @Override
+    String type() {
+      return "counter";
+    }
+
+    @Override
+    void write(Appendable out) throws IOException {
+      for (Map.Entry<List<String>, LongAdder> child : children.entrySet()) {
+        writeSample(out, name, child.getKey(), null, null, Long.toString(child.getValue().sum()));
+      }
+    }
+  }
+
+  /** Point-in-time value, either set explicitly or read from a callback at scrape time. */
+  public static final class Gauge extends Metric {
+    private final Map<List<String>, DoubleSupplier> children = new ConcurrentHashMap<>();
+
+    private Gauge(String name, String help, String[] labelNames) {
+      super(name, help, labelNames);
+    }
+
+    public void set(double value, String... labelValues) {
+      children.put(key(labelValues), () -> value);
+    }
+
+    /** Reads {@code supplier} on every scrape, e.g. a queue's current size. */
+    public void bind(DoubleSupplier supplier, String... labelValues) {
+      children.put(key(labelValues), Objects.requireNonNull(supplier, "supplier"));
+    }
+
+    public void remove(String... labelValues) {
+      children.remove(key(labelValues));
+    }
+
+    public double get(String... labelValues) {
+      DoubleSupplier child = children.get(key(labelValues));
+      return child != null ? child.getAsDouble() : Double.NaN;
+    }
+
+    @Override
+    String type() {
+      return "gauge";
+    }
+
+    @Override
+    void write(Appendable out) throws IOException {
+      for (Map.Entry<List<String>, DoubleSupplier> child : children.entrySet()) {
+        writeSample(out, name, child.getKey(), null, null, format(child.getValue().getAsDouble()));
+      }
+    }
+  }
+
+  /** Distribution over fixed buckets; durations are recorded in seconds. */
+  public static final class Histogram extends Metric {
+    private final double[] bounds;
+    private final Map<List<String>, Child> children = new ConcurrentHashMap<>();
+
+    private Histogram(String name, String help, double[] buckets, String[] labelNames) {
+      super(name, help, labelNames);
+      this.bounds = buckets.clone();
+      for (int i = 1; i < bounds.length; i++) {
+        if (bounds[i] <= bounds[i - 1]) {
+          throw new IllegalArgumentException("Bucket bounds must increase: " + Arrays.toString(buckets));
+        }
+      }
+    }
+
+    public void observe(double value, String... labelValues) {
+      Child child = children.computeIfAbsent(key(labelValues), k -> new Child(bounds.length));
+      int bucket = Arrays.binarySearch(bounds, value);
+      child.buckets[bucket >= 0 ? bucket : -bucket - 1].increment();
+      child.sum.add(value);
+    }
+
+    /** Records the time elapsed since {@code startNanos}, a {@link System#nanoTime()} reading. */
+    public void observeSince(long startNanos, String... labelValues) {
+      observe((System.nanoTime() - startNanos) / (double) TimeUnit.SECONDS.toNanos(1), labelValues);
+    }
+
+    public long count(String... labelValues) {
+      Child child = children.get(key(labelValues));
+      if (child == null) {
+        return 0L;
+      }
+      long total = 0;
+      for (LongAdder bucket : child.buckets) {
+        total += bucket.sum();
+      }
+      return total;
+    }
+
+    @Override
+    String type() {
+      return "histogram";
+    }
+
+    @Override
+    void write(Appendable out) throws IOException {
+      for (Map.Entry<List<String>, Child> entry : children.entrySet()) {
+        Child child = entry.getValue();
+        long cumulative = 0;
+        for (int i = 0; i <= bounds.length; i++) {
+          cumulative += child.buckets[i].sum();
+          String le = i < bounds.length ? format(bounds[i]) : "+Inf";
+          writeSample(out, name + "_bucket", entry.getKey(), "le", le, Long.toString(cumulative));
+        }
+        writeSample(out, name + "_sum", entry.getKey(), null, null, format(child.sum.sum()));
+        writeSample(out, name + "_count", entry.getKey(), null, null, Long.toString(cumulative));
+      }
+    }
+
+    private static final class Child {
+      final LongAdder[] buckets;
+      final DoubleAdder sum = new DoubleAdder();
+
+      Child(int bounds) {
+        buckets = new LongAdder[bounds + 1];
+        for (int i = 0; i < buckets.length; i++) {
+          buckets[i] = new LongAdder();
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,219 @@
+package emu;
+
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Objects;
+
+import org.jmrtd.lds.ChipAuthenticationInfo;
+import org.jmrtd.lds.PACEInfo;
+
+/**
+ * Size-bounded, thread-safe memo of what a previous session negotiated with a document: the PACE
+ * entry, the Chip Authentication suite and the Active Authentication signature algorithm. Each
+ * choice is keyed by the SHA-256 of the file it was derived from (EF.CardAccess, DG14, DG15), so
+ * a different or re-personalized document never matches. Only successful negotiations are
+ * stored; a remembered choice that later fails is forgotten. Least-recently-used entries are
+ * evicted once the entry count exceeds the capacity.
+ */
+final class NegotiatedProfileCache {
+
+  static final int DEFAULT_CAPACITY = 4096;
+
+  private static final NegotiatedProfileCache SHARED = new NegotiatedProfileCache(DEFAULT_CAPACITY);
+
+  private static final String KIND_PACE = "pace";
+  private static final String KIND_CA = "ca";
+  private static final String KIND_AA = "aa";
+
+  private final int capacity;
+  private final LinkedHashMap<Key, Object> entries = new LinkedHashMap<>(16, 0.75f, true);
+  private long hits;
+  private long misses;
+
+  NegotiatedProfileCache(int capacity) {
+    if (capacity < 0) {
+      throw new IllegalArgumentException("capacity must be >= 0");
+    }
+    this.capacity = capacity;
+  }
+
+  /** Process-wide cache shared by every {@link SimRunner} session. */
+  static NegotiatedProfileCache shared() {
+    return SHARED;
+  }
+
+  /** PACE entry that established secure messaging for {@code cardAccess} under {@code preference}. */
+  PaceChoice pace(byte[] cardAccess, String preference) {
+    return (PaceChoice) lookup(key(KIND_PACE, cardAccess, preference));
+  }
+
+  void rememberPace(byte[] cardAccess, String preference, PACEInfo info) {
+    if (info != null) {
+      store(key(KIND_PACE, cardAccess, preference), new PaceChoice(info.getObjectIdentifier(), info.getParameterId()));
+    }
+  }
+
+  void forgetPace(byte[] cardAccess, String preference) {
+    remove(key(KIND_PACE, cardAccess, preference));
+  }
+
+  /** Chip Authentication entry and cipher that upgraded secure messaging for {@code dg14}. */
+  ChipAuthChoice chipAuthentication(byte[] dg14) {
+    return (ChipAuthChoice) lookup(key(KIND_CA, dg14, null));
+  }
+
+  void rememberChipAuthentication(byte[] dg14, ChipAuthenticationInfo info, String cipherAlgorithm) {
+    if (info != null) {
+      store(key(KIND_CA, dg14, null), new ChipAuthChoice(info.getObjectIdentifier(), info.getKeyId(), cipherAlgorithm));
+    }
+  }
+
+  void forgetChipAuthentication(byte[] dg14) {
+    remove(key(KIND_CA, dg14, null));
+  }
+
+  /** Signature algorithm that verified an Active Authentication response for {@code dg15}. */
+  String activeAuthentication(byte[] dg15) {
+    return (String) lookup(key(KIND_AA, dg15, null));
+  }
+
+  void rememberActiveAuthentication(byte[] dg15, String signatureAlgorithm) {
+    if (signatureAlgorithm != null) {
+      store(key(KIND_AA, dg15, null), signatureAlgorithm);
+    }
+  }
+
+  void forgetActiveAuthentication(byte[] dg15) {
+    remove(key(KIND_AA, dg15, null));
+  }
+
+  synchronized int size() {
+    return entries.size();
+  }
+
+  synchronized long getHits() {
+    return hits;
+  }
+
+  synchronized long getMisses() {
+    return misses;
+  }
+
+  synchronized void clear() {
+    entries.clear();
+  }
+
+  private synchronized Object lookup(Key key) {
+    if (key == null) {
+      return null;
+    }
+    Object value = entries.get(key);
+    if (value != null) {
+      hits++;
+    } else {
+      misses++;
+    }
+    return value;
+  }
+
+  private synchronized void store(Key key, Object value) {
+    if (key == null || capacity == 0) {
+      return;
+    }
+    entries.put(key, value);
+    while (entries.size() > capacity) {
+      entries.remove(entries.keySet().iterator().next());
+    }
+  }
+
+  private synchronized void remove(Key key) {
+    if (key != null) {
+      entries.remove(key);
+    }
+  }
+
+  private static Key key(String kind, byte[] source, String qualifier) {
+    if (source == null || source.length == 0) {
+      return null;
+    }
+    String normalized = qualifier != null && !qualifier.isBlank()
+        ? qualifier.trim().toUpperCase(Locale.ROOT)
+        : "";
+    return new Key(kind, sha256(source), normalized);
+  }
+
+  private static byte[] sha256(byte[] data) {
+    try {
+      return MessageDigest.getInstance("SHA-256").digest(data);
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 not available", e);
+    }
+  }
+
+  static final class PaceChoice {
+    final String oid;
+    final BigInteger parameterId;
+
+    PaceChoice(String oid, BigInteger parameterId) {
+      this.oid = oid;
+      this.parameterId = parameterId;
+    }
+
+    boolean matches(PACEInfo info) {
+      return info != null
+          && Objects.equals(oid, info.getObjectIdentifier())
+          && Objects.equals(parameterId, info.getParameterId());
+    }
+  }
+
+  static final class ChipAuthChoice {
+    final String oid;
+    final BigInteger keyId;
+    final String cipherAlgorithm;
+
+    ChipAuthChoice(String oid, BigInteger keyId, String cipherAlgorithm) {
+      this.oid = oid;
+      this.keyId = keyId;
+      this.cipherAlgorithm = cipherAlgorithm;
+    }
+
+    boolean matches(ChipAuthenticationInfo info) {
+      return info != null
+          && Objects.equals(oid, info.getObjectIdentifier())
+          && Objects.equals(keyId, info.getKeyId());
+    }
+  }
+
+  private static final class Key {
+    private final String kind;
+    private final byte[] digest;
+    private final String qualifier;
+
+    Key(String kind, byte[] digest, String qualifier) {
+      this.kind = kind;
+      this.digest = digest;
+      this.qualifier = qualifier;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (this == other) {
+        return true;
+      }
+      if (!(other instanceof Key)) {
+        return false;
+      }
+      Key that = (Key) other;
+      return kind.equals(that.kind) && qualifier.equals(that.qualifier) && Arrays.equals(digest, that.digest);
+    }
+
+    @Override
+    public int hashCode() {
+      return (kind.hashCode() * 31 + qualifier.hashCode()) * 31 + Arrays.hashCode(digest);
+    }
+  }
+}
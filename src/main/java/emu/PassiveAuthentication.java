@@ -69,6 +69,14 @@ public final class PassiveAuthentication {
   }
 
   public static Result verify(PassportService service, List<Path> trustStorePaths, char[] trustStorePassword) throws Exception {
+    long started = System.nanoTime();
+    Result result = verifyDocument(service, trustStorePaths, trustStorePassword);
+    SimMetrics.passiveAuthentication(result.isPass(), started);
+    return result;
+  }
+
+  private static Result verifyDocument(PassportService service, List<Path> trustStorePaths, char[] trustStorePassword)
+      throws Exception {
     FileReadResult sodResult = readFile(service, PassportService.EF_SOD);
     if (sodResult.status != FileStatus.OK || sodResult.data == null) {
       String issue = sodResult.status == FileStatus.LOCKED ? "EF.SOD locked" : "EF.SOD missing";
@@ -136,7 +144,7 @@ public final class PassiveAuthentication {
 
   private static FileReadResult readFile(PassportService service, short fid) throws IOException {
     try {
-      InputStream raw = service.getInputStream(fid);
+      InputStream raw = LargeEfReader.open(service, fid);
       if (raw == null) {
         return FileReadResult.missing();
       }
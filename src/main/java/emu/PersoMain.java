@@ -17,7 +17,6 @@ import emu.PersonalizationSupport.SODArtifacts;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.Arrays;
 
 public class PersoMain {
   // AID MRTD (ICAO 9303)
@@ -87,8 +86,8 @@ public class PersoMain {
     // 6) Buat EF.DG2, EF.SOD, EF.DG15 dan tulis
     SODArtifacts sodArtifacts = PersonalizationSupport.buildArtifacts(job);
     System.out.printf("Synthetic biometrics → DG3=%d bytes, DG4=%d bytes.%n",
-        sodArtifacts.getDg3Bytes() != null ? sodArtifacts.getDg3Bytes().length : 0,
-        sodArtifacts.getDg4Bytes() != null ? sodArtifacts.getDg4Bytes().length : 0);
+        sodArtifacts.getDataGroupLength(3),
+        sodArtifacts.getDataGroupLength(4));
 
     byte[] cardAccessBytes = sodArtifacts.getCardAccessBytes();
     if (cardAccessBytes != null && cardAccessBytes.length > 0) {
@@ -97,7 +96,7 @@ public class PersoMain {
       writeBinary(ch, cardAccessBytes, "WRITE EF.CardAccess");
     }
 
-    byte[] dg2Bytes = sodArtifacts.getDg2Bytes();
+    byte[] dg2Bytes = sodArtifacts.getDataGroupBytes(2);
     createEF(ch, EF_DG2, dg2Bytes.length, "CREATE EF.DG2");
     selectEF(ch, EF_DG2, "SELECT EF.DG2 before WRITE");
     writeBinary(ch, dg2Bytes, "WRITE EF.DG2");
@@ -183,22 +182,16 @@ public class PersoMain {
 
   /** CREATE FILE seperti pola JMRTD: 00 E0 00 00 Lc | 63 04 <sizeHi sizeLo fidHi fidLo> */
   private static void createEF(CardChannel ch, short fid, int size, String label) throws Exception {
-    byte[] fcp = new byte[]{
-      (byte)0x63, 0x04,
-      (byte)((size >> 8) & 0xFF), (byte)(size & 0xFF),
-      (byte)((fid >> 8) & 0xFF), (byte)(fid & 0xFF)
-    };
-    apdu(ch, 0x00, 0xE0, 0x00, 0x00, fcp, label);
+    apdu(ch, 0x00, 0xE0, 0x00, 0x00, EfCommands.createFileData(fid, size), label);
   }
 
   private static void writeBinary(CardChannel ch, byte[] data, String label) throws Exception {
-    // chunk <= 255
+    // chunk <= 255; odd-INS UPDATE BINARY past 32767
     int off = 0;
     while (off < data.length) {
-      int len = Math.min(0xFF, data.length - off);
-      byte[] chunk = Arrays.copyOfRange(data, off, off + len);
-      apdu(ch, 0x00, 0xD6, (off >> 8) & 0xFF, off & 0xFF, chunk,
-           label + " (ofs=" + off + ", len=" + len + ")");
+      int len = Math.min(EfCommands.maxChunk(off), data.length - off);
+      CommandAPDU update = EfCommands.updateBinary(off, data, off, len);
+      apdu(ch, update, label + " (ofs=" + off + ", len=" + len + ")");
       off += len;
     }
   }
@@ -218,7 +211,11 @@ public class PersoMain {
   }
 
   private static ResponseAPDU apdu(CardChannel ch, int cla, int ins, int p1, int p2, byte[] data, String label) throws Exception {
-    ResponseAPDU r = ch.transmit(new CommandAPDU(cla, ins, p1, p2, data));
+    return apdu(ch, new CommandAPDU(cla, ins, p1, p2, data), label);
+  }
+
+  private static ResponseAPDU apdu(CardChannel ch, CommandAPDU command, String label) throws Exception {
+    ResponseAPDU r = ch.transmit(command);
     System.out.printf("%s → SW=%04X%n", label, r.getSW());
     if (r.getSW() != 0x9000) throw new RuntimeException(label + " failed SW=" + Integer.toHexString(r.getSW()));
     return r;
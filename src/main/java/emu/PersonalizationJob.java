@@ -1,6 +1,7 @@
 package emu;
 
 import org.jmrtd.lds.LDSFile;
+import org.jmrtd.lds.PACEInfo;
 import org.jmrtd.lds.icao.DG1File;
 import org.jmrtd.lds.icao.MRZInfo;
 
@@ -11,6 +12,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Objects;
 import java.util.Set;
 
@@ -25,9 +27,16 @@ public final class PersonalizationJob {
   private final BiometricSource faceSource;
   private final BiometricSource fingerprintSource;
   private final BiometricSource irisSource;
+  private final int faceMaxWidth;
+  private final int faceMaxHeight;
+  private final int faceMaxBytes;
   private final String digestAlgorithm;
   private final String signatureAlgorithm;
+  private final String cscaSignatureAlgorithm;
+  private final String docSignerCurve;
+  private final String cscaCurve;
   private final List<String> paceOids;
+  private final int paceDomainParameterId;
   private final boolean includeCardAccess;
   private final boolean includeTerminalAuthentication;
   private final String chipAuthenticationCurve;
@@ -47,9 +56,18 @@ public final class PersonalizationJob {
     this.faceSource = builder.faceSource;
     this.fingerprintSource = builder.fingerprintSource;
     this.irisSource = builder.irisSource;
+    this.faceMaxWidth = builder.faceMaxWidth;
+    this.faceMaxHeight = builder.faceMaxHeight;
+    this.faceMaxBytes = builder.faceMaxBytes;
     this.digestAlgorithm = builder.digestAlgorithm;
-    this.signatureAlgorithm = builder.signatureAlgorithm;
+    this.signatureAlgorithm = normalizeSignatureAlgorithm(builder.signatureAlgorithm, builder.digestAlgorithm);
+    this.cscaSignatureAlgorithm = builder.cscaSignatureAlgorithm != null
+        ? normalizeSignatureAlgorithm(builder.cscaSignatureAlgorithm, builder.digestAlgorithm)
+        : this.signatureAlgorithm;
+    this.docSignerCurve = builder.docSignerCurve;
+    this.cscaCurve = builder.cscaCurve;
     this.paceOids = List.copyOf(builder.paceOids);
+    this.paceDomainParameterId = builder.paceDomainParameterId;
     this.includeCardAccess = builder.includeCardAccess;
     this.includeTerminalAuthentication = builder.includeTerminalAuthentication;
     this.chipAuthenticationCurve = builder.chipAuthenticationCurve;
@@ -77,6 +95,21 @@ public final class PersonalizationJob {
     return Builder.DEFAULT_SIGNATURE_ALGORITHM;
   }
 
+  /**
+   * Maps the RSASSA-PSS spellings accepted on the command line ({@code SHA256withRSA/PSS},
+   * {@code RSASSA-PSS}) to the {@code SHA256withRSAandMGF1} form understood by Bouncy Castle.
+   * A bare {@code RSASSA-PSS} takes its hash from the EF.SOD digest algorithm.
+   */
+  private static String normalizeSignatureAlgorithm(String algorithm, String digestAlgorithm) {
+    if (algorithm.equalsIgnoreCase("RSASSA-PSS")) {
+      return digestAlgorithm.replace("-", "").toUpperCase(Locale.ROOT) + "withRSAandMGF1";
+    }
+    if (algorithm.toUpperCase(Locale.ROOT).endsWith("WITHRSA/PSS")) {
+      return algorithm.substring(0, algorithm.length() - "/PSS".length()) + "andMGF1";
+    }
+    return algorithm;
+  }
+
   public static List<String> defaultLifecycleTargets() {
     return Builder.DEFAULT_LIFECYCLE_TARGETS;
   }
@@ -109,6 +142,24 @@ public final class PersonalizationJob {
     return irisSource;
   }
 
+  /**
+   * Largest face image width embedded as is; wider images are decoded and scaled down.
+   */
+  public int getFaceMaxWidth() {
+    return faceMaxWidth;
+  }
+
+  public int getFaceMaxHeight() {
+    return faceMaxHeight;
+  }
+
+  /**
+   * Largest encoded face image embedded as is; bigger files are decoded and re-encoded.
+   */
+  public int getFaceMaxBytes() {
+    return faceMaxBytes;
+  }
+
   public String getDigestAlgorithm() {
     return digestAlgorithm;
   }
@@ -117,10 +168,30 @@ public final class PersonalizationJob {
     return signatureAlgorithm;
   }
 
+  /** Signature algorithm the CSCA uses for its own and the document signer certificate. */
+  public String getCscaSignatureAlgorithm() {
+    return cscaSignatureAlgorithm;
+  }
+
+  /** Named curve of the document signer key when {@link #getSignatureAlgorithm()} is ECDSA. */
+  public String getDocSignerCurve() {
+    return docSignerCurve;
+  }
+
+  /** Named curve of the CSCA key when {@link #getCscaSignatureAlgorithm()} is ECDSA. */
+  public String getCscaCurve() {
+    return cscaCurve;
+  }
+
   public List<String> getPaceOids() {
     return paceOids;
   }
 
+  /** Standardized PACE domain parameter ID advertised in EF.CardAccess. */
+  public int getPaceDomainParameterId() {
+    return paceDomainParameterId;
+  }
+
   public boolean includeCardAccess() {
     return includeCardAccess;
   }
@@ -185,6 +256,9 @@ public final class PersonalizationJob {
     private static final String DEFAULT_DIGEST_ALGORITHM = "SHA-256";
     private static final String DEFAULT_SIGNATURE_ALGORITHM = "SHA256withRSA";
     private static final List<String> DEFAULT_LIFECYCLE_TARGETS = List.of("SIMULATOR");
+    private static final String DEFAULT_SIGNER_CURVE = "secp256r1";
+    /** ISO 19794-5 stores image width and height in two bytes. */
+    private static final int MAX_FACE_DIMENSION = 0xFFFF;
 
     private MRZInfo mrzInfo;
     private final Set<Integer> enabledDataGroups = new HashSet<>();
@@ -192,9 +266,16 @@ public final class PersonalizationJob {
     private BiometricSource faceSource = BiometricSource.synthetic(BiometricType.FACE, 480, 600);
     private BiometricSource fingerprintSource = BiometricSource.synthetic(BiometricType.FINGERPRINT, 160, 160);
     private BiometricSource irisSource = BiometricSource.synthetic(BiometricType.IRIS, 160, 160);
+    private int faceMaxWidth = MAX_FACE_DIMENSION;
+    private int faceMaxHeight = MAX_FACE_DIMENSION;
+    private int faceMaxBytes = Integer.MAX_VALUE;
     private String digestAlgorithm = DEFAULT_DIGEST_ALGORITHM;
     private String signatureAlgorithm = DEFAULT_SIGNATURE_ALGORITHM;
+    private String cscaSignatureAlgorithm;
+    private String docSignerCurve = DEFAULT_SIGNER_CURVE;
+    private String cscaCurve = DEFAULT_SIGNER_CURVE;
     private List<String> paceOids = defaultPaceOids();
+    private int paceDomainParameterId = PACEInfo.PARAM_ID_ECP_NIST_P256_R1;
     private boolean includeCardAccess = true;
     private boolean includeTerminalAuthentication = true;
     private String chipAuthenticationCurve = "secp256r1";
@@ -283,6 +364,20 @@ public final class PersonalizationJob {
       return this;
     }
 
+    /**
+     * Limits applied to face images loaded from a path. Compliant JPEG and JPEG 2000 files within
+     * the limits are embedded without re-encoding.
+     */
+    public Builder faceImageLimits(int maxWidth, int maxHeight, int maxBytes) {
+      if (maxWidth <= 0 || maxHeight <= 0 || maxBytes <= 0) {
+        throw new IllegalArgumentException("Face image limits must be positive");
+      }
+      this.faceMaxWidth = Math.min(maxWidth, MAX_FACE_DIMENSION);
+      this.faceMaxHeight = Math.min(maxHeight, MAX_FACE_DIMENSION);
+      this.faceMaxBytes = maxBytes;
+      return this;
+    }
+
     public Builder withFingerprintSyntheticSize(int width, int height) {
       this.fingerprintSource = BiometricSource.synthetic(BiometricType.FINGERPRINT, width, height);
       return this;
@@ -313,11 +408,42 @@ public final class PersonalizationJob {
       return this;
     }
 
+    /**
+     * Signature algorithm for the CSCA certificates; defaults to {@link #signatureAlgorithm}. The
+     * key type follows the algorithm: ECDSA algorithms get an EC key, everything else RSA.
+     */
+    public Builder cscaSignatureAlgorithm(String algorithm) {
+      this.cscaSignatureAlgorithm = Objects.requireNonNull(algorithm, "algorithm");
+      return this;
+    }
+
+    public Builder docSignerCurve(String curve) {
+      this.docSignerCurve = Objects.requireNonNull(curve, "curve");
+      return this;
+    }
+
+    public Builder cscaCurve(String curve) {
+      this.cscaCurve = Objects.requireNonNull(curve, "curve");
+      return this;
+    }
+
     public Builder paceOids(List<String> paceOids) {
       this.paceOids = new ArrayList<>(Objects.requireNonNull(paceOids, "paceOids"));
       return this;
     }
 
+    /**
+     * PACE domain parameters, as a standardized ID. The applet only implements ECDH mapping, so
+     * only the elliptic curve IDs (8-18) are accepted.
+     */
+    public Builder paceDomainParameterId(int parameterId) {
+      if (parameterId < PACEInfo.PARAM_ID_ECP_NIST_P192_R1 || parameterId > PACEInfo.PARAM_ID_ECP_NIST_P521_R1) {
+        throw new IllegalArgumentException("Unsupported PACE domain parameter ID: " + parameterId);
+      }
+      this.paceDomainParameterId = parameterId;
+      return this;
+    }
+
     public Builder includeCardAccess(boolean includeCardAccess) {
       this.includeCardAccess = includeCardAccess;
       return this;
@@ -1,5 +1,13 @@
 package emu;
 
+import org.bouncycastle.asn1.ASN1Encoding;
+import org.bouncycastle.asn1.BERTags;
+import org.bouncycastle.asn1.DEROctetString;
+import org.bouncycastle.asn1.DERTaggedObject;
+import org.bouncycastle.asn1.cms.CMSAttributes;
+import org.bouncycastle.asn1.icao.DataGroupHash;
+import org.bouncycastle.asn1.icao.ICAOObjectIdentifiers;
+import org.bouncycastle.asn1.icao.LDSSecurityObject;
 import org.bouncycastle.asn1.x500.X500Name;
 import org.bouncycastle.asn1.x509.BasicConstraints;
 import org.bouncycastle.asn1.x509.Extension;
@@ -7,31 +15,45 @@ import org.bouncycastle.asn1.x509.KeyUsage;
 import org.bouncycastle.cert.CertIOException;
 import org.bouncycastle.cert.X509CertificateHolder;
 import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateHolder;
 import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.cms.CMSAttributeTableGenerator;
+import org.bouncycastle.cms.CMSException;
+import org.bouncycastle.cms.CMSProcessableByteArray;
+import org.bouncycastle.cms.CMSSignedData;
+import org.bouncycastle.cms.CMSSignedDataGenerator;
+import org.bouncycastle.cms.DefaultSignedAttributeTableGenerator;
+import org.bouncycastle.cms.jcajce.JcaSignerInfoGeneratorBuilder;
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.operator.DefaultDigestAlgorithmIdentifierFinder;
 import org.bouncycastle.operator.OperatorCreationException;
 import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.bouncycastle.operator.jcajce.JcaDigestCalculatorProviderBuilder;
 import org.jmrtd.lds.CardAccessFile;
 import org.jmrtd.lds.ChipAuthenticationInfo;
 import org.jmrtd.lds.ChipAuthenticationPublicKeyInfo;
+import org.jmrtd.lds.LDSFile;
 import org.jmrtd.lds.PACEInfo;
 import org.jmrtd.lds.SecurityInfo;
 import org.jmrtd.lds.SODFile;
 import org.jmrtd.lds.TerminalAuthenticationInfo;
+import org.jmrtd.lds.icao.COMFile;
 import org.jmrtd.lds.icao.DG15File;
 import org.jmrtd.lds.icao.DG14File;
 import org.jmrtd.lds.icao.DG3File;
 import org.jmrtd.lds.icao.DG4File;
-import org.jmrtd.lds.icao.DG2File;
 import org.jmrtd.lds.iso19794.FaceImageInfo;
-import org.jmrtd.lds.iso19794.FaceInfo;
 import org.jmrtd.lds.iso19794.FingerImageInfo;
 import org.jmrtd.lds.iso19794.FingerInfo;
 import org.jmrtd.lds.iso19794.IrisBiometricSubtypeInfo;
 import org.jmrtd.lds.iso19794.IrisImageInfo;
 import org.jmrtd.lds.iso19794.IrisInfo;
 
+import javax.imageio.IIOImage;
 import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
 import java.awt.BasicStroke;
 import java.awt.Color;
 import java.awt.Graphics2D;
@@ -41,6 +63,8 @@ import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
 import java.security.GeneralSecurityException;
 import java.security.KeyPair;
 import java.security.KeyPairGenerator;
@@ -51,18 +75,31 @@ import java.security.Security;
 import java.security.cert.X509Certificate;
 import java.security.spec.ECGenParameterSpec;
 import java.util.Arrays;
-import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.math.BigInteger;
 import java.util.Set;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
 
 final class PersonalizationSupport {
 
+  /** Rendered synthetic biometrics depend only on their dimensions; bounded to keep bulk runs flat. */
+  private static final long SYNTHETIC_CACHE_BYTES = 64L * 1024 * 1024;
+  private static final SyntheticBiometricCache SYNTHETIC_BIOMETRICS =
+      new SyntheticBiometricCache(SYNTHETIC_CACHE_BYTES);
+
+  private static final float[] FACE_JPEG_QUALITIES = {0.75f, 0.6f, 0.45f, 0.3f, 0.15f};
+
+  /** Pixel count above which fingerprint and iris rasters are rendered row-parallel. */
+  private static final int PARALLEL_RENDER_PIXELS = 1 << 20;
+
   static {
     if (Security.getProvider(BouncyCastleProvider.PROVIDER_NAME) == null) {
       Security.addProvider(new BouncyCastleProvider());
@@ -76,13 +113,11 @@ final class PersonalizationSupport {
       throws GeneralSecurityException, OperatorCreationException, CertIOException, IOException {
     SecureRandom random = createRandom(job);
 
-    KeyPairGenerator cscaGenerator = KeyPairGenerator.getInstance("RSA");
-    cscaGenerator.initialize(job.getCscaKeySize(), random);
-    KeyPair cscaPair = cscaGenerator.generateKeyPair();
-
-    KeyPairGenerator docSignerGenerator = KeyPairGenerator.getInstance("RSA");
-    docSignerGenerator.initialize(job.getDocSignerKeySize(), random);
-    KeyPair docSignerPair = docSignerGenerator.generateKeyPair();
+    long stageStarted = System.nanoTime();
+    KeyPair cscaPair = generateSignerKeyPair(
+        job.getCscaSignatureAlgorithm(), job.getCscaKeySize(), job.getCscaCurve(), random);
+    KeyPair docSignerPair = generateSignerKeyPair(
+        job.getSignatureAlgorithm(), job.getDocSignerKeySize(), job.getDocSignerCurve(), random);
 
     KeyPairGenerator aaGenerator = KeyPairGenerator.getInstance("RSA");
     aaGenerator.initialize(job.getAaKeySize(), random);
@@ -93,6 +128,8 @@ final class PersonalizationSupport {
     KeyPairGenerator ecGenerator = KeyPairGenerator.getInstance("EC");
     ecGenerator.initialize(new ECGenParameterSpec(job.getChipAuthenticationCurve()), random);
     KeyPair chipAuthKeyPair = ecGenerator.generateKeyPair();
+    SimMetrics.issuanceStage("keygen", stageStarted);
+    stageStarted = System.nanoTime();
 
     long now = job.getDeterministicSeed() != null
         ? job.getDeterministicSeed().longValue()
@@ -109,7 +146,7 @@ final class PersonalizationSupport {
         true,
         notBefore,
         notAfter,
-        job.getSignatureAlgorithm(),
+        job.getCscaSignatureAlgorithm(),
         random);
 
     X509Certificate docSignerCert = createCertificate(
@@ -120,35 +157,45 @@ final class PersonalizationSupport {
         false,
         notBefore,
         docSignerExpiry,
-        job.getSignatureAlgorithm(),
+        job.getCscaSignatureAlgorithm(),
         random);
+    SimMetrics.issuanceStage("certificates", stageStarted);
+    stageStarted = System.nanoTime();
 
     Map<Integer, byte[]> dataGroupBytes = new LinkedHashMap<>();
     Map<Integer, byte[]> hashes = new LinkedHashMap<>();
     MessageDigest md = MessageDigest.getInstance(job.getDigestAlgorithm());
 
     byte[] dg1Bytes = job.getDg1Bytes();
-    dataGroupBytes.put(Integer.valueOf(1), dg1Bytes.clone());
+    dataGroupBytes.put(Integer.valueOf(1), dg1Bytes);
     hashes.put(Integer.valueOf(1), digest(md, dg1Bytes));
 
     byte[] dg2Bytes = null;
     if (job.isDataGroupEnabled(2)) {
-      dg2Bytes = buildDg2(job);
-      dataGroupBytes.put(Integer.valueOf(2), dg2Bytes.clone());
-      hashes.put(Integer.valueOf(2), digest(md, dg2Bytes));
+      // Hashed while it is encoded.
+      dg2Bytes = buildDg2(job, md);
+      dataGroupBytes.put(Integer.valueOf(2), dg2Bytes);
+      hashes.put(Integer.valueOf(2), md.digest());
     }
 
+    // DG3 and DG4 share the cached render; artifacts only ever expose read-only views of it.
     byte[] dg3Bytes = null;
     if (job.isDataGroupEnabled(3)) {
-      dg3Bytes = buildDemoDG3(job.getFingerprintSource().getWidth(), job.getFingerprintSource().getHeight());
-      dataGroupBytes.put(Integer.valueOf(3), dg3Bytes.clone());
+      int fingerWidth = job.getFingerprintSource().getWidth();
+      int fingerHeight = job.getFingerprintSource().getHeight();
+      dg3Bytes = SYNTHETIC_BIOMETRICS.get("dg3", fingerWidth, fingerHeight,
+          () -> buildDemoDG3(fingerWidth, fingerHeight));
+      dataGroupBytes.put(Integer.valueOf(3), dg3Bytes);
       hashes.put(Integer.valueOf(3), digest(md, dg3Bytes));
     }
 
     byte[] dg4Bytes = null;
     if (job.isDataGroupEnabled(4)) {
-      dg4Bytes = buildDemoDG4(job.getIrisSource().getWidth(), job.getIrisSource().getHeight());
-      dataGroupBytes.put(Integer.valueOf(4), dg4Bytes.clone());
+      int irisWidth = job.getIrisSource().getWidth();
+      int irisHeight = job.getIrisSource().getHeight();
+      dg4Bytes = SYNTHETIC_BIOMETRICS.get("dg4", irisWidth, irisHeight,
+          () -> buildDemoDG4(irisWidth, irisHeight));
+      dataGroupBytes.put(Integer.valueOf(4), dg4Bytes);
       hashes.put(Integer.valueOf(4), digest(md, dg4Bytes));
     }
 
@@ -166,7 +213,7 @@ final class PersonalizationSupport {
       }
       DG14File dg14File = new DG14File(dg14Infos);
       dg14Bytes = dg14File.getEncoded();
-      dataGroupBytes.put(Integer.valueOf(14), dg14Bytes.clone());
+      dataGroupBytes.put(Integer.valueOf(14), dg14Bytes);
       hashes.put(Integer.valueOf(14), digest(md, dg14Bytes));
     }
 
@@ -174,19 +221,23 @@ final class PersonalizationSupport {
     if (job.isDataGroupEnabled(15)) {
       DG15File dg15File = new DG15File(aaKeyPair.getPublic());
       dg15Bytes = dg15File.getEncoded();
-      dataGroupBytes.put(Integer.valueOf(15), dg15Bytes.clone());
+      dataGroupBytes.put(Integer.valueOf(15), dg15Bytes);
       hashes.put(Integer.valueOf(15), digest(md, dg15Bytes));
     }
 
     byte[] cardAccessBytes = null;
     if (job.includeCardAccess() && !job.getPaceOids().isEmpty()) {
-      List<SecurityInfo> paceInfos = buildPaceInfos(job.getPaceOids());
+      List<SecurityInfo> paceInfos = buildPaceInfos(job.getPaceOids(), job.getPaceDomainParameterId());
       CardAccessFile cardAccessFile = new CardAccessFile(paceInfos);
       cardAccessBytes = cardAccessFile.getEncoded();
     }
 
-    SODFile sodFile = new SODFile(job.getDigestAlgorithm(), job.getSignatureAlgorithm(), hashes, docSignerPair.getPrivate(), docSignerCert);
-    byte[] sodBytes = sodFile.getEncoded();
+    SimMetrics.issuanceStage("dg_build", stageStarted);
+    stageStarted = System.nanoTime();
+
+    byte[] sodBytes = signSecurityObject(job.getDigestAlgorithm(), job.getSignatureAlgorithm(), hashes,
+        docSignerPair.getPrivate(), docSignerCert);
+    SimMetrics.issuanceStage("sod_sign", stageStarted);
 
     return new SODArtifacts(
         job,
@@ -201,86 +252,212 @@ final class PersonalizationSupport {
         docSignerCert);
   }
 
-  private static SecureRandom createRandom(PersonalizationJob job) {
-    Long seed = job.getDeterministicSeed();
-    if (seed == null) {
-      return new SecureRandom();
-    }
-    try {
-      SecureRandom seeded = SecureRandom.getInstance("SHA1PRNG");
-      seeded.setSeed(longToBytes(seed.longValue()));
-      return seeded;
-    } catch (GeneralSecurityException e) {
-      SecureRandom fallback = new SecureRandom();
-      fallback.setSeed(longToBytes(seed.longValue()));
-      return fallback;
+  /**
+   * Encodes EF.COM for {@code artifacts}, deriving the tag list from the present data groups when
+   * the job does not provide one.
+   */
+  static byte[] buildComBytes(SODArtifacts artifacts) {
+    PersonalizationJob job = artifacts.getJob();
+    List<Integer> comTags = job != null ? new ArrayList<>(job.getComTagList()) : new ArrayList<>();
+    if (comTags.isEmpty()) {
+      comTags.add(LDSFile.EF_DG1_TAG);
+      for (Integer dg : artifacts.getPresentDataGroupNumbers()) {
+        comTags.add(Integer.valueOf(0x0100 | (dg.intValue() & 0xFF)));
+      }
+      Collections.sort(comTags);
     }
+    int[] tagArray = comTags.stream().mapToInt(Integer::intValue).toArray();
+    return new COMFile("1.7", "4.0.0", tagArray).getEncoded();
   }
 
-  private static byte[] longToBytes(long value) {
-    return ByteBuffer.allocate(Long.BYTES).putLong(value).array();
+  /** Seeded jobs derive their own DRBG so output does not depend on the issuing thread. */
+  private static SecureRandom createRandom(PersonalizationJob job) {
+    Long seed = job.getDeterministicSeed();
+    return seed != null ? Randomness.seededRandom(seed.longValue()) : Randomness.threadRandom();
   }
 
-  private static byte[] buildDg2(PersonalizationJob job) throws IOException {
+  /**
+   * Encodes DG2 in a single pass with {@link Dg2StreamEncoder}, leaving {@code md} primed with the
+   * digest of the returned bytes.
+   */
+  private static byte[] buildDg2(PersonalizationJob job, MessageDigest md) throws IOException {
     PersonalizationJob.BiometricSource source = job.getFaceSource();
     byte[] jpegBytes;
     int width;
     int height;
+    int imageDataType = FaceImageInfo.IMAGE_DATA_TYPE_JPEG;
     if (source.isSynthetic()) {
-      width = source.getWidth();
-      height = source.getHeight();
-      jpegBytes = createSampleFaceImage(width, height);
+      int faceWidth = source.getWidth();
+      int faceHeight = source.getHeight();
+      width = faceWidth;
+      height = faceHeight;
+      jpegBytes = SYNTHETIC_BIOMETRICS.get("face-jpeg", faceWidth, faceHeight,
+          () -> createSampleFaceImage(faceWidth, faceHeight));
     } else {
-      BufferedImage image = ImageIO.read(source.getPath().toFile());
-      if (image == null) {
-        throw new IOException("Failed to read face image: " + source.getPath());
+      byte[] original = Files.readAllBytes(source.getPath());
+      FaceImageProbe.Header header = FaceImageProbe.probe(original);
+      if (header != null
+          && header.getWidth() <= job.getFaceMaxWidth()
+          && header.getHeight() <= job.getFaceMaxHeight()
+          && original.length <= job.getFaceMaxBytes()) {
+        // Already a JPEG/JPEG 2000 within limits: embed the original bytes untouched.
+        jpegBytes = original;
+        width = header.getWidth();
+        height = header.getHeight();
+        imageDataType = header.getImageDataType();
+      } else {
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(original));
+        if (image == null) {
+          throw new IOException(header != null
+              ? "Face image exceeds configured limits and cannot be decoded for resizing: " + source.getPath()
+              : "Failed to read face image: " + source.getPath());
+        }
+        image = scaleToFit(image, job.getFaceMaxWidth(), job.getFaceMaxHeight());
+        jpegBytes = encodeFaceJpeg(image, job.getFaceMaxBytes());
+        width = image.getWidth();
+        height = image.getHeight();
       }
-      width = image.getWidth();
-      height = image.getHeight();
-      ByteArrayOutputStream out = new ByteArrayOutputStream();
-      if (!ImageIO.write(image, "jpg", out)) {
-        throw new IOException("Failed to encode face image as JPEG");
-      }
-      jpegBytes = out.toByteArray();
     }
 
-    FaceImageInfo faceImageInfo = new FaceImageInfo(
-        net.sf.scuba.data.Gender.UNSPECIFIED,
-        null,
-        0,
-        FaceImageInfo.HAIR_COLOR_UNSPECIFIED,
-        FaceImageInfo.EXPRESSION_NEUTRAL,
-        new int[]{0, 0, 0},
-        new int[]{0, 0, 0},
-        FaceImageInfo.FACE_IMAGE_TYPE_FULL_FRONTAL,
-        FaceImageInfo.IMAGE_COLOR_SPACE_RGB24,
-        FaceImageInfo.SOURCE_TYPE_STATIC_PHOTO_DIGITAL_CAM,
-        0,
-        85,
-        null,
+    md.reset();
+    boolean corrupt = job.isCorruptDg2();
+    byte[] encoded = Dg2StreamEncoder.encode(
         width,
         height,
+        imageDataType,
         new ByteArrayInputStream(jpegBytes),
         jpegBytes.length,
-        FaceImageInfo.IMAGE_DATA_TYPE_JPEG);
-
-    FaceInfo faceInfo = new FaceInfo(Collections.singletonList(faceImageInfo));
-    DG2File dg2File = DG2File.createISO19794DG2File(Collections.singletonList(faceInfo));
-    byte[] encoded = dg2File.getEncoded();
-    if (job.isCorruptDg2()) {
+        corrupt ? null : md);
+    if (corrupt) {
       encoded = corrupt(encoded);
+      md.update(encoded);
     }
     return encoded;
   }
 
-  private static List<SecurityInfo> buildPaceInfos(List<String> paceOids) {
+  /** Scales {@code image} down to fit within the limits, dropping any alpha channel JPEG cannot carry. */
+  private static BufferedImage scaleToFit(BufferedImage image, int maxWidth, int maxHeight) {
+    double scale = Math.min(1.0, Math.min(
+        (double) maxWidth / image.getWidth(), (double) maxHeight / image.getHeight()));
+    if (scale >= 1.0 && !image.getColorModel().hasAlpha()) {
+      return image;
+    }
+    int width = Math.max(1, (int) Math.floor(image.getWidth() * scale));
+    int height = Math.max(1, (int) Math.floor(image.getHeight() * scale));
+    BufferedImage scaled = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    Graphics2D g2d = scaled.createGraphics();
+    try {
+      g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+      g2d.setColor(Color.WHITE);
+      g2d.fillRect(0, 0, width, height);
+      g2d.drawImage(image, 0, 0, width, height, null);
+    } finally {
+      g2d.dispose();
+    }
+    return scaled;
+  }
+
+  /**
+   * Encodes {@code image} as JPEG, stepping the quality down until it fits {@code maxBytes}. The
+   * first attempt matches {@code ImageIO.write}'s default quality.
+   */
+  private static byte[] encodeFaceJpeg(BufferedImage image, int maxBytes) throws IOException {
+    Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName("jpg");
+    if (!writers.hasNext()) {
+      throw new IOException("Failed to encode face image as JPEG");
+    }
+    ImageWriter writer = writers.next();
+    try {
+      for (float quality : FACE_JPEG_QUALITIES) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ImageOutputStream imageOut = ImageIO.createImageOutputStream(out)) {
+          writer.setOutput(imageOut);
+          ImageWriteParam param = writer.getDefaultWriteParam();
+          param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+          param.setCompressionQuality(quality);
+          writer.write(null, new IIOImage(image, null, null), param);
+        }
+        if (out.size() <= maxBytes) {
+          return out.toByteArray();
+        }
+      }
+    } finally {
+      writer.dispose();
+    }
+    throw new IOException("Face image cannot be encoded within " + maxBytes + " bytes");
+  }
+
+  private static List<SecurityInfo> buildPaceInfos(List<String> paceOids, int domainParameterId) {
     List<SecurityInfo> paceInfos = new ArrayList<>();
     for (String oid : paceOids) {
-      paceInfos.add(new PACEInfo(oid, 2, PACEInfo.PARAM_ID_ECP_NIST_P256_R1));
+      paceInfos.add(new PACEInfo(oid, 2, domainParameterId));
     }
     return paceInfos;
   }
 
+  /** CSCA and document signer keys follow their signature algorithm: EC for ECDSA, RSA otherwise. */
+  private static KeyPair generateSignerKeyPair(String signatureAlgorithm,
+                                               int rsaKeySize,
+                                               String curve,
+                                               SecureRandom random) throws GeneralSecurityException {
+    if (isEcdsa(signatureAlgorithm)) {
+      KeyPairGenerator generator = KeyPairGenerator.getInstance("EC", BouncyCastleProvider.PROVIDER_NAME);
+      generator.initialize(new ECGenParameterSpec(curve), random);
+      return generator.generateKeyPair();
+    }
+    KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+    generator.initialize(rsaKeySize, random);
+    return generator.generateKeyPair();
+  }
+
+  private static boolean isEcdsa(String signatureAlgorithm) {
+    return signatureAlgorithm.toUpperCase(Locale.ROOT).endsWith("WITHECDSA");
+  }
+
+  /**
+   * Encodes EF.SOD. Signing goes through Bouncy Castle so brainpool curves work on every JDK.
+   * jmrtd cannot name an RSASSA-PSS signer, so PSS signatures are assembled with the CMS generator
+   * instead; jmrtd reads the result back like any other SOD.
+   */
+  private static byte[] signSecurityObject(String digestAlgorithm,
+                                           String signatureAlgorithm,
+                                           Map<Integer, byte[]> hashes,
+                                           PrivateKey privateKey,
+                                           X509Certificate docSignerCert)
+      throws GeneralSecurityException, OperatorCreationException, IOException {
+    if (!signatureAlgorithm.toUpperCase(Locale.ROOT).endsWith("ANDMGF1")) {
+      return new SODFile(digestAlgorithm, signatureAlgorithm, hashes, privateKey, docSignerCert,
+          BouncyCastleProvider.PROVIDER_NAME).getEncoded();
+    }
+    DataGroupHash[] dataGroupHashes = new DataGroupHash[hashes.size()];
+    int index = 0;
+    for (Map.Entry<Integer, byte[]> entry : hashes.entrySet()) {
+      dataGroupHashes[index++] = new DataGroupHash(entry.getKey().intValue(), new DEROctetString(entry.getValue()));
+    }
+    LDSSecurityObject securityObject = new LDSSecurityObject(
+        new DefaultDigestAlgorithmIdentifierFinder().find(digestAlgorithm), dataGroupHashes);
+
+    // Like jmrtd, sign only content type and message digest: no signing time to fall outside the DSC validity.
+    CMSAttributeTableGenerator signedAttributes = parameters ->
+        new DefaultSignedAttributeTableGenerator().getAttributes(parameters).remove(CMSAttributes.signingTime);
+    CMSSignedDataGenerator generator = new CMSSignedDataGenerator();
+    generator.addSignerInfoGenerator(new JcaSignerInfoGeneratorBuilder(
+        new JcaDigestCalculatorProviderBuilder().setProvider(BouncyCastleProvider.PROVIDER_NAME).build())
+        .setSignedAttributeGenerator(signedAttributes)
+        .build(new JcaContentSignerBuilder(signatureAlgorithm)
+            .setProvider(BouncyCastleProvider.PROVIDER_NAME)
+            .build(privateKey), docSignerCert));
+    try {
+      generator.addCertificate(new JcaX509CertificateHolder(docSignerCert));
+      CMSSignedData signedData = generator.generate(new CMSProcessableByteArray(
+          ICAOObjectIdentifiers.id_icao_ldsSecurityObject, securityObject.getEncoded(ASN1Encoding.DER)), true);
+      return new DERTaggedObject(true, BERTags.APPLICATION, LDSFile.EF_SOD_TAG & 0x1F, signedData.toASN1Structure())
+          .getEncoded(ASN1Encoding.DER);
+    } catch (CMSException e) {
+      throw new GeneralSecurityException("Failed to sign EF.SOD", e);
+    }
+  }
+
   private static byte[] digest(MessageDigest md, byte[] value) {
     return md.digest(value);
   }
@@ -361,9 +538,13 @@ final class PersonalizationSupport {
     return dg4File.getEncoded();
   }
 
+  static SyntheticBiometricCache syntheticBiometricCache() {
+    return SYNTHETIC_BIOMETRICS;
+  }
+
   private static byte[] createFingerprintPixels(int width, int height) {
     byte[] pixels = new byte[width * height];
-    for (int y = 0; y < height; y++) {
+    renderRows(width, height, y -> {
       for (int x = 0; x < width; x++) {
         int index = y * width + x;
         int ridge = (int) ((Math.sin((x + y) / 12.0) + 1.0) * 120.0);
@@ -371,7 +552,7 @@ final class PersonalizationSupport {
         int value = Math.min(255, ridge + swirl);
         pixels[index] = (byte) value;
       }
-    }
+    });
     return pixels;
   }
 
@@ -380,7 +561,7 @@ final class PersonalizationSupport {
     double centerX = width / 2.0;
     double centerY = height / 2.0;
     double maxRadius = Math.min(width, height) / 2.0;
-    for (int y = 0; y < height; y++) {
+    renderRows(width, height, y -> {
       for (int x = 0; x < width; x++) {
         double dx = x - centerX;
         double dy = y - centerY;
@@ -389,10 +570,19 @@ final class PersonalizationSupport {
         int value = (int) (200 - 140 * normalized + 30 * Math.sin(distance / 4.0));
         pixels[y * width + x] = (byte) Math.max(0, Math.min(255, value));
       }
-    }
+    });
     return pixels;
   }
 
+  /** Rows are independent, so large first-time rasters are split across the common pool. */
+  private static void renderRows(int width, int height, IntConsumer row) {
+    IntStream rows = IntStream.range(0, height);
+    if ((long) width * height >= PARALLEL_RENDER_PIXELS) {
+      rows = rows.parallel();
+    }
+    rows.forEach(row);
+  }
+
   private static X509Certificate createCertificate(String subject,
                                                     String issuer,
                                                     java.security.PublicKey subjectPublicKey,
@@ -489,12 +679,18 @@ final class PersonalizationSupport {
     return mutated;
   }
 
+  /**
+   * Issuer output for one document. LDS payloads are held as read-only {@link ByteBuffer} views over
+   * the arrays {@link #buildArtifacts} produced, so artifacts can be shared between consumers and
+   * threads without defensive copies; the {@code byte[]} accessors copy and are meant for small
+   * files or callers that need an array.
+   */
   static final class SODArtifacts {
     private final PersonalizationJob job;
-    private final byte[] sodBytes;
-    private final Map<Integer, byte[]> dataGroupBytes;
+    private final ByteBuffer sodBytes;
+    private final Map<Integer, ByteBuffer> dataGroupBytes;
     private final Map<Integer, byte[]> hashes;
-    private final byte[] cardAccessBytes;
+    private final ByteBuffer cardAccessBytes;
     private final KeyPair chipAuthKeyPair;
     private final KeyPair aaKeyPair;
     private final KeyPair docSignerKeyPair;
@@ -503,6 +699,7 @@ final class PersonalizationSupport {
     private final String digestAlgorithm;
     private final String signatureAlgorithm;
 
+    /** Takes ownership of every array passed in; callers must not modify them afterwards. */
     SODArtifacts(PersonalizationJob job,
                  byte[] sodBytes,
                  Map<Integer, byte[]> dataGroupBytes,
@@ -514,10 +711,14 @@ final class PersonalizationSupport {
                  X509Certificate cscaCert,
                  X509Certificate docSignerCert) {
       this.job = job;
-      this.sodBytes = sodBytes.clone();
-      this.dataGroupBytes = Collections.unmodifiableMap(cloneByteMap(dataGroupBytes));
-      this.hashes = Collections.unmodifiableMap(cloneByteMap(hashes));
-      this.cardAccessBytes = cardAccessBytes != null ? cardAccessBytes.clone() : null;
+      this.sodBytes = readOnly(sodBytes);
+      Map<Integer, ByteBuffer> views = new LinkedHashMap<>();
+      for (Map.Entry<Integer, byte[]> entry : dataGroupBytes.entrySet()) {
+        views.put(entry.getKey(), readOnly(entry.getValue()));
+      }
+      this.dataGroupBytes = Collections.unmodifiableMap(views);
+      this.hashes = Collections.unmodifiableMap(new LinkedHashMap<>(hashes));
+      this.cardAccessBytes = readOnly(cardAccessBytes);
       this.chipAuthKeyPair = chipAuthKeyPair;
       this.aaKeyPair = aaKeyPair;
       this.docSignerKeyPair = docSignerKeyPair;
@@ -527,25 +728,42 @@ final class PersonalizationSupport {
       this.signatureAlgorithm = job.getSignatureAlgorithm();
     }
 
-    private Map<Integer, byte[]> cloneByteMap(Map<Integer, byte[]> source) {
-      Map<Integer, byte[]> copy = new LinkedHashMap<>();
-      for (Map.Entry<Integer, byte[]> entry : source.entrySet()) {
-        byte[] value = entry.getValue();
-        copy.put(entry.getKey(), value != null ? value.clone() : null);
+    private static ByteBuffer readOnly(byte[] bytes) {
+      return bytes != null ? ByteBuffer.wrap(bytes).asReadOnlyBuffer() : null;
+    }
+
+    /** A fresh view, so concurrent readers never share a position. */
+    private static ByteBuffer view(ByteBuffer buffer) {
+      return buffer != null ? buffer.duplicate() : null;
+    }
+
+    private static byte[] copy(ByteBuffer buffer) {
+      if (buffer == null) {
+        return null;
       }
-      return copy;
+      byte[] bytes = new byte[buffer.remaining()];
+      buffer.duplicate().get(bytes);
+      return bytes;
     }
 
     PersonalizationJob getJob() {
       return job;
     }
 
+    ByteBuffer getSodBuffer() {
+      return view(sodBytes);
+    }
+
     byte[] getSodBytes() {
-      return sodBytes.clone();
+      return copy(sodBytes);
+    }
+
+    ByteBuffer getCardAccessBuffer() {
+      return view(cardAccessBytes);
     }
 
     byte[] getCardAccessBytes() {
-      return cardAccessBytes != null ? cardAccessBytes.clone() : null;
+      return copy(cardAccessBytes);
     }
 
     Set<Integer> getPresentDataGroupNumbers() {
@@ -556,13 +774,26 @@ final class PersonalizationSupport {
       return hashes;
     }
 
-    Map<Integer, byte[]> getDataGroupBytesMap() {
-      return dataGroupBytes;
+    /** Read-only views of every present data group, in issuance order. */
+    Map<Integer, ByteBuffer> getDataGroupBuffers() {
+      Map<Integer, ByteBuffer> views = new LinkedHashMap<>();
+      for (Map.Entry<Integer, ByteBuffer> entry : dataGroupBytes.entrySet()) {
+        views.put(entry.getKey(), view(entry.getValue()));
+      }
+      return Collections.unmodifiableMap(views);
+    }
+
+    ByteBuffer getDataGroupBuffer(int dataGroupNumber) {
+      return view(dataGroupBytes.get(Integer.valueOf(dataGroupNumber)));
+    }
+
+    int getDataGroupLength(int dataGroupNumber) {
+      ByteBuffer buffer = dataGroupBytes.get(Integer.valueOf(dataGroupNumber));
+      return buffer != null ? buffer.remaining() : 0;
     }
 
     byte[] getDataGroupBytes(int dataGroupNumber) {
-      byte[] bytes = dataGroupBytes.get(Integer.valueOf(dataGroupNumber));
-      return bytes == null ? null : bytes.clone();
+      return copy(dataGroupBytes.get(Integer.valueOf(dataGroupNumber)));
     }
 
     byte[] getDg2Bytes() {
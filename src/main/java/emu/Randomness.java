@@ -0,0 +1,195 @@
+package emu;
+
+import org.bouncycastle.crypto.digests.SHA256Digest;
+import org.bouncycastle.crypto.engines.AESEngine;
+import org.bouncycastle.crypto.prng.EntropySource;
+import org.bouncycastle.crypto.prng.EntropySourceProvider;
+import org.bouncycastle.crypto.prng.SP800SecureRandom;
+import org.bouncycastle.crypto.prng.SP800SecureRandomBuilder;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.Locale;
+import java.util.Objects;
+
+/**
+ * Randomness for issuance and host-side protocol steps. Each thread draws from its own NIST
+ * SP 800-90A DRBG, instantiated and periodically reseeded from one shared entropy source, so
+ * parallel issuance neither contends on a shared generator nor waits on entropy reads. Jobs with a
+ * deterministic seed get a DRBG whose entropy is derived from the seed alone, which keeps them
+ * reproducible whichever thread issues them.
+ *
+ * <p>The DRBG mechanism defaults to Hash_DRBG (SHA-256); {@code -Demu.drbg=ctr} selects CTR_DRBG
+ * (AES-256). Tests or embedders can install their own {@link Provider}.
+ */
+final class Randomness {
+
+  interface Provider {
+    /** Generator for the calling thread; never handed to another thread. */
+    SecureRandom threadRandom();
+
+    /** Fresh generator whose entire output is determined by {@code seed}. */
+    SecureRandom seededRandom(long seed);
+  }
+
+  enum Mechanism {
+    HASH_SHA256,
+    CTR_AES256;
+
+    static Mechanism fromName(String name) {
+      if (name == null || name.isBlank()) {
+        return HASH_SHA256;
+      }
+      switch (name.trim().toLowerCase(Locale.ROOT)) {
+        case "hash":
+        case "hash_drbg":
+          return HASH_SHA256;
+        case "ctr":
+        case "ctr_drbg":
+          return CTR_AES256;
+        default:
+          throw new IllegalArgumentException("Unknown DRBG mechanism: " + name);
+      }
+    }
+  }
+
+  private static volatile Provider provider =
+      new DrbgProvider(new SecureRandom(), Mechanism.fromName(System.getProperty("emu.drbg")));
+
+  private Randomness() {
+  }
+
+  static Provider getProvider() {
+    return provider;
+  }
+
+  static void setProvider(Provider replacement) {
+    provider = Objects.requireNonNull(replacement, "provider");
+  }
+
+  static SecureRandom threadRandom() {
+    return provider.threadRandom();
+  }
+
+  static SecureRandom seededRandom(long seed) {
+    return provider.seededRandom(seed);
+  }
+
+  static final class DrbgProvider implements Provider {
+    /** Requests a thread's DRBG serves before it is reseeded from the shared entropy source. */
+    static final int RESEED_INTERVAL = 1 << 16;
+
+    private static final byte[] PERSONALIZATION = "emu-mrtd".getBytes(StandardCharsets.US_ASCII);
+
+    private final SecureRandom entropySource;
+    private final Mechanism mechanism;
+    private final ThreadLocal<ThreadDrbg> perThread;
+
+    DrbgProvider(SecureRandom entropySource, Mechanism mechanism) {
+      this.entropySource = Objects.requireNonNull(entropySource, "entropySource");
+      this.mechanism = Objects.requireNonNull(mechanism, "mechanism");
+      this.perThread = ThreadLocal.withInitial(() -> {
+        byte[] nonce = new byte[16];
+        entropySource.nextBytes(nonce);
+        return new ThreadDrbg(build(this::sharedEntropy, nonce));
+      });
+    }
+
+    @Override
+    public SecureRandom threadRandom() {
+      ThreadDrbg local = perThread.get();
+      if (++local.requests >= RESEED_INTERVAL) {
+        local.drbg.reseed((byte[]) null);
+        local.requests = 0;
+      }
+      return local.drbg;
+    }
+
+    @Override
+    public SecureRandom seededRandom(long seed) {
+      byte[] nonce = ByteBuffer.allocate(Long.BYTES).putLong(seed).array();
+      return build(bits -> new SeedEntropy(seed, bits), nonce);
+    }
+
+    Mechanism getMechanism() {
+      return mechanism;
+    }
+
+    private SP800SecureRandom build(EntropySourceProvider entropy, byte[] nonce) {
+      SP800SecureRandomBuilder builder = new SP800SecureRandomBuilder(entropy)
+          .setPersonalizationString(PERSONALIZATION);
+      if (mechanism == Mechanism.CTR_AES256) {
+        return builder.buildCTR(AESEngine.newInstance(), 256, nonce, false);
+      }
+      return builder.buildHash(new SHA256Digest(), nonce, false);
+    }
+
+    /** Draws from the shared source only on instantiation and reseed, so contention stays negligible. */
+    private EntropySource sharedEntropy(int bits) {
+      return new EntropySource() {
+        @Override
+        public boolean isPredictionResistant() {
+          return false;
+        }
+
+        @Override
+        public byte[] getEntropy() {
+          byte[] entropy = new byte[(bits + 7) / 8];
+          entropySource.nextBytes(entropy);
+          return entropy;
+        }
+
+        @Override
+        public int entropySize() {
+          return bits;
+        }
+      };
+    }
+  }
+
+  private static final class ThreadDrbg {
+    final SP800SecureRandom drbg;
+    int requests;
+
+    ThreadDrbg(SP800SecureRandom drbg) {
+      this.drbg = drbg;
+    }
+  }
+
+  /** Expands a seed into entropy blocks as SHA-256(seed || counter). */
+  private static final class SeedEntropy implements EntropySource {
+    private final long seed;
+    private final int bits;
+    private long counter;
+
+    SeedEntropy(long seed, int bits) {
+      this.seed = seed;
+      this.bits = bits;
+    }
+
+    @Override
+    public boolean isPredictionResistant() {
+      return false;
+    }
+
+    @Override
+    public byte[] getEntropy() {
+      SHA256Digest digest = new SHA256Digest();
+      byte[] entropy = new byte[(bits + 7) / 8];
+      byte[] block = new byte[digest.getDigestSize()];
+      for (int offset = 0; offset < entropy.length; offset += block.length) {
+        byte[] input = ByteBuffer.allocate(2 * Long.BYTES).putLong(seed).putLong(counter++).array();
+        digest.update(input, 0, input.length);
+        digest.doFinal(block, 0);
+        System.arraycopy(block, 0, entropy, offset, Math.min(block.length, entropy.length - offset));
+      }
+      return entropy;
+    }
+
+    @Override
+    public int entropySize() {
+      return bits;
+    }
+  }
+}
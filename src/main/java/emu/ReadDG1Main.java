@@ -1,5 +1,6 @@
 package emu;
 
+import java.io.PrintStream;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.time.LocalDate;
@@ -20,7 +21,10 @@ public final class ReadDG1Main {
   private static final String DEFAULT_DOC = "123456789";
   private static final String DEFAULT_DOB = "750101";
   private static final String DEFAULT_DOE = "250101";
+  private static final int DEFAULT_PACE_PRECOMPUTE_DEPTH = 32;
 
+  // The session tracer is a try resource only so that the trace is written when the read ends.
+  @SuppressWarnings("try")
   public static void main(String[] args) throws Exception {
     SimConfig.Builder builder = new SimConfig.Builder()
         .docNumber(DEFAULT_DOC)
@@ -40,7 +44,13 @@ public final class ReadDG1Main {
     Path taKeyPath = null;
     Path jsonOutPath = null;
     Path eventsOutPath = null;
+    Path tracePath = null;
+    LinkProfile linkProfile = null;
     Path facePreviewDir = null;
+    Path ldsContainerPath = null;
+    boolean factoryLoad = false;
+    boolean directTransport = false;
+    int pacePrecomputeDepth = 0;
     Boolean openComSodReads = null;
 
     List<Path> taCvcs = new ArrayList<>();
@@ -145,11 +155,34 @@ public final class ReadDG1Main {
       } else if ("--events-out".equals(arg)) {
         i = advanceWithValue(argList, i, "--events-out");
         eventsOutPath = Paths.get(argList.get(i));
+      } else if (arg.startsWith("--link=")) {
+        linkProfile = LinkProfile.parse(arg.substring("--link=".length()));
+      } else if ("--link".equals(arg)) {
+        i = advanceWithValue(argList, i, "--link");
+        linkProfile = LinkProfile.parse(argList.get(i));
+      } else if (arg.startsWith("--trace=")) {
+        tracePath = Paths.get(arg.substring("--trace=".length()));
+      } else if ("--trace".equals(arg)) {
+        i = advanceWithValue(argList, i, "--trace");
+        tracePath = Paths.get(argList.get(i));
       } else if (arg.startsWith("--face-preview-dir=")) {
         facePreviewDir = Paths.get(arg.substring("--face-preview-dir=".length()));
       } else if ("--face-preview-dir".equals(arg)) {
         i = advanceWithValue(argList, i, "--face-preview-dir");
         facePreviewDir = Paths.get(argList.get(i));
+      } else if (arg.startsWith("--lds-container=")) {
+        ldsContainerPath = Paths.get(arg.substring("--lds-container=".length()));
+      } else if ("--lds-container".equals(arg)) {
+        i = advanceWithValue(argList, i, "--lds-container");
+        ldsContainerPath = Paths.get(argList.get(i));
+      } else if ("--factory-load".equals(arg)) {
+        factoryLoad = true;
+      } else if ("--direct-transport".equals(arg)) {
+        directTransport = true;
+      } else if ("--pace-precompute".equals(arg)) {
+        pacePrecomputeDepth = DEFAULT_PACE_PRECOMPUTE_DEPTH;
+      } else if (arg.startsWith("--pace-precompute=")) {
+        pacePrecomputeDepth = Integer.parseInt(arg.substring("--pace-precompute=".length()));
       } else {
         System.out.println("Unknown argument: " + arg);
       }
@@ -198,6 +231,13 @@ public final class ReadDG1Main {
     if (openComSodReads != null) {
       builder.openComSodReads(openComSodReads);
     }
+    if (ldsContainerPath != null) {
+      builder.ldsContainer(ldsContainerPath);
+    }
+    builder.factoryLoad(factoryLoad);
+    builder.transport(directTransport ? SimTransport.DIRECT : SimTransport.SMARTCARDIO);
+    builder.pacePrecomputeDepth(pacePrecomputeDepth);
+    builder.linkProfile(linkProfile);
     if (taDateOverride != null) {
       builder.terminalAuthDate(resolveTerminalAuthDate(taDateOverride));
     } else {
@@ -205,7 +245,10 @@ public final class ReadDG1Main {
     }
 
     SimRunner runner = new SimRunner();
-    SessionReport report = runner.run(builder.build(), new CliEvents());
+    SessionReport report;
+    try (SessionTracer tracer = tracePath != null ? SessionTracer.start(tracePath) : null) {
+      report = runner.run(builder.build(), new CliEvents());
+    }
 
     System.out.println("=== Session Summary ===");
     System.out.println("Transport: " + report.session.transport);
@@ -260,23 +303,26 @@ public final class ReadDG1Main {
     return value != null && !value.isBlank();
   }
 
+  /** Prints to the stdout in place before the session redirects it, so output isn't captured twice. */
   private static final class CliEvents implements SimEvents {
+    private final PrintStream out = System.out;
+
     @Override
     public void onPhase(SimPhase phase, String detail) {
-      System.out.printf("[%s] %s%n", phase.name(), detail);
+      out.printf("[%s] %s%n", phase.name(), detail);
     }
 
     @Override
     public void onLog(SimLogCategory category, String message) {
       switch (category) {
         case APDU:
-          System.out.println("[APDU] " + message);
+          out.println("[APDU] " + message);
           break;
         case SECURITY:
-          System.out.println("[SEC] " + message);
+          out.println("[SEC] " + message);
           break;
         default:
-          System.out.println(message);
+          out.println(message);
           break;
       }
     }
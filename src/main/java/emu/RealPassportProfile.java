@@ -1,22 +1,25 @@
 package emu;
 
+import java.nio.ByteBuffer;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Objects;
 
 /**
- * Immutable value object containing LDS bytes captured from a real passport.
+ * Immutable value object containing LDS bytes captured from a real passport. Contents are held as
+ * read-only {@link ByteBuffer} views; the buffer accessors share them without copying, the
+ * {@code byte[]} accessors return copies.
  */
 public final class RealPassportProfile {
 
   private final String documentNumber;
   private final String dateOfBirth;
   private final String dateOfExpiry;
-  private final Map<Integer, byte[]> dataGroupBytes;
-  private final byte[] comFile;
-  private final byte[] sodFile;
-  private final byte[] cardAccessFile;
+  private final Map<Integer, ByteBuffer> dataGroupBytes;
+  private final ByteBuffer comFile;
+  private final ByteBuffer sodFile;
+  private final ByteBuffer cardAccessFile;
 
   public RealPassportProfile(
       String documentNumber,
@@ -26,13 +29,49 @@ public final class RealPassportProfile {
       byte[] comFile,
       byte[] sodFile,
       byte[] cardAccessFile) {
+    this(documentNumber, dateOfBirth, dateOfExpiry, copyMap(dataGroupBytes),
+        copy(comFile), copy(sodFile), copy(cardAccessFile));
+  }
+
+  private RealPassportProfile(
+      String documentNumber,
+      String dateOfBirth,
+      String dateOfExpiry,
+      Map<Integer, ByteBuffer> dataGroupBytes,
+      ByteBuffer comFile,
+      ByteBuffer sodFile,
+      ByteBuffer cardAccessFile) {
     this.documentNumber = documentNumber;
     this.dateOfBirth = dateOfBirth;
     this.dateOfExpiry = dateOfExpiry;
-    this.dataGroupBytes = Collections.unmodifiableMap(copyMap(dataGroupBytes));
-    this.comFile = copy(comFile);
-    this.sodFile = copy(sodFile);
-    this.cardAccessFile = copy(cardAccessFile);
+    this.dataGroupBytes = Collections.unmodifiableMap(dataGroupBytes);
+    this.comFile = comFile;
+    this.sodFile = sodFile;
+    this.cardAccessFile = cardAccessFile;
+  }
+
+  /**
+   * Builds a profile over existing buffers without copying them, e.g. the mapped entries of an
+   * {@link LdsContainer}. Callers hand over contents that nobody modifies afterwards.
+   */
+  public static RealPassportProfile fromBuffers(
+      String documentNumber,
+      String dateOfBirth,
+      String dateOfExpiry,
+      Map<Integer, ByteBuffer> dataGroupBytes,
+      ByteBuffer comFile,
+      ByteBuffer sodFile,
+      ByteBuffer cardAccessFile) {
+    Map<Integer, ByteBuffer> views = new HashMap<>();
+    if (dataGroupBytes != null) {
+      for (Map.Entry<Integer, ByteBuffer> entry : dataGroupBytes.entrySet()) {
+        if (entry.getKey() != null && entry.getValue() != null) {
+          views.put(entry.getKey(), readOnly(entry.getValue()));
+        }
+      }
+    }
+    return new RealPassportProfile(documentNumber, dateOfBirth, dateOfExpiry, views,
+        readOnly(comFile), readOnly(sodFile), readOnly(cardAccessFile));
   }
 
   public String getDocumentNumber() {
@@ -47,35 +86,60 @@ public final class RealPassportProfile {
     return dateOfExpiry;
   }
 
+  /** Read-only views of every captured data group; each call returns fresh positions. */
+  public Map<Integer, ByteBuffer> getDataGroupBuffers() {
+    Map<Integer, ByteBuffer> views = new HashMap<>();
+    for (Map.Entry<Integer, ByteBuffer> entry : dataGroupBytes.entrySet()) {
+      views.put(entry.getKey(), view(entry.getValue()));
+    }
+    return Collections.unmodifiableMap(views);
+  }
+
+  public ByteBuffer getDataGroupBuffer(int dataGroupNumber) {
+    return view(dataGroupBytes.get(dataGroupNumber));
+  }
+
+  public ByteBuffer getComBuffer() {
+    return view(comFile);
+  }
+
+  public ByteBuffer getSodBuffer() {
+    return view(sodFile);
+  }
+
+  public ByteBuffer getCardAccessBuffer() {
+    return view(cardAccessFile);
+  }
+
   public Map<Integer, byte[]> getDataGroupBytes() {
     Map<Integer, byte[]> copy = new HashMap<>();
-    for (Map.Entry<Integer, byte[]> entry : dataGroupBytes.entrySet()) {
-      copy.put(entry.getKey(), copy(entry.getValue()));
+    for (Map.Entry<Integer, ByteBuffer> entry : dataGroupBytes.entrySet()) {
+      copy.put(entry.getKey(), toBytes(entry.getValue()));
     }
     return Collections.unmodifiableMap(copy);
   }
 
   public byte[] getDataGroupBytes(int dataGroupNumber) {
-    return copy(dataGroupBytes.get(dataGroupNumber));
+    return toBytes(dataGroupBytes.get(dataGroupNumber));
   }
 
   public byte[] getComFile() {
-    return copy(comFile);
+    return toBytes(comFile);
   }
 
   public byte[] getSodFile() {
-    return copy(sodFile);
+    return toBytes(sodFile);
   }
 
   public byte[] getCardAccessFile() {
-    return copy(cardAccessFile);
+    return toBytes(cardAccessFile);
   }
 
-  private static Map<Integer, byte[]> copyMap(Map<Integer, byte[]> source) {
-    Map<Integer, byte[]> copy = new HashMap<>();
+  private static Map<Integer, ByteBuffer> copyMap(Map<Integer, byte[]> source) {
+    Map<Integer, ByteBuffer> copy = new HashMap<>();
     if (source != null) {
       for (Map.Entry<Integer, byte[]> entry : source.entrySet()) {
-        if (entry.getKey() != null) {
+        if (entry.getKey() != null && entry.getValue() != null) {
           copy.put(entry.getKey(), copy(entry.getValue()));
         }
       }
@@ -83,8 +147,25 @@ public final class RealPassportProfile {
     return copy;
   }
 
-  private static byte[] copy(byte[] value) {
-    return value == null ? null : value.clone();
+  private static ByteBuffer copy(byte[] value) {
+    return value == null ? null : ByteBuffer.wrap(value.clone()).asReadOnlyBuffer();
+  }
+
+  private static ByteBuffer readOnly(ByteBuffer value) {
+    return value == null ? null : value.slice().asReadOnlyBuffer();
+  }
+
+  private static ByteBuffer view(ByteBuffer value) {
+    return value == null ? null : value.duplicate();
+  }
+
+  private static byte[] toBytes(ByteBuffer value) {
+    if (value == null) {
+      return null;
+    }
+    byte[] bytes = new byte[value.remaining()];
+    value.duplicate().get(bytes);
+    return bytes;
   }
 
   @Override
@@ -100,18 +181,14 @@ public final class RealPassportProfile {
         && Objects.equals(dateOfBirth, that.dateOfBirth)
         && Objects.equals(dateOfExpiry, that.dateOfExpiry)
         && dataGroupBytes.equals(that.dataGroupBytes)
-        && java.util.Arrays.equals(comFile, that.comFile)
-        && java.util.Arrays.equals(sodFile, that.sodFile)
-        && java.util.Arrays.equals(cardAccessFile, that.cardAccessFile);
+        && Objects.equals(comFile, that.comFile)
+        && Objects.equals(sodFile, that.sodFile)
+        && Objects.equals(cardAccessFile, that.cardAccessFile);
   }
 
   @Override
   public int hashCode() {
-    int result = Objects.hash(documentNumber, dateOfBirth, dateOfExpiry, dataGroupBytes);
-    result = 31 * result + java.util.Arrays.hashCode(comFile);
-    result = 31 * result + java.util.Arrays.hashCode(sodFile);
-    result = 31 * result + java.util.Arrays.hashCode(cardAccessFile);
-    return result;
+    return Objects.hash(documentNumber, dateOfBirth, dateOfExpiry, dataGroupBytes, comFile, sodFile, cardAccessFile);
   }
 
   @Override
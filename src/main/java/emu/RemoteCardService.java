@@ -0,0 +1,229 @@
+package emu;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+import net.sf.scuba.smartcards.APDUEvent;
+import net.sf.scuba.smartcards.CardService;
+import net.sf.scuba.smartcards.CardServiceException;
+import net.sf.scuba.smartcards.CommandAPDU;
+import net.sf.scuba.smartcards.ResponseAPDU;
+
+/**
+ * {@link CardService} for a chip hosted by a {@link VirtualCardServer} in another process, or any
+ * peer that speaks the same {@code vpcd} framing. {@link #open()} connects and powers the card on,
+ * and {@link #close()} powers it off and disconnects.
+ *
+ * The framing has no request identifiers, and the server answers frames strictly in order.
+ * {@link #transmitAll} uses that order to pipeline: it writes up to {@link #getWindow()} commands
+ * with one flush, then reads their responses in sequence. Only batch commands that do not depend
+ * on one another's responses, such as plain SELECTs and READ BINARYs at known offsets; the
+ * server still executes them one after another. {@link #transmit} is the usual one-command round
+ * trip, so the service can sit under a {@code PassportService} unchanged.
+ */
+public final class RemoteCardService extends CardService {
+
+  static final String PROTOCOL = "REMOTE";
+  static final int DEFAULT_WINDOW = 16;
+
+  private static final int CONNECT_TIMEOUT_MILLIS = 5_000;
+
+  private final InetSocketAddress address;
+  private final int window;
+  private Socket socket;
+  private DataInputStream in;
+  private DataOutputStream out;
+  private byte[] atr;
+  private int sequence;
+
+  public RemoteCardService(InetSocketAddress address) {
+    this(address, DEFAULT_WINDOW);
+  }
+
+  public RemoteCardService(InetSocketAddress address, int window) {
+    if (window <= 0) {
+      throw new IllegalArgumentException("window must be positive: " + window);
+    }
+    this.address = Objects.requireNonNull(address, "address");
+    this.window = window;
+  }
+
+  public int getWindow() {
+    return window;
+  }
+
+  @Override
+  public synchronized void open() throws CardServiceException {
+    if (isOpen()) {
+      return;
+    }
+    Socket connection = new Socket();
+    try {
+      connection.setTcpNoDelay(true);
+      connection.connect(address, CONNECT_TIMEOUT_MILLIS);
+      in = new DataInputStream(new BufferedInputStream(connection.getInputStream()));
+      out = new DataOutputStream(new BufferedOutputStream(connection.getOutputStream()));
+      writeFrame(new byte[] {VirtualCardServer.CONTROL_POWER_ON});
+      writeFrame(new byte[] {VirtualCardServer.CONTROL_GET_ATR});
+      out.flush();
+      atr = readFrame();
+    } catch (IOException e) {
+      closeQuietly(connection);
+      throw new CardServiceException("Unable to reach remote card at " + address + ": " + e.getMessage(), e);
+    }
+    socket = connection;
+    state = SESSION_STARTED_STATE;
+  }
+
+  @Override
+  public synchronized boolean isOpen() {
+    return state != SESSION_STOPPED_STATE;
+  }
+
+  @Override
+  public synchronized ResponseAPDU transmit(CommandAPDU command) throws CardServiceException {
+    ensureOpen();
+    ResponseAPDU response;
+    try {
+      writeFrame(command.getBytes());
+      out.flush();
+      response = new ResponseAPDU(readFrame());
+    } catch (IOException e) {
+      throw lost(e);
+    }
+    notifyExchanged(command, response);
+    return response;
+  }
+
+  /**
+   * Sends {@code commands} in pipelined batches of {@link #getWindow()} and returns the responses
+   * in the same order.
+   */
+  public synchronized List<ResponseAPDU> transmitAll(List<CommandAPDU> commands) throws CardServiceException {
+    ensureOpen();
+    List<ResponseAPDU> responses = new ArrayList<>(commands.size());
+    try {
+      for (int start = 0; start < commands.size(); start += window) {
+        int end = Math.min(commands.size(), start + window);
+        for (int i = start; i < end; i++) {
+          writeFrame(commands.get(i).getBytes());
+        }
+        out.flush();
+        for (int i = start; i < end; i++) {
+          ResponseAPDU response = new ResponseAPDU(readFrame());
+          responses.add(response);
+          notifyExchanged(commands.get(i), response);
+        }
+      }
+    } catch (IOException e) {
+      throw lost(e);
+    }
+    return responses;
+  }
+
+  /** Warm-resets the remote card; the ATR is fetched again. */
+  public synchronized void reset() throws CardServiceException {
+    ensureOpen();
+    try {
+      writeFrame(new byte[] {VirtualCardServer.CONTROL_RESET});
+      writeFrame(new byte[] {VirtualCardServer.CONTROL_GET_ATR});
+      out.flush();
+      atr = readFrame();
+    } catch (IOException e) {
+      throw lost(e);
+    }
+  }
+
+  @Override
+  public synchronized byte[] getATR() throws CardServiceException {
+    ensureOpen();
+    return atr.clone();
+  }
+
+  @Override
+  public synchronized void close() {
+    if (!isOpen()) {
+      return;
+    }
+    state = SESSION_STOPPED_STATE;
+    try {
+      writeFrame(new byte[] {VirtualCardServer.CONTROL_POWER_OFF});
+      out.flush();
+    } catch (IOException ignored) {
+      // The connection is going away regardless.
+    }
+    closeQuietly(socket);
+    socket = null;
+    in = null;
+    out = null;
+  }
+
+  @Override
+  public boolean isConnectionLost(Exception e) {
+    for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+      if (cause instanceof IOException) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private void ensureOpen() throws CardServiceException {
+    if (!isOpen()) {
+      throw new CardServiceException("Remote card service is not open");
+    }
+  }
+
+  private void writeFrame(byte[] payload) throws IOException {
+    if (payload.length > 0xFFFF) {
+      throw new IOException("Frame too long: " + payload.length);
+    }
+    out.writeShort(payload.length);
+    out.write(payload);
+  }
+
+  private byte[] readFrame() throws IOException {
+    int length;
+    try {
+      length = in.readUnsignedShort();
+    } catch (EOFException e) {
+      throw new EOFException("Remote card closed the connection");
+    }
+    byte[] payload = new byte[length];
+    in.readFully(payload);
+    return payload;
+  }
+
+  private void notifyExchanged(CommandAPDU command, ResponseAPDU response) {
+    if (!getAPDUListeners().isEmpty()) {
+      notifyExchangedAPDU(new APDUEvent(this, PROTOCOL, ++sequence, command, response));
+    }
+  }
+
+  private CardServiceException lost(IOException e) {
+    close();
+    return new CardServiceException("Remote card connection lost: " + e.getMessage(), e);
+  }
+
+  private static void closeQuietly(Socket socket) {
+    try {
+      socket.close();
+    } catch (IOException ignored) {
+      // Best effort.
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "RemoteCardService(" + address + ")";
+  }
+}
@@ -0,0 +1,113 @@
+package emu;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * CLI entry point that summarises a directory of session report JSON files via
+ * {@link SessionReportAggregator}.
+ */
+public final class ReportAggregateMain {
+
+  public static void main(String[] args) throws Exception {
+    Path directory = null;
+    Path jsonOut = null;
+    Path csvOut = null;
+    int threads = Runtime.getRuntime().availableProcessors();
+
+    for (int i = 0; i < args.length; i++) {
+      String arg = args[i];
+      if ("-h".equals(arg) || "--help".equals(arg)) {
+        printUsage();
+        return;
+      } else if (arg.startsWith("--threads=")) {
+        threads = Integer.parseInt(arg.substring("--threads=".length()));
+      } else if ("--threads".equals(arg)) {
+        threads = Integer.parseInt(requireValue(args, ++i, arg));
+      } else if (arg.startsWith("--json=")) {
+        jsonOut = Paths.get(arg.substring("--json=".length()));
+      } else if ("--json".equals(arg)) {
+        jsonOut = Paths.get(requireValue(args, ++i, arg));
+      } else if (arg.startsWith("--csv=")) {
+        csvOut = Paths.get(arg.substring("--csv=".length()));
+      } else if ("--csv".equals(arg)) {
+        csvOut = Paths.get(requireValue(args, ++i, arg));
+      } else if (arg.startsWith("--")) {
+        throw new IllegalArgumentException("Unknown option: " + arg);
+      } else {
+        directory = Paths.get(arg);
+      }
+    }
+    if (directory == null) {
+      printUsage();
+      throw new IllegalArgumentException("Report directory is required");
+    }
+
+    SessionReportAggregator.Summary summary = new SessionReportAggregator(threads).aggregateDirectory(directory);
+    if (jsonOut == null && csvOut == null) {
+      summary.writeJson(new NonClosingOutputStream(System.out));
+      System.out.println();
+    }
+    if (jsonOut != null) {
+      createParent(jsonOut);
+      try (OutputStream out = Files.newOutputStream(jsonOut)) {
+        summary.writeJson(out);
+      }
+      System.out.println("Summary JSON written to " + jsonOut.toAbsolutePath());
+    }
+    if (csvOut != null) {
+      createParent(csvOut);
+      try (Writer out = new OutputStreamWriter(Files.newOutputStream(csvOut), StandardCharsets.UTF_8)) {
+        summary.writeCsv(out);
+      }
+      System.out.println("Summary CSV written to " + csvOut.toAbsolutePath());
+    }
+  }
+
+  private static String requireValue(String[] args, int index, String option) {
+    if (index >= args.length) {
+      throw new IllegalArgumentException("Missing value for " + option);
+    }
+    return args[index];
+  }
+
+  private static void createParent(Path output) throws IOException {
+    Path parent = output.getParent();
+    if (parent != null) {
+      Files.createDirectories(parent);
+    }
+  }
+
+  private static void printUsage() {
+    System.out.println("Usage: ReportAggregateMain [options] <report-dir>");
+    System.out.println();
+    System.out.println("  --threads <n>   Parallel parser threads (default: available processors)");
+    System.out.println("  --json <path>   Write the summary as JSON");
+    System.out.println("  --csv <path>    Write the summary as metric,key,count,rate CSV");
+    System.out.println();
+    System.out.println("Without --json/--csv the JSON summary is printed to stdout.");
+  }
+
+  private static final class NonClosingOutputStream extends FilterOutputStream {
+    NonClosingOutputStream(OutputStream out) {
+      super(out);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      out.write(b, off, len);
+    }
+
+    @Override
+    public void close() throws IOException {
+      flush();
+    }
+  }
+}
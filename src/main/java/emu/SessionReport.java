@@ -66,6 +66,9 @@ public final class SessionReport {
     public boolean paceEstablished;
     public boolean caEstablished;
     public Instant completedAt;
+    public Long durationMs;
+    public String linkProfile;
+    public Long linkModeledMs;
 
     String toJson(String indent) {
       StringBuilder sb = new StringBuilder();
@@ -81,6 +84,18 @@ public final class SessionReport {
         sb.append(',');
         sb.append("\"completedAt\":").append(toJsonString(completedAt.toString()));
       }
+      if (durationMs != null) {
+        sb.append(',');
+        sb.append("\"durationMs\":").append(durationMs);
+      }
+      if (linkProfile != null) {
+        sb.append(',');
+        sb.append("\"linkProfile\":").append(toJsonString(linkProfile));
+      }
+      if (linkModeledMs != null) {
+        sb.append(',');
+        sb.append("\"linkModeledMs\":").append(linkModeledMs);
+      }
       sb.append('}');
       return sb.toString();
     }
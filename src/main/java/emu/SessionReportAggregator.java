@@ -0,0 +1,510 @@
+package emu;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Streams a directory of {@link SessionReport} JSON files into a single summary.
+ *
+ * <p>Reports are tokenised with the Jackson streaming parser rather than bound to an object tree,
+ * and worker threads each fold into their own {@link Summary} which are merged at the end. Memory
+ * stays bounded regardless of the number of reports: counters are keyed by small categorical values
+ * and latencies go into a fixed-size log-linear histogram.</p>
+ */
+public final class SessionReportAggregator {
+
+  private static final JsonFactory JSON = new JsonFactory();
+
+  private final int threads;
+
+  public SessionReportAggregator(int threads) {
+    if (threads < 1) {
+      throw new IllegalArgumentException("threads must be >= 1");
+    }
+    this.threads = threads;
+  }
+
+  /** Aggregates every {@code *.json} file directly under {@code directory}. */
+  public Summary aggregateDirectory(Path directory) throws IOException {
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*.json")) {
+      return aggregate(stream.iterator());
+    }
+  }
+
+  /** Aggregates the given report files. The iterator is drained lazily by the worker threads. */
+  public Summary aggregate(Iterator<Path> reports) throws IOException {
+    Objects.requireNonNull(reports, "reports");
+    if (threads == 1) {
+      Summary summary = new Summary();
+      drain(reports, summary);
+      return summary;
+    }
+    ExecutorService executor = Executors.newFixedThreadPool(threads, runnable -> {
+      Thread thread = new Thread(runnable, "report-aggregator");
+      thread.setDaemon(true);
+      return thread;
+    });
+    try {
+      List<Future<Summary>> partials = new ArrayList<>(threads);
+      for (int i = 0; i < threads; i++) {
+        partials.add(executor.submit(() -> {
+          Summary partial = new Summary();
+          drain(reports, partial);
+          return partial;
+        }));
+      }
+      Summary merged = new Summary();
+      for (Future<Summary> partial : partials) {
+        merged.merge(partial.get());
+      }
+      return merged;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Aggregation interrupted", e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof DirectoryIteratorException) {
+        throw ((DirectoryIteratorException) cause).getCause();
+      }
+      throw new IOException("Aggregation failed", cause);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private static void drain(Iterator<Path> reports, Summary summary) {
+    while (true) {
+      Path next;
+      synchronized (reports) {
+        if (!reports.hasNext()) {
+          return;
+        }
+        next = reports.next();
+      }
+      try {
+        summary.add(parse(next));
+      } catch (IOException e) {
+        summary.unreadable++;
+      }
+    }
+  }
+
+  /** Extracts the handful of fields the summary needs, skipping everything else unparsed. */
+  static ReportFacts parse(Path report) throws IOException {
+    try (JsonParser parser = JSON.createParser(report.toFile())) {
+      return parse(parser);
+    }
+  }
+
+  static ReportFacts parse(JsonParser parser) throws IOException {
+    if (parser.nextToken() != JsonToken.START_OBJECT) {
+      throw new IOException("Session report is not a JSON object");
+    }
+    ReportFacts facts = new ReportFacts();
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String section = parser.currentName();
+      JsonToken value = parser.nextToken();
+      if (value != JsonToken.START_OBJECT) {
+        parser.skipChildren();
+        continue;
+      }
+      switch (section) {
+        case "session":
+          readSession(parser, facts);
+          break;
+        case "pa":
+          readPassiveAuth(parser, facts);
+          break;
+        case "aa":
+          readActiveAuth(parser, facts);
+          break;
+        case "ta":
+          readTerminalAuth(parser, facts);
+          break;
+        case "dg":
+          readDataGroups(parser, facts);
+          break;
+        default:
+          parser.skipChildren();
+          break;
+      }
+    }
+    if (!facts.sawSession) {
+      throw new IOException("Session report has no session section");
+    }
+    return facts;
+  }
+
+  private static void readSession(JsonParser parser, ReportFacts facts) throws IOException {
+    facts.sawSession = true;
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String field = parser.currentName();
+      JsonToken value = parser.nextToken();
+      if ("smMode".equals(field) && value == JsonToken.VALUE_STRING) {
+        facts.smMode = parser.getText();
+      } else if ("durationMs".equals(field) && value == JsonToken.VALUE_NUMBER_INT) {
+        facts.durationMs = parser.getLongValue();
+      } else {
+        parser.skipChildren();
+      }
+    }
+  }
+
+  private static void readPassiveAuth(JsonParser parser, ReportFacts facts) throws IOException {
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String field = parser.currentName();
+      JsonToken value = parser.nextToken();
+      if ("verdict".equals(field) && value == JsonToken.VALUE_STRING) {
+        facts.paVerdict = parser.getText();
+      } else {
+        parser.skipChildren();
+      }
+    }
+  }
+
+  private static void readActiveAuth(JsonParser parser, ReportFacts facts) throws IOException {
+    boolean enabled = false;
+    boolean supported = false;
+    boolean verified = false;
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String field = parser.currentName();
+      JsonToken value = parser.nextToken();
+      boolean flag = value == JsonToken.VALUE_TRUE;
+      if ("enabled".equals(field)) {
+        enabled = flag;
+      } else if ("supported".equals(field)) {
+        supported = flag;
+      } else if ("verified".equals(field)) {
+        verified = flag;
+      } else {
+        parser.skipChildren();
+      }
+    }
+    if (verified) {
+      facts.aaOutcome = "PASS";
+    } else if (supported) {
+      facts.aaOutcome = "FAIL";
+    } else if (enabled) {
+      facts.aaOutcome = "UNSUPPORTED";
+    } else {
+      facts.aaOutcome = "SKIPPED";
+    }
+  }
+
+  private static void readTerminalAuth(JsonParser parser, ReportFacts facts) throws IOException {
+    boolean attempted = false;
+    boolean succeeded = false;
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String field = parser.currentName();
+      JsonToken value = parser.nextToken();
+      if ("attempted".equals(field)) {
+        attempted = value == JsonToken.VALUE_TRUE;
+      } else if ("succeeded".equals(field)) {
+        succeeded = value == JsonToken.VALUE_TRUE;
+      } else {
+        parser.skipChildren();
+      }
+    }
+    facts.taOutcome = !attempted ? "SKIPPED" : succeeded ? "PASS" : "FAIL";
+  }
+
+  private static void readDataGroups(JsonParser parser, ReportFacts facts) throws IOException {
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      String field = parser.currentName();
+      JsonToken value = parser.nextToken();
+      if ("present".equals(field) && value == JsonToken.START_ARRAY) {
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+          if (parser.currentToken() == JsonToken.VALUE_NUMBER_INT) {
+            int dg = parser.getIntValue();
+            if (dg >= 1 && dg <= 16) {
+              facts.presentMask |= 1 << dg;
+            }
+          } else {
+            parser.skipChildren();
+          }
+        }
+      } else {
+        parser.skipChildren();
+      }
+    }
+  }
+
+  /** The subset of a session report that contributes to the summary. */
+  static final class ReportFacts {
+    boolean sawSession;
+    String smMode;
+    Long durationMs;
+    String paVerdict = "SKIPPED";
+    String aaOutcome = "SKIPPED";
+    String taOutcome = "SKIPPED";
+    int presentMask;
+  }
+
+  /** Mergeable aggregate over any number of session reports. */
+  public static final class Summary {
+    private long reports;
+    private long unreadable;
+    private final Map<String, Long> paOutcomes = new TreeMap<>();
+    private final Map<String, Long> aaOutcomes = new TreeMap<>();
+    private final Map<String, Long> taOutcomes = new TreeMap<>();
+    private final Map<String, Long> smModes = new TreeMap<>();
+    private final long[] dgPresence = new long[17];
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    void add(ReportFacts facts) {
+      reports++;
+      increment(paOutcomes, facts.paVerdict);
+      increment(aaOutcomes, facts.aaOutcome);
+      increment(taOutcomes, facts.taOutcome);
+      increment(smModes, facts.smMode != null ? facts.smMode : "NONE");
+      for (int dg = 1; dg < dgPresence.length; dg++) {
+        if ((facts.presentMask & (1 << dg)) != 0) {
+          dgPresence[dg]++;
+        }
+      }
+      if (facts.durationMs != null && facts.durationMs >= 0) {
+        latency.record(facts.durationMs);
+      }
+    }
+
+    void merge(Summary other) {
+      reports += other.reports;
+      unreadable += other.unreadable;
+      mergeCounts(paOutcomes, other.paOutcomes);
+      mergeCounts(aaOutcomes, other.aaOutcomes);
+      mergeCounts(taOutcomes, other.taOutcomes);
+      mergeCounts(smModes, other.smModes);
+      for (int dg = 1; dg < dgPresence.length; dg++) {
+        dgPresence[dg] += other.dgPresence[dg];
+      }
+      latency.merge(other.latency);
+    }
+
+    public long getReportCount() {
+      return reports;
+    }
+
+    public long getUnreadableCount() {
+      return unreadable;
+    }
+
+    public Map<String, Long> getPassiveAuthOutcomes() {
+      return Map.copyOf(paOutcomes);
+    }
+
+    public Map<String, Long> getActiveAuthOutcomes() {
+      return Map.copyOf(aaOutcomes);
+    }
+
+    public Map<String, Long> getTerminalAuthOutcomes() {
+      return Map.copyOf(taOutcomes);
+    }
+
+    public Map<String, Long> getSecureMessagingModes() {
+      return Map.copyOf(smModes);
+    }
+
+    public long getDataGroupPresence(int dg) {
+      return dg >= 1 && dg < dgPresence.length ? dgPresence[dg] : 0L;
+    }
+
+    public long getLatencySampleCount() {
+      return latency.count;
+    }
+
+    /** Returns the approximate latency percentile in milliseconds, or -1 when no samples exist. */
+    public long getLatencyPercentile(double percentile) {
+      return latency.percentile(percentile);
+    }
+
+    public void writeJson(OutputStream out) throws IOException {
+      try (JsonGenerator json = JSON.createGenerator(out, JsonEncoding.UTF8)) {
+        json.useDefaultPrettyPrinter();
+        json.writeStartObject();
+        json.writeNumberField("reports", reports);
+        json.writeNumberField("unreadable", unreadable);
+        writeOutcomes(json, "pa", paOutcomes);
+        writeOutcomes(json, "aa", aaOutcomes);
+        writeOutcomes(json, "ta", taOutcomes);
+        writeOutcomes(json, "smMode", smModes);
+        json.writeObjectFieldStart("dgPresence");
+        for (int dg = 1; dg < dgPresence.length; dg++) {
+          if (dgPresence[dg] > 0) {
+            json.writeNumberField("DG" + dg, dgPresence[dg]);
+          }
+        }
+        json.writeEndObject();
+        json.writeObjectFieldStart("latencyMs");
+        json.writeNumberField("samples", latency.count);
+        if (latency.count > 0) {
+          json.writeNumberField("min", latency.min);
+          json.writeNumberField("p50", latency.percentile(50));
+          json.writeNumberField("p90", latency.percentile(90));
+          json.writeNumberField("p99", latency.percentile(99));
+          json.writeNumberField("max", latency.max);
+        }
+        json.writeEndObject();
+        json.writeEndObject();
+      }
+    }
+
+    /** Writes a flat {@code metric,key,count,rate} table. */
+    public void writeCsv(Writer out) throws IOException {
+      out.write("metric,key,count,rate\n");
+      writeCsvRow(out, "reports", "total", reports, reports);
+      writeCsvRow(out, "reports", "unreadable", unreadable, reports + unreadable);
+      writeCsvRows(out, "pa", paOutcomes);
+      writeCsvRows(out, "aa", aaOutcomes);
+      writeCsvRows(out, "ta", taOutcomes);
+      writeCsvRows(out, "smMode", smModes);
+      for (int dg = 1; dg < dgPresence.length; dg++) {
+        if (dgPresence[dg] > 0) {
+          writeCsvRow(out, "dgPresence", "DG" + dg, dgPresence[dg], reports);
+        }
+      }
+      if (latency.count > 0) {
+        out.write("latencyMs,p50," + latency.percentile(50) + ",\n");
+        out.write("latencyMs,p90," + latency.percentile(90) + ",\n");
+        out.write("latencyMs,p99," + latency.percentile(99) + ",\n");
+        out.write("latencyMs,max," + latency.max + ",\n");
+      }
+      out.flush();
+    }
+
+    private void writeOutcomes(JsonGenerator json, String name, Map<String, Long> counts) throws IOException {
+      json.writeObjectFieldStart(name);
+      for (Map.Entry<String, Long> entry : counts.entrySet()) {
+        json.writeObjectFieldStart(entry.getKey());
+        json.writeNumberField("count", entry.getValue());
+        json.writeNumberField("rate", rate(entry.getValue(), reports));
+        json.writeEndObject();
+      }
+      json.writeEndObject();
+    }
+
+    private void writeCsvRows(Writer out, String metric, Map<String, Long> counts) throws IOException {
+      for (Map.Entry<String, Long> entry : counts.entrySet()) {
+        writeCsvRow(out, metric, entry.getKey(), entry.getValue(), -1);
+      }
+    }
+
+    private void writeCsvRow(Writer out, String metric, String key, long count, long total) throws IOException {
+      long denominator = total >= 0 ? total : reports;
+      out.write(metric + ',' + csv(key) + ',' + count + ','
+          + String.format(Locale.ROOT, "%.4f", rate(count, denominator)) + '\n');
+    }
+
+    private static String csv(String value) {
+      if (value.indexOf(',') >= 0 || value.indexOf('"') >= 0) {
+        return '"' + value.replace("\"", "\"\"") + '"';
+      }
+      return value;
+    }
+
+    private static double rate(long count, long total) {
+      return total > 0 ? (double) count / total : 0.0;
+    }
+
+    private static void increment(Map<String, Long> counts, String key) {
+      counts.merge(key, 1L, Long::sum);
+    }
+
+    private static void mergeCounts(Map<String, Long> target, Map<String, Long> source) {
+      for (Map.Entry<String, Long> entry : source.entrySet()) {
+        target.merge(entry.getKey(), entry.getValue(), Long::sum);
+      }
+    }
+  }
+
+  /**
+   * Log-linear histogram: values below 128 are exact, larger values keep 6 significant bits
+   * (under 1.6% relative error) in a fixed array of buckets.
+   */
+  static final class LatencyHistogram {
+    private static final int SUB_BITS = 6;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int LINEAR_LIMIT = SUB_COUNT * 2;
+
+    private final long[] buckets = new long[LINEAR_LIMIT + (64 - SUB_BITS - 1) * SUB_COUNT];
+    private long count;
+    private long min = Long.MAX_VALUE;
+    private long max = Long.MIN_VALUE;
+
+    void record(long value) {
+      buckets[indexOf(value)]++;
+      count++;
+      min = Math.min(min, value);
+      max = Math.max(max, value);
+    }
+
+    void merge(LatencyHistogram other) {
+      for (int i = 0; i < buckets.length; i++) {
+        buckets[i] += other.buckets[i];
+      }
+      count += other.count;
+      min = Math.min(min, other.min);
+      max = Math.max(max, other.max);
+    }
+
+    long percentile(double percentile) {
+      if (count == 0) {
+        return -1L;
+      }
+      long rank = (long) Math.ceil(Math.max(0.0, Math.min(100.0, percentile)) / 100.0 * count);
+      rank = Math.max(1L, rank);
+      if (rank >= count) {
+        return max;
+      }
+      long seen = 0;
+      for (int i = 0; i < buckets.length; i++) {
+        seen += buckets[i];
+        if (seen >= rank) {
+          return Math.max(min, Math.min(max, lowerBound(i)));
+        }
+      }
+      return max;
+    }
+
+    static int indexOf(long value) {
+      if (value < LINEAR_LIMIT) {
+        return (int) value;
+      }
+      int magnitude = 63 - Long.numberOfLeadingZeros(value);
+      int shift = magnitude - SUB_BITS;
+      int sub = (int) (value >>> shift) - SUB_COUNT;
+      return LINEAR_LIMIT + (shift - 1) * SUB_COUNT + sub;
+    }
+
+    static long lowerBound(int index) {
+      if (index < LINEAR_LIMIT) {
+        return index;
+      }
+      int offset = index - LINEAR_LIMIT;
+      int shift = offset / SUB_COUNT + 1;
+      long sub = offset % SUB_COUNT + SUB_COUNT;
+      return sub << shift;
+    }
+  }
+}
@@ -0,0 +1,314 @@
+package emu;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Records nested spans in the Chrome Trace Event format, which Perfetto and
+ * {@code chrome://tracing} open directly. Each {@link SimRunner} session gets its own track
+ * (a trace "thread"), so concurrent sessions sit side by side. Within a track, spans nest by
+ * time: session, {@link SimPhase}, protocol step, APDU, applet processing, then SM unwrap and
+ * wrap. Work on threads without a session, such as {@link VirtualCardServer}'s dispatcher,
+ * lands on a track named after the thread.
+ *
+ * <p>At most one tracer is active per JVM. It is started with {@code --trace <file>} or the
+ * {@code emu.trace} system property. While none is active, every hook is one volatile read.
+ */
+public final class SessionTracer implements AutoCloseable {
+
+  static final int DEFAULT_MAX_EVENTS = 1_000_000;
+  static final String TRACE_PROPERTY = "emu.trace";
+
+  private static final int PID = 1;
+  private static final AtomicInteger NEXT_TRACK_ID = new AtomicInteger(1);
+  private static final ThreadLocal<Track> CURRENT_TRACK =
+      ThreadLocal.withInitial(() -> new Track(Thread.currentThread().getName(), null));
+
+  private static volatile SessionTracer active;
+
+  static {
+    String file = System.getProperty(TRACE_PROPERTY);
+    if (file != null && !file.isBlank()) {
+      SessionTracer tracer = start(Path.of(file));
+      Runtime.getRuntime().addShutdownHook(new Thread(tracer::close, "trace-shutdown"));
+    }
+  }
+
+  private final Path file;
+  private final int maxEvents;
+  private final long originNanos = System.nanoTime();
+  private final Queue<TraceEvent> events = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger recorded = new AtomicInteger();
+  private final AtomicInteger dropped = new AtomicInteger();
+
+  private SessionTracer(Path file, int maxEvents) {
+    this.file = file;
+    this.maxEvents = maxEvents;
+  }
+
+  /** Starts tracing into {@code file}, which is written on {@link #close()}. */
+  public static SessionTracer start(Path file) {
+    return start(file, DEFAULT_MAX_EVENTS);
+  }
+
+  static synchronized SessionTracer start(Path file, int maxEvents) {
+    if (active != null) {
+      throw new IllegalStateException("A trace is already being recorded to " + active.file);
+    }
+    SessionTracer tracer = new SessionTracer(file, maxEvents);
+    tracer.events.add(TraceEvent.metadata("process_name", 0, "e-mrtd emulator"));
+    active = tracer;
+    ChipObservers.observeSecureMessaging();
+    return tracer;
+  }
+
+  /** Starts a tracer when {@code --trace <file>} is in {@code args}; returns {@code null} otherwise. */
+  static SessionTracer fromArguments(List<String> args) {
+    String file = null;
+    for (int i = 0; i < args.size(); i++) {
+      if (args.get(i).equals("--trace")) {
+        if (i + 1 >= args.size()) {
+          throw new IllegalArgumentException("--trace requires a value");
+        }
+        file = args.get(i + 1);
+      } else if (args.get(i).startsWith("--trace=")) {
+        file = args.get(i).substring("--trace=".length());
+      }
+    }
+    return file != null ? start(Path.of(file)) : null;
+  }
+
+  static boolean isActive() {
+    return active != null;
+  }
+
+  /** A {@link System#nanoTime()} reading to pass to {@link #end}, or 0 while no tracer is active. */
+  static long begin() {
+    return active != null ? System.nanoTime() : 0L;
+  }
+
+  /**
+   * Records a span from {@code startNanos} (from {@link #begin()}) until now on the current
+   * track. {@code args} alternates names and values; callers skip the call when the start is 0
+   * so the varargs array is never built while tracing is off.
+   */
+  static void end(String category, String name, long startNanos, Object... args) {
+    if (startNanos != 0L) {
+      long now = System.nanoTime();
+      complete(category, name, startNanos, now - startNanos, args);
+    }
+  }
+
+  /** Records a span whose duration was measured elsewhere. */
+  static void complete(String category, String name, long startNanos, long durationNanos, Object... args) {
+    SessionTracer tracer = active;
+    if (tracer != null) {
+      tracer.record(category, name, CURRENT_TRACK.get(), startNanos, durationNanos, args);
+    }
+  }
+
+  /**
+   * Moves the current thread onto a new track until the returned handle is closed; the track
+   * is one span named {@code name} and holds the {@link SimPhase} spans reported through
+   * {@link #tracePhases}. Returns {@code null} while no tracer is active.
+   */
+  static Track openTrack(String name) {
+    if (active == null) {
+      return null;
+    }
+    Track track = new Track(name, CURRENT_TRACK.get());
+    CURRENT_TRACK.set(track);
+    return track;
+  }
+
+  /** Wraps {@code sink} so phase changes also become spans on the current track. */
+  static SimEvents tracePhases(SimEvents sink) {
+    if (active == null) {
+      return sink;
+    }
+    return new SimEvents() {
+      @Override
+      public void onPhase(SimPhase phase, String detail) {
+        CURRENT_TRACK.get().enterPhase(phase.name(), detail);
+        sink.onPhase(phase, detail);
+      }
+
+      @Override
+      public void onLog(SimLogCategory category, String message) {
+        sink.onLog(category, message);
+      }
+    };
+  }
+
+  public Path getFile() {
+    return file;
+  }
+
+  /** Spans discarded after the event limit was reached. */
+  public int getDroppedEvents() {
+    return dropped.get();
+  }
+
+  /** Stops recording and writes the trace file. */
+  @Override
+  public void close() {
+    synchronized (SessionTracer.class) {
+      if (active == this) {
+        active = null;
+        ChipObservers.observeSecureMessaging();
+      }
+    }
+    try {
+      write();
+    } catch (IOException e) {
+      System.err.println("Unable to write trace to " + file + ": " + e.getMessage());
+    }
+  }
+
+  private void record(String category, String name, Track track, long startNanos, long durationNanos, Object[] args) {
+    if (recorded.incrementAndGet() > maxEvents) {
+      dropped.incrementAndGet();
+      return;
+    }
+    if (track.namedIn != this) {
+      track.namedIn = this;
+      events.add(TraceEvent.metadata("thread_name", track.id, track.name));
+    }
+    events.add(new TraceEvent('X', category, name, track.id, startNanos, durationNanos, args));
+  }
+
+  private void write() throws IOException {
+    Path parent = file.toAbsolutePath().getParent();
+    if (parent != null) {
+      Files.createDirectories(parent);
+    }
+    Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+    List<TraceEvent> snapshot = new ArrayList<>(events);
+    try (JsonGenerator json = new JsonFactory().createGenerator(temp.toFile(), JsonEncoding.UTF8)) {
+      json.writeStartObject();
+      json.writeStringField("displayTimeUnit", "ms");
+      json.writeArrayFieldStart("traceEvents");
+      for (TraceEvent event : snapshot) {
+        event.write(json, originNanos);
+      }
+      json.writeEndArray();
+      json.writeObjectFieldStart("otherData");
+      json.writeNumberField("droppedEvents", dropped.get());
+      json.writeEndObject();
+      json.writeEndObject();
+    }
+    Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  /** One trace "thread": a session, or a worker thread outside any session. */
+  static final class Track implements AutoCloseable {
+    private final int id = NEXT_TRACK_ID.getAndIncrement();
+    private final String name;
+    private final Track previous;
+    private final long startNanos = System.nanoTime();
+    private volatile SessionTracer namedIn;
+    private String phase;
+    private String phaseDetail;
+    private long phaseStartNanos;
+
+    private Track(String name, Track previous) {
+      this.name = name;
+      this.previous = previous;
+    }
+
+    private void enterPhase(String nextPhase, String detail) {
+      endPhase();
+      phase = nextPhase;
+      phaseDetail = detail;
+      phaseStartNanos = System.nanoTime();
+    }
+
+    private void endPhase() {
+      if (phase != null) {
+        end("phase", phase, phaseStartNanos, "detail", phaseDetail != null ? phaseDetail : "");
+        phase = null;
+      }
+    }
+
+    /** Ends the open phase and the track's own span, and returns the thread to its previous track. */
+    @Override
+    public void close() {
+      endPhase();
+      end("session", name, startNanos);
+      if (CURRENT_TRACK.get() == this) {
+        if (previous != null) {
+          CURRENT_TRACK.set(previous);
+        } else {
+          CURRENT_TRACK.remove();
+        }
+      }
+    }
+  }
+
+  private static final class TraceEvent {
+    final char phase;
+    final String category;
+    final String name;
+    final int trackId;
+    final long startNanos;
+    final long durationNanos;
+    final Object[] args;
+
+    TraceEvent(char phase, String category, String name, int trackId, long startNanos, long durationNanos,
+               Object[] args) {
+      this.phase = phase;
+      this.category = category;
+      this.name = name;
+      this.trackId = trackId;
+      this.startNanos = startNanos;
+      this.durationNanos = durationNanos;
+      this.args = args;
+    }
+
+    static TraceEvent metadata(String kind, int trackId, String value) {
+      return new TraceEvent('M', null, kind, trackId, 0L, 0L, new Object[] {"name", value});
+    }
+
+    void write(JsonGenerator json, long originNanos) throws IOException {
+      json.writeStartObject();
+      json.writeStringField("ph", String.valueOf(phase));
+      json.writeStringField("name", name);
+      if (category != null) {
+        json.writeStringField("cat", category);
+      }
+      json.writeNumberField("pid", PID);
+      json.writeNumberField("tid", trackId);
+      if (phase == 'X') {
+        json.writeNumberField("ts", (startNanos - originNanos) / 1000.0);
+        json.writeNumberField("dur", durationNanos / 1000.0);
+      }
+      if (args != null && args.length > 0) {
+        json.writeObjectFieldStart("args");
+        for (int i = 0; i + 1 < args.length; i += 2) {
+          json.writeFieldName(String.valueOf(args[i]));
+          Object value = args[i + 1];
+          if (value instanceof Number) {
+            json.writeNumber(((Number) value).longValue());
+          } else if (value instanceof Boolean) {
+            json.writeBoolean((Boolean) value);
+          } else {
+            json.writeString(String.valueOf(value));
+          }
+        }
+        json.writeEndObject();
+      }
+      json.writeEndObject();
+    }
+  }
+}
@@ -6,6 +6,7 @@ import java.nio.file.Path;
 import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
 
 /** Immutable configuration used by {@link SimRunner}. */
 public final class SimConfig {
@@ -36,6 +37,11 @@ public final class SimConfig {
   public final IssuerSimulator.Result issuerResult;
   public final CardSimulator cardSimulator;
   public final RealPassportProfile realPassportProfile;
+  public final Path ldsContainer;
+  public final boolean factoryLoad;
+  public final int pacePrecomputeDepth;
+  public final SimTransport transport;
+  public final LinkProfile linkProfile;
 
   private SimConfig(Builder builder) {
     this.seed = builder.seed;
@@ -64,6 +70,11 @@ public final class SimConfig {
     this.issuerResult = builder.issuerResult;
     this.cardSimulator = builder.cardSimulator;
     this.realPassportProfile = builder.realPassportProfile;
+    this.ldsContainer = builder.ldsContainer;
+    this.factoryLoad = builder.factoryLoad;
+    this.pacePrecomputeDepth = builder.pacePrecomputeDepth;
+    this.transport = builder.transport;
+    this.linkProfile = builder.linkProfile;
   }
 
   public Builder toBuilder() {
@@ -94,6 +105,11 @@ public final class SimConfig {
     builder.issuerResult = issuerResult;
     builder.cardSimulator = cardSimulator;
     builder.realPassportProfile = realPassportProfile;
+    builder.ldsContainer = ldsContainer;
+    builder.factoryLoad = factoryLoad;
+    builder.pacePrecomputeDepth = pacePrecomputeDepth;
+    builder.transport = transport;
+    builder.linkProfile = linkProfile;
     return builder;
   }
 
@@ -124,6 +140,11 @@ public final class SimConfig {
     IssuerSimulator.Result issuerResult;
     CardSimulator cardSimulator;
     RealPassportProfile realPassportProfile;
+    Path ldsContainer;
+    boolean factoryLoad;
+    int pacePrecomputeDepth;
+    SimTransport transport = SimTransport.SMARTCARDIO;
+    LinkProfile linkProfile;
 
     public Builder seed(boolean value) {
       this.seed = value;
@@ -264,6 +285,45 @@ public final class SimConfig {
       return this;
     }
 
+    /** Hydrates a freshly created simulator from an {@link LdsContainer} file. */
+    public Builder ldsContainer(Path value) {
+      this.ldsContainer = value;
+      return this;
+    }
+
+    /** Loads the LDS and chip keys at applet install instead of over CREATE FILE / UPDATE BINARY. */
+    public Builder factoryLoad(boolean value) {
+      this.factoryLoad = value;
+      return this;
+    }
+
+    /**
+     * Pre-generates up to {@code depth} PACE nonces and mapping key pairs per domain on a
+     * background thread; 0 keeps generation inline.
+     */
+    public Builder pacePrecomputeDepth(int depth) {
+      if (depth < 0) {
+        throw new IllegalArgumentException("PACE precompute depth must be >= 0");
+      }
+      this.pacePrecomputeDepth = depth;
+      return this;
+    }
+
+    /** {@link SimTransport#DIRECT} talks to the simulator without the smartcardio adapter layers. */
+    public Builder transport(SimTransport value) {
+      this.transport = Objects.requireNonNull(value, "transport");
+      return this;
+    }
+
+    /**
+     * Paces the reader's APDUs as if they crossed a contactless link; {@code null} (the
+     * default) runs at simulator speed.
+     */
+    public Builder linkProfile(LinkProfile value) {
+      this.linkProfile = value;
+      return this;
+    }
+
     public SimConfig build() {
       return new SimConfig(this);
     }
@@ -0,0 +1,367 @@
+package emu;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.util.MinimalPrettyPrinter;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * {@link SimEvents} that hands every callback to subscribers on their own threads, so a slow UI
+ * or file writer doesn't hold up the session. Publishing appends an immutable {@link Event} to
+ * each subscriber's lock-free queue; the subscriber's thread drains it in batches, in order.
+ * When a queue is full, the subscriber's {@link Overflow} policy either drops the event
+ * (counted in {@link Subscription#getDropped()}) or makes the publisher wait. {@link #close()}
+ * delivers whatever is still queued before returning.
+ */
+public final class SimEventBus implements SimEvents, AutoCloseable {
+
+  static final int DEFAULT_CAPACITY = 4096;
+  static final int MAX_BATCH = 256;
+
+  private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+  private static final long FULL_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+  private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+  private final AtomicLong sequence = new AtomicLong();
+  private volatile boolean closed;
+
+  /** What a publisher does when a subscriber's queue is full. */
+  public enum Overflow {
+    /** Discard the new event and count it. */
+    DROP,
+    /** Wait until the subscriber catches up; use for consumers that must see every event. */
+    BLOCK
+  }
+
+  /** Receives events in publication order, one batch at a time, on the subscription's thread. */
+  @FunctionalInterface
+  public interface Subscriber {
+    void onEvents(List<Event> batch) throws Exception;
+
+    /** Called on the subscription's thread after its last batch. */
+    default void onClose() throws Exception {
+    }
+  }
+
+  /** Delivers each event to {@code target}'s callbacks. */
+  public static Subscriber forwardingTo(SimEvents target) {
+    Objects.requireNonNull(target, "target");
+    return batch -> {
+      for (Event event : batch) {
+        event.deliverTo(target);
+      }
+    };
+  }
+
+  /** Appends each event to {@code file} as one JSON object per line. */
+  public static Subscriber ndjsonFile(Path file) throws IOException {
+    Path parent = file.toAbsolutePath().getParent();
+    if (parent != null) {
+      Files.createDirectories(parent);
+    }
+    JsonGenerator json = new JsonFactory().createGenerator(file.toFile(), JsonEncoding.UTF8);
+    json.setPrettyPrinter(new MinimalPrettyPrinter("\n"));
+    return new Subscriber() {
+      @Override
+      public void onEvents(List<Event> batch) throws IOException {
+        for (Event event : batch) {
+          event.writeJson(json);
+        }
+        json.flush();
+      }
+
+      @Override
+      public void onClose() throws IOException {
+        json.writeRaw('\n');
+        json.close();
+      }
+    };
+  }
+
+  public Subscription subscribe(String name, SimEvents target) {
+    return subscribe(name, forwardingTo(target), DEFAULT_CAPACITY, Overflow.BLOCK);
+  }
+
+  /** Starts a thread named {@code sim-events-<name>} that delivers to {@code subscriber}. */
+  public Subscription subscribe(String name, Subscriber subscriber, int capacity, Overflow overflow) {
+    if (closed) {
+      throw new IllegalStateException("Event bus is closed");
+    }
+    if (capacity < 1) {
+      throw new IllegalArgumentException("capacity must be positive");
+    }
+    Subscription subscription = new Subscription(name, subscriber, capacity, overflow);
+    subscriptions.add(subscription);
+    subscription.thread.start();
+    return subscription;
+  }
+
+  public List<Subscription> getSubscriptions() {
+    return List.copyOf(subscriptions);
+  }
+
+  @Override
+  public void onPhase(SimPhase phase, String detail) {
+    publish(new PhaseChange(sequence.incrementAndGet(), phase, detail));
+  }
+
+  @Override
+  public void onLog(SimLogCategory category, String message) {
+    publish(new LogLine(sequence.incrementAndGet(), category, message));
+  }
+
+  public void publish(Event event) {
+    if (closed) {
+      return;
+    }
+    for (Subscription subscription : subscriptions) {
+      subscription.offer(event);
+    }
+  }
+
+  /** Stops accepting events, delivers what is queued and waits for every subscriber thread. */
+  @Override
+  public void close() {
+    closed = true;
+    for (Subscription subscription : subscriptions) {
+      subscription.shutdown();
+    }
+    boolean interrupted = false;
+    for (Subscription subscription : subscriptions) {
+      while (subscription.thread.isAlive()) {
+        try {
+          subscription.thread.join();
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /** One subscriber's queue, thread and overflow counters. */
+  public static final class Subscription {
+    private final String name;
+    private final Subscriber subscriber;
+    private final int capacity;
+    private final Overflow overflow;
+    private final Queue<Event> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger depth = new AtomicInteger();
+    private final AtomicBoolean sleeping = new AtomicBoolean();
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong blocked = new AtomicLong();
+    private final Thread thread;
+    private volatile boolean stopping;
+
+    private Subscription(String name, Subscriber subscriber, int capacity, Overflow overflow) {
+      this.name = Objects.requireNonNull(name, "name");
+      this.subscriber = Objects.requireNonNull(subscriber, "subscriber");
+      this.capacity = capacity;
+      this.overflow = Objects.requireNonNull(overflow, "overflow");
+      this.thread = new Thread(this::deliverLoop, "sim-events-" + name);
+      thread.setDaemon(true);
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public int getDepth() {
+      return depth.get();
+    }
+
+    public long getDelivered() {
+      return delivered.get();
+    }
+
+    /** Events discarded by the {@link Overflow#DROP} policy. */
+    public long getDropped() {
+      return dropped.get();
+    }
+
+    /** Publishes that had to wait for room under the {@link Overflow#BLOCK} policy. */
+    public long getBlocked() {
+      return blocked.get();
+    }
+
+    private void offer(Event event) {
+      if (depth.incrementAndGet() > capacity) {
+        if (overflow == Overflow.DROP || Thread.currentThread() == thread) {
+          depth.decrementAndGet();
+          dropped.incrementAndGet();
+          SimMetrics.eventDropped(name);
+          return;
+        }
+        blocked.incrementAndGet();
+        while (depth.get() > capacity && thread.isAlive()) {
+          wake();
+          LockSupport.parkNanos(FULL_PARK_NANOS);
+        }
+      }
+      queue.offer(event);
+      if (sleeping.get()) {
+        wake();
+      }
+    }
+
+    private void wake() {
+      if (sleeping.compareAndSet(true, false)) {
+        LockSupport.unpark(thread);
+      }
+    }
+
+    private void shutdown() {
+      stopping = true;
+      sleeping.set(false);
+      LockSupport.unpark(thread);
+    }
+
+    private void deliverLoop() {
+      List<Event> batch = new ArrayList<>(MAX_BATCH);
+      while (true) {
+        Event event;
+        while (batch.size() < MAX_BATCH && (event = queue.poll()) != null) {
+          batch.add(event);
+        }
+        if (!batch.isEmpty()) {
+          deliver(batch);
+          depth.addAndGet(-batch.size());
+          batch.clear();
+          continue;
+        }
+        if (stopping) {
+          break;
+        }
+        sleeping.set(true);
+        if (queue.isEmpty() && !stopping) {
+          LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+        }
+        sleeping.set(false);
+      }
+      try {
+        subscriber.onClose();
+      } catch (Exception e) {
+        System.err.println("Event subscriber " + name + " failed to close: " + e.getMessage());
+      }
+    }
+
+    private void deliver(List<Event> batch) {
+      try {
+        subscriber.onEvents(batch);
+      } catch (Exception e) {
+        System.err.println("Event subscriber " + name + " failed: " + e.getMessage());
+      }
+      delivered.addAndGet(batch.size());
+    }
+  }
+
+  /** An immutable event, numbered in publication order. */
+  public abstract static class Event {
+    private final long sequence;
+    private final long timestampMillis = System.currentTimeMillis();
+
+    private Event(long sequence) {
+      this.sequence = sequence;
+    }
+
+    public long getSequence() {
+      return sequence;
+    }
+
+    public long getTimestampMillis() {
+      return timestampMillis;
+    }
+
+    abstract void deliverTo(SimEvents target);
+
+    abstract void writeFields(JsonGenerator json) throws IOException;
+
+    void writeJson(JsonGenerator json) throws IOException {
+      json.writeStartObject();
+      json.writeNumberField("seq", sequence);
+      json.writeNumberField("ts", timestampMillis);
+      writeFields(json);
+      json.writeEndObject();
+    }
+  }
+
+  public static final class PhaseChange extends Event {
+    private final SimPhase phase;
+    private final String detail;
+
+    PhaseChange(long sequence, SimPhase phase, String detail) {
+      super(sequence);
+      this.phase = phase;
+      this.detail = detail;
+    }
+
+    public SimPhase getPhase() {
+      return phase;
+    }
+
+    public String getDetail() {
+      return detail;
+    }
+
+    @Override
+    void deliverTo(SimEvents target) {
+      target.onPhase(phase, detail);
+    }
+
+    @Override
+    void writeFields(JsonGenerator json) throws IOException {
+      json.writeStringField("type", "phase");
+      json.writeStringField("phase", phase.name());
+      json.writeStringField("detail", detail);
+    }
+  }
+
+  public static final class LogLine extends Event {
+    private final SimLogCategory category;
+    private final String message;
+
+    LogLine(long sequence, SimLogCategory category, String message) {
+      super(sequence);
+      this.category = category;
+      this.message = message;
+    }
+
+    public SimLogCategory getCategory() {
+      return category;
+    }
+
+    public String getMessage() {
+      return message;
+    }
+
+    @Override
+    void deliverTo(SimEvents target) {
+      target.onLog(category, message);
+    }
+
+    @Override
+    void writeFields(JsonGenerator json) throws IOException {
+      json.writeStringField("type", "log");
+      json.writeStringField("category", category.name());
+      json.writeStringField("message", message);
+    }
+  }
+}
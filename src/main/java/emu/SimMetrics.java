@@ -0,0 +1,84 @@
+package emu;
+
+import java.util.function.DoubleSupplier;
+
+/**
+ * Names and labels of the simulator's own metrics in {@link MetricsRegistry#shared()}, kept in
+ * one place so every hot path reports into the same series.
+ */
+final class SimMetrics {
+
+  private static final String[] HEX_BYTES = new String[256];
+
+  static {
+    for (int i = 0; i < HEX_BYTES.length; i++) {
+      HEX_BYTES[i] = String.format("%02X", i);
+    }
+  }
+
+  private SimMetrics() {
+  }
+
+  /**
+   * Starts timing the applet's secure messaging. This is off until an exporter is running,
+   * because it adds two clock reads to every protected command.
+   */
+  static void observeChipSecureMessaging() {
+    ChipObservers.observeSecureMessagingMetrics();
+  }
+
+  static void chipSecureMessaging(String mode, boolean wrap, long nanos) {
+    registry().histogram("emu_chip_sm_seconds",
+        "Chip-side secure messaging time per command unwrap or response wrap.", "mode", "operation")
+        .observe(nanos / 1e9, mode, wrap ? "wrap" : "unwrap");
+  }
+
+  /** One APDU exchange, labelled by INS and status word. */
+  static void apdu(int ins, int sw, long startNanos) {
+    String insLabel = HEX_BYTES[ins & 0xFF];
+    registry().counter("emu_apdus_total", "APDUs exchanged, by instruction byte and status word.", "ins", "sw")
+        .inc(insLabel, HEX_BYTES[(sw >> 8) & 0xFF] + HEX_BYTES[sw & 0xFF]);
+    registry().histogram("emu_apdu_seconds", "Time from command to response for one APDU, by instruction byte.", "ins")
+        .observeSince(startNanos, insLabel);
+  }
+
+  /** Duration and outcome of PACE, BAC, CA, AA or TA. */
+  static void authentication(String protocol, String outcome, long startNanos) {
+    registry().histogram("emu_auth_seconds", "Authentication protocol duration, by protocol and outcome.",
+        "protocol", "outcome").observeSince(startNanos, protocol, outcome);
+  }
+
+  static void passiveAuthentication(boolean pass, long startNanos) {
+    registry().histogram("emu_pa_seconds", "Passive Authentication verification time, by result.", "result")
+        .observeSince(startNanos, pass ? "pass" : "fail");
+  }
+
+  /** One issuance stage: keygen, certificates, dg_build, sod_sign, card_write or export. */
+  static void issuanceStage(String stage, long startNanos) {
+    registry().histogram("emu_issuance_stage_seconds", "Issuance time per stage.", "stage")
+        .observeSince(startNanos, stage);
+  }
+
+  /** An event a {@link SimEventBus} subscriber lost to its drop policy. */
+  static void eventDropped(String subscriber) {
+    registry().counter("emu_events_dropped_total", "Session events dropped by a full subscriber queue.", "subscriber")
+        .inc(subscriber);
+  }
+
+  /** Reports {@code depth} as the current size of {@code pool} until {@link #unbindPoolDepth}. */
+  static void bindPoolDepth(String pool, DoubleSupplier depth) {
+    poolDepth().bind(depth, pool);
+  }
+
+  static void unbindPoolDepth(String pool) {
+    poolDepth().remove(pool);
+  }
+
+  private static MetricsRegistry.Gauge poolDepth() {
+    return registry().gauge("emu_pool_depth", "Items currently queued or pooled, by pool.", "pool");
+  }
+
+  private static MetricsRegistry registry() {
+    return MetricsRegistry.shared();
+  }
+}
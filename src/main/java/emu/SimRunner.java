@@ -30,11 +30,9 @@ import org.jmrtd.cert.CardVerifiableCertificate;
 import org.jmrtd.lds.CardAccessFile;
 import org.jmrtd.lds.ChipAuthenticationInfo;
 import org.jmrtd.lds.ChipAuthenticationPublicKeyInfo;
-import org.jmrtd.lds.LDSFile;
 import org.jmrtd.lds.PACEInfo;
 import org.jmrtd.lds.SecurityInfo;
 import org.jmrtd.lds.TerminalAuthenticationInfo;
-import org.jmrtd.lds.icao.COMFile;
 import org.jmrtd.lds.icao.DG1File;
 import org.jmrtd.lds.icao.DG14File;
 import org.jmrtd.lds.icao.DG15File;
@@ -54,6 +52,7 @@ import java.io.InputStream;
 import java.io.PrintStream;
 import java.io.OutputStream;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -63,7 +62,6 @@ import java.security.KeyFactory;
 import java.security.MessageDigest;
 import java.security.PrivateKey;
 import java.security.PublicKey;
-import java.security.SecureRandom;
 import java.security.Signature;
 import java.security.KeyPair;
 import java.security.interfaces.ECPrivateKey;
@@ -86,7 +84,6 @@ import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
@@ -95,11 +92,15 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.TimeUnit;
 import java.security.cert.CertificateEncodingException;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import emu.PersonalizationSupport.SODArtifacts;
+import sos.passportapplet.PassportApplet;
+import sos.passportapplet.PersonalizationImage;
+import sos.passportapplet.pace.PacePrecomputation;
 import emu.SimLogCategory;
 
 public final class SimRunner {
@@ -119,15 +120,12 @@ public final class SimRunner {
   private static final String DEFAULT_DOB = "750101";
   private static final String DEFAULT_DOE = "250101";
 
-  private static final int PUT_DATA_P2_CURRENT_DATE = 0x67;
-
   private static final int AA_CHALLENGE_LENGTH = 8;
-  private static final SecureRandom SECURE_RANDOM = new SecureRandom();
   private static final ThreadLocal<SimLogCategory> NEXT_STDOUT_CATEGORY = new ThreadLocal<>();
 
   public SessionReport run(SimConfig config, SimEvents events) throws Exception {
     Objects.requireNonNull(config, "config");
-    SimEvents sink = events != null ? events : new SimEvents() {};
+    long sessionStartNanos = System.nanoTime();
 
     boolean seed = config.seed;
     boolean corruptDG2 = config.corruptDg2;
@@ -155,9 +153,21 @@ public final class SimRunner {
             && containsLifecycleTarget(issuerLifecycleTargets, "LOCKED"))
         : true;
     RealPassportProfile realProfile = config.realPassportProfile;
+    LdsContainer ldsContainer = config.ldsContainer != null ? LdsContainer.open(config.ldsContainer) : null;
     String doc = hasText(config.docNumber) ? config.docNumber : DEFAULT_DOC;
     String dob = hasText(config.dateOfBirth) ? config.dateOfBirth : DEFAULT_DOB;
     String doe = hasText(config.dateOfExpiry) ? config.dateOfExpiry : DEFAULT_DOE;
+    if (ldsContainer != null) {
+      if (hasText(ldsContainer.getDocumentNumber())) {
+        doc = ldsContainer.getDocumentNumber();
+      }
+      if (hasText(ldsContainer.getDateOfBirth())) {
+        dob = ldsContainer.getDateOfBirth();
+      }
+      if (hasText(ldsContainer.getDateOfExpiry())) {
+        doe = ldsContainer.getDateOfExpiry();
+      }
+    }
     if (realProfile != null) {
       if (hasText(realProfile.getDocumentNumber())) {
         doc = realProfile.getDocumentNumber();
@@ -184,30 +194,83 @@ public final class SimRunner {
         ? config.terminalAuthDate
         : LocalDate.now(ZoneOffset.UTC);
 
+    SimEventBus.Subscriber eventsFile = eventsOutPath != null ? SimEventBus.ndjsonFile(eventsOutPath) : null;
+    SimEventBus bus = new SimEventBus();
+    if (events != null) {
+      bus.subscribe("listener", events);
+    }
+    if (eventsFile != null) {
+      bus.subscribe("events-file", eventsFile, SimEventBus.DEFAULT_CAPACITY, SimEventBus.Overflow.BLOCK);
+    }
+    SimEvents sink = SessionTracer.tracePhases(bus);
+
     PrintStream originalOut = System.out;
     SimOutputRouter router = new SimOutputRouter(sink, originalOut);
     PrintStream eventStream = new PrintStream(router, true, StandardCharsets.UTF_8);
     System.setOut(eventStream);
+    SessionTracer.Track traceTrack = SessionTracer.openTrack("session " + doc);
+    PacePrecomputation installedPacePool = null;
     try {
       sink.onPhase(SimPhase.CONNECTING, "Bootstrapping virtual passport");
 
     // Boot emulator & install applet
+    installedPacePool = configurePacePrecomputation(config.pacePrecomputeDepth);
     SessionReport report = new SessionReport();
     boolean createdSimulator = config.cardSimulator == null;
     CardSimulator sim = createdSimulator ? new CardSimulator() : config.cardSimulator;
     AID aid = new AID(MRTD_AID, (short)0, (byte)MRTD_AID.length);
-    if (createdSimulator) {
-      sim.installApplet(aid, sos.passportapplet.PassportApplet.class);
+    SODArtifacts preparedArtifacts = null;
+    ContainerKeys containerKeys = null;
+    boolean factoryLoaded = false;
+    if (createdSimulator && config.factoryLoad) {
+      PersonalizationImage image;
+      if (ldsContainer != null) {
+        verifyContainer(ldsContainer);
+        image = FactoryPersonalization.fromContainer(ldsContainer);
+        containerKeys = addContainerKeys(image, ldsContainer);
+      } else if (realProfile != null) {
+        image = FactoryPersonalization.fromProfile(realProfile);
+      } else {
+        preparedArtifacts = issuerResult != null
+            ? issuerResult.getArtifacts()
+            : buildSyntheticArtifacts(corruptDG2, largeDG2, doc, dob, doe);
+        image = FactoryPersonalization.fromArtifacts(preparedArtifacts);
+        FactoryPersonalization.addChipAuthenticationKey(image, preparedArtifacts.getChipAuthKeyPair());
+        KeyPair aaKeyPair = preparedArtifacts.getAaKeyPair();
+        FactoryPersonalization.addActiveAuthenticationKey(image, aaKeyPair != null ? aaKeyPair.getPrivate() : null);
+      }
+      factoryLoaded = FactoryPersonalization.install(sim, aid, image);
+      if (factoryLoaded) {
+        System.out.printf("Factory-loaded %d EFs and %d PUT DATA payloads at install.%n",
+            image.getFiles().size(), image.getPutData().size());
+        if (preparedArtifacts != null) {
+          writeDefaultTrustAnchors(preparedArtifacts);
+        }
+      } else {
+        System.out.println("Simulator bypassed the factory-load hook; personalizing over APDUs.");
+        containerKeys = null;
+      }
+    } else if (createdSimulator) {
+      sim.installApplet(aid, PassportApplet.class);
     }
+    ChipObservers.observeCommands();
 
     CardTerminal term;
-    if (!createdSimulator && issuerResult != null && issuerResult.getTerminal() != null
-        && config.cardSimulator == issuerResult.getSimulator()) {
-      term = issuerResult.getTerminal();
+    Card card;
+    SimulatorCardService directService = null;
+    if (config.transport == SimTransport.DIRECT) {
+      term = null;
+      directService = new SimulatorCardService(sim);
+      card = directService.card();
     } else {
-      term = CardTerminalSimulator.terminal(sim);
+      if (!createdSimulator && issuerResult != null && issuerResult.getTerminal() != null
+          && config.cardSimulator == issuerResult.getSimulator()) {
+        term = issuerResult.getTerminal();
+      } else {
+        term = CardTerminalSimulator.terminal(sim);
+      }
+      card = term.connect("*");
     }
-    Card card = term.connect("*");
     CardChannel ch = card.getBasicChannel();
     report.session.transport = resolveTransport(term, card);
 
@@ -216,17 +279,27 @@ public final class SimRunner {
 
     // --- tulis data minimal (COM + DG1 + DG2) ke chip ---
     SODArtifacts personalizationArtifacts;
+    boolean hydrateFromContainer = createdSimulator && ldsContainer != null;
     boolean hydrateFromProfile = createdSimulator && realProfile != null;
     boolean createdFromIssuerArtifacts = issuerResult != null && createdSimulator;
-    if (hydrateFromProfile) {
+    if (factoryLoaded) {
+      personalizationArtifacts = preparedArtifacts;
+    } else if (hydrateFromContainer) {
+      personalizationArtifacts = null;
+      System.out.println("Hydrating simulator from LDS container " + ldsContainer.getPath());
+      containerKeys = hydrateFromContainer(ch, ldsContainer);
+    } else if (hydrateFromProfile) {
       personalizationArtifacts = null;
       System.out.println("Hydrating simulator from captured passport LDS profile.");
       hydrateFromRealPassport(ch, realProfile);
     } else if (createdFromIssuerArtifacts) {
       personalizationArtifacts = issuerResult.getArtifacts();
       hydrateFromArtifacts(ch, personalizationArtifacts);
+    } else if (createdSimulator && preparedArtifacts != null) {
+      personalizationArtifacts = preparedArtifacts;
+      hydrateFromArtifacts(ch, personalizationArtifacts);
     } else if (createdSimulator) {
-      personalizationArtifacts = personalize(ch, corruptDG2, largeDG2, doc, dob, doe);
+      personalizationArtifacts = personalize(ch, buildSyntheticArtifacts(corruptDG2, largeDG2, doc, dob, doe));
     } else if (issuerResult != null) {
       personalizationArtifacts = issuerResult.getArtifacts();
     } else {
@@ -235,7 +308,10 @@ public final class SimRunner {
 
     boolean chipPrivateKeyAvailable = !createdSimulator;
     boolean aaPrivateKeyAvailable = !createdSimulator;
-    if (createdSimulator) {
+    if (containerKeys != null) {
+      chipPrivateKeyAvailable = containerKeys.chipAuthentication;
+      aaPrivateKeyAvailable = containerKeys.activeAuthentication;
+    } else if (createdSimulator) {
       chipPrivateKeyAvailable = personalizationArtifacts != null
           && personalizationArtifacts.getChipAuthKeyPair() != null
           && personalizationArtifacts.getChipAuthKeyPair().getPrivate() != null;
@@ -255,65 +331,39 @@ public final class SimRunner {
                 || issuerResult.isPacePinInstalled()
                 || issuerResult.isPacePukInstalled()));
 
+    IssuerSecretEncoder.Provisioning provisioning = IssuerSecretEncoder.provisioning();
     if (mrzSeedRequested) {
-      byte[] mrzSeed = IssuerSecretEncoder.encodeMrzSeed(doc, dob, doe);
-      int sw = putData(ch, 0x00, 0x62, mrzSeed, "PUT MRZ TLV");
-      if (sw != 0x9000) {
-        throw new RuntimeException(String.format(
-            "SET BAC via PUT DATA gagal (SW=%04X). Cek format TLV.", sw));
-      }
+      provisioning.mrzSeed(IssuerSecretEncoder.encodeMrzSeed(doc, dob, doe));
     }
     if (paceSeedRequested) {
-      byte[] paceSecretsTlv = IssuerSecretEncoder.encodePaceSecrets(can, pin, puk);
-      if (paceSecretsTlv != null) {
-        int sw = putData(ch, 0x00, 0x65, paceSecretsTlv, "PUT PACE secrets TLV");
-        if (sw != 0x9000) {
-          throw new RuntimeException(String.format(
-              "SET PACE secrets via PUT DATA gagal (SW=%04X). Cek format TLV (tag 0x66 entries berisi [keyRef||secret]).",
-              sw));
-        }
-      }
-    }
-
-    if (openComSodReads != null) {
-      byte[] toggle = new byte[]{(byte) (openComSodReads ? 0x01 : 0x00)};
-      int openSw = putData(ch, 0xDE, 0xFE, toggle,
-          openComSodReads ? "ENABLE open COM/SOD reads" : "DISABLE open COM/SOD reads");
-      if (openSw != 0x9000) {
-        throw new RuntimeException(String.format("Gagal mengatur kebijakan COM/SOD (SW=%04X).", openSw));
-      }
+      provisioning.paceSecrets(IssuerSecretEncoder.encodePaceSecrets(can, pin, puk));
     }
+    provisioning.openComSodReads(openComSodReads);
 
     boolean shouldProgramLifecycle = createdSimulator || (seed && !reuseIssuerCard);
     if (shouldProgramLifecycle) {
-      byte[] currentDateTlv = encodeCurrentDate(terminalAuthDate);
-      int dateSw = putData(ch, 0x00, PUT_DATA_P2_CURRENT_DATE, currentDateTlv, "PUT current date digits");
-      if (dateSw != 0x9000) {
-        throw new RuntimeException(String.format("Gagal menetapkan tanggal saat ini untuk TA (SW=%04X).", dateSw));
-      }
-
+      provisioning.currentDate(encodeCurrentDate(terminalAuthDate));
       if (applyPersonalizedLifecycle || createdSimulator) {
-        int lifecycleSw = putData(ch, 0xDE, 0xAF, new byte[0], "SET LIFECYCLE → PERSONALIZED");
-        if (lifecycleSw != 0x9000) {
-          throw new RuntimeException(String.format(
-              "Gagal mengatur state PERSONALIZED (SW=%04X).", lifecycleSw));
-        }
+        provisioning.personalized();
       }
       if ((applyLockedLifecycle || createdSimulator)
           && !(issuerResult != null && issuerResult.isLeavePersonalized())) {
-        int lifecycleSw = putData(ch, 0xDE, 0xAD, new byte[0], "SET LIFECYCLE → LOCKED");
-        if (lifecycleSw != 0x9000) {
-          throw new RuntimeException(String.format(
-              "Gagal mengunci chip (SW=%04X).", lifecycleSw));
-        }
+        provisioning.locked();
       }
     }
+    provision(ch, provisioning);
 
     // --- sekarang baca via PassportService + BAC ---
     byte[] rawCardAccess = readEfPlain(ch, EF_CARD_ACCESS);
     if ((rawCardAccess == null || rawCardAccess.length == 0) && personalizationArtifacts != null) {
       rawCardAccess = personalizationArtifacts.getCardAccessBytes();
     }
+    if ((rawCardAccess == null || rawCardAccess.length == 0) && ldsContainer != null
+        && ldsContainer.getCardAccess() != null) {
+      ByteBuffer containerCardAccess = ldsContainer.getCardAccess();
+      rawCardAccess = new byte[containerCardAccess.remaining()];
+      containerCardAccess.get(rawCardAccess);
+    }
     if ((rawCardAccess == null || rawCardAccess.length == 0) && realProfile != null) {
       rawCardAccess = realProfile.getCardAccessFile();
     }
@@ -322,8 +372,12 @@ public final class SimRunner {
     }
     List<PACEInfo> paceInfos = parsePaceInfos(rawCardAccess);
 
-    CardService baseService = new TerminalCardService(term);
-    CardService loggingService = new LoggingCardService(baseService, sink);
+    CardService baseService = directService != null ? directService : new TerminalCardService(term);
+    LinkEmulatingCardService linkService = config.linkProfile != null
+        ? new LinkEmulatingCardService(baseService, config.linkProfile)
+        : null;
+    LoggingCardService loggingService =
+        new LoggingCardService(linkService != null ? linkService : baseService, sink);
     PassportService svc = new PassportService(
         loggingService,
         PassportService.DEFAULT_MAX_BLOCKSIZE,
@@ -336,16 +390,21 @@ public final class SimRunner {
     BACKey bacKey = new BACKey(doc, dob, doe);
 
     PaceKeySelection paceKeySelection = buildPaceKeySelection(can, pin, puk, bacKey);
+    long paceStarted = System.nanoTime();
+    JfrEvents.ProtocolStep paceStep = JfrEvents.beginStep(loggingService);
     PaceOutcome paceOutcome = attemptPACE(
         svc,
         attemptPace,
         paceKeySelection,
         paceInfos,
+        rawCardAccess,
         pacePreference,
         sink);
     report.session.paceAttempted = paceOutcome.attempted;
     report.session.paceEstablished = paceOutcome.established;
     if (paceOutcome.attempted) {
+      SimMetrics.authentication("PACE", paceOutcome.established ? "ok" : "failed", paceStarted);
+      paceStep.finish("PACE", paceOutcome.established ? "ok" : "failed");
       logPaceOutcome(paceOutcome);
     } else {
       securityPrintln("PACE not attempted (--attempt-pace not specified).");
@@ -353,12 +412,22 @@ public final class SimRunner {
 
     if (!paceOutcome.established) {
       securityPrintln("Falling back to BAC secure messaging.");
-      svc.doBAC(bacKey);
+      long bacStarted = System.nanoTime();
+      JfrEvents.ProtocolStep bacStep = JfrEvents.beginStep(loggingService);
+      try {
+        svc.doBAC(bacKey);
+      } catch (Exception e) {
+        SimMetrics.authentication("BAC", "failed", bacStarted);
+        bacStep.finish("BAC", "failed");
+        throw e;
+      }
+      SimMetrics.authentication("BAC", "ok", bacStarted);
+      bacStep.finish("BAC", "ok");
       logSecureMessagingTransition("BAC fallback", "BAC", "3DES");
     }
 
     System.out.printf("paceAttempted=%s, paceEstablished=%s%n", paceOutcome.attempted, paceOutcome.established);
-    byte[] cardAccessPostAuth = readEf(svc, PassportService.EF_CARD_ACCESS);
+    byte[] cardAccessPostAuth = readEf(svc, PassportService.EF_CARD_ACCESS, "CardAccess");
     if (cardAccessPostAuth != null && (rawCardAccess == null || rawCardAccess.length == 0)) {
       System.out.printf("EF.CardAccess (post-auth) length=%d bytes%n", cardAccessPostAuth.length);
       rawCardAccess = cardAccessPostAuth;
@@ -372,18 +441,30 @@ public final class SimRunner {
     if (dg15 != null) {
       report.dataGroups.addPresent(15);
     }
+    long caStarted = System.nanoTime();
+    JfrEvents.ProtocolStep caStep = JfrEvents.beginStep(loggingService);
     ChipAuthOutcome chipAuthOutcome = performChipAuthenticationIfSupported(
         svc,
         dg14,
         chipPrivateKeyAvailable);
+    if (chipAuthOutcome.advertised) {
+      SimMetrics.authentication("CA", chipAuthOutcome.established ? "ok" : "failed", caStarted);
+      caStep.finish("CA", chipAuthOutcome.established ? "ok" : "failed");
+    }
     report.session.caEstablished = chipAuthOutcome.established;
     System.out.printf("caEstablished=%s%n", chipAuthOutcome.established);
+    long aaStarted = System.nanoTime();
+    JfrEvents.ProtocolStep aaStep = JfrEvents.beginStep(loggingService);
     ActiveAuthOutcome activeAuthOutcome = performActiveAuthentication(
         loggingService,
         svc,
         dg15,
         requireAA,
         aaPrivateKeyAvailable);
+    if (activeAuthOutcome.attempted) {
+      SimMetrics.authentication("AA", activeAuthOutcome.verified ? "ok" : "failed", aaStarted);
+      aaStep.finish("AA", activeAuthOutcome.verified ? "ok" : "failed");
+    }
     System.out.printf("aaAvailable=%s, aaVerified=%s%n", activeAuthOutcome.available, activeAuthOutcome.verified);
     if (requireAA && !activeAuthOutcome.verified) {
       throw new RuntimeException("Active Authentication failed but was required");
@@ -391,6 +472,8 @@ public final class SimRunner {
 
     List<CvcBundle> taCertificates = loadCvcCertificates(taCvcPaths);
     reportTerminalAuthentication(dg14, taCertificates);
+    long taStarted = System.nanoTime();
+    JfrEvents.ProtocolStep taStep = JfrEvents.beginStep(loggingService);
     TerminalAuthOutcome terminalAuthOutcome = performTerminalAuthentication(
         svc,
         paceOutcome,
@@ -406,6 +489,10 @@ public final class SimRunner {
         terminalAuthOutcome.succeeded,
         terminalAuthOutcome.dg3Readable,
         terminalAuthOutcome.dg4Readable);
+    if (terminalAuthOutcome.attempted) {
+      SimMetrics.authentication("TA", terminalAuthOutcome.succeeded ? "ok" : "failed", taStarted);
+      taStep.finish("TA", terminalAuthOutcome.succeeded ? "ok" : "failed");
+    }
     if (terminalAuthOutcome.failure != null) {
       securityPrintln("Terminal Authentication failure: " + terminalAuthOutcome.failure.getMessage());
     }
@@ -422,9 +509,11 @@ public final class SimRunner {
     // baca DG1 (MRZ)
     sink.onPhase(SimPhase.READING, "Reading logical data structure");
     boolean dg1Read = false;
-    try (InputStream in = svc.getInputStream(PassportService.EF_DG1)) {
+    JfrEvents.ProtocolStep dg1Step = JfrEvents.beginStep(loggingService);
+    try (InputStream in = LargeEfReader.open(svc, PassportService.EF_DG1)) {
       if (in != null) {
         DG1File dg1 = new DG1File(in);
+        dg1Step.finish("DG1", "ok");
         MRZInfo info = dg1.getMRZInfo();
         String docNumber =
             MrzUtil.ensureDocumentNumberLength(info.getDocumentNumber(), info.getDocumentCode());
@@ -444,8 +533,11 @@ public final class SimRunner {
             info.getIssuingState(),
             info.getNationality()));
         dg1Read = true;
+      } else {
+        dg1Step.finish("DG1", "absent");
       }
     } catch (Exception readFailure) {
+      dg1Step.finish("DG1", "failed");
       System.out.println("DG1 read error: " + readFailure.getMessage());
     }
     if (!dg1Read && personalizationArtifacts != null) {
@@ -530,7 +622,9 @@ public final class SimRunner {
     boolean runPA = !trustSources.isEmpty() || requirePA;
     if (runPA) {
       char[] passwordChars = trustStorePassword != null ? trustStorePassword.toCharArray() : null;
+      JfrEvents.ProtocolStep paStep = JfrEvents.beginStep(loggingService);
       PassiveAuthentication.Result paResult = PassiveAuthentication.verify(svc, trustSources, passwordChars);
+      paStep.finish("PA", paResult.isPass() ? "ok" : "failed");
       paResult.printReport();
       report.setPassiveAuthentication(paResult);
       if (requirePA && !paResult.isPass()) {
@@ -560,6 +654,14 @@ public final class SimRunner {
     System.out.printf("Secure messaging final mode: %s%n", sessionSecureMessagingMode);
 
     report.session.completedAt = Instant.now();
+    report.session.durationMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - sessionStartNanos);
+    if (linkService != null) {
+      report.session.linkProfile = linkService.getProfile().getName();
+      report.session.linkModeledMs = TimeUnit.NANOSECONDS.toMillis(linkService.getModeledNanos());
+      System.out.printf("Link model %s: %d APDUs, %d ms modelled, %d retransmissions%n",
+          linkService.getProfile().getName(), linkService.getExchanges(), report.session.linkModeledMs,
+          linkService.getRetransmissions());
+    }
     sink.onPhase(SimPhase.COMPLETE, "Scenario complete");
 
     if (jsonOutPath != null) {
@@ -575,9 +677,14 @@ public final class SimRunner {
       sink.onPhase(SimPhase.FAILED, e.getMessage());
       throw e;
     } finally {
+      releasePacePrecomputation(installedPacePool);
+      if (traceTrack != null) {
+        traceTrack.close();
+      }
       router.finish();
       eventStream.flush();
       System.setOut(originalOut);
+      bus.close();
     }
   }
 
@@ -589,8 +696,7 @@ public final class SimRunner {
     return next;
   }
 
-  private static SODArtifacts personalize(
-      CardChannel ch,
+  private static SODArtifacts buildSyntheticArtifacts(
       boolean corruptDG2,
       boolean largeDG2,
       String doc,
@@ -607,9 +713,16 @@ public final class SimRunner {
         .corruptDg2(corruptDG2)
         .build();
 
-    int[] tagList = job.getComTagList().stream().mapToInt(Integer::intValue).toArray();
-    COMFile com = new COMFile("1.7", "4.0.0", tagList);
-    byte[] comBytes = com.getEncoded();
+    SODArtifacts artifacts = PersonalizationSupport.buildArtifacts(job);
+    System.out.printf("Synthetic biometrics → DG3=%d bytes, DG4=%d bytes.%n",
+        artifacts.getDataGroupLength(3),
+        artifacts.getDataGroupLength(4));
+    return artifacts;
+  }
+
+  private static SODArtifacts personalize(CardChannel ch, SODArtifacts artifacts) throws Exception {
+    PersonalizationJob job = artifacts.getJob();
+    byte[] comBytes = PersonalizationSupport.buildComBytes(artifacts);
     byte[] dg1Bytes = job.getDg1Bytes();
 
     createEF(ch, EF_COM, comBytes.length, "CREATE EF.COM");
@@ -620,11 +733,6 @@ public final class SimRunner {
     selectEF(ch, EF_DG1, "SELECT EF.DG1 before WRITE");
     writeBinary(ch, dg1Bytes, "WRITE EF.DG1");
 
-    SODArtifacts artifacts = PersonalizationSupport.buildArtifacts(job);
-    System.out.printf("Synthetic biometrics → DG3=%d bytes, DG4=%d bytes.%n",
-        artifacts.getDg3Bytes() != null ? artifacts.getDg3Bytes().length : 0,
-        artifacts.getDg4Bytes() != null ? artifacts.getDg4Bytes().length : 0);
-
     byte[] cardAccessBytes = artifacts.getCardAccessBytes();
     if (cardAccessBytes != null && cardAccessBytes.length > 0) {
       createEF(ch, EF_CARD_ACCESS, cardAccessBytes.length, "CREATE EF.CardAccess");
@@ -644,23 +752,16 @@ public final class SimRunner {
       writeBinary(ch, dg14Bytes, "WRITE EF.DG14");
     }
 
-    byte[] dg2Bytes = artifacts.getDg2Bytes();
-    createEF(ch, EF_DG2, dg2Bytes.length, "CREATE EF.DG2");
-    selectEF(ch, EF_DG2, "SELECT EF.DG2 before WRITE");
-    writeBinary(ch, dg2Bytes, "WRITE EF.DG2");
+    installEF(ch, EF_DG2, artifacts.getDataGroupBuffer(2), "EF.DG2");
 
-    byte[] dg3Bytes = artifacts.getDg3Bytes();
-    if (dg3Bytes != null && dg3Bytes.length > 0) {
-      createEF(ch, EF_DG3, dg3Bytes.length, "CREATE EF.DG3");
-      selectEF(ch, EF_DG3, "SELECT EF.DG3 before WRITE");
-      writeBinary(ch, dg3Bytes, "WRITE EF.DG3");
+    ByteBuffer dg3 = artifacts.getDataGroupBuffer(3);
+    if (dg3 != null && dg3.hasRemaining()) {
+      installEF(ch, EF_DG3, dg3, "EF.DG3");
     }
 
-    byte[] dg4Bytes = artifacts.getDg4Bytes();
-    if (dg4Bytes != null && dg4Bytes.length > 0) {
-      createEF(ch, EF_DG4, dg4Bytes.length, "CREATE EF.DG4");
-      selectEF(ch, EF_DG4, "SELECT EF.DG4 before WRITE");
-      writeBinary(ch, dg4Bytes, "WRITE EF.DG4");
+    ByteBuffer dg4 = artifacts.getDataGroupBuffer(4);
+    if (dg4 != null && dg4.hasRemaining()) {
+      installEF(ch, EF_DG4, dg4, "EF.DG4");
     }
 
     byte[] sodBytes = artifacts.getSodBytes();
@@ -680,47 +781,11 @@ public final class SimRunner {
   }
 
   private static void hydrateFromArtifacts(CardChannel ch, SODArtifacts artifacts) throws Exception {
-    PersonalizationJob job = artifacts.getJob();
-    List<Integer> comTags = job != null ? job.getComTagList() : new ArrayList<>();
-    if (comTags.isEmpty()) {
-      comTags.add(LDSFile.EF_DG1_TAG);
-      for (Integer dg : artifacts.getPresentDataGroupNumbers()) {
-        comTags.add(Integer.valueOf(0x0100 | (dg.intValue() & 0xFF)));
-      }
-      Collections.sort(comTags);
-    }
-    int[] tagArray = comTags.stream().mapToInt(Integer::intValue).toArray();
-    COMFile comFile = new COMFile("1.7", "4.0.0", tagArray);
-    byte[] comBytes = comFile.getEncoded();
-    createEF(ch, EF_COM, comBytes.length, "CREATE EF.COM");
-    selectEF(ch, EF_COM, "SELECT EF.COM before WRITE");
-    writeBinary(ch, comBytes, "WRITE EF.COM");
-
-    List<Map.Entry<Integer, byte[]>> dataGroups = new ArrayList<>(artifacts.getDataGroupBytesMap().entrySet());
-    dataGroups.sort(Comparator.comparingInt(Map.Entry::getKey));
-    for (Map.Entry<Integer, byte[]> entry : dataGroups) {
-      Integer dg = entry.getKey();
-      byte[] bytes = entry.getValue();
-      if (dg == null || bytes == null || bytes.length == 0) {
-        continue;
-      }
-      short fid = (short) (0x0100 | (dg.intValue() & 0xFF));
-      createEF(ch, fid, bytes.length, String.format("CREATE EF.DG%d", dg));
-      selectEF(ch, fid, String.format("SELECT EF.DG%d before WRITE", dg));
-      writeBinary(ch, bytes, String.format("WRITE EF.DG%d", dg));
-    }
-
-    byte[] cardAccessBytes = artifacts.getCardAccessBytes();
-    if (cardAccessBytes != null && cardAccessBytes.length > 0) {
-      createEF(ch, EF_CARD_ACCESS, cardAccessBytes.length, "CREATE EF.CardAccess");
-      selectEF(ch, EF_CARD_ACCESS, "SELECT EF.CardAccess before WRITE");
-      writeBinary(ch, cardAccessBytes, "WRITE EF.CardAccess");
-    }
-
-    byte[] sodBytes = artifacts.getSodBytes();
-    createEF(ch, EF_SOD, sodBytes.length, "CREATE EF.SOD");
-    selectEF(ch, EF_SOD, "SELECT EF.SOD before WRITE");
-    writeBinary(ch, sodBytes, "WRITE EF.SOD");
+    installLds(ch,
+        wrap(PersonalizationSupport.buildComBytes(artifacts)),
+        artifacts.getDataGroupBuffers(),
+        artifacts.getCardAccessBuffer(),
+        artifacts.getSodBuffer());
 
     if (artifacts.getChipAuthKeyPair() != null) {
       seedChipAuthenticationKey(ch, artifacts.getChipAuthKeyPair());
@@ -732,44 +797,157 @@ public final class SimRunner {
   }
 
   private static void hydrateFromRealPassport(CardChannel ch, RealPassportProfile profile) throws Exception {
-    byte[] comBytes = profile.getComFile();
-    if (comBytes != null && comBytes.length > 0) {
-      createEF(ch, EF_COM, comBytes.length, "CREATE EF.COM");
-      selectEF(ch, EF_COM, "SELECT EF.COM before WRITE");
-      writeBinary(ch, comBytes, "WRITE EF.COM");
+    installLds(ch,
+        profile.getComBuffer(),
+        profile.getDataGroupBuffers(),
+        profile.getCardAccessBuffer(),
+        profile.getSodBuffer());
+
+    System.out.println("Skipped seeding Chip/Active Authentication private keys (not available in profile).");
+  }
+
+  /**
+   * Streams the mapped container entries to the card; only one UPDATE BINARY chunk is copied onto
+   * the heap at a time.
+   */
+  private static ContainerKeys hydrateFromContainer(CardChannel ch, LdsContainer container) throws Exception {
+    verifyContainer(container);
+    installLds(ch, container.getCom(), container.getDataGroups(), container.getCardAccess(), container.getSod());
+
+    KeyPair chipKeyPair = container.getChipAuthenticationKeyPair();
+    boolean chipSeeded = false;
+    if (chipKeyPair != null && chipKeyPair.getPrivate() != null && chipKeyPair.getPublic() != null) {
+      seedChipAuthenticationKey(ch, chipKeyPair);
+      chipSeeded = true;
+    }
+    KeyPair aaKeyPair = container.getActiveAuthenticationKeyPair();
+    boolean aaSeeded = false;
+    if (aaKeyPair != null && aaKeyPair.getPrivate() != null) {
+      seedActiveAuthenticationKey(ch, aaKeyPair.getPrivate());
+      aaSeeded = true;
+    }
+    if (!chipSeeded && !aaSeeded) {
+      System.out.println("Skipped seeding Chip/Active Authentication private keys (not available in container).");
+    }
+    return new ContainerKeys(chipSeeded, aaSeeded);
+  }
+
+  private static void verifyContainer(LdsContainer container) throws IOException {
+    List<Integer> corrupted = container.verifyDigests();
+    if (!corrupted.isEmpty()) {
+      throw new IOException("LDS container digest mismatch for entries " + corrupted.stream()
+          .map(id -> String.format("%04X", id))
+          .collect(Collectors.toList()));
+    }
+  }
+
+  private static ContainerKeys addContainerKeys(PersonalizationImage image, LdsContainer container)
+      throws IOException {
+    boolean chipSeeded = FactoryPersonalization.addChipAuthenticationKey(
+        image, container.getChipAuthenticationKeyPair());
+    KeyPair aaKeyPair = container.getActiveAuthenticationKeyPair();
+    boolean aaSeeded = FactoryPersonalization.addActiveAuthenticationKey(
+        image, aaKeyPair != null ? aaKeyPair.getPrivate() : null);
+    if (!chipSeeded && !aaSeeded) {
+      System.out.println("Skipped seeding Chip/Active Authentication private keys (not available in container).");
+    }
+    return new ContainerKeys(chipSeeded, aaSeeded);
+  }
+
+  private static void installLds(
+      CardChannel ch,
+      ByteBuffer comBytes,
+      Map<Integer, ByteBuffer> dataGroups,
+      ByteBuffer cardAccessBytes,
+      ByteBuffer sodBytes) throws Exception {
+    if (comBytes != null && comBytes.hasRemaining()) {
+      installEF(ch, EF_COM, comBytes, "EF.COM");
     } else {
       System.out.println("Profile missing COM file; simulator will rely on existing data groups.");
     }
 
-    List<Map.Entry<Integer, byte[]>> dataGroups = new ArrayList<>(profile.getDataGroupBytes().entrySet());
-    dataGroups.sort(Comparator.comparingInt(Map.Entry::getKey));
-    for (Map.Entry<Integer, byte[]> entry : dataGroups) {
+    List<Map.Entry<Integer, ByteBuffer>> sorted = new ArrayList<>(dataGroups.entrySet());
+    sorted.sort(Comparator.comparingInt(Map.Entry::getKey));
+    for (Map.Entry<Integer, ByteBuffer> entry : sorted) {
       Integer dg = entry.getKey();
-      byte[] bytes = entry.getValue();
-      if (dg == null || bytes == null || bytes.length == 0) {
+      ByteBuffer bytes = entry.getValue();
+      if (dg == null || bytes == null || !bytes.hasRemaining()) {
         continue;
       }
       short fid = (short) (0x0100 | (dg.intValue() & 0xFF));
-      createEF(ch, fid, bytes.length, String.format("CREATE EF.DG%d", dg));
-      selectEF(ch, fid, String.format("SELECT EF.DG%d before WRITE", dg));
-      writeBinary(ch, bytes, String.format("WRITE EF.DG%d", dg));
+      installEF(ch, fid, bytes, String.format("EF.DG%d", dg));
     }
 
-    byte[] cardAccessBytes = profile.getCardAccessFile();
-    if (cardAccessBytes != null && cardAccessBytes.length > 0) {
-      createEF(ch, EF_CARD_ACCESS, cardAccessBytes.length, "CREATE EF.CardAccess");
-      selectEF(ch, EF_CARD_ACCESS, "SELECT EF.CardAccess before WRITE");
-      writeBinary(ch, cardAccessBytes, "WRITE EF.CardAccess");
+    if (cardAccessBytes != null && cardAccessBytes.hasRemaining()) {
+      installEF(ch, EF_CARD_ACCESS, cardAccessBytes, "EF.CardAccess");
     }
 
-    byte[] sodBytes = profile.getSodFile();
-    if (sodBytes != null && sodBytes.length > 0) {
-      createEF(ch, EF_SOD, sodBytes.length, "CREATE EF.SOD");
-      selectEF(ch, EF_SOD, "SELECT EF.SOD before WRITE");
-      writeBinary(ch, sodBytes, "WRITE EF.SOD");
+    if (sodBytes != null && sodBytes.hasRemaining()) {
+      installEF(ch, EF_SOD, sodBytes, "EF.SOD");
     }
+  }
 
-    System.out.println("Skipped seeding Chip/Active Authentication private keys (not available in profile).");
+  /**
+   * The pool is process-wide like the applet state, so it stays warm across runs with the same
+   * depth and is only replaced or stopped when a run asks for something else.
+   */
+  /**
+   * Installs a PACE precomputation pool for this run when {@code depth} asks for one and none is
+   * installed yet. The pool lives in a static of {@link PassportApplet}, so one already started by
+   * a concurrent session is shared as is, whatever its depth, and never replaced or closed here.
+   *
+   * @return the pool this call installed, to hand to {@link #releasePacePrecomputation}, or null
+   */
+  private static synchronized PacePrecomputation configurePacePrecomputation(int depth) {
+    if (depth <= 0) {
+      return null;
+    }
+    PacePrecomputation current = PassportApplet.getPacePrecomputation();
+    if (current != null) {
+      if (current.getDepth() != depth) {
+        System.out.println("PACE precomputation already running (depth " + current.getDepth()
+            + "); sharing it instead of depth " + depth + ".");
+      }
+      return null;
+    }
+    PacePrecomputation pool = PacePrecomputation.start(depth);
+    PassportApplet.setPacePrecomputation(pool);
+    SimMetrics.bindPoolDepth("pace_precomputation", pool::size);
+    System.out.println("PACE precomputation enabled (depth " + depth + ").");
+    return pool;
+  }
+
+  /** Uninstalls and closes {@code pool} if it is still the installed one; null is a no-op. */
+  private static synchronized void releasePacePrecomputation(PacePrecomputation pool) {
+    if (pool == null) {
+      return;
+    }
+    if (PassportApplet.getPacePrecomputation() == pool) {
+      PassportApplet.setPacePrecomputation(null);
+      SimMetrics.unbindPoolDepth("pace_precomputation");
+    }
+    pool.close();
+  }
+
+  private static void installEF(CardChannel ch, short fid, ByteBuffer data, String name) throws Exception {
+    createEF(ch, fid, data.remaining(), "CREATE " + name);
+    selectEF(ch, fid, "SELECT " + name + " before WRITE");
+    writeBinary(ch, data, "WRITE " + name);
+  }
+
+  private static ByteBuffer wrap(byte[] data) {
+    return data != null ? ByteBuffer.wrap(data) : null;
+  }
+
+  /** Tracks which private keys a container hydration managed to seed into the applet. */
+  private static final class ContainerKeys {
+    final boolean chipAuthentication;
+    final boolean activeAuthentication;
+
+    ContainerKeys(boolean chipAuthentication, boolean activeAuthentication) {
+      this.chipAuthentication = chipAuthentication;
+      this.activeAuthentication = activeAuthentication;
+    }
   }
 
   private static void seedChipAuthenticationKey(CardChannel ch, KeyPair chipKeyPair) throws Exception {
@@ -881,14 +1059,14 @@ public final class SimRunner {
       int offset = 0;
       while (offset < 4096) {
         int le = Math.min(0xFF, 4096 - offset);
-        ResponseAPDU read = ch.transmit(new CommandAPDU(0x00, 0xB0, (offset >> 8) & 0xFF, offset & 0xFF, le));
+        ResponseAPDU read = ch.transmit(EfCommands.readBinary(offset, le));
         int sw = read.getSW();
         if ((sw & 0xFF00) == 0x6C00) {
           int suggested = sw & 0xFF;
           if (suggested == 0) {
             suggested = 256;
           }
-          read = ch.transmit(new CommandAPDU(0x00, 0xB0, (offset >> 8) & 0xFF, offset & 0xFF, suggested));
+          read = ch.transmit(EfCommands.readBinary(offset, suggested));
           sw = read.getSW();
         }
         if (sw != 0x9000 && sw != 0x6282) {
@@ -898,7 +1076,7 @@ public final class SimRunner {
           }
           break;
         }
-        byte[] chunk = read.getData();
+        byte[] chunk = EfCommands.unwrapReadData(offset, read.getData());
         if (chunk.length > 0) {
           out.write(chunk);
           offset += chunk.length;
@@ -952,6 +1130,7 @@ public final class SimRunner {
       boolean attemptPace,
       PaceKeySelection keySelection,
       List<PACEInfo> paceInfos,
+      byte[] cardAccess,
       String preference,
       SimEvents events) {
     PaceOutcome outcome = new PaceOutcome();
@@ -965,7 +1144,13 @@ public final class SimRunner {
       return outcome;
     }
     outcome.availableOptions = paceInfos.size();
-    outcome.selectedInfo = selectPreferredPACEInfo(paceInfos, preference);
+    NegotiatedProfileCache profiles = NegotiatedProfileCache.shared();
+    NegotiatedProfileCache.PaceChoice remembered = profiles.pace(cardAccess, preference);
+    PACEInfo rememberedInfo = remembered != null
+        ? paceInfos.stream().filter(remembered::matches).findFirst().orElse(null)
+        : null;
+    outcome.fromProfileCache = rememberedInfo != null;
+    outcome.selectedInfo = rememberedInfo != null ? rememberedInfo : selectPreferredPACEInfo(paceInfos, preference);
     outcome.preferenceMatched = !hasText(preference)
         || matchesPacePreference(outcome.selectedInfo, preference);
     if (keySelection == null) {
@@ -999,6 +1184,11 @@ public final class SimRunner {
     } catch (Exception e) {
       outcome.failure = e;
     }
+    if (outcome.established) {
+      profiles.rememberPace(cardAccess, preference, outcome.selectedInfo);
+    } else if (outcome.fromProfileCache) {
+      profiles.forgetPace(cardAccess, preference);
+    }
     return outcome;
   }
 
@@ -1015,6 +1205,9 @@ public final class SimRunner {
           outcome.preference,
           outcome.preferenceMatched));
     }
+    if (outcome.fromProfileCache) {
+      securityPrintln("PACE entry taken from the negotiated-profile cache.");
+    }
     if (outcome.selectedInfo != null) {
       BigInteger parameterId = outcome.selectedInfo.getParameterId();
       String displayOid = outcome.selectedInfo.getProtocolOIDString();
@@ -1148,7 +1341,7 @@ public final class SimRunner {
   }
 
   private static DG14File readDG14(PassportService svc) {
-    byte[] dg14Bytes = readEf(svc, PassportService.EF_DG14);
+    byte[] dg14Bytes = readEf(svc, PassportService.EF_DG14, "DG14");
     if (dg14Bytes == null || dg14Bytes.length == 0) {
       System.out.println("DG14 not present or unreadable.");
       return null;
@@ -1162,7 +1355,7 @@ public final class SimRunner {
   }
 
   private static DG15File readDG15(PassportService svc) {
-    byte[] dg15Bytes = readEf(svc, PassportService.EF_DG15);
+    byte[] dg15Bytes = readEf(svc, PassportService.EF_DG15, "DG15");
     if (dg15Bytes == null || dg15Bytes.length == 0) {
       System.out.println("DG15 not present or unreadable.");
       return null;
@@ -1221,7 +1414,13 @@ public final class SimRunner {
       }
     }
 
-    outcome.selectedInfo = selectPreferredChipAuth(chipInfos);
+    NegotiatedProfileCache profiles = NegotiatedProfileCache.shared();
+    byte[] dg14Bytes = dg14.getEncoded();
+    NegotiatedProfileCache.ChipAuthChoice remembered = profiles.chipAuthentication(dg14Bytes);
+    ChipAuthenticationInfo rememberedInfo = remembered != null
+        ? chipInfos.stream().filter(remembered::matches).findFirst().orElse(null)
+        : null;
+    outcome.selectedInfo = rememberedInfo != null ? rememberedInfo : selectPreferredChipAuth(chipInfos);
     if (outcome.selectedInfo == null) {
       securityPrintln("Unable to select Chip Authentication profile.");
       return outcome;
@@ -1256,11 +1455,17 @@ public final class SimRunner {
         agreementAlg = ChipAuthenticationInfo.toKeyAgreementAlgorithm(caOid);
       } catch (Exception ignore) {
       }
-      String cipherAlg = ChipAuthenticationInfo.toCipherAlgorithm(caOid);
+      String cipherAlg = rememberedInfo != null && remembered.cipherAlgorithm != null
+          ? remembered.cipherAlgorithm
+          : ChipAuthenticationInfo.toCipherAlgorithm(caOid);
+      if (rememberedInfo != null) {
+        securityPrintln("Chip Authentication suite taken from the negotiated-profile cache.");
+      }
       EACCAResult result = svc.doEACCA(keyId, caOid, cipherAlg, publicKeyInfo.getSubjectPublicKey());
       outcome.result = result;
       outcome.established = result != null && result.getWrapper() != null;
       if (outcome.established) {
+        profiles.rememberChipAuthentication(dg14Bytes, outcome.selectedInfo, cipherAlg);
         securityPrintln(String.format(
             "Chip Authentication established (agreement=%s cipher=%s keyId=%s).",
             agreementAlg != null ? agreementAlg : caOid,
@@ -1277,6 +1482,9 @@ public final class SimRunner {
       outcome.failure = e;
       securityPrintln("Chip Authentication failed: " + e.getMessage());
     }
+    if (!outcome.established && rememberedInfo != null) {
+      profiles.forgetChipAuthentication(dg14Bytes);
+    }
     return outcome;
   }
 
@@ -1307,8 +1515,11 @@ public final class SimRunner {
       return outcome;
     }
 
+    NegotiatedProfileCache profiles = NegotiatedProfileCache.shared();
+    byte[] dg15Bytes = dg15.getEncoded();
+    String rememberedAlgorithm = profiles.activeAuthentication(dg15Bytes);
     byte[] challenge = new byte[AA_CHALLENGE_LENGTH];
-    SECURE_RANDOM.nextBytes(challenge);
+    Randomness.threadRandom().nextBytes(challenge);
     outcome.challenge = challenge.clone();
     int expectedResponseLength = expectedAaResponseLength(outcome.publicKey);
     try {
@@ -1324,13 +1535,20 @@ public final class SimRunner {
           outcome.response = tryPlainInternalAuthenticate(rawService, challenge);
         }
         try {
-          outcome.verified = verifyActiveAuthenticationSignature(outcome.publicKey, challenge, outcome.response);
+          outcome.signatureAlgorithm = verifyActiveAuthenticationSignature(
+              outcome.publicKey, challenge, outcome.response, rememberedAlgorithm);
+          outcome.verified = outcome.signatureAlgorithm != null;
         } catch (GeneralSecurityException e) {
           outcome.failure = e;
           securityPrintln("Active Authentication verification error: " + e.getMessage());
         }
       }
 
+      if (outcome.verified) {
+        profiles.rememberActiveAuthentication(dg15Bytes, outcome.signatureAlgorithm);
+      } else if (rememberedAlgorithm != null) {
+        profiles.forgetActiveAuthentication(dg15Bytes);
+      }
       if (outcome.verified) {
         Integer keyBits = describeKeyBits(outcome.publicKey);
         if (keyBits != null) {
@@ -1439,16 +1657,21 @@ public final class SimRunner {
     return key.getAlgorithm();
   }
 
-  private static boolean verifyActiveAuthenticationSignature(
-      PublicKey key, byte[] challenge, byte[] response) throws GeneralSecurityException {
+  /**
+   * Returns the signature algorithm that verified {@code response}, or {@code null}. ECDSA tries
+   * {@code rememberedAlgorithm} first, then the candidates for the key size.
+   */
+  private static String verifyActiveAuthenticationSignature(
+      PublicKey key, byte[] challenge, byte[] response, String rememberedAlgorithm)
+      throws GeneralSecurityException {
     if (response == null || response.length == 0) {
-      return false;
+      return null;
     }
     if (key instanceof RSAPublicKey) {
-      return verifyRsaActiveAuthentication((RSAPublicKey) key, challenge, response);
+      return verifyRsaActiveAuthentication((RSAPublicKey) key, challenge, response) ? "SHA1withRSA" : null;
     }
     if (key instanceof ECPublicKey) {
-      return verifyEcdsaActiveAuthentication((ECPublicKey) key, challenge, response);
+      return verifyEcdsaActiveAuthentication((ECPublicKey) key, challenge, response, rememberedAlgorithm);
     }
     throw new GeneralSecurityException("Unsupported AA key algorithm: " + key.getAlgorithm());
   }
@@ -1479,17 +1702,17 @@ public final class SimRunner {
     return MessageDigest.isEqual(expectedDigest, actualDigest);
   }
 
-  private static boolean verifyEcdsaActiveAuthentication(
-      ECPublicKey key, byte[] challenge, byte[] response)
+  private static String verifyEcdsaActiveAuthentication(
+      ECPublicKey key, byte[] challenge, byte[] response, String rememberedAlgorithm)
       throws GeneralSecurityException {
     GeneralSecurityException lastError = null;
-    for (String algorithm : buildEcdsaSignatureCandidates(key)) {
+    for (String algorithm : buildEcdsaSignatureCandidates(key, rememberedAlgorithm)) {
       try {
         Signature verifier = Signature.getInstance(algorithm);
         verifier.initVerify(key);
         verifier.update(challenge);
         if (verifier.verify(response)) {
-          return true;
+          return algorithm;
         }
       } catch (GeneralSecurityException e) {
         lastError = e;
@@ -1498,11 +1721,14 @@ public final class SimRunner {
     if (lastError != null) {
       throw lastError;
     }
-    return false;
+    return null;
   }
 
-  private static List<String> buildEcdsaSignatureCandidates(ECPublicKey key) {
+  static List<String> buildEcdsaSignatureCandidates(ECPublicKey key, String rememberedAlgorithm) {
     List<String> algorithms = new ArrayList<>();
+    if (hasText(rememberedAlgorithm)) {
+      algorithms.add(rememberedAlgorithm);
+    }
     String preferred = resolveAASignatureAlgorithm(key);
     if (hasText(preferred) && !algorithms.contains(preferred)) {
       algorithms.add(preferred);
@@ -1798,8 +2024,10 @@ public final class SimRunner {
   }
 
   private static boolean attemptDataGroupRead(PassportService svc, short fid, String label) {
-    try (InputStream in = svc.getInputStream(fid)) {
+    JfrEvents.ProtocolStep step = JfrEvents.beginStep(null);
+    try (InputStream in = LargeEfReader.open(svc, fid)) {
       if (in == null) {
+        step.finish(label, "absent", 0L);
         System.out.printf("EF.%s not present or zero length.%n", label);
         return false;
       }
@@ -1809,9 +2037,11 @@ public final class SimRunner {
       while ((read = in.read(buffer)) > 0) {
         total += read;
       }
+      step.finish(label, "ok", total);
       System.out.printf("EF.%s readable (%d bytes).%n", label, total);
       return total > 0;
     } catch (CardServiceException e) {
+      step.finish(label, "denied", 0L);
       String message = e.getMessage();
       if (message == null || message.isBlank()) {
         message = String.format("SW=%04X", e.getSW());
@@ -1819,6 +2049,7 @@ public final class SimRunner {
       System.out.printf("EF.%s inaccessible: %s%n", label, message);
       return false;
     } catch (IOException e) {
+      step.finish(label, "failed", 0L);
       System.out.printf("EF.%s read error: %s%n", label, e.getMessage());
       return false;
     }
@@ -2074,13 +2305,18 @@ public final class SimRunner {
     return DateTimeFormatter.ISO_OFFSET_DATE_TIME.format(date.toInstant().atOffset(ZoneOffset.UTC));
   }
 
-  private static byte[] readEf(PassportService svc, short fid) {
-    try (InputStream in = svc.getInputStream(fid)) {
+  private static byte[] readEf(PassportService svc, short fid, String label) {
+    JfrEvents.ProtocolStep step = JfrEvents.beginStep(null);
+    try (InputStream in = LargeEfReader.open(svc, fid)) {
       if (in == null) {
+        step.finish(label, "absent", 0L);
         return null;
       }
-      return in.readAllBytes();
+      byte[] bytes = in.readAllBytes();
+      step.finish(label, "ok", bytes.length);
+      return bytes;
     } catch (Exception e) {
+      step.finish(label, "failed", 0L);
       return null;
     }
   }
@@ -2095,6 +2331,7 @@ public final class SimRunner {
     Exception failure;
     String preference;
     boolean preferenceMatched;
+    boolean fromProfileCache;
   }
 
   private static final class PaceKeySelection {
@@ -2125,6 +2362,7 @@ public final class SimRunner {
     PublicKey publicKey;
     byte[] challenge;
     byte[] response;
+    String signatureAlgorithm;
     Exception failure;
   }
 
@@ -2170,9 +2408,14 @@ public final class SimRunner {
     SessionReport.TerminalAuth report;
   }
 
+  /**
+   * Copies the session thread's stdout into log events. Output from other threads, such as
+   * event subscribers that print, goes straight to the original stream.
+   */
   private static final class SimOutputRouter extends OutputStream {
     private final SimEvents events;
     private final PrintStream delegate;
+    private final Thread sessionThread = Thread.currentThread();
     private final StringBuilder buffer = new StringBuilder();
 
     SimOutputRouter(SimEvents events, PrintStream delegate) {
@@ -2183,12 +2426,17 @@ public final class SimRunner {
     @Override
     public void write(int b) throws IOException {
       delegate.write(b);
-      appendByte(b);
+      if (Thread.currentThread() == sessionThread) {
+        appendByte(b);
+      }
     }
 
     @Override
     public void write(byte[] b, int off, int len) throws IOException {
       delegate.write(b, off, len);
+      if (Thread.currentThread() != sessionThread) {
+        return;
+      }
       for (int i = off; i < off + len; i++) {
         appendByte(b[i]);
       }
@@ -2230,6 +2478,33 @@ public final class SimRunner {
     }
   }
 
+  /**
+   * Sends all provisioning steps as one container APDU, falling back to separate PUT DATA
+   * commands when the chip doesn't know the container.
+   */
+  private static void provision(CardChannel ch, IssuerSecretEncoder.Provisioning provisioning) throws Exception {
+    if (provisioning.isEmpty()) {
+      return;
+    }
+    byte[] container = provisioning.encode();
+    if (container != null) {
+      int sw = putData(ch, 0x00, IssuerSecretEncoder.P2_PROVISIONING, container, "PUT provisioning container");
+      if (sw == 0x9000) {
+        return;
+      }
+      if (sw != 0x6A86 && sw != 0x6D00) {
+        throw new RuntimeException(String.format(
+            "Provisioning via PUT DATA gagal (SW=%04X). Cek format TLV kontainer 0x68.", sw));
+      }
+    }
+    for (IssuerSecretEncoder.Command command : provisioning.commands()) {
+      int sw = putData(ch, command.p1, command.p2, command.data, command.label);
+      if (sw != 0x9000) {
+        throw new RuntimeException(String.format("%s gagal (SW=%04X).", command.label, sw));
+      }
+    }
+  }
+
   private static int putData(CardChannel ch, int p1, int p2, byte[] data, String label) throws Exception {
     ResponseAPDU r = ch.transmit(new CommandAPDU(0x00, 0xDA, p1, p2, data)); // ISO7816 PUT DATA
     int sw = r.getSW();
@@ -2238,19 +2513,18 @@ public final class SimRunner {
   }
 
   private static ResponseAPDU apdu(CardChannel ch, int cla, int ins, int p1, int p2, byte[] data, String label) throws Exception {
-    ResponseAPDU r = ch.transmit(new CommandAPDU(cla, ins, p1, p2, data));
+    return apdu(ch, new CommandAPDU(cla, ins, p1, p2, data), label);
+  }
+
+  private static ResponseAPDU apdu(CardChannel ch, CommandAPDU command, String label) throws Exception {
+    ResponseAPDU r = ch.transmit(command);
     System.out.printf("%s → SW=%04X%n", label, r.getSW());
     if (r.getSW() != 0x9000) throw new RuntimeException(label + " failed SW=" + Integer.toHexString(r.getSW()));
     return r;
   }
 
   private static void createEF(CardChannel ch, short fid, int size, String label) throws Exception {
-    byte[] fcp = new byte[]{
-        (byte)0x63, 0x04,
-        (byte)((size >> 8) & 0xFF), (byte)(size & 0xFF),
-        (byte)((fid >> 8) & 0xFF), (byte)(fid & 0xFF)
-    };
-    apdu(ch, 0x00, 0xE0, 0x00, 0x00, fcp, label);
+    apdu(ch, 0x00, 0xE0, 0x00, 0x00, EfCommands.createFileData(fid, size), label);
   }
 
   private static void selectEF(CardChannel ch, short fid, String label) throws Exception {
@@ -2261,12 +2535,24 @@ public final class SimRunner {
   }
 
   private static void writeBinary(CardChannel ch, byte[] data, String label) throws Exception {
+    writeBinary(ch, ByteBuffer.wrap(data), label);
+  }
+
+  private static void writeBinary(CardChannel ch, ByteBuffer data, String label) throws Exception {
+    ByteBuffer source = data.duplicate();
     int off = 0;
-    while (off < data.length) {
-      int len = Math.min(0xFF, data.length - off);
-      byte[] chunk = Arrays.copyOfRange(data, off, off + len);
-      apdu(ch, 0x00, 0xD6, (off >> 8) & 0xFF, off & 0xFF, chunk,
-          label + " (ofs=" + off + ", len=" + len + ")");
+    while (source.hasRemaining()) {
+      int len = Math.min(EfCommands.maxChunk(off), source.remaining());
+      CommandAPDU update;
+      if (source.hasArray()) {
+        update = EfCommands.updateBinary(off, source.array(), source.arrayOffset() + source.position(), len);
+        source.position(source.position() + len);
+      } else {
+        byte[] chunk = new byte[len];
+        source.get(chunk);
+        update = EfCommands.updateBinary(off, chunk);
+      }
+      apdu(ch, update, label + " (ofs=" + off + ", len=" + len + ")");
       off += len;
     }
   }
@@ -2285,11 +2571,16 @@ public final class SimRunner {
           .orElse(null);
     }
     byte[] dg2Bytes = null;
-    try (InputStream in = svc.getInputStream(PassportService.EF_DG2)) {
+    JfrEvents.ProtocolStep dg2Step = JfrEvents.beginStep(null);
+    try (InputStream in = LargeEfReader.open(svc, PassportService.EF_DG2)) {
       if (in != null) {
         dg2Bytes = in.readAllBytes();
+        dg2Step.finish("DG2", "ok", dg2Bytes.length);
+      } else {
+        dg2Step.finish("DG2", "absent", 0L);
       }
     } catch (Exception e) {
+      dg2Step.finish("DG2", "failed", 0L);
       System.out.println("DG2 read error: " + e.getMessage());
     }
     if ((dg2Bytes == null || dg2Bytes.length == 0) && personalizationArtifacts != null) {
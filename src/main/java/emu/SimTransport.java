@@ -0,0 +1,9 @@
+package emu;
+
+/** How the host side reaches a simulated chip. */
+public enum SimTransport {
+  /** jcardsim terminal, {@code javax.smartcardio} card/channel and {@code TerminalCardService}, like a PC/SC reader. */
+  SMARTCARDIO,
+  /** {@link SimulatorCardService}: APDUs go to the {@code CardSimulator} as byte arrays. */
+  DIRECT
+}
@@ -0,0 +1,185 @@
+package emu;
+
+import com.licel.jcardsim.smartcardio.CardSimulator;
+
+import java.nio.ByteBuffer;
+import java.util.Objects;
+
+import javax.smartcardio.ATR;
+import javax.smartcardio.Card;
+import javax.smartcardio.CardChannel;
+
+import net.sf.scuba.smartcards.APDUEvent;
+import net.sf.scuba.smartcards.CardService;
+import net.sf.scuba.smartcards.CardServiceException;
+import net.sf.scuba.smartcards.CommandAPDU;
+import net.sf.scuba.smartcards.ResponseAPDU;
+
+/**
+ * In-process {@link CardService} that hands each APDU to a {@link CardSimulator} as a byte array.
+ * It skips the jcardsim terminal and the {@code javax.smartcardio} card and channel objects that
+ * {@code TerminalCardService} converts every command and response through, so a simulated session
+ * spends its time in the applet and its crypto.
+ *
+ * {@link #card()} exposes the same simulator as a {@code javax.smartcardio} {@link Card} for code
+ * that personalizes over a {@link CardChannel}. Its buffer-based {@code transmit} reuses one
+ * command array between commands of equal length.
+ */
+public final class SimulatorCardService extends CardService {
+
+  static final String PROTOCOL = "DIRECT";
+
+  private final CardSimulator simulator;
+  private final SimulatorCard card = new SimulatorCard();
+  private byte[] commandBuffer = new byte[0];
+  private int sequence;
+
+  public SimulatorCardService(CardSimulator simulator) {
+    this.simulator = Objects.requireNonNull(simulator, "simulator");
+  }
+
+  @Override
+  public void open() {
+    state = SESSION_STARTED_STATE;
+  }
+
+  @Override
+  public boolean isOpen() {
+    return state != SESSION_STOPPED_STATE;
+  }
+
+  @Override
+  public ResponseAPDU transmit(CommandAPDU command) throws CardServiceException {
+    if (!isOpen()) {
+      throw new CardServiceException("Simulator card service is not open");
+    }
+    ResponseAPDU response = new ResponseAPDU(exchange(command.getBytes()));
+    if (!getAPDUListeners().isEmpty()) {
+      notifyExchangedAPDU(new APDUEvent(this, PROTOCOL, ++sequence, command, response));
+    }
+    return response;
+  }
+
+  @Override
+  public byte[] getATR() {
+    return simulator.getATR();
+  }
+
+  @Override
+  public void close() {
+    state = SESSION_STOPPED_STATE;
+  }
+
+  @Override
+  public boolean isConnectionLost(Exception e) {
+    return false;
+  }
+
+  /** The simulator as a {@code javax.smartcardio} card; usable whether or not the service is open. */
+  public Card card() {
+    return card;
+  }
+
+  private byte[] exchange(byte[] command) {
+    synchronized (simulator) {
+      return simulator.transmitCommand(command);
+    }
+  }
+
+  private byte[] exchange(ByteBuffer command) {
+    synchronized (simulator) {
+      int length = command.remaining();
+      if (commandBuffer.length != length) {
+        commandBuffer = new byte[length];
+      }
+      command.get(commandBuffer);
+      return simulator.transmitCommand(commandBuffer);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "SimulatorCardService(" + PROTOCOL + ")";
+  }
+
+  private final class SimulatorCard extends Card {
+    private final SimulatorChannel basicChannel = new SimulatorChannel(this);
+
+    @Override
+    public ATR getATR() {
+      return new ATR(simulator.getATR());
+    }
+
+    @Override
+    public String getProtocol() {
+      return PROTOCOL;
+    }
+
+    @Override
+    public CardChannel getBasicChannel() {
+      return basicChannel;
+    }
+
+    @Override
+    public CardChannel openLogicalChannel() {
+      throw new UnsupportedOperationException("Logical channels are not simulated");
+    }
+
+    @Override
+    public void beginExclusive() {
+    }
+
+    @Override
+    public void endExclusive() {
+    }
+
+    @Override
+    public byte[] transmitControlCommand(int controlCode, byte[] command) {
+      throw new UnsupportedOperationException("Control commands are not simulated");
+    }
+
+    @Override
+    public void disconnect(boolean reset) {
+      if (reset) {
+        synchronized (simulator) {
+          simulator.reset();
+        }
+      }
+    }
+  }
+
+  private final class SimulatorChannel extends CardChannel {
+    private final Card owner;
+
+    SimulatorChannel(Card owner) {
+      this.owner = owner;
+    }
+
+    @Override
+    public Card getCard() {
+      return owner;
+    }
+
+    @Override
+    public int getChannelNumber() {
+      return 0;
+    }
+
+    @Override
+    public javax.smartcardio.ResponseAPDU transmit(javax.smartcardio.CommandAPDU command) {
+      return new javax.smartcardio.ResponseAPDU(exchange(command.getBytes()));
+    }
+
+    @Override
+    public int transmit(ByteBuffer command, ByteBuffer response) {
+      byte[] answer = exchange(command);
+      response.put(answer);
+      return answer.length;
+    }
+
+    @Override
+    public void close() {
+      throw new IllegalStateException("The basic channel cannot be closed");
+    }
+  }
+}
@@ -0,0 +1,164 @@
+package emu;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Size-bounded, thread-safe memo for synthetic biometric encodings. Entries depend only on their
+ * kind and dimensions, so concurrent issuance jobs asking for the same block share one render;
+ * a caller that finds a render already in flight waits for it instead of starting another.
+ * Least-recently-used entries are evicted once the cached bytes exceed the capacity.
+ *
+ * <p>Returned arrays are shared and must not be modified.
+ */
+final class SyntheticBiometricCache {
+
+  interface Loader {
+    byte[] load() throws IOException;
+  }
+
+  private final long capacityBytes;
+  private final LinkedHashMap<Key, byte[]> entries = new LinkedHashMap<>(16, 0.75f, true);
+  private final ConcurrentHashMap<Key, CompletableFuture<byte[]>> inFlight = new ConcurrentHashMap<>();
+  private long cachedBytes;
+  private long hits;
+  private long misses;
+
+  SyntheticBiometricCache(long capacityBytes) {
+    if (capacityBytes < 0) {
+      throw new IllegalArgumentException("capacityBytes must be >= 0");
+    }
+    this.capacityBytes = capacityBytes;
+  }
+
+  byte[] get(String kind, int width, int height, Loader loader) throws IOException {
+    Key key = new Key(kind, width, height);
+    byte[] cached = lookup(key);
+    if (cached != null) {
+      return cached;
+    }
+    CompletableFuture<byte[]> pending = new CompletableFuture<>();
+    CompletableFuture<byte[]> existing = inFlight.putIfAbsent(key, pending);
+    if (existing != null) {
+      return await(existing);
+    }
+    try {
+      byte[] value = peek(key);
+      if (value == null) {
+        value = Objects.requireNonNull(loader.load(), "loader returned null");
+        store(key, value);
+      }
+      pending.complete(value);
+      return value;
+    } catch (IOException | RuntimeException e) {
+      pending.completeExceptionally(e);
+      throw e;
+    } finally {
+      inFlight.remove(key, pending);
+    }
+  }
+
+  synchronized long getCachedBytes() {
+    return cachedBytes;
+  }
+
+  synchronized long getHits() {
+    return hits;
+  }
+
+  synchronized long getMisses() {
+    return misses;
+  }
+
+  synchronized void clear() {
+    entries.clear();
+    cachedBytes = 0;
+  }
+
+  private synchronized byte[] lookup(Key key) {
+    byte[] value = entries.get(key);
+    if (value != null) {
+      hits++;
+    } else {
+      misses++;
+    }
+    return value;
+  }
+
+  private synchronized byte[] peek(Key key) {
+    return entries.get(key);
+  }
+
+  private synchronized void store(Key key, byte[] value) {
+    if (value.length > capacityBytes) {
+      return;
+    }
+    byte[] previous = entries.put(key, value);
+    if (previous != null) {
+      cachedBytes -= previous.length;
+    }
+    cachedBytes += value.length;
+    Iterator<Map.Entry<Key, byte[]>> eldest = entries.entrySet().iterator();
+    while (cachedBytes > capacityBytes && eldest.hasNext()) {
+      Map.Entry<Key, byte[]> entry = eldest.next();
+      if (entry.getKey().equals(key)) {
+        continue;
+      }
+      cachedBytes -= entry.getValue().length;
+      eldest.remove();
+    }
+  }
+
+  private static byte[] await(CompletableFuture<byte[]> future) throws IOException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while waiting for synthetic biometric render", e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new IOException(cause);
+    }
+  }
+
+  private static final class Key {
+    private final String kind;
+    private final int width;
+    private final int height;
+
+    Key(String kind, int width, int height) {
+      this.kind = kind;
+      this.width = width;
+      this.height = height;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (this == other) {
+        return true;
+      }
+      if (!(other instanceof Key)) {
+        return false;
+      }
+      Key that = (Key) other;
+      return width == that.width && height == that.height && kind.equals(that.kind);
+    }
+
+    @Override
+    public int hashCode() {
+      return (kind.hashCode() * 31 + width) * 31 + height;
+    }
+  }
+}
@@ -0,0 +1,456 @@
+package emu;
+
+import com.licel.jcardsim.smartcardio.CardSimulator;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import sos.passportapplet.PassportApplet;
+
+/**
+ * Serves simulated passports over TCP so inspection software outside the JVM can talk to them.
+ * Every connection is one virtual card in a reader. Messages use the vsmartcard {@code vpcd}
+ * framing: a two-byte big-endian length, then either a command APDU (answered with a framed
+ * response APDU) or a one-byte control code (power off, power on, reset, or get ATR, which is
+ * answered with the framed ATR). The server accepts inspection-system connections itself, and it
+ * can also {@link #attach dial out} to a running {@code vpcd} so the cards show up as PC/SC
+ * readers.
+ *
+ * One selector thread multiplexes all sockets. Commands run on a single dispatch thread, because
+ * {@link PassportApplet} keeps part of its state in static fields: the dispatcher restores a card's
+ * {@link PassportApplet.ChipState} before each command and saves it afterwards. Cards are issued
+ * by a {@link CardSource} on that thread. They are kept in a pool and recycled, after a reset,
+ * when their connection closes.
+ */
+public final class VirtualCardServer implements AutoCloseable {
+
+  /** Issues a personalized simulator; always invoked on the dispatch thread. */
+  @FunctionalInterface
+  public interface CardSource {
+    CardSimulator newCard() throws Exception;
+  }
+
+  static final byte CONTROL_POWER_OFF = 0x00;
+  static final byte CONTROL_POWER_ON = 0x01;
+  static final byte CONTROL_RESET = 0x02;
+  static final byte CONTROL_GET_ATR = 0x04;
+
+  private final CardSource source;
+  private final Selector selector;
+  private final ServerSocketChannel server;
+  private final ExecutorService dispatcher;
+  private final Thread ioThread;
+  private final BlockingQueue<VirtualCard> pool = new LinkedBlockingQueue<>();
+  private final Queue<Runnable> selectorTasks = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger activeConnections = new AtomicInteger();
+  private final AtomicLong totalConnections = new AtomicLong();
+  private final AtomicLong commands = new AtomicLong();
+  private final AtomicInteger issuedCards = new AtomicInteger();
+  private volatile boolean closed;
+
+  private VirtualCardServer(CardSource source, InetSocketAddress bindAddress) throws IOException {
+    this.source = Objects.requireNonNull(source, "source");
+    this.selector = Selector.open();
+    this.server = ServerSocketChannel.open();
+    try {
+      server.bind(bindAddress);
+      server.configureBlocking(false);
+      server.register(selector, SelectionKey.OP_ACCEPT);
+    } catch (IOException e) {
+      server.close();
+      selector.close();
+      throw e;
+    }
+    this.dispatcher = Executors.newSingleThreadExecutor(runnable -> daemon(runnable, "virtual-card-dispatch"));
+    this.ioThread = daemon(this::ioLoop, "virtual-card-io");
+  }
+
+  /**
+   * Binds {@code bindAddress}, issues {@code prefill} cards into the pool and starts serving. A
+   * connection that finds the pool empty gets a card issued on demand.
+   */
+  public static VirtualCardServer start(InetSocketAddress bindAddress, CardSource source, int prefill)
+      throws IOException {
+    if (prefill < 0) {
+      throw new IllegalArgumentException("prefill must be >= 0");
+    }
+    VirtualCardServer server = new VirtualCardServer(source, bindAddress);
+    try {
+      server.dispatcher.submit(() -> {
+        for (int i = 0; i < prefill; i++) {
+          server.pool.add(server.issue());
+        }
+        return null;
+      }).get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      server.close();
+      throw new IOException("Interrupted while issuing virtual cards", e);
+    } catch (ExecutionException e) {
+      server.close();
+      throw new IOException("Unable to issue virtual cards: " + e.getCause().getMessage(), e.getCause());
+    }
+    server.ioThread.start();
+    SimMetrics.bindPoolDepth("virtual_cards", server.pool::size);
+    return server;
+  }
+
+  public InetSocketAddress getAddress() {
+    try {
+      return (InetSocketAddress) server.getLocalAddress();
+    } catch (IOException e) {
+      throw new IllegalStateException("Server socket is closed", e);
+    }
+  }
+
+  /**
+   * Connects out to a {@code vpcd} reader slot (default port 35963) and serves a card on it,
+   * as vsmartcard's {@code vicc} would.
+   */
+  public void attach(InetSocketAddress vpcd) throws IOException {
+    SocketChannel channel = SocketChannel.open();
+    channel.configureBlocking(false);
+    boolean connected = channel.connect(vpcd);
+    runOnSelector(() -> {
+      try {
+        if (connected) {
+          register(channel);
+        } else {
+          channel.register(selector, SelectionKey.OP_CONNECT);
+        }
+      } catch (IOException e) {
+        System.err.println("Unable to attach to vpcd at " + vpcd + ": " + e.getMessage());
+        closeQuietly(channel);
+      }
+    });
+  }
+
+  public int getActiveConnections() {
+    return activeConnections.get();
+  }
+
+  public long getTotalConnections() {
+    return totalConnections.get();
+  }
+
+  /** APDUs and control messages processed so far. */
+  public long getCommandCount() {
+    return commands.get();
+  }
+
+  public int getIssuedCards() {
+    return issuedCards.get();
+  }
+
+  public int getPooledCards() {
+    return pool.size();
+  }
+
+  @Override
+  public void close() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    SimMetrics.unbindPoolDepth("virtual_cards");
+    selector.wakeup();
+    try {
+      ioThread.join(TimeUnit.SECONDS.toMillis(5));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    for (SelectionKey key : selector.keys()) {
+      closeQuietly(key.channel());
+    }
+    closeQuietly(server);
+    closeQuietly(selector);
+    dispatcher.shutdownNow();
+  }
+
+  private void ioLoop() {
+    try {
+      while (!closed) {
+        selector.select();
+        Runnable task;
+        while ((task = selectorTasks.poll()) != null) {
+          task.run();
+        }
+        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+          SelectionKey key = keys.next();
+          keys.remove();
+          try {
+            if (!key.isValid()) {
+              continue;
+            }
+            if (key.isAcceptable()) {
+              SocketChannel channel = server.accept();
+              if (channel != null) {
+                register(channel);
+              }
+            } else if (key.isConnectable()) {
+              SocketChannel channel = (SocketChannel) key.channel();
+              channel.finishConnect();
+              key.cancel();
+              selector.selectNow();
+              register(channel);
+            } else {
+              Connection connection = (Connection) key.attachment();
+              if (key.isReadable()) {
+                connection.read();
+              }
+              if (key.isValid() && key.isWritable()) {
+                connection.write();
+              }
+            }
+          } catch (IOException | RuntimeException e) {
+            Object attachment = key.attachment();
+            if (attachment instanceof Connection) {
+              ((Connection) attachment).close();
+            } else if (key.channel() != server) {
+              closeQuietly(key.channel());
+            }
+          }
+        }
+      }
+    } catch (IOException | ClosedSelectorException e) {
+      if (!closed) {
+        System.err.println("Virtual card server stopped: " + e.getMessage());
+      }
+    }
+  }
+
+  private void register(SocketChannel channel) throws IOException {
+    channel.configureBlocking(false);
+    channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+    Connection connection = new Connection(channel);
+    connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+    activeConnections.incrementAndGet();
+    totalConnections.incrementAndGet();
+  }
+
+  private void runOnSelector(Runnable task) {
+    selectorTasks.add(task);
+    selector.wakeup();
+  }
+
+  private VirtualCard issue() throws Exception {
+    CardSimulator simulator = source.newCard();
+    if (simulator == null) {
+      throw new IllegalStateException("Card source returned no simulator");
+    }
+    issuedCards.incrementAndGet();
+    // The applet was installed and personalized just now, so the static state is this card's.
+    return new VirtualCard(simulator, PassportApplet.saveChipState());
+  }
+
+  private static Thread daemon(Runnable body, String name) {
+    Thread thread = new Thread(body, name);
+    thread.setDaemon(true);
+    return thread;
+  }
+
+  private static void closeQuietly(AutoCloseable closeable) {
+    try {
+      closeable.close();
+    } catch (Exception ignored) {
+      // Best effort during shutdown.
+    }
+  }
+
+  /** A simulator plus the applet state to swap in before each of its commands. */
+  private static final class VirtualCard {
+    private final CardSimulator simulator;
+    private PassportApplet.ChipState state;
+
+    VirtualCard(CardSimulator simulator, PassportApplet.ChipState state) {
+      this.simulator = simulator;
+      this.state = state;
+    }
+
+    byte[] transmit(byte[] command) {
+      PassportApplet.restoreChipState(state);
+      try {
+        return simulator.transmitCommand(command);
+      } finally {
+        state = PassportApplet.saveChipState();
+      }
+    }
+
+    void reset() {
+      PassportApplet.restoreChipState(state);
+      try {
+        simulator.reset();
+      } finally {
+        state = PassportApplet.saveChipState();
+      }
+    }
+
+    byte[] atr() {
+      return simulator.getATR();
+    }
+  }
+
+  /**
+   * Socket state, touched only by the selector thread except for {@link #card}, which only the
+   * dispatch thread uses. Reading pauses while a command is with the dispatcher, so replies stay
+   * in request order.
+   */
+  private final class Connection {
+    private final SocketChannel channel;
+    private final ByteBuffer header = ByteBuffer.allocate(2);
+    private final Deque<ByteBuffer> outbound = new ArrayDeque<>();
+    private SelectionKey key;
+    private ByteBuffer body;
+    private VirtualCard card;
+    private boolean closed;
+
+    Connection(SocketChannel channel) {
+      this.channel = channel;
+    }
+
+    void read() throws IOException {
+      if (body == null) {
+        if (channel.read(header) < 0) {
+          close();
+          return;
+        }
+        if (header.hasRemaining()) {
+          return;
+        }
+        header.flip();
+        int length = header.getShort() & 0xFFFF;
+        header.clear();
+        if (length == 0) {
+          throw new IOException("Empty frame");
+        }
+        body = ByteBuffer.allocate(length);
+      }
+      if (channel.read(body) < 0) {
+        close();
+        return;
+      }
+      if (body.hasRemaining()) {
+        return;
+      }
+      byte[] frame = body.array();
+      body = null;
+      key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+      dispatcher.execute(() -> process(frame));
+    }
+
+    /** Runs on the dispatch thread. */
+    private void process(byte[] frame) {
+      byte[] reply = null;
+      boolean failed = false;
+      try {
+        if (card == null) {
+          card = pool.poll();
+          if (card == null) {
+            card = issue();
+          }
+        }
+        if (frame.length == 1) {
+          switch (frame[0]) {
+            case CONTROL_GET_ATR:
+              reply = card.atr();
+              break;
+            case CONTROL_POWER_ON:
+            case CONTROL_RESET:
+              card.reset();
+              break;
+            case CONTROL_POWER_OFF:
+              break;
+            default:
+              throw new IOException(String.format("Unknown control code %02X", frame[0] & 0xFF));
+          }
+        } else {
+          long started = System.nanoTime();
+          reply = card.transmit(frame);
+          if (reply != null && reply.length >= 2) {
+            SimMetrics.apdu(frame[1], ((reply[reply.length - 2] & 0xFF) << 8) | (reply[reply.length - 1] & 0xFF), started);
+          }
+        }
+        commands.incrementAndGet();
+      } catch (Exception e) {
+        System.err.println("Virtual card command failed: " + e.getMessage());
+        failed = true;
+      }
+      byte[] response = reply;
+      boolean drop = failed;
+      runOnSelector(() -> {
+        if (drop) {
+          close();
+        } else {
+          respond(response);
+        }
+      });
+    }
+
+    private void respond(byte[] reply) {
+      if (closed) {
+        return;
+      }
+      int ops = SelectionKey.OP_READ;
+      if (reply != null) {
+        ByteBuffer frame = ByteBuffer.allocate(2 + reply.length);
+        frame.putShort((short) reply.length).put(reply).flip();
+        outbound.add(frame);
+      }
+      if (!outbound.isEmpty()) {
+        ops |= SelectionKey.OP_WRITE;
+      }
+      key.interestOps(ops);
+    }
+
+    void write() throws IOException {
+      while (!outbound.isEmpty()) {
+        ByteBuffer next = outbound.peek();
+        channel.write(next);
+        if (next.hasRemaining()) {
+          return;
+        }
+        outbound.poll();
+      }
+      key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+    }
+
+    void close() {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      activeConnections.decrementAndGet();
+      key.cancel();
+      closeQuietly(channel);
+      dispatcher.execute(() -> {
+        if (card != null) {
+          card.reset();
+          pool.add(card);
+          card = null;
+        }
+      });
+    }
+  }
+}
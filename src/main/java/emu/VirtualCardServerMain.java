@@ -0,0 +1,131 @@
+package emu;
+
+import java.net.InetSocketAddress;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs a {@link VirtualCardServer} whose cards are issued by {@link IssuerSimulator}. Arguments
+ * not listed below are handed to {@link IssuerJobBuilder} for every card, so the issuer's
+ * personalization options apply; each card gets its own document number.
+ */
+public final class VirtualCardServerMain {
+
+  private static final int DEFAULT_PORT = 35963;
+  private static final int DEFAULT_CARDS = 16;
+  private static final String DEFAULT_DOB = "750101";
+  private static final String DEFAULT_DOE = "350101";
+
+  public static void main(String[] args) throws Exception {
+    String host = "0.0.0.0";
+    int port = DEFAULT_PORT;
+    int cards = DEFAULT_CARDS;
+    List<InetSocketAddress> vpcdSlots = new ArrayList<>();
+    List<String> issuerArgs = new ArrayList<>();
+
+    List<String> argList = Arrays.asList(args);
+    for (int i = 0; i < argList.size(); i++) {
+      String arg = argList.get(i);
+      if ("--help".equals(arg) || "-h".equals(arg)) {
+        printUsage();
+        return;
+      } else if ("--host".equals(arg)) {
+        i = advanceWithValue(argList, i, arg);
+        host = argList.get(i);
+      } else if ("--port".equals(arg)) {
+        i = advanceWithValue(argList, i, arg);
+        port = Integer.parseInt(argList.get(i));
+      } else if ("--cards".equals(arg)) {
+        i = advanceWithValue(argList, i, arg);
+        cards = Integer.parseInt(argList.get(i));
+      } else if ("--vpcd".equals(arg)) {
+        i = advanceWithValue(argList, i, arg);
+        vpcdSlots.add(parseAddress(argList.get(i)));
+      } else if (arg.startsWith("--metrics-") || arg.startsWith("--jfr") || arg.startsWith("--trace")) {
+        if (!arg.contains("=")) {
+          i = advanceWithValue(argList, i, arg);
+        }
+      } else {
+        issuerArgs.add(arg);
+      }
+    }
+
+    AtomicInteger serial = new AtomicInteger();
+    IssuerSimulator issuer = new IssuerSimulator();
+    VirtualCardServer.CardSource source = () -> {
+      String documentNumber = String.format("VC%07d", serial.incrementAndGet());
+      List<String> cardArgs = new ArrayList<>(Arrays.asList(
+          "--date-of-birth", DEFAULT_DOB, "--date-of-expiry", DEFAULT_DOE));
+      cardArgs.addAll(issuerArgs);
+      cardArgs.addAll(Arrays.asList("--doc-number", documentNumber));
+      IssuerJobBuilder builder = new IssuerJobBuilder().consumeArguments(cardArgs);
+      IssuerSimulator.Options options = builder.buildSimulatorOptions()
+          .factoryLoad(true)
+          .transport(SimTransport.DIRECT)
+          .outputDirectory(Paths.get("target", "virtual-cards", documentNumber));
+      IssuerSimulator.Result result = issuer.run(builder.buildJob(), options);
+      System.out.println("Issued " + documentNumber + " → " + result.getOutputDirectory());
+      return result.getSimulator();
+    };
+
+    MetricsExporter metrics = MetricsExporter.fromArguments(argList);
+    if (metrics != null) {
+      Runtime.getRuntime().addShutdownHook(new Thread(metrics::close, "metrics-shutdown"));
+    }
+    JfrEvents.FlightRecording recording = JfrEvents.fromArguments(argList);
+    if (recording != null) {
+      Runtime.getRuntime().addShutdownHook(new Thread(recording::close, "jfr-shutdown"));
+    }
+    SessionTracer tracer = SessionTracer.fromArguments(argList);
+    if (tracer != null) {
+      Runtime.getRuntime().addShutdownHook(new Thread(tracer::close, "trace-shutdown"));
+    }
+    VirtualCardServer server = VirtualCardServer.start(new InetSocketAddress(host, port), source, cards);
+    Runtime.getRuntime().addShutdownHook(new Thread(server::close, "virtual-card-shutdown"));
+    for (InetSocketAddress slot : vpcdSlots) {
+      server.attach(slot);
+    }
+    System.out.printf("Serving %d pooled card(s) on %s (vpcd framing)%n", server.getPooledCards(), server.getAddress());
+    while (true) {
+      Thread.sleep(60_000L);
+      System.out.printf("connections=%d total=%d commands=%d issued=%d pooled=%d%n",
+          server.getActiveConnections(), server.getTotalConnections(), server.getCommandCount(),
+          server.getIssuedCards(), server.getPooledCards());
+    }
+  }
+
+  private static InetSocketAddress parseAddress(String value) {
+    int colon = value.lastIndexOf(':');
+    if (colon < 0) {
+      return new InetSocketAddress(value, DEFAULT_PORT);
+    }
+    return new InetSocketAddress(value.substring(0, colon), Integer.parseInt(value.substring(colon + 1)));
+  }
+
+  private static int advanceWithValue(List<String> args, int index, String option) {
+    int next = index + 1;
+    if (next >= args.size()) {
+      throw new IllegalArgumentException(option + " requires a value");
+    }
+    return next;
+  }
+
+  private static void printUsage() {
+    System.out.println("Usage: VirtualCardServerMain [--host <addr>] [--port <n>] [--cards <n>] [--vpcd <host:port>]...");
+    System.out.println("                             [issuer options...]");
+    System.out.println();
+    System.out.println("  --port <n>          Listen port for inspection clients (default " + DEFAULT_PORT + ")");
+    System.out.println("  --cards <n>         Cards issued into the pool at startup (default " + DEFAULT_CARDS + ")");
+    System.out.println("  --vpcd <host:port>  Also connect a card to a running vpcd slot; repeat for more slots");
+    System.out.println("  --metrics-port <n>  Serve Prometheus metrics at http://127.0.0.1:<n>/metrics");
+    System.out.println("  --metrics-file <p>  Dump metrics to <p> every --metrics-interval seconds (default 15)");
+    System.out.println("  --jfr <file>        Write a flight recording with the emulator's JFR events at exit");
+    System.out.println("  --trace <file>      Write a Chrome/Perfetto trace of chip commands and SM at exit");
+    System.out.println();
+    System.out.println("Cards are numbered VC0000001, VC0000002, ... with DOB " + DEFAULT_DOB + " and DOE " + DEFAULT_DOE
+        + " unless the issuer options override the dates.");
+  }
+}
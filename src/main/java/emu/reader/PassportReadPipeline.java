@@ -0,0 +1,257 @@
+package emu.reader;
+
+import emu.LargeEfReader;
+import emu.MrzUtil;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+import net.sf.scuba.smartcards.CardService;
+
+import org.jmrtd.AccessKeySpec;
+import org.jmrtd.BACKey;
+import org.jmrtd.PassportService;
+import org.jmrtd.cbeff.BiometricDataBlock;
+import org.jmrtd.lds.icao.DG1File;
+import org.jmrtd.lds.icao.DG2File;
+import org.jmrtd.lds.icao.MRZInfo;
+import org.jmrtd.lds.iso19794.FaceInfo;
+import org.jmrtd.lds.iso19794.FaceImageInfo;
+
+/**
+ * BAC and LDS read sequence over an already opened {@link CardService}. Shared by the single-shot
+ * {@link RealPassportReaderTask} and the per-terminal workers of {@link ReaderStation}, so both
+ * produce identical snapshots.
+ */
+final class PassportReadPipeline {
+
+    private final ReadTuningStore tuningStore;
+    private final Consumer<String> progress;
+    private final Consumer<String> logger;
+    private final BooleanSupplier cancelled;
+
+    PassportReadPipeline(ReadTuningStore tuningStore,
+                         Consumer<String> progress,
+                         Consumer<String> logger,
+                         BooleanSupplier cancelled) {
+        this.tuningStore = tuningStore;
+        this.progress = progress;
+        this.logger = logger;
+        this.cancelled = cancelled;
+    }
+
+    /**
+     * Authenticates with BAC and reads DG1, DG2, EF.COM, EF.SOD, EF.CardAccess, DG14 and DG15.
+     * Returns {@code null} when the read was cancelled. The {@link PassportService} is closed on
+     * return; closing {@code cardService} is left to the caller.
+     *
+     * The READ BINARY block size starts at what {@link ReadTuningStore} remembers for the chip's
+     * ATR, or at the largest size the ATR allows. When the chip answers {@code 6700} or
+     * {@code 6Cxx} the read restarts from BAC on the next smaller size, and the size that
+     * completed the read is remembered.
+     */
+    RealPassportSnapshot read(CardService cardService,
+                              String documentNumber,
+                              String dateOfBirth,
+                              String dateOfExpiry) throws Exception {
+        byte[] atr = atrOf(cardService);
+        ReadTuning remembered = tuningStore != null ? tuningStore.lookup(atr) : null;
+        ReadTuning tuning = remembered != null ? remembered
+                : tuningStore != null ? ReadTuning.initial(atr) : ReadTuning.DEFAULT;
+        PassportService service = null;
+        try {
+            while (true) {
+                service = new PassportService(cardService, tuning.maxTranceiveLength(), tuning.maxBlockSize(), false, false);
+                long started = System.nanoTime();
+                try {
+                    RealPassportSnapshot snapshot = readWith(service, documentNumber, dateOfBirth, dateOfExpiry);
+                    if (snapshot != null) {
+                        rememberTuning(atr, tuning, snapshot, System.nanoTime() - started);
+                    }
+                    return snapshot;
+                } catch (Exception e) {
+                    int status = ReadTuning.lengthErrorStatus(e);
+                    ReadTuning next = status < 0 ? null : tuning.fallback(status);
+                    if (next == null) {
+                        throw e;
+                    }
+                    log(String.format(Locale.ROOT, "Chip rejected %s (SW=%04X); retrying with %s", tuning, status, next));
+                    tuning = next;
+                }
+            }
+        } finally {
+            if (service != null) {
+                try {
+                    service.close();
+                } catch (Exception e) {
+                    log("Failed to close PassportService: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private RealPassportSnapshot readWith(PassportService service,
+                                          String documentNumber,
+                                          String dateOfBirth,
+                                          String dateOfExpiry) throws Exception {
+        service.open();
+        service.sendSelectApplet(false);
+
+        update("Performing BAC...");
+        AccessKeySpec bacKey = new BACKey(documentNumber, dateOfBirth, dateOfExpiry);
+        service.doBAC(bacKey);
+        service.sendSelectApplet(true);
+
+        update("Reading DG1...");
+        Map<Integer, byte[]> dataGroups = new HashMap<>();
+        MRZInfo mrzInfo;
+        String mrzText;
+        byte[] dg1Bytes;
+        try (InputStream dg1In = LargeEfReader.open(service, PassportService.EF_DG1)) {
+            dg1Bytes = RealPassportReaderTask.readAllBytes(dg1In);
+        }
+        dataGroups.put(1, dg1Bytes);
+        try (InputStream parsedDg1 = new ByteArrayInputStream(dg1Bytes)) {
+            DG1File dg1File = new DG1File(parsedDg1);
+            mrzInfo = dg1File.getMRZInfo();
+            mrzText = mrzInfo == null ? null : mrzInfo.toString();
+        }
+
+        String derivedDocumentNumber = MrzUtil.deriveDocumentNumber(mrzInfo, mrzText, documentNumber);
+
+        String fullName = "";
+        String nationality = "";
+        if (mrzInfo != null) {
+            String primary = nz(mrzInfo.getPrimaryIdentifier());
+            String secondary = nz(mrzInfo.getSecondaryIdentifier());
+            fullName = (primary + " " + secondary).trim().replaceAll(" +", " ");
+            nationality = nz(mrzInfo.getNationality());
+        }
+
+        update("Reading DG2...");
+        byte[] imageBytes = null;
+        String imageMime = null;
+        byte[] dg2Bytes = RealPassportReaderTask.readOptionalFile(
+                () -> LargeEfReader.open(service, PassportService.EF_DG2), this::log, "DG2");
+        if (dg2Bytes != null) {
+            dataGroups.put(2, dg2Bytes);
+            try (InputStream dg2In = new ByteArrayInputStream(dg2Bytes)) {
+                DG2File dg2File = new DG2File(dg2In);
+                List<BiometricDataBlock> records = dg2File.getSubRecords();
+                if (!records.isEmpty() && records.get(0) instanceof FaceInfo) {
+                    FaceInfo face = (FaceInfo) records.get(0);
+                    if (!face.getFaceImageInfos().isEmpty()) {
+                        FaceImageInfo faceImageInfo = face.getFaceImageInfos().get(0);
+                        imageMime = faceImageInfo.getMimeType();
+                        try (InputStream imgIn = faceImageInfo.getImageInputStream();
+                             ByteArrayOutputStream buffer = new ByteArrayOutputStream()) {
+                            byte[] tmp = new byte[4096];
+                            int read;
+                            while ((read = imgIn.read(tmp)) != -1) {
+                                buffer.write(tmp, 0, read);
+                                if (isCancelled()) {
+                                    update("Cancelled");
+                                    return null;
+                                }
+                            }
+                            imageBytes = buffer.toByteArray();
+                        }
+                    }
+                }
+            } catch (Exception e) {
+                log("Unable to parse DG2: " + e.getMessage());
+            }
+        }
+
+        byte[] comFile = RealPassportReaderTask.readOptionalFile(
+                () -> LargeEfReader.open(service, PassportService.EF_COM), this::log, "EF.COM");
+        byte[] sodFile = RealPassportReaderTask.readOptionalFile(
+                () -> LargeEfReader.open(service, PassportService.EF_SOD), this::log, "EF.SOD");
+        byte[] cardAccessFile = RealPassportReaderTask.readOptionalFile(
+                () -> LargeEfReader.open(service, PassportService.EF_CARD_ACCESS), this::log, "EF.CardAccess");
+        byte[] dg14Bytes = RealPassportReaderTask.readOptionalFile(
+                () -> LargeEfReader.open(service, PassportService.EF_DG14), this::log, "DG14");
+        byte[] dg15Bytes = RealPassportReaderTask.readOptionalFile(
+                () -> LargeEfReader.open(service, PassportService.EF_DG15), this::log, "DG15");
+        if (dg14Bytes != null) {
+            dataGroups.put(14, dg14Bytes);
+        }
+        if (dg15Bytes != null) {
+            dataGroups.put(15, dg15Bytes);
+        }
+
+        update("Passport read complete");
+        return new RealPassportSnapshot(
+                derivedDocumentNumber,
+                dateOfBirth,
+                dateOfExpiry,
+                mrzText,
+                fullName,
+                nationality,
+                imageMime,
+                imageBytes,
+                dataGroups,
+                comFile,
+                sodFile,
+                cardAccessFile
+        );
+    }
+
+    private void rememberTuning(byte[] atr, ReadTuning tuning, RealPassportSnapshot snapshot, long elapsedNanos) {
+        long bytes = 0;
+        for (ByteBuffer buffer : snapshot.dataGroupBuffers().values()) {
+            bytes += buffer.remaining();
+        }
+        long millis = Math.max(1L, TimeUnit.NANOSECONDS.toMillis(elapsedNanos));
+        log(String.format(Locale.ROOT, "Read %d data group bytes in %d ms with %s", bytes, millis, tuning));
+        if (tuningStore == null) {
+            return;
+        }
+        try {
+            tuningStore.remember(atr, tuning);
+        } catch (IOException e) {
+            log("Unable to persist read tuning: " + e.getMessage());
+        }
+    }
+
+    private byte[] atrOf(CardService cardService) {
+        try {
+            return cardService.getATR();
+        } catch (Exception e) {
+            log("Unable to read ATR; read tuning will not be remembered: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private void update(String message) {
+        if (progress != null) {
+            progress.accept(message);
+        }
+    }
+
+    private boolean isCancelled() {
+        return cancelled != null && cancelled.getAsBoolean();
+    }
+
+    private void log(String message) {
+        if (logger != null) {
+            logger.accept(message);
+        } else {
+            System.err.println(message);
+        }
+    }
+
+    private static String nz(String s) {
+        return s == null ? "" : s;
+    }
+}
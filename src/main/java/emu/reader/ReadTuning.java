@@ -0,0 +1,180 @@
+package emu.reader;
+
+import java.util.Locale;
+
+import net.sf.scuba.smartcards.CardServiceException;
+
+import org.jmrtd.PassportService;
+
+/**
+ * READ BINARY parameters handed to {@link PassportService}: the maximum APDU length under secure
+ * messaging and the number of file bytes requested per command. Rungs are ordered from the largest
+ * block to the smallest; a chip that rejects a rung with {@code 6700} or {@code 6Cxx} is retried on
+ * a smaller one.
+ */
+final class ReadTuning {
+
+    /** Bytes secure messaging adds around a READ BINARY response (DO87/DO99/DO8E and padding). */
+    static final int SECURE_MESSAGING_OVERHEAD = 32;
+
+    /** Parameters the reader used before tuning existed; also the largest short-length rung. */
+    static final ReadTuning DEFAULT = new ReadTuning(PassportService.NORMAL_MAX_TRANCEIVE_LENGTH, 224);
+
+    private static final ReadTuning[] LADDER = {
+            new ReadTuning(PassportService.EXTENDED_MAX_TRANCEIVE_LENGTH, 4096),
+            new ReadTuning(PassportService.EXTENDED_MAX_TRANCEIVE_LENGTH, 2048),
+            new ReadTuning(PassportService.EXTENDED_MAX_TRANCEIVE_LENGTH, 1024),
+            DEFAULT,
+            new ReadTuning(PassportService.NORMAL_MAX_TRANCEIVE_LENGTH, 160),
+            new ReadTuning(PassportService.NORMAL_MAX_TRANCEIVE_LENGTH, 128),
+            new ReadTuning(PassportService.NORMAL_MAX_TRANCEIVE_LENGTH, 64)
+    };
+
+    private final int maxTranceiveLength;
+    private final int maxBlockSize;
+
+    ReadTuning(int maxTranceiveLength, int maxBlockSize) {
+        if (maxBlockSize <= 0 || maxTranceiveLength < maxBlockSize) {
+            throw new IllegalArgumentException("Invalid read tuning " + maxTranceiveLength + "/" + maxBlockSize);
+        }
+        this.maxTranceiveLength = maxTranceiveLength;
+        this.maxBlockSize = maxBlockSize;
+    }
+
+    int maxTranceiveLength() {
+        return maxTranceiveLength;
+    }
+
+    int maxBlockSize() {
+        return maxBlockSize;
+    }
+
+    boolean isExtendedLength() {
+        return maxTranceiveLength > PassportService.NORMAL_MAX_TRANCEIVE_LENGTH;
+    }
+
+    /**
+     * Where an untuned chip starts: the largest extended-length rung unless the ATR explicitly
+     * rules extended length out. An unknown answer is probed, since {@code 6700} is cheap to
+     * recover from.
+     */
+    static ReadTuning initial(byte[] atr) {
+        Boolean extended = extendedLengthSupport(atr);
+        return Boolean.FALSE.equals(extended) ? DEFAULT : LADDER[0];
+    }
+
+    /**
+     * Next rung after the chip answered {@code status}, or {@code null} when there is none. A
+     * {@code 6Cxx} hint skips straight to the largest short rung whose protected response fits
+     * in {@code xx} bytes.
+     */
+    ReadTuning fallback(int status) {
+        int available = 0;
+        if ((status & 0xFF00) == 0x6C00) {
+            available = (status & 0xFF) == 0 ? 256 : status & 0xFF;
+        }
+        for (ReadTuning rung : LADDER) {
+            if (rung.maxBlockSize >= maxBlockSize) {
+                continue;
+            }
+            if (available > 0 && (rung.isExtendedLength() || rung.maxBlockSize + SECURE_MESSAGING_OVERHEAD > available)) {
+                continue;
+            }
+            return rung;
+        }
+        return null;
+    }
+
+    /** The {@code 6700}/{@code 6Cxx} status word somewhere in {@code error}'s causes, or -1. */
+    static int lengthErrorStatus(Throwable error) {
+        for (Throwable current = error; current != null; current = current.getCause()) {
+            if (current instanceof CardServiceException) {
+                int sw = ((CardServiceException) current).getSW();
+                if (sw == 0x6700 || (sw & 0xFF00) == 0x6C00) {
+                    return sw;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Reads the ISO 7816-4 card capabilities (compact-TLV tag 7) from the ATR historical bytes;
+     * PC/SC readers copy a contactless chip's ATS historical bytes there. Returns {@code null}
+     * when the ATR does not say.
+     */
+    static Boolean extendedLengthSupport(byte[] atr) {
+        if (atr == null || atr.length < 2) {
+            return null;
+        }
+        int historicalCount = atr[1] & 0x0F;
+        int index = 1;
+        int indicator = atr[1] & 0xFF;
+        while (true) {
+            int interfaceBytes = Integer.bitCount(indicator & 0xF0);
+            boolean hasTd = (indicator & 0x80) != 0;
+            index += interfaceBytes;
+            if (!hasTd || index >= atr.length) {
+                break;
+            }
+            indicator = atr[index] & 0xFF;
+        }
+        int start = index + 1;
+        int end = Math.min(atr.length, start + historicalCount);
+        if (start >= end || (atr[start] & 0xFF) != 0x80) {
+            return null;
+        }
+        for (int i = start + 1; i < end; ) {
+            int tag = (atr[i] & 0xF0) >> 4;
+            int length = atr[i] & 0x0F;
+            if (tag == 0x7 && length >= 3 && i + 3 < end) {
+                return (atr[i + 3] & 0x40) != 0;
+            }
+            i += 1 + length;
+        }
+        return null;
+    }
+
+    /** Stored form, e.g. {@code 65536/4096}. */
+    String encode() {
+        return maxTranceiveLength + "/" + maxBlockSize;
+    }
+
+    static ReadTuning decode(String value) {
+        if (value == null) {
+            return null;
+        }
+        String[] parts = value.trim().split("/");
+        if (parts.length != 2) {
+            return null;
+        }
+        try {
+            return new ReadTuning(Integer.parseInt(parts[0].trim()), Integer.parseInt(parts[1].trim()));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof ReadTuning)) {
+            return false;
+        }
+        ReadTuning that = (ReadTuning) other;
+        return maxTranceiveLength == that.maxTranceiveLength && maxBlockSize == that.maxBlockSize;
+    }
+
+    @Override
+    public int hashCode() {
+        return maxTranceiveLength * 31 + maxBlockSize;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "%s APDUs, %d-byte blocks",
+                isExtendedLength() ? "extended" : "short", maxBlockSize);
+    }
+}
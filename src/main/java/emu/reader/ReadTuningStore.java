@@ -0,0 +1,101 @@
+package emu.reader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+import net.sf.scuba.util.Hex;
+
+/**
+ * Read tuning that worked for a chip, keyed by its ATR (which carries the ATS historical bytes of
+ * a contactless chip), so the next read of the same chip model starts at its optimum instead of
+ * probing again. Entries are kept in a properties file, {@code target/reader-tuning.properties} for
+ * the shared store; a store without a path only remembers in memory.
+ */
+public final class ReadTuningStore {
+
+    static final Path DEFAULT_PATH = Paths.get("target", "reader-tuning.properties");
+
+    private static final ReadTuningStore SHARED = new ReadTuningStore(DEFAULT_PATH);
+
+    private final Path path;
+    private final Map<String, ReadTuning> entries = new HashMap<>();
+    private boolean loaded;
+
+    public ReadTuningStore(Path path) {
+        this.path = path;
+    }
+
+    /** Store used by the reader task and by stations that do not configure their own. */
+    public static ReadTuningStore shared() {
+        return SHARED;
+    }
+
+    synchronized ReadTuning lookup(byte[] atr) {
+        if (atr == null || atr.length == 0) {
+            return null;
+        }
+        load();
+        return entries.get(key(atr));
+    }
+
+    /** Records {@code tuning} for {@code atr}; the file is only rewritten when the entry changes. */
+    synchronized void remember(byte[] atr, ReadTuning tuning) throws IOException {
+        if (atr == null || atr.length == 0 || tuning == null) {
+            return;
+        }
+        load();
+        if (tuning.equals(entries.put(key(atr), tuning)) || path == null) {
+            return;
+        }
+        Properties properties = new Properties();
+        for (Map.Entry<String, ReadTuning> entry : new TreeMap<>(entries).entrySet()) {
+            properties.setProperty(entry.getKey(), entry.getValue().encode());
+        }
+        Path parent = path.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        Path temp = Files.createTempFile(parent, "reader-tuning", ".tmp");
+        try (OutputStream out = Files.newOutputStream(temp)) {
+            properties.store(out, "READ BINARY tuning per chip ATR: maxTranceiveLength/maxBlockSize");
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void load() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        if (path == null || !Files.isRegularFile(path)) {
+            return;
+        }
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(path)) {
+            properties.load(in);
+        } catch (IOException e) {
+            System.err.println("Unable to load reader tuning from " + path + ": " + e.getMessage());
+            return;
+        }
+        for (String name : properties.stringPropertyNames()) {
+            ReadTuning tuning = ReadTuning.decode(properties.getProperty(name));
+            if (tuning != null) {
+                entries.put(name, tuning);
+            }
+        }
+    }
+
+    private static String key(byte[] atr) {
+        return Hex.bytesToHexString(atr).toUpperCase(Locale.ROOT);
+    }
+}
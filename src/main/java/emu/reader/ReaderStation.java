@@ -0,0 +1,426 @@
+package emu.reader;
+
+import java.security.Security;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import javax.smartcardio.CardException;
+import javax.smartcardio.CardTerminal;
+import javax.smartcardio.TerminalFactory;
+
+import net.sf.scuba.smartcards.CardService;
+import net.sf.scuba.smartcards.TerminalCardService;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.jmrtd.BACKey;
+
+/**
+ * Kiosk-style reading station that monitors every terminal of a {@link TerminalFactory} at once.
+ * Each terminal gets its own worker thread that waits for a card, runs an independent read
+ * pipeline, queues the outcome and then waits for the card to be removed before arming again.
+ * Outcomes are taken from the bounded queue (a full queue holds the workers back) or, when a sink
+ * is configured, handed to it one at a time on a dedicated dispatch thread.
+ *
+ * The terminal list is fixed when the station starts; readers plugged in later need a restart.
+ */
+public final class ReaderStation implements AutoCloseable {
+
+    /** Supplies the BAC key for the document currently presented on {@code terminal}. */
+    @FunctionalInterface
+    public interface AccessKeyProvider {
+        BACKey accessKeyFor(CardTerminal terminal) throws Exception;
+    }
+
+    /** Reads the document present on {@code terminal}; the default opens a {@link TerminalCardService}. */
+    @FunctionalInterface
+    public interface TerminalReader {
+        RealPassportSnapshot read(CardTerminal terminal, BACKey accessKey, Consumer<String> logger) throws Exception;
+    }
+
+    private final TerminalFactory terminalFactory;
+    private final AccessKeyProvider accessKeys;
+    private final TerminalReader reader;
+    private final BlockingQueue<Read> results;
+    private final Consumer<Read> sink;
+    private final long pollMillis;
+    private final Consumer<String> logger;
+
+    private final List<Thread> threads = new ArrayList<>();
+    private final List<String> terminalNames = new ArrayList<>();
+    private final Map<String, AtomicLong> documentsPerTerminal = new ConcurrentHashMap<>();
+    private final AtomicLong documents = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong readNanos = new AtomicLong();
+    private volatile boolean running;
+    private volatile long startedNanos;
+    private volatile long stoppedNanos;
+
+    private ReaderStation(Builder builder) {
+        this.terminalFactory = builder.terminalFactory != null ? builder.terminalFactory : TerminalFactory.getDefault();
+        this.accessKeys = builder.accessKeys;
+        ReadTuningStore tuningStore = builder.tuningStore;
+        this.reader = builder.reader != null ? builder.reader
+                : (terminal, accessKey, log) -> readWithTerminalCardService(terminal, accessKey, tuningStore, log);
+        this.results = new ArrayBlockingQueue<>(builder.queueCapacity);
+        this.sink = builder.sink;
+        this.pollMillis = builder.pollInterval.toMillis();
+        this.logger = builder.logger;
+    }
+
+    public static Builder builder(AccessKeyProvider accessKeys) {
+        return new Builder(accessKeys);
+    }
+
+    /** Lists the terminals and starts one worker per terminal. */
+    public synchronized ReaderStation start() throws CardException {
+        if (running || startedNanos != 0L) {
+            throw new IllegalStateException("Reader station already started");
+        }
+        if (Security.getProvider("BC") == null) {
+            Security.addProvider(new BouncyCastleProvider());
+        }
+        List<CardTerminal> terminals = terminalFactory.terminals().list();
+        if (terminals == null || terminals.isEmpty()) {
+            throw new IllegalStateException("No NFC terminal found.");
+        }
+        running = true;
+        startedNanos = System.nanoTime();
+        for (CardTerminal terminal : terminals) {
+            String name = terminal.getName();
+            terminalNames.add(name);
+            documentsPerTerminal.put(name, new AtomicLong());
+            threads.add(daemon(() -> monitor(terminal), "reader-station-" + name));
+        }
+        if (sink != null) {
+            threads.add(daemon(this::dispatch, "reader-station-sink"));
+        }
+        threads.forEach(Thread::start);
+        log("Reader station monitoring " + terminals.size() + " terminal(s): " + terminalNames);
+        return this;
+    }
+
+    public synchronized List<String> getTerminalNames() {
+        return Collections.unmodifiableList(new ArrayList<>(terminalNames));
+    }
+
+    /** Waits for the next outcome. Not to be mixed with a configured sink. */
+    public Read take() throws InterruptedException {
+        return results.take();
+    }
+
+    /** Next outcome, or {@code null} if none arrives within the timeout. */
+    public Read poll(long timeout, TimeUnit unit) throws InterruptedException {
+        return results.poll(timeout, unit);
+    }
+
+    public Stats getStats() {
+        long started = startedNanos;
+        long end = running || stoppedNanos == 0L ? System.nanoTime() : stoppedNanos;
+        Map<String, Long> perTerminal = new LinkedHashMap<>();
+        for (String name : getTerminalNames()) {
+            perTerminal.put(name, documentsPerTerminal.get(name).get());
+        }
+        return new Stats(documents.get(), failures.get(), started == 0L ? 0L : end - started,
+                readNanos.get(), perTerminal);
+    }
+
+    /** Stops every worker; outcomes still queued remain available to {@link #poll}. */
+    @Override
+    public void close() {
+        List<Thread> workers;
+        synchronized (this) {
+            if (!running) {
+                return;
+            }
+            running = false;
+            stoppedNanos = System.nanoTime();
+            workers = new ArrayList<>(threads);
+        }
+        workers.forEach(Thread::interrupt);
+        for (Thread worker : workers) {
+            try {
+                worker.join(Math.max(1000L, pollMillis * 2));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void monitor(CardTerminal terminal) {
+        String name = terminal.getName();
+        while (running) {
+            try {
+                if (!terminal.waitForCardPresent(pollMillis)) {
+                    continue;
+                }
+                Read read = readOnce(terminal, name);
+                results.put(read);
+                while (running && !terminal.waitForCardAbsent(pollMillis)) {
+                    // Keep the outcome tied to this card until it is taken off the reader.
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (CardException | RuntimeException e) {
+                log("[" + name + "] Terminal error: " + e.getMessage());
+                try {
+                    Thread.sleep(pollMillis);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    private Read readOnce(CardTerminal terminal, String name) {
+        Instant startedAt = Instant.now();
+        long started = System.nanoTime();
+        Consumer<String> terminalLog = message -> log("[" + name + "] " + message);
+        RealPassportSnapshot snapshot = null;
+        Exception error = null;
+        try {
+            BACKey accessKey = accessKeys.accessKeyFor(terminal);
+            snapshot = reader.read(terminal, accessKey, terminalLog);
+            if (snapshot == null) {
+                error = new IllegalStateException("Read returned no snapshot");
+            }
+        } catch (Exception e) {
+            error = e;
+        }
+        long elapsed = System.nanoTime() - started;
+        readNanos.addAndGet(elapsed);
+        if (error == null) {
+            documents.incrementAndGet();
+            documentsPerTerminal.get(name).incrementAndGet();
+            terminalLog.accept("Read " + snapshot.documentNumber() + " in " + TimeUnit.NANOSECONDS.toMillis(elapsed) + " ms");
+        } else {
+            failures.incrementAndGet();
+            terminalLog.accept("Read failed: " + error.getMessage());
+        }
+        return new Read(name, snapshot, error, startedAt, elapsed);
+    }
+
+    private void dispatch() {
+        while (running || !results.isEmpty()) {
+            try {
+                Read read = results.poll(pollMillis, TimeUnit.MILLISECONDS);
+                if (read != null) {
+                    sink.accept(read);
+                }
+            } catch (InterruptedException e) {
+                if (!running) {
+                    Thread.interrupted();
+                    continue;
+                }
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                log("Reader station sink failed: " + e.getMessage());
+            }
+        }
+    }
+
+    private static RealPassportSnapshot readWithTerminalCardService(CardTerminal terminal,
+                                                                    BACKey accessKey,
+                                                                    ReadTuningStore tuningStore,
+                                                                    Consumer<String> logger) throws Exception {
+        CardService cardService = new TerminalCardService(terminal);
+        try {
+            cardService.open();
+            return new PassportReadPipeline(tuningStore, null, logger, () -> false)
+                    .read(cardService, accessKey.getDocumentNumber(), accessKey.getDateOfBirth(), accessKey.getDateOfExpiry());
+        } finally {
+            try {
+                cardService.close();
+            } catch (Exception e) {
+                logger.accept("Failed to close CardService: " + e.getMessage());
+            }
+        }
+    }
+
+    private static Thread daemon(Runnable body, String name) {
+        Thread thread = new Thread(body, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    private void log(String message) {
+        if (logger != null) {
+            logger.accept(message);
+        } else {
+            System.err.println(message);
+        }
+    }
+
+    /** Outcome of one card presentation on one terminal. */
+    public static final class Read {
+        private final String terminalName;
+        private final RealPassportSnapshot snapshot;
+        private final Exception error;
+        private final Instant startedAt;
+        private final long durationNanos;
+
+        Read(String terminalName, RealPassportSnapshot snapshot, Exception error, Instant startedAt, long durationNanos) {
+            this.terminalName = terminalName;
+            this.snapshot = snapshot;
+            this.error = error;
+            this.startedAt = startedAt;
+            this.durationNanos = durationNanos;
+        }
+
+        public String terminalName() {
+            return terminalName;
+        }
+
+        public boolean isSuccess() {
+            return error == null;
+        }
+
+        /** The snapshot, or {@code null} when the read failed. */
+        public RealPassportSnapshot snapshot() {
+            return snapshot;
+        }
+
+        public Exception error() {
+            return error;
+        }
+
+        public Instant startedAt() {
+            return startedAt;
+        }
+
+        public Duration duration() {
+            return Duration.ofNanos(durationNanos);
+        }
+    }
+
+    /** Point-in-time counters across all terminals. */
+    public static final class Stats {
+        private final long documents;
+        private final long failures;
+        private final long elapsedNanos;
+        private final long readNanos;
+        private final Map<String, Long> documentsPerTerminal;
+
+        Stats(long documents, long failures, long elapsedNanos, long readNanos, Map<String, Long> documentsPerTerminal) {
+            this.documents = documents;
+            this.failures = failures;
+            this.elapsedNanos = elapsedNanos;
+            this.readNanos = readNanos;
+            this.documentsPerTerminal = Collections.unmodifiableMap(documentsPerTerminal);
+        }
+
+        /** Successful reads. */
+        public long documents() {
+            return documents;
+        }
+
+        public long failures() {
+            return failures;
+        }
+
+        public Duration elapsed() {
+            return Duration.ofNanos(elapsedNanos);
+        }
+
+        public Map<String, Long> documentsPerTerminal() {
+            return documentsPerTerminal;
+        }
+
+        /** Successful reads per minute of station uptime, summed over all terminals. */
+        public double documentsPerMinute() {
+            return elapsedNanos <= 0L ? 0.0 : documents * 60e9 / elapsedNanos;
+        }
+
+        /** Mean time a single read (successful or not) kept its terminal busy. */
+        public Duration averageReadTime() {
+            long reads = documents + failures;
+            return reads == 0L ? Duration.ZERO : Duration.ofNanos(readNanos / reads);
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%d document(s), %d failure(s) in %d ms (%.1f documents/min)",
+                    documents, failures, TimeUnit.NANOSECONDS.toMillis(elapsedNanos), documentsPerMinute());
+        }
+    }
+
+    public static final class Builder {
+        private final AccessKeyProvider accessKeys;
+        private TerminalFactory terminalFactory;
+        private TerminalReader reader;
+        private ReadTuningStore tuningStore = ReadTuningStore.shared();
+        private int queueCapacity = 64;
+        private Duration pollInterval = Duration.ofMillis(250);
+        private Consumer<Read> sink;
+        private Consumer<String> logger;
+
+        private Builder(AccessKeyProvider accessKeys) {
+            this.accessKeys = Objects.requireNonNull(accessKeys, "accessKeys");
+        }
+
+        /** Defaults to {@link TerminalFactory#getDefault()}. */
+        public Builder terminalFactory(TerminalFactory terminalFactory) {
+            this.terminalFactory = terminalFactory;
+            return this;
+        }
+
+        public Builder reader(TerminalReader reader) {
+            this.reader = reader;
+            return this;
+        }
+
+        /** Block-size memory for the default reader; {@code null} starts every chip at 224-byte blocks. */
+        public Builder tuningStore(ReadTuningStore tuningStore) {
+            this.tuningStore = tuningStore;
+            return this;
+        }
+
+        public Builder queueCapacity(int queueCapacity) {
+            if (queueCapacity <= 0) {
+                throw new IllegalArgumentException("Queue capacity must be positive: " + queueCapacity);
+            }
+            this.queueCapacity = queueCapacity;
+            return this;
+        }
+
+        /** How long a worker blocks on a presence change before re-checking for shutdown. */
+        public Builder pollInterval(Duration pollInterval) {
+            Objects.requireNonNull(pollInterval, "pollInterval");
+            if (pollInterval.isNegative() || pollInterval.isZero()) {
+                throw new IllegalArgumentException("Poll interval must be positive: " + pollInterval);
+            }
+            this.pollInterval = pollInterval;
+            return this;
+        }
+
+        public Builder sink(Consumer<Read> sink) {
+            this.sink = sink;
+            return this;
+        }
+
+        public Builder logger(Consumer<String> logger) {
+            this.logger = logger;
+            return this;
+        }
+
+        public ReaderStation build() {
+            return new ReaderStation(this);
+        }
+    }
+}
@@ -1,36 +1,26 @@
 package emu.reader;
 
-import emu.MrzUtil;
 import javafx.concurrent.Task;
 
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.security.Security;
 import java.util.ArrayList;
 import java.util.Comparator;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.Objects;
 import java.util.function.Consumer;
 
 import javax.smartcardio.CardTerminal;
 import javax.smartcardio.TerminalFactory;
 
+import net.sf.scuba.smartcards.CardFileInputStream;
 import net.sf.scuba.smartcards.CardService;
 import net.sf.scuba.smartcards.TerminalCardService;
 
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
-import org.jmrtd.AccessKeySpec;
-import org.jmrtd.BACKey;
-import org.jmrtd.PassportService;
-import org.jmrtd.lds.icao.DG1File;
-import org.jmrtd.lds.icao.DG2File;
-import org.jmrtd.lds.icao.MRZInfo;
-import org.jmrtd.lds.iso19794.FaceInfo;
-import org.jmrtd.lds.iso19794.FaceImageInfo;
 
 /**
  * JavaFX {@link Task} implementation that performs a real eMRTD read operation.
@@ -90,7 +80,6 @@ public class RealPassportReaderTask extends Task<RealPassportSnapshot> {
         initialTerminal.waitForCardPresent(0);
 
         CardService cardService = null;
-        PassportService service = null;
 
         try {
             Exception lastOpenError = null;
@@ -128,112 +117,10 @@ public class RealPassportReaderTask extends Task<RealPassportSnapshot> {
                 throw new IllegalStateException("Unable to open card service on any terminal.");
             }
 
-            service = new PassportService(cardService, 256, 224, false, false);
-            service.open();
-            service.sendSelectApplet(false);
-
-            updateMessage("Performing BAC...");
-            AccessKeySpec bacKey = new BACKey(documentNumber, dateOfBirth, dateOfExpiry);
-            service.doBAC(bacKey);
-            service.sendSelectApplet(true);
-
-            final PassportService activeService = service;
-
-            updateMessage("Reading DG1...");
-            Map<Integer, byte[]> dataGroups = new HashMap<>();
-            MRZInfo mrzInfo;
-            String mrzText;
-            byte[] dg1Bytes;
-            try (InputStream dg1In = activeService.getInputStream(PassportService.EF_DG1)) {
-                dg1Bytes = readAllBytes(dg1In);
-            }
-            dataGroups.put(1, dg1Bytes);
-            try (InputStream parsedDg1 = new ByteArrayInputStream(dg1Bytes)) {
-                DG1File dg1File = new DG1File(parsedDg1);
-                mrzInfo = dg1File.getMRZInfo();
-                mrzText = mrzInfo == null ? null : mrzInfo.toString();
-            }
-
-            String derivedDocumentNumber = MrzUtil.deriveDocumentNumber(mrzInfo, mrzText, documentNumber);
-
-            String fullName = "";
-            String nationality = "";
-            if (mrzInfo != null) {
-                String primary = nz(mrzInfo.getPrimaryIdentifier());
-                String secondary = nz(mrzInfo.getSecondaryIdentifier());
-                fullName = (primary + " " + secondary).trim().replaceAll(" +", " ");
-                nationality = nz(mrzInfo.getNationality());
-            }
-
-            updateMessage("Reading DG2...");
-            byte[] imageBytes = null;
-            String imageMime = null;
-            byte[] dg2Bytes = readOptionalFile(() -> activeService.getInputStream(PassportService.EF_DG2), this::log, "DG2");
-            if (dg2Bytes != null) {
-                dataGroups.put(2, dg2Bytes);
-                try (InputStream dg2In = new ByteArrayInputStream(dg2Bytes)) {
-                    DG2File dg2File = new DG2File(dg2In);
-                    if (!dg2File.getFaceInfos().isEmpty()) {
-                        FaceInfo face = dg2File.getFaceInfos().get(0);
-                        if (!face.getFaceImageInfos().isEmpty()) {
-                            FaceImageInfo faceImageInfo = face.getFaceImageInfos().get(0);
-                            imageMime = faceImageInfo.getMimeType();
-                            try (InputStream imgIn = faceImageInfo.getImageInputStream();
-                                 ByteArrayOutputStream buffer = new ByteArrayOutputStream()) {
-                                byte[] tmp = new byte[4096];
-                                int read;
-                                while ((read = imgIn.read(tmp)) != -1) {
-                                    buffer.write(tmp, 0, read);
-                                    if (isCancelled()) {
-                                        updateMessage("Cancelled");
-                                        return null;
-                                    }
-                                }
-                                imageBytes = buffer.toByteArray();
-                            }
-                        }
-                    }
-                } catch (Exception e) {
-                    log("Unable to parse DG2: " + e.getMessage());
-                }
-            }
-
-            byte[] comFile = readOptionalFile(() -> activeService.getInputStream(PassportService.EF_COM), this::log, "EF.COM");
-            byte[] sodFile = readOptionalFile(() -> activeService.getInputStream(PassportService.EF_SOD), this::log, "EF.SOD");
-            byte[] cardAccessFile = readOptionalFile(() -> activeService.getInputStream(PassportService.EF_CARD_ACCESS), this::log, "EF.CardAccess");
-            byte[] dg14Bytes = readOptionalFile(() -> activeService.getInputStream(PassportService.EF_DG14), this::log, "DG14");
-            byte[] dg15Bytes = readOptionalFile(() -> activeService.getInputStream(PassportService.EF_DG15), this::log, "DG15");
-            if (dg14Bytes != null) {
-                dataGroups.put(14, dg14Bytes);
-            }
-            if (dg15Bytes != null) {
-                dataGroups.put(15, dg15Bytes);
-            }
-
-            updateMessage("Passport read complete");
-            return new RealPassportSnapshot(
-                    derivedDocumentNumber,
-                    dateOfBirth,
-                    dateOfExpiry,
-                    mrzText,
-                    fullName,
-                    nationality,
-                    imageMime,
-                    imageBytes,
-                    dataGroups,
-                    comFile,
-                    sodFile,
-                    cardAccessFile
-            );
+            return new PassportReadPipeline(ReadTuningStore.shared(), this::updateMessage, this::log, this::isCancelled)
+                    .read(cardService, documentNumber, dateOfBirth, dateOfExpiry);
         } finally {
             updateMessage("Cleaning up...");
-            if (service != null) {
-                try {
-                    service.close();
-                } catch (Exception e) {
-                    log("Failed to close PassportService: " + e.getMessage());
-                }
-            }
             try {
                 cardService.close();
             } catch (Exception e) {
@@ -249,6 +136,10 @@ public class RealPassportReaderTask extends Task<RealPassportSnapshot> {
             }
             return readAllBytes(in);
         } catch (Exception e) {
+            if (ReadTuning.lengthErrorStatus(e) >= 0) {
+                // Not a missing file: the block size is too large, which the caller recovers from.
+                throw new IllegalStateException("Chip rejected the READ BINARY length for " + label, e);
+            }
             if (logger != null) {
                 logger.accept("Unable to read " + label + ": " + e.getMessage());
             } else {
@@ -258,7 +149,20 @@ public class RealPassportReaderTask extends Task<RealPassportSnapshot> {
         }
     }
 
-    private static byte[] readAllBytes(InputStream in) throws IOException {
+    static byte[] readAllBytes(InputStream in) throws IOException {
+        if (in instanceof CardFileInputStream) {
+            // The file length is known from its header, so read straight into the final array.
+            byte[] contents = new byte[((CardFileInputStream) in).getLength()];
+            int offset = 0;
+            while (offset < contents.length) {
+                int read = in.read(contents, offset, contents.length - offset);
+                if (read < 0) {
+                    throw new EOFException("File ended after " + offset + " of " + contents.length + " bytes");
+                }
+                offset += read;
+            }
+            return contents;
+        }
         ByteArrayOutputStream buffer = new ByteArrayOutputStream();
         byte[] tmp = new byte[4096];
         int read;
@@ -350,7 +254,4 @@ public class RealPassportReaderTask extends Task<RealPassportSnapshot> {
         InputStream get() throws Exception;
     }
 
-    private static String nz(String s) {
-        return s == null ? "" : s;
-    }
 }
@@ -1,5 +1,6 @@
 package emu.reader;
 
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
@@ -7,7 +8,9 @@ import java.util.Map;
 import java.util.Objects;
 
 /**
- * Immutable snapshot of LDS content retrieved from a real passport.
+ * Immutable snapshot of LDS content retrieved from a real passport. LDS files are copied once on
+ * construction and then shared as read-only {@link ByteBuffer} views; the {@code byte[]} accessors
+ * return copies.
  */
 public final class RealPassportSnapshot {
 
@@ -19,10 +22,10 @@ public final class RealPassportSnapshot {
     private final String nationality;
     private final String imageMime;
     private final byte[] imageBytes;
-    private final Map<Integer, byte[]> dataGroupBytes;
-    private final byte[] comFile;
-    private final byte[] sodFile;
-    private final byte[] cardAccessFile;
+    private final Map<Integer, ByteBuffer> dataGroupBytes;
+    private final ByteBuffer comFile;
+    private final ByteBuffer sodFile;
+    private final ByteBuffer cardAccessFile;
 
     public RealPassportSnapshot(
             String documentNumber,
@@ -46,9 +49,9 @@ public final class RealPassportSnapshot {
         this.imageMime = imageMime;
         this.imageBytes = copy(imageBytes);
         this.dataGroupBytes = Collections.unmodifiableMap(copyMap(dataGroupBytes));
-        this.comFile = copy(comFile);
-        this.sodFile = copy(sodFile);
-        this.cardAccessFile = copy(cardAccessFile);
+        this.comFile = readOnlyCopy(comFile);
+        this.sodFile = readOnlyCopy(sodFile);
+        this.cardAccessFile = readOnlyCopy(cardAccessFile);
     }
 
     public String documentNumber() {
@@ -91,29 +94,53 @@ public final class RealPassportSnapshot {
         return copy(imageBytes);
     }
 
+    /** Read-only views of every data group; each call returns fresh positions. */
+    public Map<Integer, ByteBuffer> dataGroupBuffers() {
+        Map<Integer, ByteBuffer> views = new HashMap<>();
+        for (Map.Entry<Integer, ByteBuffer> entry : dataGroupBytes.entrySet()) {
+            views.put(entry.getKey(), view(entry.getValue()));
+        }
+        return Collections.unmodifiableMap(views);
+    }
+
+    public ByteBuffer dataGroupBuffer(int dataGroupNumber) {
+        return view(dataGroupBytes.get(dataGroupNumber));
+    }
+
+    public ByteBuffer comBuffer() {
+        return view(comFile);
+    }
+
+    public ByteBuffer sodBuffer() {
+        return view(sodFile);
+    }
+
+    public ByteBuffer cardAccessBuffer() {
+        return view(cardAccessFile);
+    }
+
     public Map<Integer, byte[]> dataGroupBytes() {
         Map<Integer, byte[]> copy = new HashMap<>();
-        for (Map.Entry<Integer, byte[]> entry : dataGroupBytes.entrySet()) {
-            copy.put(entry.getKey(), copy(entry.getValue()));
+        for (Map.Entry<Integer, ByteBuffer> entry : dataGroupBytes.entrySet()) {
+            copy.put(entry.getKey(), toBytes(entry.getValue()));
         }
         return Collections.unmodifiableMap(copy);
     }
 
     public byte[] dataGroupBytes(int dataGroupNumber) {
-        byte[] bytes = dataGroupBytes.get(dataGroupNumber);
-        return copy(bytes);
+        return toBytes(dataGroupBytes.get(dataGroupNumber));
     }
 
     public byte[] comFile() {
-        return copy(comFile);
+        return toBytes(comFile);
     }
 
     public byte[] sodFile() {
-        return copy(sodFile);
+        return toBytes(sodFile);
     }
 
     public byte[] cardAccessFile() {
-        return copy(cardAccessFile);
+        return toBytes(cardAccessFile);
     }
 
     @Override
@@ -133,20 +160,17 @@ public final class RealPassportSnapshot {
                 && Objects.equals(nationality, that.nationality)
                 && Objects.equals(imageMime, that.imageMime)
                 && Arrays.equals(imageBytes, that.imageBytes)
-                && mapsEqual(dataGroupBytes, that.dataGroupBytes)
-                && Arrays.equals(comFile, that.comFile)
-                && Arrays.equals(sodFile, that.sodFile)
-                && Arrays.equals(cardAccessFile, that.cardAccessFile);
+                && dataGroupBytes.equals(that.dataGroupBytes)
+                && Objects.equals(comFile, that.comFile)
+                && Objects.equals(sodFile, that.sodFile)
+                && Objects.equals(cardAccessFile, that.cardAccessFile);
     }
 
     @Override
     public int hashCode() {
         int result = Objects.hash(documentNumber, dateOfBirth, dateOfExpiry, mrz, fullName, nationality, imageMime);
         result = 31 * result + Arrays.hashCode(imageBytes);
-        result = 31 * result + mapHash(dataGroupBytes);
-        result = 31 * result + Arrays.hashCode(comFile);
-        result = 31 * result + Arrays.hashCode(sodFile);
-        result = 31 * result + Arrays.hashCode(cardAccessFile);
+        result = 31 * result + Objects.hash(dataGroupBytes, comFile, sodFile, cardAccessFile);
         return result;
     }
 
@@ -162,9 +186,9 @@ public final class RealPassportSnapshot {
                 + ", imageMime='" + imageMime + '\''
                 + ", imageBytes=" + describeBytes(imageBytes)
                 + ", dataGroupBytes=" + describeMap(dataGroupBytes)
-                + ", comFile=" + describeBytes(comFile)
-                + ", sodFile=" + describeBytes(sodFile)
-                + ", cardAccessFile=" + describeBytes(cardAccessFile)
+                + ", comFile=" + describeBuffer(comFile)
+                + ", sodFile=" + describeBuffer(sodFile)
+                + ", cardAccessFile=" + describeBuffer(cardAccessFile)
                 + '}';
     }
 
@@ -172,55 +196,55 @@ public final class RealPassportSnapshot {
         return bytes == null ? null : Arrays.copyOf(bytes, bytes.length);
     }
 
-    private static Map<Integer, byte[]> copyMap(Map<Integer, byte[]> source) {
-        Map<Integer, byte[]> copy = new HashMap<>();
+    private static Map<Integer, ByteBuffer> copyMap(Map<Integer, byte[]> source) {
+        Map<Integer, ByteBuffer> copy = new HashMap<>();
         if (source != null) {
             for (Map.Entry<Integer, byte[]> entry : source.entrySet()) {
-                if (entry.getKey() != null) {
-                    copy.put(entry.getKey(), copy(entry.getValue()));
+                if (entry.getKey() != null && entry.getValue() != null) {
+                    copy.put(entry.getKey(), readOnlyCopy(entry.getValue()));
                 }
             }
         }
         return copy;
     }
 
-    private static boolean mapsEqual(Map<Integer, byte[]> a, Map<Integer, byte[]> b) {
-        if (a.size() != b.size()) {
-            return false;
-        }
-        for (Map.Entry<Integer, byte[]> entry : a.entrySet()) {
-            byte[] other = b.get(entry.getKey());
-            if (!Arrays.equals(entry.getValue(), other)) {
-                return false;
-            }
-        }
-        return true;
+    private static ByteBuffer readOnlyCopy(byte[] bytes) {
+        return bytes == null ? null : ByteBuffer.wrap(copy(bytes)).asReadOnlyBuffer();
+    }
+
+    private static ByteBuffer view(ByteBuffer buffer) {
+        return buffer == null ? null : buffer.duplicate();
     }
 
-    private static int mapHash(Map<Integer, byte[]> map) {
-        int hash = 0;
-        for (Map.Entry<Integer, byte[]> entry : map.entrySet()) {
-            hash += Objects.hash(entry.getKey(), Arrays.hashCode(entry.getValue()));
+    private static byte[] toBytes(ByteBuffer buffer) {
+        if (buffer == null) {
+            return null;
         }
-        return hash;
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
     }
 
     private static String describeBytes(byte[] bytes) {
         return bytes == null ? "null" : ("byte[" + bytes.length + "]");
     }
 
-    private static String describeMap(Map<Integer, byte[]> map) {
+    private static String describeBuffer(ByteBuffer buffer) {
+        return buffer == null ? "null" : ("byte[" + buffer.remaining() + "]");
+    }
+
+    private static String describeMap(Map<Integer, ByteBuffer> map) {
         if (map.isEmpty()) {
             return "{}";
         }
         StringBuilder sb = new StringBuilder("{");
         boolean first = true;
-        for (Map.Entry<Integer, byte[]> entry : map.entrySet()) {
+        for (Map.Entry<Integer, ByteBuffer> entry : map.entrySet()) {
             if (!first) {
                 sb.append(", ");
             }
             first = false;
-            sb.append(entry.getKey()).append('=').append(describeBytes(entry.getValue()));
+            sb.append(entry.getKey()).append('=').append(describeBuffer(entry.getValue()));
         }
         sb.append('}');
         return sb.toString();
@@ -1746,15 +1746,14 @@ public final class EmuSimulatorApp extends Application {
     if (data == null) {
       return null;
     }
-    Map<Integer, byte[]> dataGroups = data.dataGroupBytes();
-    return new RealPassportProfile(
+    return RealPassportProfile.fromBuffers(
         MrzUtil.stripTrailingFillers(data.documentNumber()),
         data.dateOfBirth(),
         data.dateOfExpiry(),
-        dataGroups,
-        data.comFile(),
-        data.sodFile(),
-        data.cardAccessFile());
+        data.dataGroupBuffers(),
+        data.comBuffer(),
+        data.sodBuffer(),
+        data.cardAccessBuffer());
   }
 
   private SessionReportViewData.MrzSummary buildMrzSummary(RealPassportSnapshot data) {
@@ -2,6 +2,7 @@ package emu.ui;
 
 import emu.IssuerJobBuilder;
 import emu.IssuerSimulator;
+import emu.LinkProfile;
 import emu.MrzUtil;
 import emu.PersonalizationJob;
 import emu.RealPassportProfile;
@@ -400,6 +401,8 @@ final class ScenarioRunner {
         builder.openComSodReads(true);
       } else if ("--secure-com-sod".equals(arg)) {
         builder.openComSodReads(false);
+      } else if (arg.startsWith("--link=")) {
+        builder.linkProfile(LinkProfile.parse(arg.substring("--link=".length())));
       }
     }
   }
@@ -28,6 +28,11 @@ import javacard.framework.Util;
 
 /**
  * FileSystem.
+ *
+ * Each EF is stored as a list of segments of at most {@link #SEGMENT_SIZE}
+ * bytes, so files may grow beyond the 32767 bytes a <code>short</code> offset
+ * can address. Offsets and sizes are therefore 32-bit; individual copies
+ * still go through {@link Util} one segment at a time.
  * 
  * @author Martijn Oostdijk (martijno@cs.ru.nl)
  * @author Cees-Bart Breunesse (ceesb@cs.ru.nl)
@@ -77,6 +82,12 @@ public class FileSystem {
 
     static final short INVALID_FID = (short) -1;
 
+    /** Size of one storage segment; files up to this size live in a single array. */
+    static final short SEGMENT_SIZE = (short) 0x4000;
+
+    /** Largest EF accepted (24-bit, the widest offset DO '54' the host emits). */
+    static final int MAX_FILE_SIZE = 0x00FFFFFF;
+
     private static final short EF_DG1_INDEX = (short) 0;
 
     private static final short EF_DG2_INDEX = (short) 1;
@@ -115,59 +126,139 @@ public class FileSystem {
 
     private static final short SOS_LOG_INDEX = (short) 18;
 
-    private Object[] files;
+    private byte[][][] files;
 
-    private short[] fileSizes;
+    private int[] fileSizes;
 
     public FileSystem() {
         short size = (short) (SOS_LOG_INDEX + 1);
-        files = new Object[size];
-        fileSizes = new short[size];
+        files = new byte[size][][];
+        fileSizes = new int[size];
     }
 
-    public void createFile(short fid, short size) {
+    public void createFile(short fid, int size) {
         createFile(fid, size, null);
     }
 
-    public void createFile(short fid, short size, CVCertificate certObject) {
+    public void createFile(short fid, int size, CVCertificate certObject) {
         short idx = getFileIndex(fid, false);
+        if (idx == -1) {
+            ISOException.throwIt(ISO7816.SW_FILE_NOT_FOUND);
+        }
+        if (size < 0 || size > MAX_FILE_SIZE) {
+            ISOException.throwIt(ISO7816.SW_FILE_FULL);
+        }
 
         // first create determines maximum file size
         if (files[idx] == null)
-            files[idx] = new byte[size];
+            files[idx] = allocateSegments(size);
 
         if (certObject != null) {
-            certObject.cvcaFileReference = (byte[]) files[idx];
+            if (files[idx].length != 1) {
+                ISOException.throwIt(ISO7816.SW_FILE_FULL);
+            }
+            certObject.cvcaFileReference = files[idx][0];
         }
 
-        if (((byte[]) files[idx]).length < size)
+        if (capacity(files[idx]) < size)
             ISOException.throwIt(ISO7816.SW_FILE_FULL);
 
         fileSizes[idx] = size;
     }
 
-    public void writeData(short fid, short file_offset, byte[] data,
+    public void writeData(short fid, int file_offset, byte[] data,
             short data_offset, short length) {
         short idx = getFileIndex(fid, false);
-        byte[] file = (byte[]) files[idx];
-        short fileSize = fileSizes[idx];
-
-        if (file == null) {
+        if (idx == -1 || files[idx] == null) {
             ISOException.throwIt(ISO7816.SW_FILE_NOT_FOUND);
         }
+        byte[][] segments = files[idx];
+
+        if (file_offset < 0 || length < 0 || fileSizes[idx] - length < file_offset)
+            ISOException.throwIt(ISO7816.SW_FILE_FULL);
 
-        if (fileSize < (short) (file_offset + length))
+        while (length > 0) {
+            byte[] segment = segments[file_offset / SEGMENT_SIZE];
+            short segmentOffset = (short) (file_offset % SEGMENT_SIZE);
+            short chunk = PassportUtil.min(length, (short) (SEGMENT_SIZE - segmentOffset));
+            Util.arrayCopy(data, data_offset, segment, segmentOffset, chunk);
+            file_offset += chunk;
+            data_offset += chunk;
+            length -= chunk;
+        }
+    }
+
+    /**
+     * Fills a freshly created file with <code>contents</code>, one copy per
+     * segment. Factory-load only: the source is a host array that may be
+     * larger than a short offset can address.
+     */
+    void loadFile(short fid, byte[] contents) {
+        short idx = getFileIndex(fid, false);
+        if (idx == -1 || files[idx] == null) {
+            ISOException.throwIt(ISO7816.SW_FILE_NOT_FOUND);
+        }
+        if (contents.length > fileSizes[idx]) {
             ISOException.throwIt(ISO7816.SW_FILE_FULL);
+        }
+        byte[][] segments = files[idx];
+        for (int offset = 0; offset < contents.length; offset += SEGMENT_SIZE) {
+            System.arraycopy(contents, offset, segments[offset / SEGMENT_SIZE], 0,
+                    Math.min(SEGMENT_SIZE, contents.length - offset));
+        }
+    }
 
-        Util.arrayCopy(data, data_offset, file, file_offset, length);
+    /**
+     * Copies <code>length</code> bytes starting at <code>file_offset</code>
+     * into <code>dest</code>, crossing segment boundaries as needed.
+     */
+    public void readData(short fid, int file_offset, byte[] dest,
+            short dest_offset, short length) {
+        short idx = getFileIndex(fid, true);
+        if (idx == -1 || files[idx] == null) {
+            ISOException.throwIt(ISO7816.SW_FILE_NOT_FOUND);
+        }
+        byte[][] segments = files[idx];
+
+        if (file_offset < 0 || length < 0 || fileSizes[idx] - length < file_offset)
+            ISOException.throwIt(ISO7816.SW_WRONG_P1P2);
+
+        while (length > 0) {
+            byte[] segment = segments[file_offset / SEGMENT_SIZE];
+            short segmentOffset = (short) (file_offset % SEGMENT_SIZE);
+            short chunk = PassportUtil.min(length, (short) (SEGMENT_SIZE - segmentOffset));
+            Util.arrayCopyNonAtomic(segment, segmentOffset, dest, dest_offset, chunk);
+            file_offset += chunk;
+            dest_offset += chunk;
+            length -= chunk;
+        }
     }
 
+    /**
+     * Returns the backing array of a single-segment file, or
+     * <code>null</code> if the file does not exist or spans several segments
+     * (use {@link #readData} for those).
+     */
     public byte[] getFile(short fid) {
         short idx = getFileIndex(fid, true);
-        if (idx == -1) {
+        if (idx == -1 || files[idx] == null || files[idx].length != 1) {
             return null;
         }
-        return (byte[]) files[idx];
+        return files[idx][0];
+    }
+
+    private static byte[][] allocateSegments(int size) {
+        int count = size == 0 ? 1 : (size + SEGMENT_SIZE - 1) / SEGMENT_SIZE;
+        byte[][] segments = new byte[count][];
+        for (int i = 0; i < count - 1; i++) {
+            segments[i] = new byte[SEGMENT_SIZE];
+        }
+        segments[count - 1] = new byte[size - (count - 1) * SEGMENT_SIZE];
+        return segments;
+    }
+
+    private static int capacity(byte[][] segments) {
+        return (segments.length - 1) * SEGMENT_SIZE + segments[segments.length - 1].length;
     }
 
     public boolean exists(short fid) {
@@ -183,11 +274,11 @@ public class FileSystem {
         return files[idx] != null;
     }
 
-    public short getFileSize(short fid) {
+    public int getFileSize(short fid) {
         return getFileSize(fid, true);
     }
 
-    public short getFileSize(short fid, boolean enforceAccessControl) {
+    public int getFileSize(short fid, boolean enforceAccessControl) {
         short idx = getFileIndex(fid, enforceAccessControl);
         if (idx == -1) {
             return -1;
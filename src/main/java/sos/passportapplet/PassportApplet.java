@@ -70,6 +70,7 @@ import org.jmrtd.lds.SecurityInfo;
 import org.jmrtd.protocol.PACEProtocol;
 
 import sos.passportapplet.pace.PaceContext;
+import sos.passportapplet.pace.PacePrecomputation;
 import sos.passportapplet.pace.PaceSecrets;
 import sos.passportapplet.pace.SecureMessaging;
 import sos.passportapplet.pace.SecureMessagingAES;
@@ -161,9 +162,14 @@ public class PassportApplet extends Applet implements ISO7816 {
 
     static final byte INS_READ_BINARY = (byte) 0xB0;
 
+    /* odd INS: offset carried in data object '54', reaches beyond 32767 */
+    static final byte INS_READ_BINARY_ODD = (byte) 0xB1;
+
     /* for writing */
     static final byte INS_UPDATE_BINARY = (byte) 0xd6;
 
+    static final byte INS_UPDATE_BINARY_ODD = (byte) 0xd7;
+
     static final byte INS_CREATE_FILE = (byte) 0xe0;
 
     static final byte INS_PUT_DATA = (byte) 0xda;
@@ -187,6 +193,10 @@ public class PassportApplet extends Applet implements ISO7816 {
     private static final byte PACE_SECRET_ENTRY_TAG = 0x66;
     private static final byte CURRENT_DATE_TAG = 0x67;
 
+    private static final byte PROVISIONING_TAG = 0x68;
+    private static final byte OPEN_READS_TAG = 0x69;
+    private static final byte LIFECYCLE_TARGET_TAG = 0x6A;
+
     private static final byte ECPRIVATEKEY_TAG = 0x63;
 
     private static final byte CVCERTIFICATE_TAG = 0x64;
@@ -248,6 +258,15 @@ public class PassportApplet extends Applet implements ISO7816 {
 
     private PACEInfo[] cachedPaceInfos;
 
+    /* Header + largest short APDU body + room for in-place key derivation. */
+    private static final short FACTORY_LOAD_SCRATCH_LENGTH = (short) 512;
+
+    private static final ThreadLocal<PersonalizationImage> stagedImage = new ThreadLocal<>();
+
+    private static volatile PacePrecomputation pacePrecomputation;
+    private static volatile SecureMessagingObserver secureMessagingObserver;
+    private static volatile CommandObserver commandObserver;
+
     // This is as long we suspect a card verifiable certifcate could be
     private static final short CHAINING_BUFFER_LENGTH = 400;
 
@@ -316,7 +335,146 @@ public class PassportApplet extends Applet implements ISO7816 {
      * @see javacard.framework.Applet#install(byte[], byte, byte)
      */
     public static void install(byte[] buffer, short offset, byte length) {
-        (new PassportApplet(PassportCrypto.JCOP41_MODE)).register();
+        PassportApplet applet = new PassportApplet(PassportCrypto.JCOP41_MODE);
+        applet.register();
+        PersonalizationImage image = takeStagedPersonalizationImage();
+        if (image != null) {
+            applet.loadPersonalizationImage(image);
+        }
+    }
+
+    /**
+     * Stages an image that the next {@link #install(byte[], short, byte)} on
+     * the calling thread will factory-load into the new instance. This is the
+     * simulator's stand-in for a trusted personalization bureau: the LDS,
+     * keys and lifecycle are installed in one call instead of hundreds of
+     * APDUs.
+     */
+    public static void stagePersonalizationImage(PersonalizationImage image) {
+        if (image == null) {
+            stagedImage.remove();
+        } else {
+            stagedImage.set(image);
+        }
+    }
+
+    /**
+     * Installs (or, with {@code null}, removes) the pool that every applet
+     * instance draws PACE nonces and mapping key pairs from. Without a pool
+     * they are generated inline during GENERAL AUTHENTICATE.
+     */
+    public static void setPacePrecomputation(PacePrecomputation pool) {
+        pacePrecomputation = pool;
+    }
+
+    public static PacePrecomputation getPacePrecomputation() {
+        return pacePrecomputation;
+    }
+
+    /**
+     * Receives the time spent unwrapping protected commands and wrapping their responses;
+     * {@code null} (the default) skips the timing entirely.
+     */
+    public static void setSecureMessagingObserver(SecureMessagingObserver observer) {
+        secureMessagingObserver = observer;
+    }
+
+    /** Chip-side secure messaging cost, reported once per unwrap and once per wrap. */
+    public interface SecureMessagingObserver {
+        void onSecureMessaging(String mode, boolean wrap, long nanos);
+    }
+
+    /**
+     * Brackets every command {@link #process(APDU)} handles after applet
+     * selection; {@code null} (the default) skips the callbacks.
+     */
+    public static void setCommandObserver(CommandObserver observer) {
+        commandObserver = observer;
+    }
+
+    /**
+     * Per-command hook. Whatever {@link #commandStarted(byte)} returns is
+     * handed back to {@link #commandFinished} for the same command, so an
+     * observer can carry its own timing without shared state.
+     */
+    public interface CommandObserver {
+        Object commandStarted(byte ins);
+
+        void commandFinished(Object token, byte ins, String smMode, short sw, short responseLength);
+    }
+
+    /**
+     * Captures the state this class keeps in static fields: the session
+     * flags, the lifecycle/policy byte and the TA certificate. Every instance
+     * in the JVM shares those fields, so a host running several simulated
+     * chips saves the state after each command for one chip and hands it to
+     * {@link #restoreChipState(ChipState)} before that chip's next command.
+     */
+    public static ChipState saveChipState() {
+        return new ChipState(volatileState, persistentState, certificate);
+    }
+
+    public static void restoreChipState(ChipState state) {
+        volatileState = state.volatileState;
+        persistentState = state.persistentState;
+        certificate = state.certificate;
+    }
+
+    /** Opaque per-chip copy of the static applet state. */
+    public static final class ChipState {
+        private final byte[] volatileState;
+        private final byte persistentState;
+        private final CVCertificate certificate;
+
+        private ChipState(byte[] volatileState, byte persistentState, CVCertificate certificate) {
+            this.volatileState = volatileState;
+            this.persistentState = persistentState;
+            this.certificate = certificate;
+        }
+    }
+
+    /**
+     * Removes and returns the image staged on the calling thread, if any. A
+     * non-null result after installing the applet means the image was not
+     * consumed and the caller must personalize over APDUs instead.
+     */
+    public static PersonalizationImage takeStagedPersonalizationImage() {
+        PersonalizationImage image = stagedImage.get();
+        stagedImage.remove();
+        return image;
+    }
+
+    /**
+     * Installs every file of {@code image} and then applies its PUT DATA
+     * payloads through the regular handlers. Only permitted while the applet
+     * is pre-personalized.
+     */
+    void loadPersonalizationImage(PersonalizationImage image) {
+        assertPrePersonalized();
+        for (java.util.Map.Entry<Short, byte[]> file : image.getFiles().entrySet()) {
+            short fid = file.getKey().shortValue();
+            byte[] contents = file.getValue();
+            int size = contents.length;
+            if (fid == FileSystem.EF_CVCA_FID) {
+                fileSystem.createFile(fid, size, certificate);
+            } else {
+                fileSystem.createFile(fid, size);
+            }
+            fileSystem.loadFile(fid, contents);
+            if (fid == FileSystem.EF_DG15_FID) {
+                enforceRsaActiveAuthenticationKey();
+            }
+        }
+        cachedPaceInfos = null;
+
+        byte[] scratch = new byte[FACTORY_LOAD_SCRATCH_LENGTH];
+        for (PersonalizationImage.PutData command : image.getPutData()) {
+            byte[] data = command.data();
+            Arrays.fill(scratch, (byte) 0);
+            System.arraycopy(data, 0, scratch, OFFSET_CDATA, data.length);
+            applyPutData(scratch, OFFSET_CDATA, (short) data.length,
+                    (short) (command.getP1() & 0xff), (short) (command.getP2() & 0xff));
+        }
     }
 
     /**
@@ -350,59 +508,82 @@ public class PassportApplet extends Applet implements ISO7816 {
             return;
         }
 
-        if (protectedApdu) {
-            if (hasMutuallyAuthenticated()) {
-                try {
-                    assertSecureMessagingCounter();
-                    le = crypto.unwrapCommandAPDU(ssc, apdu);
-                    updateSmExpectedCounter();
-                } catch (CardRuntimeException e) {
-                    updateSmExpectedCounter();
-                    sw1sw2 = normalizeSmError(e.getReason());
+        CommandObserver observer = commandObserver;
+        Object observation = observer != null ? observer.commandStarted(ins) : null;
+        // The observation is finished even when a command ends in an exception,
+        // e.g. a protected APDU with no secure messaging session.
+        try {
+            SecureMessagingObserver smObserver = secureMessagingObserver;
+            long smStarted = smObserver != null && protectedApdu ? System.nanoTime() : 0L;
+            if (protectedApdu) {
+                if (hasMutuallyAuthenticated()) {
+                    try {
+                        assertSecureMessagingCounter();
+                        le = crypto.unwrapCommandAPDU(ssc, apdu);
+                        updateSmExpectedCounter();
+                    } catch (CardRuntimeException e) {
+                        updateSmExpectedCounter();
+                        sw1sw2 = normalizeSmError(e.getReason());
+                    }
+                } else if (usingPaceSm) {
+                    try {
+                        assertPaceSecureMessagingCounter();
+                        le = paceSecureMessaging.unwrapCommand(paceContext.getPaceSendSequenceCounter(), apdu);
+                        updatePaceExpectedCounter();
+                    } catch (CardRuntimeException e) {
+                        updatePaceExpectedCounter();
+                        sw1sw2 = normalizeSmError(e.getReason());
+                    }
+                } else {
+                    ISOException.throwIt(ISO7816.SW_SECURE_MESSAGING_NOT_SUPPORTED);
+                }
+                if (smStarted != 0L) {
+                    smObserver.onSecureMessaging(usingPaceSm ? "PACE" : "BAC/CA", false, System.nanoTime() - smStarted);
                 }
-            } else if (usingPaceSm) {
+            }
+
+            if (sw1sw2 == SW_OK) {
                 try {
-                    assertPaceSecureMessagingCounter();
-                    le = paceSecureMessaging.unwrapCommand(paceContext.getPaceSendSequenceCounter(), apdu);
-                    updatePaceExpectedCounter();
+                    enforceSecureMessaging(ins, protectedApdu);
+                    responseLength = processAPDU(apdu, cla, ins, protectedApdu, le);
                 } catch (CardRuntimeException e) {
-                    updatePaceExpectedCounter();
-                    sw1sw2 = normalizeSmError(e.getReason());
+                    sw1sw2 = e.getReason();
                 }
-            } else {
-                ISOException.throwIt(ISO7816.SW_SECURE_MESSAGING_NOT_SUPPORTED);
             }
-        }
 
-        if (sw1sw2 == SW_OK) {
-            try {
-                enforceSecureMessaging(ins, protectedApdu);
-                responseLength = processAPDU(apdu, cla, ins, protectedApdu, le);
-            } catch (CardRuntimeException e) {
-                sw1sw2 = e.getReason();
+            if (protectedApdu) {
+                smStarted = smObserver != null ? System.nanoTime() : 0L;
+                if (hasMutuallyAuthenticated()) {
+                    responseLength = crypto.wrapResponseAPDU(ssc, apdu, crypto
+                            .getApduBufferOffset(responseLength), responseLength,
+                            sw1sw2);
+                    updateSmExpectedCounter();
+                } else if (usingPaceSm) {
+                    short offset = paceSecureMessaging.getApduBufferOffset(responseLength);
+                    responseLength = paceSecureMessaging.wrapResponse(paceContext.getPaceSendSequenceCounter(), apdu,
+                            offset, responseLength, sw1sw2);
+                    updatePaceExpectedCounter();
+                }
+                if (smStarted != 0L) {
+                    smObserver.onSecureMessaging(usingPaceSm ? "PACE" : "BAC/CA", true, System.nanoTime() - smStarted);
+                }
             }
-        }
 
-        if (protectedApdu) {
-            if (hasMutuallyAuthenticated()) {
-                responseLength = crypto.wrapResponseAPDU(ssc, apdu, crypto
-                        .getApduBufferOffset(responseLength), responseLength,
-                        sw1sw2);
-                updateSmExpectedCounter();
-            } else if (usingPaceSm) {
-                short offset = paceSecureMessaging.getApduBufferOffset(responseLength);
-                responseLength = paceSecureMessaging.wrapResponse(paceContext.getPaceSendSequenceCounter(), apdu,
-                        offset, responseLength, sw1sw2);
-                updatePaceExpectedCounter();
+            if (responseLength > 0) {
+                if (apdu.getCurrentState() != APDU.STATE_OUTGOING)
+                    apdu.setOutgoing();
+                if (apdu.getCurrentState() != APDU.STATE_OUTGOING_LENGTH_KNOWN)
+                    apdu.setOutgoingLength(responseLength);
+                apdu.sendBytes((short) 0, responseLength);
+            }
+        } catch (CardRuntimeException e) {
+            sw1sw2 = e.getReason();
+            throw e;
+        } finally {
+            if (observer != null) {
+                observer.commandFinished(observation, ins,
+                        protectedApdu ? (usingPaceSm ? "PACE" : "BAC/CA") : "none", sw1sw2, responseLength);
             }
-        }
-
-        if (responseLength > 0) {
-            if (apdu.getCurrentState() != APDU.STATE_OUTGOING)
-                apdu.setOutgoing();
-            if (apdu.getCurrentState() != APDU.STATE_OUTGOING_LENGTH_KNOWN)
-                apdu.setOutgoingLength(responseLength);
-            apdu.sendBytes((short) 0, responseLength);
         }
 
         if (sw1sw2 != SW_OK) {
@@ -457,9 +638,15 @@ public class PassportApplet extends Applet implements ISO7816 {
         case INS_READ_BINARY:
             responseLength = processReadBinary(apdu, le, protectedApdu);
             break;
+        case INS_READ_BINARY_ODD:
+            responseLength = processReadBinaryOdd(apdu, le, protectedApdu);
+            break;
         case INS_UPDATE_BINARY:
             processUpdateBinary(apdu);
             break;
+        case INS_UPDATE_BINARY_ODD:
+            processUpdateBinaryOdd(apdu);
+            break;
         case INS_CREATE_FILE:
             processCreateFile(apdu);
             break;
@@ -486,7 +673,9 @@ public class PassportApplet extends Applet implements ISO7816 {
         switch (ins) {
         case INS_SELECT_FILE:
         case INS_READ_BINARY:
+        case INS_READ_BINARY_ODD:
         case INS_UPDATE_BINARY:
+        case INS_UPDATE_BINARY_ODD:
         case INS_CREATE_FILE:
         case INS_PUT_DATA:
             return true;
@@ -780,6 +969,10 @@ public class PassportApplet extends Applet implements ISO7816 {
         paceContext.setDigestAlgorithm(PACEInfo.toDigestAlgorithm(oid));
         paceContext.setKeyLength(PACEInfo.toKeyLength(oid));
         paceContext.setStep(PaceContext.Step.NONE);
+        PacePrecomputation pool = pacePrecomputation;
+        if (pool != null && paceContext.getParameterSpec() instanceof java.security.spec.ECParameterSpec) {
+            pool.prepare((java.security.spec.ECParameterSpec) paceContext.getParameterSpec());
+        }
         if (paceSSC != null) {
             Arrays.fill(paceSSC, (byte) 0);
         }
@@ -1018,6 +1211,15 @@ public class PassportApplet extends Applet implements ISO7816 {
             ISOException.throwIt(SW_INTERNAL_ERROR);
         }
 
+        applyPutData(buffer, buffer_p, lc, p1, p2);
+    }
+
+    /**
+     * Applies a PUT DATA payload located at {@code buffer_p} in {@code buffer}.
+     * Shared by the APDU path and factory load; {@code buffer} doubles as
+     * scratch space for key derivation, exactly like the APDU buffer.
+     */
+    private void applyPutData(byte[] buffer, short buffer_p, short lc, short p1, short p2) {
         if (p1 == 0xde) {
             handleLifecycleCommand(p2, lc, buffer, buffer_p);
             return;
@@ -1031,6 +1233,11 @@ public class PassportApplet extends Applet implements ISO7816 {
             return;
         }
 
+        if (p1 == 0 && p2 == PROVISIONING_TAG) {
+            applyProvisioningContainer(buffer, buffer_p, lc);
+            return;
+        }
+
         assertPrePersonalized();
 
         if (p1 == 0 && p2 == PRIVMODULUS_TAG) {
@@ -1069,78 +1276,9 @@ public class PassportApplet extends Applet implements ISO7816 {
             keyStore.rsaPrivateKey.setExponent(buffer, expOffset, expLength);
             persistentState |= HAS_EXPONENT;
         } else if (p1 == 0 && p2 == MRZ_TAG) {
-            // data is BERTLV object with three objects; docNr, dataOfBirth,
-            // dateOfExpiry
-            buffer_p = BERTLVScanner.readTag(buffer, buffer_p);
-            buffer_p = BERTLVScanner.readLength(buffer, buffer_p);
-            buffer_p = BERTLVScanner.readTag(buffer, buffer_p);
-            short docNrOffset = BERTLVScanner.readLength(buffer, buffer_p);
-            short docNrLength = BERTLVScanner.valueLength;
-            buffer_p = BERTLVScanner.skipValue();
-            buffer_p = BERTLVScanner.readTag(buffer, buffer_p);
-            short dobOffset = BERTLVScanner.readLength(buffer, buffer_p);
-            short dobLength = BERTLVScanner.valueLength;
-            buffer_p = BERTLVScanner.skipValue();
-            buffer_p = BERTLVScanner.readTag(buffer, buffer_p);
-            short doeOffset = BERTLVScanner.readLength(buffer, buffer_p);
-            short doeLength = BERTLVScanner.valueLength;
-            buffer_p = BERTLVScanner.skipValue();
-
-            documentNumber = new byte[(short)(docNrLength+1)];
-            Util.arrayCopyNonAtomic(buffer, docNrOffset, documentNumber,
-                    (short) 0, docNrLength);
-            documentNumber[docNrLength] = PassportInit.checkDigit(documentNumber,(short)0, docNrLength);
-
-            paceDocumentNumber = toAsciiString(buffer, docNrOffset, docNrLength);
-            paceDateOfBirth = toAsciiString(buffer, dobOffset, dobLength);
-            paceDateOfExpiry = toAsciiString(buffer, doeOffset, doeLength);
-
-            short keySeed_offset = init.computeKeySeed(buffer, docNrOffset,
-                    docNrLength, dobOffset, dobLength, doeOffset, doeLength);
-
-            short macKey_p = (short) (keySeed_offset + KEYMATERIAL_LENGTH);
-            short encKey_p = (short) (keySeed_offset + KEYMATERIAL_LENGTH + KEY_LENGTH);
-            crypto.deriveKey(buffer, keySeed_offset, KEYMATERIAL_LENGTH, PassportCrypto.MAC_MODE,
-                    macKey_p);
-            crypto.deriveKey(buffer, keySeed_offset, KEYMATERIAL_LENGTH, PassportCrypto.ENC_MODE,
-                    encKey_p);
-            keyStore.setMutualAuthenticationKeys(buffer, macKey_p, buffer,
-                    encKey_p);
-            persistentState |= HAS_MUTUALAUTHENTICATION_KEYS;
+            applyMrzSeed(buffer, buffer_p);
         } else if (p1 == 0 && p2 == PACE_SECRET_CONTAINER_TAG) {
-            short start = buffer_p;
-            short finish = (short) (buffer_p + lc);
-            if (lc > 0) {
-                short preview = BERTLVScanner.readTag(buffer, buffer_p);
-                short tag = BERTLVScanner.tag;
-                short valueOffset = BERTLVScanner.readLength(buffer, preview);
-                short valueLength = BERTLVScanner.valueLength;
-                if (tag == PACE_SECRET_CONTAINER_TAG) {
-                    short nestedEnd = (short) (valueOffset + valueLength);
-                    if (nestedEnd > finish) {
-                        ISOException.throwIt(SW_WRONG_LENGTH);
-                    }
-                    buffer_p = valueOffset;
-                    finish = nestedEnd;
-                } else {
-                    buffer_p = start;
-                }
-            }
-            while (buffer_p < finish) {
-                buffer_p = BERTLVScanner.readTag(buffer, buffer_p);
-                if (BERTLVScanner.tag != PACE_SECRET_ENTRY_TAG) {
-                    ISOException.throwIt(SW_WRONG_DATA);
-                }
-                buffer_p = BERTLVScanner.readLength(buffer, buffer_p);
-                short entryOffset = BERTLVScanner.valueOffset;
-                short entryLen = BERTLVScanner.valueLength;
-                if (entryLen < 2) {
-                    ISOException.throwIt(SW_WRONG_LENGTH);
-                }
-                byte keyRef = buffer[entryOffset];
-                paceSecrets.setSecret(keyRef, buffer, (short) (entryOffset + 1), (short) (entryLen - 1));
-                buffer_p = (short) (entryOffset + entryLen);
-            }
+            applyPaceSecrets(buffer, buffer_p, lc);
         } else if (p1 == 0 && p2 == ECPRIVATEKEY_TAG) {
             short finish = (short) (buffer_p + lc);
             while (buffer_p < finish) {
@@ -1216,6 +1354,258 @@ public class PassportApplet extends Applet implements ISO7816 {
     }
     }
 
+    /**
+     * Installs the BAC keys and PACE MRZ fields from an MRZ seed object
+     * (tag 0x62) starting at {@code buffer_p}. Key derivation uses the start
+     * of {@code buffer} as scratch space.
+     */
+    private void applyMrzSeed(byte[] buffer, short buffer_p) {
+        // data is BERTLV object with three objects; docNr, dataOfBirth,
+        // dateOfExpiry
+        buffer_p = BERTLVScanner.readTag(buffer, buffer_p);
+        buffer_p = BERTLVScanner.readLength(buffer, buffer_p);
+        buffer_p = BERTLVScanner.readTag(buffer, buffer_p);
+        short docNrOffset = BERTLVScanner.readLength(buffer, buffer_p);
+        short docNrLength = BERTLVScanner.valueLength;
+        buffer_p = BERTLVScanner.skipValue();
+        buffer_p = BERTLVScanner.readTag(buffer, buffer_p);
+        short dobOffset = BERTLVScanner.readLength(buffer, buffer_p);
+        short dobLength = BERTLVScanner.valueLength;
+        buffer_p = BERTLVScanner.skipValue();
+        buffer_p = BERTLVScanner.readTag(buffer, buffer_p);
+        short doeOffset = BERTLVScanner.readLength(buffer, buffer_p);
+        short doeLength = BERTLVScanner.valueLength;
+        buffer_p = BERTLVScanner.skipValue();
+
+        documentNumber = new byte[(short)(docNrLength+1)];
+        Util.arrayCopyNonAtomic(buffer, docNrOffset, documentNumber,
+                (short) 0, docNrLength);
+        documentNumber[docNrLength] = PassportInit.checkDigit(documentNumber,(short)0, docNrLength);
+
+        paceDocumentNumber = toAsciiString(buffer, docNrOffset, docNrLength);
+        paceDateOfBirth = toAsciiString(buffer, dobOffset, dobLength);
+        paceDateOfExpiry = toAsciiString(buffer, doeOffset, doeLength);
+
+        short keySeed_offset = init.computeKeySeed(buffer, docNrOffset,
+                docNrLength, dobOffset, dobLength, doeOffset, doeLength);
+
+        short macKey_p = (short) (keySeed_offset + KEYMATERIAL_LENGTH);
+        short encKey_p = (short) (keySeed_offset + KEYMATERIAL_LENGTH + KEY_LENGTH);
+        crypto.deriveKey(buffer, keySeed_offset, KEYMATERIAL_LENGTH, PassportCrypto.MAC_MODE,
+                macKey_p);
+        crypto.deriveKey(buffer, keySeed_offset, KEYMATERIAL_LENGTH, PassportCrypto.ENC_MODE,
+                encKey_p);
+        keyStore.setMutualAuthenticationKeys(buffer, macKey_p, buffer,
+                encKey_p);
+        persistentState |= HAS_MUTUALAUTHENTICATION_KEYS;
+    }
+
+    /**
+     * Stores PACE secrets from {@code lc} bytes of 0x66 entries, optionally
+     * wrapped in a 0x65 container.
+     */
+    private void applyPaceSecrets(byte[] buffer, short buffer_p, short lc) {
+        short start = buffer_p;
+        short finish = (short) (buffer_p + lc);
+        if (lc > 0) {
+            short preview = BERTLVScanner.readTag(buffer, buffer_p);
+            short tag = BERTLVScanner.tag;
+            short valueOffset = BERTLVScanner.readLength(buffer, preview);
+            short valueLength = BERTLVScanner.valueLength;
+            if (tag == PACE_SECRET_CONTAINER_TAG) {
+                short nestedEnd = (short) (valueOffset + valueLength);
+                if (nestedEnd > finish) {
+                    ISOException.throwIt(SW_WRONG_LENGTH);
+                }
+                buffer_p = valueOffset;
+                finish = nestedEnd;
+            } else {
+                buffer_p = start;
+            }
+        }
+        while (buffer_p < finish) {
+            buffer_p = BERTLVScanner.readTag(buffer, buffer_p);
+            if (BERTLVScanner.tag != PACE_SECRET_ENTRY_TAG) {
+                ISOException.throwIt(SW_WRONG_DATA);
+            }
+            buffer_p = BERTLVScanner.readLength(buffer, buffer_p);
+            short entryOffset = BERTLVScanner.valueOffset;
+            short entryLen = BERTLVScanner.valueLength;
+            if (entryLen < 2) {
+                ISOException.throwIt(SW_WRONG_LENGTH);
+            }
+            byte keyRef = buffer[entryOffset];
+            paceSecrets.setSecret(keyRef, buffer, (short) (entryOffset + 1), (short) (entryLen - 1));
+            buffer_p = (short) (entryOffset + entryLen);
+        }
+    }
+
+    /**
+     * Applies a provisioning container (P2 0x68): a single 0x68 object with
+     * any of the MRZ seed (0x62), PACE secrets (0x65), current date (0x67),
+     * open COM/SOD read policy (0x69, 00 or 01) and lifecycle target (0x6A,
+     * AF for PERSONALIZED or AD for LOCKED, as in the DE/xx commands).
+     * Every entry is checked before anything is written, so a rejected
+     * container leaves the chip as it was.
+     */
+    private void applyProvisioningContainer(byte[] buffer, short buffer_p, short lc) {
+        if (lc < 2) {
+            ISOException.throwIt(SW_WRONG_LENGTH);
+        }
+        short finish = (short) (buffer_p + lc);
+        buffer_p = BERTLVScanner.readTag(buffer, buffer_p);
+        if (BERTLVScanner.tag != PROVISIONING_TAG) {
+            ISOException.throwIt(SW_WRONG_DATA);
+        }
+        buffer_p = BERTLVScanner.readLength(buffer, buffer_p);
+        if (BERTLVScanner.skipValue() != finish) {
+            ISOException.throwIt(SW_WRONG_LENGTH);
+        }
+
+        short mrzOffset = -1;
+        short paceOffset = -1;
+        short paceLength = 0;
+        short dateOffset = -1;
+        short openReads = -1;
+        short lifecycleTarget = -1;
+        while (buffer_p < finish) {
+            short entryOffset = buffer_p;
+            buffer_p = BERTLVScanner.readTag(buffer, buffer_p);
+            short tag = BERTLVScanner.tag;
+            short valueOffset = BERTLVScanner.readLength(buffer, buffer_p);
+            short valueLength = BERTLVScanner.valueLength;
+            buffer_p = BERTLVScanner.skipValue();
+            if (buffer_p > finish) {
+                ISOException.throwIt(SW_WRONG_LENGTH);
+            }
+            switch (tag) {
+            case MRZ_TAG:
+                if (mrzOffset >= 0) {
+                    ISOException.throwIt(SW_WRONG_DATA);
+                }
+                checkMrzSeed(buffer, valueOffset, valueLength);
+                mrzOffset = entryOffset;
+                break;
+            case PACE_SECRET_CONTAINER_TAG:
+                if (paceOffset >= 0) {
+                    ISOException.throwIt(SW_WRONG_DATA);
+                }
+                checkPaceSecrets(buffer, valueOffset, valueLength);
+                paceOffset = entryOffset;
+                paceLength = (short) (buffer_p - entryOffset);
+                break;
+            case CURRENT_DATE_TAG:
+                if (dateOffset >= 0) {
+                    ISOException.throwIt(SW_WRONG_DATA);
+                }
+                checkCurrentDate(buffer, valueOffset, valueLength);
+                dateOffset = valueOffset;
+                break;
+            case OPEN_READS_TAG:
+                if (openReads >= 0) {
+                    ISOException.throwIt(SW_WRONG_DATA);
+                }
+                if (valueLength != 1) {
+                    ISOException.throwIt(SW_WRONG_LENGTH);
+                }
+                openReads = buffer[valueOffset];
+                if (openReads != 0x00 && openReads != 0x01) {
+                    ISOException.throwIt(SW_WRONG_DATA);
+                }
+                break;
+            case LIFECYCLE_TARGET_TAG:
+                if (lifecycleTarget >= 0) {
+                    ISOException.throwIt(SW_WRONG_DATA);
+                }
+                if (valueLength != 1) {
+                    ISOException.throwIt(SW_WRONG_LENGTH);
+                }
+                lifecycleTarget = (short) (buffer[valueOffset] & 0xff);
+                if (lifecycleTarget != 0xAF && lifecycleTarget != 0xAD) {
+                    ISOException.throwIt(SW_WRONG_DATA);
+                }
+                break;
+            default:
+                ISOException.throwIt(SW_WRONG_DATA);
+            }
+        }
+
+        if (mrzOffset >= 0 || paceOffset >= 0) {
+            assertPrePersonalized();
+        }
+        if (lifecycleTarget == 0xAF && isLocked()) {
+            ISOException.throwIt(SW_CONDITIONS_NOT_SATISFIED);
+        }
+
+        if (paceOffset >= 0) {
+            applyPaceSecrets(buffer, paceOffset, paceLength);
+        }
+        if (dateOffset >= 0) {
+            certificate.setCurrentDate(buffer, dateOffset, (short) 6);
+        }
+        if (openReads >= 0) {
+            setOpenComSodReads(openReads == 0x01);
+        }
+        // Last of the data entries: key derivation overwrites the start of buffer.
+        if (mrzOffset >= 0) {
+            applyMrzSeed(buffer, mrzOffset);
+        }
+        if (lifecycleTarget >= 0) {
+            if (isPrePersonalized()) {
+                transitionLifecycle(LIFECYCLE_PERSONALIZED);
+            }
+            if (lifecycleTarget == 0xAD) {
+                transitionLifecycle(LIFECYCLE_LOCKED);
+            }
+        }
+    }
+
+    private static void checkMrzSeed(byte[] buffer, short offset, short length) {
+        short finish = (short) (offset + length);
+        for (short i = 0; i < 3; i++) {
+            if (offset >= finish) {
+                ISOException.throwIt(SW_WRONG_LENGTH);
+            }
+            offset = BERTLVScanner.readTag(buffer, offset);
+            BERTLVScanner.readLength(buffer, offset);
+            offset = BERTLVScanner.skipValue();
+            if (BERTLVScanner.valueLength == 0 || offset > finish) {
+                ISOException.throwIt(SW_WRONG_LENGTH);
+            }
+        }
+    }
+
+    private static void checkPaceSecrets(byte[] buffer, short offset, short length) {
+        short finish = (short) (offset + length);
+        while (offset < finish) {
+            offset = BERTLVScanner.readTag(buffer, offset);
+            if (BERTLVScanner.tag != PACE_SECRET_ENTRY_TAG) {
+                ISOException.throwIt(SW_WRONG_DATA);
+            }
+            BERTLVScanner.readLength(buffer, offset);
+            offset = BERTLVScanner.skipValue();
+            if (BERTLVScanner.valueLength < 2 || offset > finish) {
+                ISOException.throwIt(SW_WRONG_LENGTH);
+            }
+            byte keyRef = buffer[BERTLVScanner.valueOffset];
+            if (keyRef < PaceSecrets.KEY_REF_MRZ || keyRef > PaceSecrets.KEY_REF_PUK) {
+                ISOException.throwIt(SW_WRONG_DATA);
+            }
+        }
+    }
+
+    private static void checkCurrentDate(byte[] buffer, short offset, short length) {
+        if (length != (short) 6) {
+            ISOException.throwIt(SW_WRONG_LENGTH);
+        }
+        for (short i = 0; i < length; i++) {
+            byte digit = buffer[(short) (offset + i)];
+            if (!((digit >= 0 && digit <= 9) || (digit >= '0' && digit <= '9'))) {
+                ISOException.throwIt(SW_WRONG_DATA);
+            }
+        }
+    }
+
     /**
      * Processes INTERNAL_AUTHENTICATE apdus, ie Active Authentication (AA). 
      * Receives a random and signs it.
@@ -1499,28 +1889,31 @@ public class PassportApplet extends Applet implements ISO7816 {
         selectedFile = fid;
         volatileState[0] |= FILE_SELECTED;
 
-        short fileSize = fileSystem.getFileSize(fid, false);
+        int fileSize = fileSystem.getFileSize(fid, false);
         if (fileSize < 0) {
             ISOException.throwIt(ISO7816.SW_FILE_NOT_FOUND);
         }
 
         byte sfi = fileSystem.getSFI(fid);
-        short responseLength = getSelectResponseLength(sfi);
+        short responseLength = getSelectResponseLength(sfi, fileSize);
         short bufferOffset = protectedApdu ? getSmBufferOffset(responseLength) : 0;
         writeSelectResponse(buffer, bufferOffset, fid, fileSize, sfi);
 
         return responseLength;
     }
 
-    private short getSelectResponseLength(byte sfi) {
+    private short getSelectResponseLength(byte sfi, int fileSize) {
         short length = 19;
         if (sfi != FileSystem.NO_SFI) {
             length += 3;
         }
+        if (fileSize > 0xFFFF) {
+            length += 2;
+        }
         return length;
     }
 
-    private void writeSelectResponse(byte[] buffer, short offset, short fid, short fileSize, byte sfi) {
+    private void writeSelectResponse(byte[] buffer, short offset, short fid, int fileSize, byte sfi) {
         short cursor = offset;
         buffer[cursor++] = (byte) 0x6F;
         short fciLengthIndex = cursor++;
@@ -1538,7 +1931,13 @@ public class PassportApplet extends Applet implements ISO7816 {
         buffer[cursor++] = (byte) fid;
 
         buffer[cursor++] = (byte) 0x80;
-        buffer[cursor++] = 0x02;
+        if (fileSize > 0xFFFF) {
+            buffer[cursor++] = 0x04;
+            buffer[cursor++] = (byte) (fileSize >> 24);
+            buffer[cursor++] = (byte) (fileSize >> 16);
+        } else {
+            buffer[cursor++] = 0x02;
+        }
         buffer[cursor++] = (byte) (fileSize >> 8);
         buffer[cursor++] = (byte) fileSize;
 
@@ -1586,33 +1985,16 @@ public class PassportApplet extends Applet implements ISO7816 {
             }
         }
 
-        boolean cardAccessRead = (fid == FileSystem.EF_CVCA_FID);
-        boolean openReadAllowed = isOpenReadFile(fid);
-        if (!hasSecureMessagingSession() && !cardAccessRead && !openReadAllowed) {
-            ISOException.throwIt(SW_SECURITY_STATUS_NOT_SATISFIED);
-        }
+        assertReadAllowed(fid);
 
-        short offset;
+        int offset;
         if (usingSfi) {
-            offset = (short) (((p1 & 0x07) << 8) | (p2 & 0xFF));
+            offset = ((p1 & 0x07) << 8) | (p2 & 0xFF);
         } else {
             offset = Util.makeShort(p1, p2);
         }
 
-        byte[] file = fileSystem.getFile(fid);
-        if (file == null) {
-            ISOException.throwIt(ISO7816.SW_FILE_NOT_FOUND);
-        }
-
-        short fileSize = fileSystem.getFileSize(fid);
-        if (fileSize < 0 || offset < 0 || offset > fileSize) {
-            ISOException.throwIt(ISO7816.SW_WRONG_P1P2);
-        }
-
-        short available = (short) (fileSize - offset);
-        if (available < 0) {
-            ISOException.throwIt(ISO7816.SW_WRONG_P1P2);
-        }
+        int available = getReadableLength(fid, offset);
 
         short requestedLe = le;
         if (!protectedApdu) {
@@ -1625,7 +2007,7 @@ public class PassportApplet extends Applet implements ISO7816 {
         }
 
         if (requestedLe > 0 && requestedLe > available) {
-            if (available <= (short) 0x00FF) {
+            if (available <= 0x00FF) {
                 ISOException.throwIt((short) (ISO7816.SW_CORRECT_LENGTH_00 | (available & 0x00FF)));
             }
             ISOException.throwIt(ISO7816.SW_WRONG_LENGTH);
@@ -1637,21 +2019,137 @@ public class PassportApplet extends Applet implements ISO7816 {
         }
 
         if (effectiveLe == 0 || effectiveLe > available) {
-            effectiveLe = available;
+            effectiveLe = (short) available;
         }
 
-        short responseLength = PassportUtil.min(effectiveLe, available);
+        short responseLength = effectiveLe;
         short bufferOffset = protectedApdu ? getSmBufferOffset(responseLength) : 0;
         short capacity = (short) (buffer.length - bufferOffset);
         if (responseLength > capacity) {
             ISOException.throwIt(ISO7816.SW_WRONG_LENGTH);
         }
 
-        Util.arrayCopyNonAtomic(file, offset, buffer, bufferOffset, responseLength);
+        fileSystem.readData(fid, offset, buffer, bufferOffset, responseLength);
 
         return responseLength;
     }
 
+    /**
+     * Processes READ BINARY with odd INS (0xB1). P1-P2 is '0000' for the
+     * current EF, a short EF identifier in the low five bits of P2, or a file
+     * identifier. The data field carries the offset as data object '54'
+     * (1 to 4 bytes) and the response wraps the file contents in data object
+     * '53', so files larger than 32767 bytes can be read to the end.
+     */
+    private short processReadBinaryOdd(APDU apdu, short le, boolean protectedApdu) {
+        byte[] buffer = apdu.getBuffer();
+        if (!protectedApdu && apdu.getCurrentState() == APDU.STATE_INITIAL) {
+            apdu.setIncomingAndReceive();
+        }
+        short lc = (short) (buffer[OFFSET_LC] & 0xFF);
+
+        short fid = resolveOddInsFile(buffer[OFFSET_P1], buffer[OFFSET_P2]);
+        assertReadAllowed(fid);
+
+        int offset = readOffsetDataObject(buffer, OFFSET_CDATA, lc);
+        int available = getReadableLength(fid, offset);
+
+        short requestedLe = protectedApdu ? le : apdu.setOutgoing();
+        if (requestedLe <= 0 || requestedLe > (short) 0x0100) {
+            requestedLe = (short) 0x0100;
+        }
+
+        // '53' || BER length || data must fit in Le
+        short dataLength = (short) Math.min(available, requestedLe - 2);
+        if (dataLength > 0x7F) {
+            dataLength = (short) Math.min(available, requestedLe - 3);
+        }
+        if (dataLength < 0) {
+            ISOException.throwIt(ISO7816.SW_WRONG_LENGTH);
+        }
+        short headerLength = (short) (dataLength > 0x7F ? 3 : 2);
+        short responseLength = (short) (headerLength + dataLength);
+
+        short bufferOffset = protectedApdu ? getSmBufferOffset(responseLength) : 0;
+        if (responseLength > (short) (buffer.length - bufferOffset)) {
+            ISOException.throwIt(ISO7816.SW_WRONG_LENGTH);
+        }
+
+        short cursor = bufferOffset;
+        buffer[cursor++] = (byte) 0x53;
+        if (headerLength == 3) {
+            buffer[cursor++] = (byte) 0x81;
+        }
+        buffer[cursor++] = (byte) dataLength;
+        fileSystem.readData(fid, offset, buffer, cursor, dataLength);
+
+        return responseLength;
+    }
+
+    private void assertReadAllowed(short fid) {
+        boolean cardAccessRead = (fid == FileSystem.EF_CVCA_FID);
+        boolean openReadAllowed = isOpenReadFile(fid);
+        if (!hasSecureMessagingSession() && !cardAccessRead && !openReadAllowed) {
+            ISOException.throwIt(SW_SECURITY_STATUS_NOT_SATISFIED);
+        }
+    }
+
+    /**
+     * Returns how many bytes can be read from <code>fid</code> at
+     * <code>offset</code>, rejecting offsets beyond the end of the file.
+     */
+    private int getReadableLength(short fid, int offset) {
+        if (!fileSystem.exists(fid)) {
+            ISOException.throwIt(ISO7816.SW_FILE_NOT_FOUND);
+        }
+        int fileSize = fileSystem.getFileSize(fid);
+        if (fileSize < 0 || offset < 0 || offset > fileSize) {
+            ISOException.throwIt(ISO7816.SW_WRONG_P1P2);
+        }
+        return fileSize - offset;
+    }
+
+    private short resolveOddInsFile(byte p1, byte p2) {
+        if (p1 == 0 && p2 == 0) {
+            if (!hasFileSelected()) {
+                ISOException.throwIt(SW_CONDITIONS_NOT_SATISFIED);
+            }
+            return selectedFile;
+        }
+        short fid;
+        if (p1 == 0 && (p2 & 0xE0) == 0) {
+            fid = fileSystem.getFidForSfi((byte) (p2 & 0x1F));
+        } else {
+            fid = Util.makeShort(p1, p2);
+        }
+        if (fid == FileSystem.INVALID_FID || !fileSystem.exists(fid)) {
+            ISOException.throwIt(ISO7816.SW_FILE_NOT_FOUND);
+        }
+        return fid;
+    }
+
+    /**
+     * Parses the offset data object ('54', 1 to 4 bytes big-endian) at the
+     * start of an odd-INS command data field.
+     */
+    private static int readOffsetDataObject(byte[] buffer, short offset, short lc) {
+        if (lc < 3 || buffer[offset] != (byte) 0x54) {
+            ISOException.throwIt(SW_WRONG_DATA);
+        }
+        short length = (short) (buffer[(short) (offset + 1)] & 0xFF);
+        if (length < 1 || length > 4 || (short) (length + 2) > lc) {
+            ISOException.throwIt(SW_WRONG_DATA);
+        }
+        int value = 0;
+        for (short i = 0; i < length; i++) {
+            value = (value << 8) | (buffer[(short) (offset + 2 + i)] & 0xFF);
+        }
+        if (value < 0) {
+            ISOException.throwIt(ISO7816.SW_WRONG_P1P2);
+        }
+        return value;
+    }
+
     private short processPaceGeneralAuthenticateStep1(APDU apdu, short lc) {
         System.out.println("PACE step1");
         if (lc != 0) {
@@ -1677,8 +2175,14 @@ public class PassportApplet extends Applet implements ISO7816 {
             String transformation = resolvePaceCipherTransformation(cipherAlgorithm);
             javax.crypto.Cipher cipher = javax.crypto.Cipher.getInstance(transformation, BouncyCastleProvider.PROVIDER_NAME);
             int blockSize = cipher.getBlockSize();
-            byte[] nonce = new byte[blockSize];
-            randomData.generateData(nonce, (short) 0, (short) nonce.length);
+            PacePrecomputation pool = pacePrecomputation;
+            byte[] nonce;
+            if (pool != null) {
+                nonce = pool.takeNonce(blockSize);
+            } else {
+                nonce = new byte[blockSize];
+                randomData.generateData(nonce, (short) 0, (short) nonce.length);
+            }
             cipher.init(javax.crypto.Cipher.ENCRYPT_MODE, staticKey, new IvParameterSpec(new byte[blockSize]));
             encryptedNonce = cipher.doFinal(nonce);
             paceContext.setNonceS(nonce);
@@ -1749,9 +2253,15 @@ public class PassportApplet extends Applet implements ISO7816 {
                 if (!"ECDH".equalsIgnoreCase(agreementAlg)) {
                     ISOException.throwIt(ISO7816.SW_FUNC_NOT_SUPPORTED);
                 }
-                KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("EC", BouncyCastleProvider.PROVIDER_NAME);
-                keyPairGenerator.initialize(staticParams);
-                KeyPair mappingKeyPair = keyPairGenerator.generateKeyPair();
+                PacePrecomputation pool = pacePrecomputation;
+                KeyPair mappingKeyPair;
+                if (pool != null) {
+                    mappingKeyPair = pool.takeKeyPair((java.security.spec.ECParameterSpec) staticParams);
+                } else {
+                    KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("EC", BouncyCastleProvider.PROVIDER_NAME);
+                    keyPairGenerator.initialize(staticParams);
+                    mappingKeyPair = keyPairGenerator.generateKeyPair();
+                }
 
                 ECPublicKey terminalPublic = (ECPublicKey) mappingTerminalPublicKey;
                 ECPrivateKey chipPrivate = (ECPrivateKey) mappingKeyPair.getPrivate();
@@ -2004,7 +2514,7 @@ public class PassportApplet extends Applet implements ISO7816 {
         byte[] buffer = apdu.getBuffer();
         byte p1 = buffer[OFFSET_P1];
         byte p2 = buffer[OFFSET_P2];
-        short offset = Util.makeShort(p1, p2);
+        int offset = Util.makeShort(p1, p2);
 
         short readCount = (short) (buffer[ISO7816.OFFSET_LC] & 0xff);
         readCount = apdu.setIncomingAndReceive();
@@ -2023,12 +2533,50 @@ public class PassportApplet extends Applet implements ISO7816 {
         }
     }
 
+    /**
+     * Processes UPDATE BINARY with odd INS (0xD7): the data field is an
+     * offset data object '54' followed by the bytes to write in a '53' data
+     * object. Used to personalize files larger than 32767 bytes.
+     */
+    private void processUpdateBinaryOdd(APDU apdu) {
+        assertPrePersonalized();
+
+        byte[] buffer = apdu.getBuffer();
+        if (apdu.getCurrentState() == APDU.STATE_INITIAL) {
+            apdu.setIncomingAndReceive();
+        }
+        if (apdu.getCurrentState() != APDU.STATE_FULL_INCOMING) {
+            ISOException.throwIt(SW_INTERNAL_ERROR);
+        }
+        short lc = (short) (buffer[OFFSET_LC] & 0xFF);
+
+        short fid = resolveOddInsFile(buffer[OFFSET_P1], buffer[OFFSET_P2]);
+        int offset = readOffsetDataObject(buffer, OFFSET_CDATA, lc);
+
+        short cursor = (short) (OFFSET_CDATA + 2 + (buffer[(short) (OFFSET_CDATA + 1)] & 0xFF));
+        short end = (short) (OFFSET_CDATA + lc);
+        if (cursor >= end || buffer[cursor] != (byte) 0x53) {
+            ISOException.throwIt(SW_WRONG_DATA);
+        }
+        cursor = BERTLVScanner.readLength(buffer, (short) (cursor + 1));
+        short length = BERTLVScanner.valueLength;
+        if ((short) (cursor + length) != end) {
+            ISOException.throwIt(SW_WRONG_DATA);
+        }
+
+        fileSystem.writeData(fid, offset, buffer, cursor, length);
+
+        if (length > 0 && fid == FileSystem.EF_DG15_FID) {
+            enforceRsaActiveAuthenticationKey();
+        }
+    }
+
     private void enforceRsaActiveAuthenticationKey() {
         byte[] dg15 = fileSystem.getFile(FileSystem.EF_DG15_FID);
         if (dg15 == null) {
             return;
         }
-        short fileSize = fileSystem.getFileSize(FileSystem.EF_DG15_FID);
+        int fileSize = fileSystem.getFileSize(FileSystem.EF_DG15_FID);
         if (fileSize <= 0 || fileSize > dg15.length) {
             return;
         }
@@ -2099,17 +2647,25 @@ public class PassportApplet extends Applet implements ISO7816 {
             ISOException.throwIt(SW_INTERNAL_ERROR);
         }
 
-        if (lc < (short) 6 || (buffer[OFFSET_CDATA + 1] & 0xff) < 4)
+        short fcpLength = (short) (buffer[OFFSET_CDATA + 1] & 0xff);
+        if (lc < (short) 6 || fcpLength < 4)
             ISOException.throwIt(SW_WRONG_LENGTH);
 
         if (buffer[OFFSET_CDATA] != 0x63)
             ISOException.throwIt(SW_DATA_INVALID);
 
-        short size = Util.makeShort(buffer[(short) (OFFSET_CDATA + 2)],
-                buffer[(short) (OFFSET_CDATA + 3)]);
+        // 63 04 size(2) fid(2), or 63 06 size(4) fid(2) for files beyond 64K
+        short sizeLength = (short) (fcpLength >= 6 ? 4 : 2);
+        if (lc < (short) (2 + sizeLength + 2))
+            ISOException.throwIt(SW_WRONG_LENGTH);
+
+        int size = 0;
+        for (short i = 0; i < sizeLength; i++) {
+            size = (size << 8) | (buffer[(short) (OFFSET_CDATA + 2 + i)] & 0xff);
+        }
 
-        short fid = Util.makeShort(buffer[(short) (OFFSET_CDATA + 4)],
-                buffer[(short) (OFFSET_CDATA + 5)]);
+        short fid = Util.makeShort(buffer[(short) (OFFSET_CDATA + 2 + sizeLength)],
+                buffer[(short) (OFFSET_CDATA + 3 + sizeLength)]);
 
         if(fid == FileSystem.EF_CVCA_FID) {
            fileSystem.createFile(fid, size, certificate);
@@ -2324,7 +2880,7 @@ public class PassportApplet extends Applet implements ISO7816 {
             return cachedPaceInfos;
         }
         byte[] file = fileSystem.getFile(FileSystem.EF_CVCA_FID);
-        short fileSize = fileSystem.getFileSize(FileSystem.EF_CVCA_FID);
+        int fileSize = fileSystem.getFileSize(FileSystem.EF_CVCA_FID);
         if (file == null || fileSize <= 0) {
             return new PACEInfo[0];
         }
@@ -359,7 +359,9 @@ public class PassportCrypto {
 
         incrementSSC(ssc);
 
-        if (buf[apdu_p] == (byte) 0x87) {
+        // do85 (odd INS) is do87 without the 0x01 padding-content indicator
+        boolean do85 = buf[apdu_p] == (byte) 0x85;
+        if (buf[apdu_p] == (byte) 0x87 || do85) {
             apdu_p++;
             // do87
             if ((buf[apdu_p] & 0xff) > 0x80) {
@@ -376,13 +378,18 @@ public class PassportCrypto {
             }
             apdu_p += do87LenBytes;
 
-            if (buf[apdu_p] != 1) {
-                ISOException.throwIt(PassportApplet.SW_INTERNAL_ERROR);
+            if (do85) {
+                do87Data_p = apdu_p;
+                apdu_p += do87DataLen;
+            } else {
+                if (buf[apdu_p] != 1) {
+                    ISOException.throwIt(PassportApplet.SW_INTERNAL_ERROR);
+                }
+                // store pointer to data and defer decrypt to after mac check (do8e)
+                do87Data_p = (short) (apdu_p + 1);
+                apdu_p += do87DataLen;
+                do87DataLen--; // compensate for 0x01 marker
             }
-            // store pointer to data and defer decrypt to after mac check (do8e)
-            do87Data_p = (short) (apdu_p + 1);
-            apdu_p += do87DataLen;
-            do87DataLen--; // compensate for 0x01 marker
         }
 
         if (buf[apdu_p] == (byte) 0x97) {
@@ -0,0 +1,117 @@
+package sos.passportapplet;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Complete personalization payload that can be factory-loaded into a {@link PassportApplet}
+ * instance without CREATE FILE / UPDATE BINARY / PUT DATA round trips.
+ *
+ * Files are installed in insertion order, then the PUT DATA payloads are applied in insertion
+ * order through the same handlers that serve the APDU path, so keys, secrets and lifecycle
+ * transitions behave exactly as if they had been sent over the wire.
+ */
+public final class PersonalizationImage {
+
+    /** Largest payload a single short-form PUT DATA command can carry. */
+    public static final int MAX_PUT_DATA_LENGTH = 0xFF;
+
+    /** Largest EF the applet file system accepts. */
+    public static final int MAX_FILE_LENGTH = FileSystem.MAX_FILE_SIZE;
+
+    private final Map<Short, byte[]> files = new LinkedHashMap<>();
+    private final List<PutData> putData = new ArrayList<>();
+
+    /**
+     * Adds (or replaces) an elementary file. The contents are copied.
+     */
+    public PersonalizationImage addFile(short fid, byte[] contents) {
+        if (contents == null || contents.length == 0) {
+            return this;
+        }
+        if (contents.length > MAX_FILE_LENGTH) {
+            throw new IllegalArgumentException(String.format(
+                    "EF %04X too large for factory load (%d bytes)", fid & 0xFFFF, contents.length));
+        }
+        files.remove(fid);
+        files.put(fid, contents.clone());
+        return this;
+    }
+
+    /**
+     * Adds (or replaces) an elementary file from the remaining bytes of {@code contents}, which may
+     * be a read-only view. The bytes are copied once; the buffer's position is left untouched.
+     */
+    public PersonalizationImage addFile(short fid, ByteBuffer contents) {
+        if (contents == null || !contents.hasRemaining()) {
+            return this;
+        }
+        if (contents.remaining() > MAX_FILE_LENGTH) {
+            throw new IllegalArgumentException(String.format(
+                    "EF %04X too large for factory load (%d bytes)", fid & 0xFFFF, contents.remaining()));
+        }
+        byte[] copy = new byte[contents.remaining()];
+        contents.duplicate().get(copy);
+        files.remove(fid);
+        files.put(fid, copy);
+        return this;
+    }
+
+    /**
+     * Queues a PUT DATA payload. The contents are copied.
+     */
+    public PersonalizationImage addPutData(int p1, int p2, byte[] data) {
+        byte[] payload = data != null ? data.clone() : new byte[0];
+        if (payload.length > MAX_PUT_DATA_LENGTH) {
+            throw new IllegalArgumentException(String.format(
+                    "PUT DATA %02X/%02X payload too large (%d bytes)", p1 & 0xFF, p2 & 0xFF, payload.length));
+        }
+        putData.add(new PutData((byte) p1, (byte) p2, payload));
+        return this;
+    }
+
+    public Map<Short, byte[]> getFiles() {
+        return Collections.unmodifiableMap(files);
+    }
+
+    public List<PutData> getPutData() {
+        return Collections.unmodifiableList(putData);
+    }
+
+    public boolean isEmpty() {
+        return files.isEmpty() && putData.isEmpty();
+    }
+
+    /** A single PUT DATA command captured for factory load. */
+    public static final class PutData {
+        private final byte p1;
+        private final byte p2;
+        private final byte[] data;
+
+        PutData(byte p1, byte p2, byte[] data) {
+            this.p1 = p1;
+            this.p2 = p2;
+            this.data = data;
+        }
+
+        public byte getP1() {
+            return p1;
+        }
+
+        public byte getP2() {
+            return p2;
+        }
+
+        public byte[] getData() {
+            return data.clone();
+        }
+
+        byte[] data() {
+            return data;
+        }
+    }
+}
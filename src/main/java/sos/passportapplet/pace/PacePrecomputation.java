@@ -0,0 +1,257 @@
+package sos.passportapplet.pace;
+
+import java.math.BigInteger;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.SecureRandom;
+import java.security.spec.ECParameterSpec;
+import java.security.spec.ECPrivateKeySpec;
+import java.security.spec.ECPublicKeySpec;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.bouncycastle.jcajce.provider.asymmetric.util.EC5Util;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.math.ec.ECPoint;
+import org.bouncycastle.math.ec.FixedPointCombMultiplier;
+import org.bouncycastle.math.ec.FixedPointUtil;
+import org.bouncycastle.util.BigIntegers;
+
+/**
+ * Opt-in pool of PACE material generated ahead of time on a background thread: chip key pairs
+ * over the static domain parameters (the Generic Mapping key pair) and encrypted-nonce
+ * plaintexts. Each registered domain keeps one base point with a fixed-base comb table, so even
+ * an empty pool generates faster than a freshly initialized {@code KeyPairGenerator}, which
+ * rebuilds that table for every session.
+ *
+ * Takes never block: when a queue is empty the caller generates inline and the background
+ * thread is woken to top the pool up again.
+ */
+public final class PacePrecomputation implements AutoCloseable {
+
+  private final int depth;
+  private final SecureRandom random;
+  private final Map<DomainKey, Domain> domains = new ConcurrentHashMap<>();
+  private final Map<Integer, BlockingQueue<byte[]>> nonces = new ConcurrentHashMap<>();
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final Object signal = new Object();
+  private final Thread worker;
+  private boolean refillRequested;
+  private volatile boolean closed;
+
+  private PacePrecomputation(int depth, SecureRandom random) {
+    if (depth <= 0) {
+      throw new IllegalArgumentException("Pool depth must be positive: " + depth);
+    }
+    this.depth = depth;
+    this.random = Objects.requireNonNull(random, "random");
+    this.worker = new Thread(this::refillLoop, "pace-precompute");
+    this.worker.setDaemon(true);
+  }
+
+  /** Starts a pool keeping up to {@code depth} entries per domain and nonce length. */
+  public static PacePrecomputation start(int depth) {
+    return start(depth, new SecureRandom());
+  }
+
+  public static PacePrecomputation start(int depth, SecureRandom random) {
+    PacePrecomputation pool = new PacePrecomputation(depth, random);
+    pool.worker.start();
+    return pool;
+  }
+
+  public int getDepth() {
+    return depth;
+  }
+
+  /** Takes served from the pool. */
+  public long getHits() {
+    return hits.get();
+  }
+
+  /** Takes that had to generate inline because the pool was empty. */
+  public long getMisses() {
+    return misses.get();
+  }
+
+  /** Key pairs and nonces currently pooled, across all domains and lengths. */
+  public int size() {
+    int size = 0;
+    for (Domain domain : domains.values()) {
+      size += domain.keyPairs.size();
+    }
+    for (BlockingQueue<byte[]> queue : nonces.values()) {
+      size += queue.size();
+    }
+    return size;
+  }
+
+  /** Registers {@code params} (building its comb table) and starts filling its queue. */
+  public void prepare(ECParameterSpec params) {
+    domain(params);
+    requestRefill();
+  }
+
+  /** Returns a fresh key pair over {@code params}; every pair is handed out at most once. */
+  public KeyPair takeKeyPair(ECParameterSpec params) throws GeneralSecurityException {
+    Domain domain = domain(params);
+    KeyPair pooled = domain.keyPairs.poll();
+    requestRefill();
+    if (pooled != null) {
+      hits.incrementAndGet();
+      return pooled;
+    }
+    misses.incrementAndGet();
+    return domain.generate(random);
+  }
+
+  /** Returns {@code length} fresh random bytes, e.g. the PACE nonce s. */
+  public byte[] takeNonce(int length) {
+    BlockingQueue<byte[]> queue = nonces.computeIfAbsent(length, l -> new ArrayBlockingQueue<>(depth));
+    byte[] pooled = queue.poll();
+    requestRefill();
+    if (pooled != null) {
+      hits.incrementAndGet();
+      return pooled;
+    }
+    misses.incrementAndGet();
+    byte[] nonce = new byte[length];
+    random.nextBytes(nonce);
+    return nonce;
+  }
+
+  /** Stops the background thread; pooled entries are discarded. */
+  @Override
+  public void close() {
+    closed = true;
+    worker.interrupt();
+    domains.clear();
+    nonces.clear();
+  }
+
+  private Domain domain(ECParameterSpec params) {
+    Objects.requireNonNull(params, "params");
+    return domains.computeIfAbsent(DomainKey.of(params), key -> new Domain(params, depth));
+  }
+
+  private void requestRefill() {
+    synchronized (signal) {
+      refillRequested = true;
+      signal.notifyAll();
+    }
+  }
+
+  private void refillLoop() {
+    while (!closed) {
+      try {
+        synchronized (signal) {
+          while (!refillRequested && !closed) {
+            signal.wait();
+          }
+          refillRequested = false;
+        }
+        boolean added;
+        do {
+          added = false;
+          for (Domain domain : domains.values()) {
+            added |= domain.topUp(random);
+          }
+          for (Map.Entry<Integer, BlockingQueue<byte[]>> entry : nonces.entrySet()) {
+            if (entry.getValue().remainingCapacity() > 0) {
+              byte[] nonce = new byte[entry.getKey()];
+              random.nextBytes(nonce);
+              added |= entry.getValue().offer(nonce);
+            }
+          }
+        } while (added && !closed);
+      } catch (InterruptedException e) {
+        return;
+      }
+    }
+  }
+
+  private static final class Domain {
+    private final ECParameterSpec params;
+    private final ECPoint generator;
+    private final BigInteger order;
+    private final FixedPointCombMultiplier multiplier = new FixedPointCombMultiplier();
+    private final BlockingQueue<KeyPair> keyPairs;
+    private volatile boolean failed;
+
+    Domain(ECParameterSpec params, int depth) {
+      org.bouncycastle.jce.spec.ECParameterSpec converted = EC5Util.convertSpec(params);
+      this.params = params;
+      this.generator = converted.getG();
+      this.order = converted.getN();
+      this.keyPairs = new ArrayBlockingQueue<>(depth);
+      FixedPointUtil.precompute(generator);
+    }
+
+    boolean topUp(SecureRandom random) {
+      if (failed || keyPairs.remainingCapacity() == 0) {
+        return false;
+      }
+      try {
+        return keyPairs.offer(generate(random));
+      } catch (GeneralSecurityException | RuntimeException e) {
+        // Leave this domain to the inline path, which reports the error to the terminal.
+        failed = true;
+        return false;
+      }
+    }
+
+    KeyPair generate(SecureRandom random) throws GeneralSecurityException {
+      BigInteger d = BigIntegers.createRandomInRange(BigInteger.ONE, order.subtract(BigInteger.ONE), random);
+      ECPoint q = multiplier.multiply(generator, d).normalize();
+      KeyFactory keyFactory = KeyFactory.getInstance("EC", BouncyCastleProvider.PROVIDER_NAME);
+      PublicKey publicKey = keyFactory.generatePublic(new ECPublicKeySpec(EC5Util.convertPoint(q), params));
+      PrivateKey privateKey = keyFactory.generatePrivate(new ECPrivateKeySpec(d, params));
+      return new KeyPair(publicKey, privateKey);
+    }
+  }
+
+  /** Identifies a domain by value; callers rebuild their {@link ECParameterSpec} per session. */
+  private static final class DomainKey {
+    private final BigInteger a;
+    private final BigInteger gx;
+    private final BigInteger gy;
+    private final BigInteger order;
+
+    private DomainKey(BigInteger a, BigInteger gx, BigInteger gy, BigInteger order) {
+      this.a = a;
+      this.gx = gx;
+      this.gy = gy;
+      this.order = order;
+    }
+
+    static DomainKey of(ECParameterSpec params) {
+      return new DomainKey(params.getCurve().getA(), params.getGenerator().getAffineX(),
+          params.getGenerator().getAffineY(), params.getOrder());
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof DomainKey)) {
+        return false;
+      }
+      DomainKey that = (DomainKey) o;
+      return a.equals(that.a) && gx.equals(that.gx) && gy.equals(that.gy) && order.equals(that.order);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(a, gx, gy, order);
+    }
+  }
+}
@@ -76,6 +76,7 @@ public final class SecureMessagingAES implements SecureMessaging {
     short do87Offset = -1;
     short do87Length = 0;
     short do87ValueOffset = -1;
+    short do87IndicatorLength = 1;
     short do97Offset = -1;
     short do97Length = 0;
     short macValueOffset = -1;
@@ -104,6 +105,13 @@ public final class SecureMessagingAES implements SecureMessaging {
             ISOException.throwIt(ISO7816.SW_DATA_INVALID);
           }
           break;
+        case (byte) 0x85:
+          // odd INS: cryptogram carries BER-TLV data objects, no padding-content indicator
+          do87Offset = tagOffset;
+          do87Length = (short) (cursor - tagOffset);
+          do87ValueOffset = valueOffset;
+          do87IndicatorLength = 0;
+          break;
         case (byte) 0x97:
           do97Offset = tagOffset;
           do97Length = (short) (cursor - tagOffset);
@@ -147,7 +155,7 @@ public final class SecureMessagingAES implements SecureMessaging {
 
     short plaintextLc = 0;
     if (do87Offset >= 0) {
-      short ciphertextOffset = (short) (do87ValueOffset + 1);
+      short ciphertextOffset = (short) (do87ValueOffset + do87IndicatorLength);
       short ciphertextLength = (short) (do87Length - (ciphertextOffset - do87Offset));
       byte[] iv = deriveIv(ssc);
       byte[] plaintextPadded = decrypt(buf, ciphertextOffset, ciphertextLength, iv);
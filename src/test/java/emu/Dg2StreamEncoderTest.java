@@ -0,0 +1,92 @@
+package emu;
+
+import org.jmrtd.lds.icao.DG2File;
+import org.jmrtd.lds.iso19794.FaceImageInfo;
+import org.jmrtd.lds.iso19794.FaceInfo;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.security.MessageDigest;
+import java.util.Collections;
+
+import emu.PersonalizationSupport.SODArtifacts;
+
+import net.sf.scuba.data.Gender;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class Dg2StreamEncoderTest {
+
+  static {
+    System.setProperty("java.awt.headless", "true");
+  }
+
+  @Test
+  void streamedEncodingMatchesJmrtdAcrossLengthBoundaries() throws Exception {
+    for (int length : new int[] {0, 60, 200, 65_500, 300_000}) {
+      byte[] image = new byte[length];
+      for (int i = 0; i < length; i++) {
+        image[i] = (byte) (i * 31);
+      }
+      MessageDigest md = MessageDigest.getInstance("SHA-256");
+      byte[] streamed = Dg2StreamEncoder.encode(
+          640, 800, FaceImageInfo.IMAGE_DATA_TYPE_JPEG, new ByteArrayInputStream(image), length, md);
+
+      byte[] expected = encodeWithJmrtd(640, 800, image);
+      assertArrayEquals(expected, streamed, "DG2 mismatch for image length " + length);
+      assertEquals(expected.length, Dg2StreamEncoder.encodedLength(length));
+      assertArrayEquals(MessageDigest.getInstance("SHA-256").digest(expected), md.digest(),
+          "incremental digest mismatch for image length " + length);
+    }
+  }
+
+  @Test
+  void truncatedImageStreamIsRejected() {
+    assertThrows(java.io.IOException.class, () -> Dg2StreamEncoder.encode(
+        10, 10, FaceImageInfo.IMAGE_DATA_TYPE_JPEG, new ByteArrayInputStream(new byte[10]), 20, null));
+  }
+
+  @Test
+  void artifactsHashTheStreamedDg2() throws Exception {
+    for (boolean corrupt : new boolean[] {false, true}) {
+      PersonalizationJob job = PersonalizationJob.builder()
+          .withMrzInfo(TestCardManager.defaultMrz())
+          .corruptDg2(corrupt)
+          .build();
+      SODArtifacts artifacts = PersonalizationSupport.buildArtifacts(job);
+      byte[] dg2 = artifacts.getDg2Bytes();
+      byte[] expectedHash = MessageDigest.getInstance(artifacts.getDigestAlgorithm()).digest(dg2);
+      assertArrayEquals(expectedHash, artifacts.getDataGroupHashes().get(2), "corrupt=" + corrupt);
+      if (!corrupt) {
+        FaceInfo faceInfo = (FaceInfo) new DG2File(new ByteArrayInputStream(dg2)).getSubRecords().get(0);
+        FaceImageInfo face = faceInfo.getFaceImageInfos().get(0);
+        assertEquals((int) job.getFaceSource().getWidth(), face.getWidth());
+        assertEquals((int) job.getFaceSource().getHeight(), face.getHeight());
+      }
+    }
+  }
+
+  private static byte[] encodeWithJmrtd(int width, int height, byte[] image) throws Exception {
+    FaceImageInfo faceImageInfo = new FaceImageInfo(
+        Gender.UNSPECIFIED,
+        null,
+        0,
+        FaceImageInfo.HAIR_COLOR_UNSPECIFIED,
+        FaceImageInfo.EXPRESSION_NEUTRAL,
+        new int[]{0, 0, 0},
+        new int[]{0, 0, 0},
+        FaceImageInfo.FACE_IMAGE_TYPE_FULL_FRONTAL,
+        FaceImageInfo.IMAGE_COLOR_SPACE_RGB24,
+        FaceImageInfo.SOURCE_TYPE_STATIC_PHOTO_DIGITAL_CAM,
+        0,
+        85,
+        null,
+        width,
+        height,
+        new ByteArrayInputStream(image),
+        image.length,
+        FaceImageInfo.IMAGE_DATA_TYPE_JPEG);
+    FaceInfo faceInfo = new FaceInfo(Collections.singletonList(faceImageInfo));
+    return DG2File.createISO19794DG2File(Collections.singletonList(faceInfo)).getEncoded();
+  }
+}
@@ -0,0 +1,159 @@
+package emu;
+
+import org.jmrtd.lds.icao.DG2File;
+import org.jmrtd.lds.iso19794.FaceImageInfo;
+import org.jmrtd.lds.iso19794.FaceInfo;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import emu.PersonalizationSupport.SODArtifacts;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FaceImageProbeTest {
+
+  static {
+    System.setProperty("java.awt.headless", "true");
+  }
+
+  @TempDir
+  Path tempDir;
+
+  @Test
+  void readsDimensionsFromHeadersOnly() throws Exception {
+    FaceImageProbe.Header jpeg = FaceImageProbe.probe(encode(new BufferedImage(321, 123, BufferedImage.TYPE_INT_RGB), "jpg"));
+    assertNotNull(jpeg);
+    assertEquals(FaceImageInfo.IMAGE_DATA_TYPE_JPEG, jpeg.getImageDataType());
+    assertEquals(321, jpeg.getWidth());
+    assertEquals(123, jpeg.getHeight());
+
+    FaceImageProbe.Header jp2 = FaceImageProbe.probe(jp2WithIhdr(640, 480));
+    assertNotNull(jp2);
+    assertEquals(FaceImageInfo.IMAGE_DATA_TYPE_JPEG2000, jp2.getImageDataType());
+    assertEquals(640, jp2.getWidth());
+    assertEquals(480, jp2.getHeight());
+
+    FaceImageProbe.Header codestream = FaceImageProbe.probe(codestream(300, 400, 10, 20));
+    assertNotNull(codestream);
+    assertEquals(290, codestream.getWidth());
+    assertEquals(380, codestream.getHeight());
+
+    assertNull(FaceImageProbe.probe(encode(new BufferedImage(8, 8, BufferedImage.TYPE_INT_RGB), "png")));
+    assertNull(FaceImageProbe.probe(new byte[] {(byte) 0xFF, (byte) 0xD8, (byte) 0xFF, (byte) 0xD9}));
+  }
+
+  @Test
+  void compliantJpegIsEmbeddedUntouched() throws Exception {
+    byte[] jpeg = encode(new BufferedImage(200, 250, BufferedImage.TYPE_INT_RGB), "jpg");
+    Path path = Files.write(tempDir.resolve("face.jpg"), jpeg);
+
+    FaceImageInfo face = buildFace(PersonalizationJob.builder().withMrzInfo(TestCardManager.defaultMrz()).withFaceImagePath(path));
+    assertArrayEquals(jpeg, face.getImageInputStream().readAllBytes());
+    assertEquals(200, face.getWidth());
+    assertEquals(250, face.getHeight());
+  }
+
+  @Test
+  void jpeg2000IsEmbeddedWithItsDataType() throws Exception {
+    byte[] jp2 = jp2WithIhdr(480, 600);
+    Path path = Files.write(tempDir.resolve("face.jp2"), jp2);
+
+    FaceImageInfo face = buildFace(PersonalizationJob.builder().withMrzInfo(TestCardManager.defaultMrz()).withFaceImagePath(path));
+    assertEquals(FaceImageInfo.IMAGE_DATA_TYPE_JPEG2000, face.getImageDataType());
+    assertArrayEquals(jp2, face.getImageInputStream().readAllBytes());
+  }
+
+  @Test
+  void oversizedOrForeignImagesAreDecodedAndScaled() throws Exception {
+    byte[] jpeg = encode(new BufferedImage(800, 1000, BufferedImage.TYPE_INT_RGB), "jpg");
+    Path large = Files.write(tempDir.resolve("large.jpg"), jpeg);
+    FaceImageInfo scaled = buildFace(PersonalizationJob.builder()
+        .withMrzInfo(TestCardManager.defaultMrz())
+        .withFaceImagePath(large)
+        .faceImageLimits(400, 400, Integer.MAX_VALUE));
+    assertEquals(320, scaled.getWidth());
+    assertEquals(400, scaled.getHeight());
+
+    byte[] progressive = encodeProgressiveJpeg(new BufferedImage(200, 250, BufferedImage.TYPE_INT_RGB));
+    assertNull(FaceImageProbe.probe(progressive), "SOF2 frames are not embedded as-is");
+    Path progressivePath = Files.write(tempDir.resolve("progressive.jpg"), progressive);
+    FaceImageInfo reencoded = buildFace(PersonalizationJob.builder().withMrzInfo(TestCardManager.defaultMrz()).withFaceImagePath(progressivePath));
+    assertEquals(200, reencoded.getWidth());
+    assertEquals(250, reencoded.getHeight());
+    assertNotNull(FaceImageProbe.probe(reencoded.getImageInputStream().readAllBytes()));
+
+    Path png = Files.write(tempDir.resolve("face.png"), encode(new BufferedImage(60, 80, BufferedImage.TYPE_INT_ARGB), "png"));
+    FaceImageInfo converted = buildFace(PersonalizationJob.builder().withMrzInfo(TestCardManager.defaultMrz()).withFaceImagePath(png));
+    assertEquals(FaceImageInfo.IMAGE_DATA_TYPE_JPEG, converted.getImageDataType());
+    assertNotNull(FaceImageProbe.probe(converted.getImageInputStream().readAllBytes()));
+  }
+
+  private static FaceImageInfo buildFace(PersonalizationJob.Builder builder) throws Exception {
+    SODArtifacts artifacts = PersonalizationSupport.buildArtifacts(builder.build());
+    DG2File dg2 = new DG2File(new ByteArrayInputStream(artifacts.getDg2Bytes()));
+    return ((FaceInfo) dg2.getSubRecords().get(0)).getFaceImageInfos().get(0);
+  }
+
+  private static byte[] encode(BufferedImage image, String format) throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    assertTrue(ImageIO.write(image, format, out));
+    return out.toByteArray();
+  }
+
+  private static byte[] encodeProgressiveJpeg(BufferedImage image) throws Exception {
+    ImageWriter writer = ImageIO.getImageWritersByFormatName("jpg").next();
+    ImageWriteParam param = writer.getDefaultWriteParam();
+    param.setProgressiveMode(ImageWriteParam.MODE_DEFAULT);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (ImageOutputStream stream = ImageIO.createImageOutputStream(out)) {
+      writer.setOutput(stream);
+      writer.write(null, new IIOImage(image, null, null), param);
+    } finally {
+      writer.dispose();
+    }
+    return out.toByteArray();
+  }
+
+  /** JP2 signature, 'ftyp', and a 'jp2h' superbox holding 'ihdr'; no codestream is needed for probing. */
+  private static byte[] jp2WithIhdr(int width, int height) throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    out.write(new byte[] {0x00, 0x00, 0x00, 0x0C, 0x6A, 0x50, 0x20, 0x20, 0x0D, 0x0A, (byte) 0x87, 0x0A});
+    out.write(new byte[] {0x00, 0x00, 0x00, 0x14, 'f', 't', 'y', 'p', 'j', 'p', '2', ' ', 0, 0, 0, 0, 'j', 'p', '2', ' '});
+    out.write(new byte[] {0x00, 0x00, 0x00, 0x1E, 'j', 'p', '2', 'h'});
+    out.write(new byte[] {0x00, 0x00, 0x00, 0x16, 'i', 'h', 'd', 'r'});
+    writeInt(out, height);
+    writeInt(out, width);
+    out.write(new byte[] {0x00, 0x03, 0x07, 0x07, 0x00, 0x00});
+    out.write(new byte[] {0x00, 0x00, 0x00, 0x0A, 'j', 'p', '2', 'c', (byte) 0xFF, 0x4F});
+    return out.toByteArray();
+  }
+
+  private static byte[] codestream(int xsiz, int ysiz, int xosiz, int yosiz) throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    out.write(new byte[] {(byte) 0xFF, 0x4F, (byte) 0xFF, 0x51, 0x00, 0x29, 0x00, 0x00});
+    writeInt(out, xsiz);
+    writeInt(out, ysiz);
+    writeInt(out, xosiz);
+    writeInt(out, yosiz);
+    out.write(new byte[16]);
+    return out.toByteArray();
+  }
+
+  private static void writeInt(ByteArrayOutputStream out, int value) {
+    out.write(value >>> 24);
+    out.write(value >>> 16);
+    out.write(value >>> 8);
+    out.write(value);
+  }
+}
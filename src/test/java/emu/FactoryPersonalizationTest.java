@@ -0,0 +1,72 @@
+package emu;
+
+import org.jmrtd.PassportService;
+import org.jmrtd.lds.icao.MRZInfo;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+
+import emu.PersonalizationSupport.SODArtifacts;
+import sos.passportapplet.PersonalizationImage;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FactoryPersonalizationTest {
+
+  static {
+    System.setProperty("java.awt.headless", "true");
+  }
+
+  @Test
+  void imageCarriesEveryEfAndKeyPayload() throws Exception {
+    SODArtifacts artifacts = PersonalizationSupport.buildArtifacts(baseJob());
+
+    PersonalizationImage image = FactoryPersonalization.fromArtifacts(artifacts);
+    assertTrue(FactoryPersonalization.addChipAuthenticationKey(image, artifacts.getChipAuthKeyPair()));
+    assertTrue(FactoryPersonalization.addActiveAuthenticationKey(image, artifacts.getAaKeyPair().getPrivate()));
+
+    Map<Short, byte[]> files = image.getFiles();
+    assertArrayEquals(PersonalizationSupport.buildComBytes(artifacts), files.get(PassportService.EF_COM));
+    assertArrayEquals(artifacts.getSodBytes(), files.get(PassportService.EF_SOD));
+    assertArrayEquals(artifacts.getCardAccessBytes(), files.get(PassportService.EF_CARD_ACCESS));
+    for (Map.Entry<Integer, ByteBuffer> entry : artifacts.getDataGroupBuffers().entrySet()) {
+      short fid = (short) (0x0100 | entry.getKey());
+      assertEquals(entry.getValue(), ByteBuffer.wrap(files.get(fid)), "DG" + entry.getKey() + " mismatch");
+    }
+
+    List<PersonalizationImage.PutData> putData = image.getPutData();
+    assertEquals(3, putData.size());
+    assertEquals((byte) FactoryPersonalization.P2_CHIP_AUTH_KEY, putData.get(0).getP2());
+    assertEquals((byte) FactoryPersonalization.P2_AA_MODULUS, putData.get(1).getP2());
+    assertEquals((byte) FactoryPersonalization.P2_AA_EXPONENT, putData.get(2).getP2());
+  }
+
+  @Test
+  void imageCopiesContentsAndRejectsOversizedPayloads() {
+    byte[] dg1 = {0x61, 0x01, 0x00};
+    PersonalizationImage image = new PersonalizationImage()
+        .addFile((short) 0x0101, dg1)
+        .addFile((short) 0x0102, new byte[0]);
+    dg1[2] = 0x7F;
+
+    assertEquals(1, image.getFiles().size());
+    assertEquals(0x00, image.getFiles().get((short) 0x0101)[2]);
+    assertThrows(IllegalArgumentException.class,
+        () -> image.addPutData(0x00, 0x62, new byte[PersonalizationImage.MAX_PUT_DATA_LENGTH + 1]));
+    assertThrows(IllegalArgumentException.class,
+        () -> image.addFile((short) 0x0102, new byte[PersonalizationImage.MAX_FILE_LENGTH + 1]));
+
+    FactoryPersonalization.addOpenComSodReads(image, true);
+    FactoryPersonalization.addLocked(image);
+    assertEquals((byte) 0xDE, image.getPutData().get(0).getP1());
+    assertArrayEquals(new byte[] {0x01}, image.getPutData().get(0).getData());
+    assertEquals((byte) 0xAD, image.getPutData().get(1).getP2());
+  }
+
+  private static PersonalizationJob baseJob() {
+    MRZInfo mrz = TestCardManager.defaultMrz();
+    return PersonalizationJob.builder().withMrzInfo(mrz).build();
+  }
+}
@@ -0,0 +1,153 @@
+package emu;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IssuerHttpServiceTest {
+
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+
+  @TempDir
+  Path outputRoot;
+
+  private final HttpClient client = HttpClient.newHttpClient();
+
+  @Test
+  void concurrentRequestsAreCoalescedIntoMicroBatches() throws Exception {
+    try (IssuerHttpService service = start(8, Duration.ofMillis(300))) {
+      List<CompletableFuture<HttpResponse<String>>> responses = new ArrayList<>();
+      for (int i = 0; i < 12; i++) {
+        responses.add(client.sendAsync(post(service, "/issue", job(String.format("HTTP%05d", i))),
+            HttpResponse.BodyHandlers.ofString()));
+      }
+      for (CompletableFuture<HttpResponse<String>> response : responses) {
+        HttpResponse<String> answer = response.get();
+        assertEquals(200, answer.statusCode(), answer.body());
+        JsonNode body = MAPPER.readTree(answer.body());
+        assertEquals("done", body.get("status").asText());
+        assertEquals(1, body.get("results").size());
+      }
+
+      JsonNode metrics = MAPPER.readTree(get(service, "/metrics").body());
+      assertEquals(0, metrics.get("queueDepth").asInt());
+      assertEquals(0, metrics.get("inFlight").asInt());
+      assertEquals(12, metrics.get("issued").asLong() + metrics.get("failed").asLong());
+      assertTrue(metrics.get("microBatches").asLong() < 12, "Concurrent jobs must share micro-batches");
+      assertEquals(12, metrics.get("latency").get("samples").asInt());
+    }
+  }
+
+  @Test
+  void asyncBatchIsPolledUntilDone() throws Exception {
+    try (IssuerHttpService service = start(4, Duration.ofMillis(5))) {
+      String jobs = "[" + job("ASYNC0001") + "," + job("ASYNC0002") + "," + job("ASYNC0003") + "]";
+      HttpResponse<String> accepted = client.send(post(service, "/issue?async=true", jobs),
+          HttpResponse.BodyHandlers.ofString());
+      assertEquals(202, accepted.statusCode());
+      String location = accepted.headers().firstValue("Location").orElseThrow();
+
+      JsonNode status = MAPPER.readTree(get(service, location).body());
+      long deadline = System.nanoTime() + Duration.ofSeconds(60).toNanos();
+      while (!"done".equals(status.get("status").asText()) && System.nanoTime() < deadline) {
+        Thread.sleep(50);
+        status = MAPPER.readTree(get(service, location).body());
+      }
+      assertEquals("done", status.get("status").asText());
+      assertEquals(3, status.get("completed").asInt());
+      for (int i = 0; i < 3; i++) {
+        assertEquals(i, status.get("results").get(i).get("index").asInt());
+      }
+      assertEquals(404, get(service, "/batches/unknown").statusCode());
+    }
+  }
+
+  @Test
+  void rejectsMalformedRequests() throws Exception {
+    try (IssuerHttpService service = start(4, Duration.ofMillis(5))) {
+      assertEquals(400, client.send(post(service, "/issue", "{not json"), HttpResponse.BodyHandlers.ofString())
+          .statusCode());
+      assertEquals(400, client.send(post(service, "/issue", "[]"), HttpResponse.BodyHandlers.ofString())
+          .statusCode());
+      assertEquals(400, client.send(post(service, "/issue?format=container&async=true", job("CONT00001")),
+          HttpResponse.BodyHandlers.ofString()).statusCode());
+      assertEquals(405, get(service, "/issue").statusCode());
+    }
+  }
+
+  @Test
+  void rejectsJobPathsOutsideServiceRoot() throws Exception {
+    try (IssuerHttpService service = start(4, Duration.ofMillis(5))) {
+      String absoluteFace = outputRoot.resolve("face.jpg").toAbsolutePath().toString().replace("\\", "\\\\");
+      List<String> escapes = List.of(
+          "{\"output\":{\"directory\":\"../elsewhere\"}}",
+          "{\"output\":{\"facePreviewDirectory\":\"preview/../../elsewhere\"}}",
+          "{\"face\":{\"path\":\"" + absoluteFace + "\"}}",
+          "{\"iris\":{\"path\":\"../iris.png\"}}",
+          "[" + job("ROOT00001") + ",{\"fingerprint\":{\"path\":\"../finger.png\"}}]");
+      for (String body : escapes) {
+        HttpResponse<String> response = client.send(post(service, "/issue", body), HttpResponse.BodyHandlers.ofString());
+        assertEquals(400, response.statusCode(), body);
+      }
+      assertEquals(0, MAPPER.readTree(get(service, "/metrics").body()).get("issued").asLong());
+    }
+  }
+
+  @Test
+  void issuedJobArtifactsCanBeDownloaded() throws Exception {
+    try (IssuerHttpService service = start(4, Duration.ofMillis(5))) {
+      HttpResponse<String> response = client.send(post(service, "/issue", job("FILE00001")),
+          HttpResponse.BodyHandlers.ofString());
+      JsonNode result = MAPPER.readTree(response.body()).get("results").get(0);
+      assertEquals("ok", result.get("status").asText(), result.toString());
+      String batch = MAPPER.readTree(response.body()).get("batch").asText();
+
+      HttpResponse<byte[]> manifest = client.send(HttpRequest.newBuilder(
+          uri(service, "/batches/" + batch + "/jobs/0/manifest.json")).build(), HttpResponse.BodyHandlers.ofByteArray());
+      assertEquals(200, manifest.statusCode());
+      assertEquals(404, get(service, "/batches/" + batch + "/jobs/0/..%2F..%2Fsecret").statusCode());
+
+      HttpResponse<byte[]> container = client.send(post(service, "/issue?format=container", job("FILE00002")),
+          HttpResponse.BodyHandlers.ofByteArray());
+      assertEquals(200, container.statusCode());
+      assertTrue(container.body().length > 0);
+    }
+  }
+
+  private IssuerHttpService start(int maxBatch, Duration linger) throws Exception {
+    return IssuerHttpService.start(new InetSocketAddress("127.0.0.1", 0),
+        List.of("--output", outputRoot.toString()), outputRoot, maxBatch, linger, 64, 2);
+  }
+
+  private static String job(String documentNumber) {
+    return "{\"mrz\":{\"documentNumber\":\"" + documentNumber + "\"}}";
+  }
+
+  private static URI uri(IssuerHttpService service, String path) {
+    return URI.create("http://127.0.0.1:" + service.getAddress().getPort() + path);
+  }
+
+  private static HttpRequest post(IssuerHttpService service, String path, String body) {
+    return HttpRequest.newBuilder(uri(service, path))
+        .POST(HttpRequest.BodyPublishers.ofString(body))
+        .build();
+  }
+
+  private HttpResponse<String> get(IssuerHttpService service, String path) throws Exception {
+    return client.send(HttpRequest.newBuilder(uri(service, path)).build(), HttpResponse.BodyHandlers.ofString());
+  }
+}
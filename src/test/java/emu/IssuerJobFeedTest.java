@@ -0,0 +1,76 @@
+package emu;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IssuerJobFeedTest {
+
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+
+  static {
+    System.setProperty("java.awt.headless", "true");
+  }
+
+  @TempDir
+  Path tempDir;
+
+  @Test
+  void issuesEachLineAndReportsFailuresInline() throws Exception {
+    String feed = String.join("\n",
+        "{\"mrz\":{\"documentNumber\":\"L898902C3\"},\"deterministicSeed\":1}",
+        "",
+        "{\"mrz\":{\"documentNumber\":\"X1234567\"",
+        "{\"mrz\":{\"documentNumber\":\"AB1234567\"},\"factoryLoad\":true}");
+    List<String> baseArguments = List.of("--output", tempDir.toString(), "--disable-dg", "3", "--disable-dg", "4");
+
+    ByteArrayOutputStream results = new ByteArrayOutputStream();
+    IssuerJobFeed.Summary summary = new IssuerJobFeed(baseArguments, tempDir, 2)
+        .run(new ByteArrayInputStream(feed.getBytes(StandardCharsets.UTF_8)), results);
+
+    assertEquals(2, summary.getIssued());
+    assertEquals(1, summary.getFailed());
+
+    List<JsonNode> lines = new ArrayList<>();
+    for (String line : results.toString(StandardCharsets.UTF_8).split("\n")) {
+      lines.add(MAPPER.readTree(line));
+    }
+    assertEquals(3, lines.size());
+
+    assertEquals(1, lines.get(0).get("line").asInt());
+    assertEquals("ok", lines.get(0).get("status").asText());
+    assertEquals("L898902C3", lines.get(0).get("documentNumber").asText());
+
+    assertEquals(3, lines.get(1).get("line").asInt());
+    assertEquals("error", lines.get(1).get("status").asText());
+
+    assertEquals(4, lines.get(2).get("line").asInt());
+    assertEquals("ok", lines.get(2).get("status").asText());
+
+    Path first = Paths.get(lines.get(0).get("outputDirectory").asText());
+    Path second = Paths.get(lines.get(2).get("outputDirectory").asText());
+    assertNotEquals(first, second, "each job must get its own output directory");
+    assertEquals(tempDir, first.getParent());
+    assertTrue(Files.exists(Paths.get(lines.get(2).get("manifest").asText())));
+  }
+
+  @Test
+  void feedOptionsAreNotPassedToJobs() {
+    assertEquals(List.of("--output", "out", "--factory-load"), IssuerJobFeed.stripFeedArguments(List.of(
+        "--jobs-ndjson", "jobs.ndjson", "--output", "out", "--results-ndjson=-", "--queue-capacity", "8",
+        "--factory-load")));
+  }
+}
@@ -0,0 +1,108 @@
+package emu;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import net.sf.scuba.smartcards.CardService;
+import net.sf.scuba.smartcards.CommandAPDU;
+import net.sf.scuba.smartcards.ResponseAPDU;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JfrEventsTest {
+
+  @TempDir
+  Path tempDir;
+
+  @Test
+  void recordsApduExchangesAndProtocolStepsWhenEnabled() throws Exception {
+    Path file = tempDir.resolve("session.jfr");
+    try (Recording recording = new Recording()) {
+      recording.enable(JfrEvents.APDU_EXCHANGE);
+      recording.enable(JfrEvents.PROTOCOL_STEP);
+      recording.start();
+
+      LoggingCardService service = new LoggingCardService(new FixedResponseService(), null);
+      JfrEvents.ProtocolStep step = JfrEvents.beginStep(service);
+      service.transmit(new CommandAPDU(0x00, 0xB0, 0x00, 0x00, 4));
+      step.finish("DG1", "ok");
+      step.finish("DG1", "failed");
+
+      recording.stop();
+      recording.dump(file);
+    }
+
+    List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+    List<RecordedEvent> apdus = byName(events, JfrEvents.APDU_EXCHANGE);
+    assertEquals(1, apdus.size());
+    assertEquals("B0", apdus.get(0).getString("ins"));
+    assertEquals("9000", apdus.get(0).getString("sw"));
+    assertEquals(5, apdus.get(0).getInt("commandBytes"));
+    assertEquals(6, apdus.get(0).getInt("responseBytes"));
+    assertFalse(apdus.get(0).getBoolean("protectedApdu"));
+
+    List<RecordedEvent> steps = byName(events, JfrEvents.PROTOCOL_STEP);
+    assertEquals(1, steps.size(), "A step commits once");
+    assertEquals("DG1", steps.get(0).getString("step"));
+    assertEquals("ok", steps.get(0).getString("outcome"));
+    assertEquals(11L, steps.get(0).getLong("bytes"));
+  }
+
+  @Test
+  void eventsAreDisabledByDefault() throws Exception {
+    Path file = tempDir.resolve("default.jfr");
+    try (Recording recording = new Recording()) {
+      recording.start();
+      LoggingCardService service = new LoggingCardService(new FixedResponseService(), null);
+      service.transmit(new CommandAPDU(0x00, 0xB0, 0x00, 0x00, 4));
+      JfrEvents.beginStep(service).finish("BAC", "ok");
+      recording.stop();
+      recording.dump(file);
+    }
+
+    assertTrue(RecordingFile.readAllEvents(file).stream()
+        .noneMatch(event -> event.getEventType().getName().startsWith("emu.")));
+  }
+
+  private static List<RecordedEvent> byName(List<RecordedEvent> events, String name) {
+    return events.stream()
+        .filter(event -> event.getEventType().getName().equals(name))
+        .collect(Collectors.toList());
+  }
+
+  private static final class FixedResponseService extends CardService {
+    @Override
+    public void open() {
+    }
+
+    @Override
+    public boolean isOpen() {
+      return true;
+    }
+
+    @Override
+    public ResponseAPDU transmit(CommandAPDU apdu) {
+      return new ResponseAPDU(new byte[] {1, 2, 3, 4, (byte) 0x90, 0x00});
+    }
+
+    @Override
+    public byte[] getATR() {
+      return new byte[0];
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public boolean isConnectionLost(Exception e) {
+      return false;
+    }
+  }
+}
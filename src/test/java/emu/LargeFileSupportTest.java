@@ -0,0 +1,145 @@
+package emu;
+
+import com.licel.jcardsim.smartcardio.CardSimulator;
+import com.licel.jcardsim.smartcardio.CardTerminalSimulator;
+import javacard.framework.AID;
+
+import javax.smartcardio.Card;
+import javax.smartcardio.CardChannel;
+import javax.smartcardio.CommandAPDU;
+import javax.smartcardio.ResponseAPDU;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.jmrtd.PassportService;
+import org.jmrtd.lds.icao.MRZInfo;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import emu.PersonalizationSupport.SODArtifacts;
+
+import sos.passportapplet.PassportApplet;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LargeFileSupportTest {
+
+  static {
+    System.setProperty("java.awt.headless", "true");
+  }
+
+  private static final byte[] MRTD_AID = new byte[]{(byte) 0xA0, 0x00, 0x00, 0x02, 0x47, 0x10, 0x01};
+
+  @Test
+  void commandsSwitchToExtendedEncodingsPastShortRange() {
+    assertArrayEquals(new byte[] {0x63, 0x04, (byte) 0x9C, 0x40, 0x01, 0x02},
+        EfCommands.createFileData(PassportService.EF_DG2, 40_000));
+    assertArrayEquals(new byte[] {0x63, 0x06, 0x00, 0x01, (byte) 0x86, (byte) 0xA0, 0x01, 0x02},
+        EfCommands.createFileData(PassportService.EF_DG2, 100_000));
+
+    CommandAPDU even = EfCommands.updateBinary(0x7FFF, new byte[EfCommands.MAX_CHUNK]);
+    assertEquals(0xD6, even.getINS());
+    assertEquals(0x7F, even.getP1());
+
+    byte[] chunk = new byte[EfCommands.MAX_ODD_CHUNK];
+    Arrays.fill(chunk, (byte) 0x5A);
+    CommandAPDU odd = EfCommands.updateBinary(0x012345, chunk);
+    assertEquals(0xD7, odd.getINS());
+    assertEquals(0, odd.getP1());
+    byte[] data = odd.getData();
+    assertArrayEquals(new byte[] {0x54, 0x03, 0x01, 0x23, 0x45, 0x53, (byte) 0x81, (byte) chunk.length},
+        Arrays.copyOf(data, 8));
+    assertTrue(data.length <= 0xFF);
+    assertThrows(IllegalArgumentException.class,
+        () -> EfCommands.updateBinary(0x8000, new byte[EfCommands.MAX_ODD_CHUNK + 1]));
+
+    CommandAPDU read = EfCommands.readBinary(0x8000, 0xE0);
+    assertEquals(0xB1, read.getINS());
+    assertArrayEquals(new byte[] {1, 2, 3},
+        EfCommands.unwrapReadData(0x8000, new byte[] {0x53, 0x03, 1, 2, 3}));
+  }
+
+  @Test
+  void appletStoresAndServesFilesBeyond64Kilobytes() throws Exception {
+    byte[] contents = new byte[100_000];
+    new Random(29).nextBytes(contents);
+
+    CardSimulator simulator = new CardSimulator();
+    AID aid = new AID(MRTD_AID, (short) 0, (byte) MRTD_AID.length);
+    simulator.installApplet(aid, PassportApplet.class);
+    Card card = CardTerminalSimulator.terminal(simulator).connect("*");
+    try {
+      CardChannel channel = card.getBasicChannel();
+      assertOk(channel.transmit(new CommandAPDU(0x00, 0xA4, 0x04, 0x0C, MRTD_AID)), "SELECT AID");
+
+      short fid = PassportService.EF_COM;
+      assertOk(channel.transmit(new CommandAPDU(0x00, 0xE0, 0x00, 0x00,
+          EfCommands.createFileData(fid, contents.length))), "CREATE FILE");
+      byte[] selectData = new byte[] {(byte) (fid >> 8), (byte) fid};
+      assertOk(channel.transmit(new CommandAPDU(0x00, 0xA4, 0x02, 0x0C, selectData)), "SELECT EF");
+      for (int offset = 0; offset < contents.length; ) {
+        int len = Math.min(EfCommands.maxChunk(offset), contents.length - offset);
+        byte[] chunk = Arrays.copyOfRange(contents, offset, offset + len);
+        assertOk(channel.transmit(EfCommands.updateBinary(offset, chunk)), "UPDATE BINARY @" + offset);
+        offset += len;
+      }
+      assertOk(channel.transmit(new CommandAPDU(0x00, 0xDA, 0xDE, 0xAF)), "PERSONALIZED");
+      assertOk(channel.transmit(new CommandAPDU(0x00, 0xDA, 0xDE, 0xAD)), "LOCKED");
+      assertOk(channel.transmit(new CommandAPDU(0x00, 0xDA, 0xDE, 0xFE, new byte[] {0x01})), "OPEN READS");
+
+      ByteArrayOutputStream read = new ByteArrayOutputStream();
+      while (read.size() < contents.length) {
+        int offset = read.size();
+        ResponseAPDU response = channel.transmit(EfCommands.readBinary(offset, 0xE0));
+        assertOk(response, "READ BINARY @" + offset);
+        byte[] chunk = EfCommands.unwrapReadData(offset, response.getData());
+        assertTrue(chunk.length > 0, "READ BINARY returned no data at " + offset);
+        read.write(chunk);
+      }
+      assertArrayEquals(contents, read.toByteArray());
+
+      ResponseAPDU beyond = channel.transmit(EfCommands.readBinary(contents.length + 1, 0x10));
+      assertEquals(0x6B00, beyond.getSW());
+    } finally {
+      card.disconnect(false);
+    }
+  }
+
+  @Test
+  void simRunnerReadsDataGroupBeyond64KbByteForByte(@TempDir Path tempDir) throws Exception {
+    // Noise barely compresses, so this face pushes DG2 well past 64 KB.
+    BufferedImage noise = new BufferedImage(600, 800, BufferedImage.TYPE_INT_RGB);
+    Random random = new Random(29);
+    for (int y = 0; y < noise.getHeight(); y++) {
+      for (int x = 0; x < noise.getWidth(); x++) {
+        noise.setRGB(x, y, random.nextInt(0x1000000));
+      }
+    }
+    Path face = tempDir.resolve("face.jpg");
+    assertTrue(ImageIO.write(noise, "jpg", face.toFile()));
+    MRZInfo mrz = TestCardManager.defaultMrz();
+    SODArtifacts artifacts = PersonalizationSupport.buildArtifacts(
+        PersonalizationJob.builder().withMrzInfo(mrz).withFaceImagePath(face).build());
+    byte[] dg2 = artifacts.getDg2Bytes();
+    assertTrue(dg2.length > 0xFFFF, "DG2 is only " + dg2.length + " bytes");
+    Path container = LdsContainer.fromArtifacts(artifacts).write(tempDir.resolve("large.lds"));
+
+    SessionReport report = new SimRunner().run(
+        new SimConfig.Builder().seed(true).ldsContainer(container).build(), null);
+
+    assertEquals(dg2.length, report.dataGroups.getDg2Metadata().length);
+    assertFalse(report.dataGroups.getDg2Metadata().truncated);
+    // PA hashes what was read back from the chip against the SOD.
+    assertTrue(report.passiveAuth.ok.contains(2), "DG2 read back must match its SOD digest");
+    assertFalse(report.passiveAuth.bad.contains(2));
+  }
+
+  private static void assertOk(ResponseAPDU response, String label) {
+    assertEquals(0x9000, response.getSW(), label + " SW=" + Integer.toHexString(response.getSW()));
+  }
+}
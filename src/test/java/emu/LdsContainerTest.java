@@ -0,0 +1,110 @@
+package emu;
+
+import org.jmrtd.lds.icao.MRZInfo;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyPair;
+import java.util.List;
+import java.util.Map;
+
+import emu.PersonalizationSupport.SODArtifacts;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LdsContainerTest {
+
+  static {
+    System.setProperty("java.awt.headless", "true");
+  }
+
+  @TempDir
+  Path tempDir;
+
+  @Test
+  void roundTripsArtifactsThroughMappedContainer() throws Exception {
+    SODArtifacts artifacts = PersonalizationSupport.buildArtifacts(baseJob());
+    Path file = LdsContainer.fromArtifacts(artifacts).write(tempDir.resolve("doc.lds"));
+
+    LdsContainer container = LdsContainer.open(file);
+
+    assertTrue(container.verifyDigests().isEmpty(), "Fresh container must verify");
+    assertEquals(artifacts.getPresentDataGroupNumbers().size(), container.getDataGroups().size());
+    for (Map.Entry<Integer, ByteBuffer> entry : artifacts.getDataGroupBuffers().entrySet()) {
+      ByteBuffer view = container.getDataGroup(entry.getKey());
+      assertNotNull(view, "DG" + entry.getKey() + " missing from container");
+      assertTrue(view.isReadOnly(), "Container views must be read-only");
+      assertEquals(entry.getValue(), view, "DG" + entry.getKey() + " mismatch");
+    }
+    assertEquals(ByteBuffer.wrap(artifacts.getSodBytes()), container.getSod());
+    assertEquals(ByteBuffer.wrap(artifacts.getCardAccessBytes()), container.getCardAccess());
+    assertNotNull(container.getCom());
+    assertEquals(TestCardManager.DEFAULT_DOC, container.getDocumentNumber());
+    assertEquals(TestCardManager.DEFAULT_DOB, container.getDateOfBirth());
+
+    KeyPair chip = container.getChipAuthenticationKeyPair();
+    assertArrayEquals(artifacts.getChipAuthKeyPair().getPrivate().getEncoded(), chip.getPrivate().getEncoded());
+    assertArrayEquals(artifacts.getChipAuthKeyPair().getPublic().getEncoded(), chip.getPublic().getEncoded());
+    KeyPair aa = container.getActiveAuthenticationKeyPair();
+    assertArrayEquals(artifacts.getAaKeyPair().getPrivate().getEncoded(), aa.getPrivate().getEncoded());
+
+    RealPassportProfile profile = container.toRealPassportProfile();
+    assertArrayEquals(artifacts.getDg2Bytes(), profile.getDataGroupBytes(2));
+    assertArrayEquals(artifacts.getSodBytes(), profile.getSodFile());
+  }
+
+  @Test
+  void profileContainerCarriesNoKeys() throws Exception {
+    RealPassportProfile profile = new RealPassportProfile(
+        "L898902C3", "740812", "120415",
+        Map.of(1, new byte[] {0x61, 0x01, 0x00}, 2, new byte[] {0x75, 0x02, 0x01, 0x02}),
+        new byte[] {0x60, 0x00},
+        new byte[] {0x77, 0x00},
+        null);
+    Path file = LdsContainer.fromProfile(profile).write(tempDir.resolve("captured.lds"));
+
+    LdsContainer container = LdsContainer.open(file);
+
+    RealPassportProfile restored = container.toRealPassportProfile();
+    assertEquals(profile.getDocumentNumber(), restored.getDocumentNumber());
+    assertArrayEquals(profile.getDataGroupBytes(2), restored.getDataGroupBytes(2));
+    assertArrayEquals(profile.getComFile(), restored.getComFile());
+    assertEquals(profile, restored);
+
+    ByteBuffer dg2 = restored.getDataGroupBuffer(2);
+    assertTrue(dg2.isReadOnly(), "Profile views over the mapping must be read-only");
+    dg2.get(new byte[dg2.remaining()]);
+    assertEquals(4, restored.getDataGroupBuffer(2).remaining(), "Views must not share positions");
+    assertNull(container.getCardAccess());
+    assertNull(container.getChipAuthenticationKeyPair());
+    assertNull(container.getActiveAuthenticationKeyPair());
+    assertFalse(container.contains(LdsContainer.dataGroupEntry(3)));
+  }
+
+  @Test
+  void detectsTamperedPayloadAndRejectsForeignFiles() throws Exception {
+    Path file = LdsContainer.writer()
+        .dataGroup(1, new byte[] {1, 2, 3, 4})
+        .sod(new byte[] {5, 6, 7})
+        .write(tempDir.resolve("tamper.lds"));
+    byte[] raw = Files.readAllBytes(file);
+    raw[raw.length - 1] ^= 0x01;
+    Files.write(file, raw);
+
+    List<Integer> mismatches = LdsContainer.open(file).verifyDigests();
+    assertEquals(List.of(LdsContainer.ENTRY_SOD), mismatches);
+
+    Path foreign = tempDir.resolve("foreign.bin");
+    Files.write(foreign, new byte[64]);
+    assertThrows(IOException.class, () -> LdsContainer.open(foreign));
+  }
+
+  private static PersonalizationJob baseJob() {
+    MRZInfo mrz = TestCardManager.defaultMrz();
+    return PersonalizationJob.builder().withMrzInfo(mrz).build();
+  }
+}
@@ -0,0 +1,138 @@
+package emu;
+
+import net.sf.scuba.smartcards.CardService;
+import net.sf.scuba.smartcards.CardServiceException;
+import net.sf.scuba.smartcards.CommandAPDU;
+import net.sf.scuba.smartcards.ResponseAPDU;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LinkEmulatingCardServiceTest {
+
+  @Test
+  void modelsAirTimeFramesAndChipProcessing() {
+    LinkProfile profile = LinkProfile.parse("106");
+    // 5-byte READ BINARY, 224 data bytes + SW: one block each way, 3 bytes overhead each.
+    long expectedAir = (5 + 226 + 2 * LinkProfile.BLOCK_OVERHEAD) * 9L * 1_000_000L / 106;
+    long expected = expectedAir + 2 * TimeUnit.MICROSECONDS.toNanos(100) + TimeUnit.MILLISECONDS.toNanos(2);
+    assertEquals(expected, profile.exchangeNanos(0xB0, 5, 226, false));
+
+    LinkProfile smallFrames = LinkProfile.parse("106,fsd=64");
+    assertTrue(smallFrames.exchangeNanos(0xB0, 5, 226, false) > profile.exchangeNanos(0xB0, 5, 226, false),
+        "Chained response blocks add overhead and R(ACK) frames");
+    assertTrue(LinkProfile.parse("848").exchangeNanos(0xB0, 5, 226, false) < expected);
+    assertTrue(profile.exchangeNanos(0xB0, 5, 226, true) > expected, "SM adds per-byte chip time");
+    assertTrue(LinkProfile.parse("106,chip=slow").exchangeNanos(0x88, 13, 130, true)
+        > LinkProfile.parse("106,chip=fast").exchangeNanos(0x88, 13, 130, true));
+  }
+
+  @Test
+  void forecastsWithoutWaitingAndWaitsInRealTime() throws Exception {
+    LinkEmulatingCardService forecast =
+        new LinkEmulatingCardService(new EchoService(224), LinkProfile.parse("106,realtime=false"));
+    long started = System.nanoTime();
+    for (int i = 0; i < 50; i++) {
+      forecast.transmit(new CommandAPDU(0x00, 0xB0, 0x00, 0x00, 224));
+    }
+    assertTrue(System.nanoTime() - started < TimeUnit.MILLISECONDS.toNanos(500), "Forecast mode doesn't wait");
+    assertEquals(50, forecast.getExchanges());
+    assertEquals(50 * forecast.getProfile().exchangeNanos(0xB0, 5, 226, false), forecast.getModeledNanos());
+
+    LinkEmulatingCardService realTime = new LinkEmulatingCardService(new EchoService(224), LinkProfile.parse("106"));
+    started = System.nanoTime();
+    realTime.transmit(new CommandAPDU(0x00, 0xB0, 0x00, 0x00, 224));
+    assertTrue(System.nanoTime() - started >= realTime.getModeledNanos());
+  }
+
+  @Test
+  void largerReadBlocksPayOffOnASlowLink() throws Exception {
+    long smallBlocks = forecastRead(4096, 64);
+    long largeBlocks = forecastRead(4096, 224);
+    assertTrue(largeBlocks < smallBlocks * 0.8, "small=" + smallBlocks + " large=" + largeBlocks);
+  }
+
+  @Test
+  void jitterAndLossesAreSeededAndBounded() throws Exception {
+    LinkProfile jittery = LinkProfile.parse("424,jitter=0.2,seed=7,realtime=false");
+    long base = jittery.exchangeNanos(0xB0, 5, 226, false);
+    LinkEmulatingCardService first = new LinkEmulatingCardService(new EchoService(224), jittery);
+    LinkEmulatingCardService second = new LinkEmulatingCardService(new EchoService(224), jittery);
+    for (int i = 0; i < 20; i++) {
+      long before = first.getModeledNanos();
+      first.transmit(new CommandAPDU(0x00, 0xB0, 0x00, 0x00, 224));
+      second.transmit(new CommandAPDU(0x00, 0xB0, 0x00, 0x00, 224));
+      long step = first.getModeledNanos() - before;
+      assertTrue(step >= base * 0.8 - 1 && step <= base * 1.2 + 1, "step=" + step);
+    }
+    assertEquals(first.getModeledNanos(), second.getModeledNanos(), "Same seed, same timings");
+
+    LinkEmulatingCardService lossy = new LinkEmulatingCardService(new EchoService(16),
+        LinkProfile.parse("106,loss=0.9,retries=1,seed=3,realtime=false"));
+    CardServiceException failure = assertThrows(CardServiceException.class, () -> {
+      for (int i = 0; i < 100; i++) {
+        lossy.transmit(new CommandAPDU(0x00, 0xB0, 0x00, 0x00, 16));
+      }
+    });
+    assertTrue(failure.getMessage().contains("Emulated link timeout"));
+    assertTrue(lossy.getRetransmissions() > 0);
+  }
+
+  @Test
+  void rejectsInvalidProfiles() {
+    assertThrows(IllegalArgumentException.class, () -> LinkProfile.parse("100"));
+    assertThrows(IllegalArgumentException.class, () -> LinkProfile.parse("106,fsd=8"));
+    assertThrows(IllegalArgumentException.class, () -> LinkProfile.parse("106,jitter=1.5"));
+    assertThrows(IllegalArgumentException.class, () -> LinkProfile.parse("106,warp=9"));
+  }
+
+  private static long forecastRead(int fileLength, int blockSize) throws CardServiceException {
+    LinkEmulatingCardService service = new LinkEmulatingCardService(new EchoService(blockSize),
+        LinkProfile.parse("106,realtime=false"));
+    for (int offset = 0; offset < fileLength; offset += blockSize) {
+      service.transmit(new CommandAPDU(0x0C, 0xB0, offset >> 8, offset & 0xFF, blockSize));
+    }
+    return service.getModeledNanos();
+  }
+
+  /** Answers every command with {@code length} bytes and 9000. */
+  private static final class EchoService extends CardService {
+    private final int length;
+
+    EchoService(int length) {
+      this.length = length;
+    }
+
+    @Override
+    public void open() {
+    }
+
+    @Override
+    public boolean isOpen() {
+      return true;
+    }
+
+    @Override
+    public ResponseAPDU transmit(CommandAPDU apdu) {
+      byte[] response = new byte[length + 2];
+      response[length] = (byte) 0x90;
+      return new ResponseAPDU(response);
+    }
+
+    @Override
+    public byte[] getATR() {
+      return new byte[0];
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public boolean isConnectionLost(Exception e) {
+      return false;
+    }
+  }
+}
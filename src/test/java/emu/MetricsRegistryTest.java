@@ -0,0 +1,77 @@
+package emu;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MetricsRegistryTest {
+
+  @TempDir
+  Path tempDir;
+
+  @Test
+  void rendersCountersGaugesAndHistogramsInPrometheusFormat() {
+    MetricsRegistry registry = new MetricsRegistry();
+    registry.counter("test_apdus_total", "APDUs.", "ins").inc("B0");
+    registry.counter("test_apdus_total", "APDUs.", "ins").add(2, "B0");
+    registry.gauge("test_depth", "Depth.", "pool").bind(() -> 7, "pace");
+    MetricsRegistry.Histogram histogram = registry.histogram("test_seconds", "Time.", new double[] {0.1, 1}, "stage");
+    histogram.observe(0.05, "keygen");
+    histogram.observe(0.5, "keygen");
+    histogram.observe(5, "keygen");
+
+    String text = registry.scrape();
+    assertTrue(text.contains("# TYPE test_apdus_total counter\n"));
+    assertTrue(text.contains("test_apdus_total{ins=\"B0\"} 3\n"));
+    assertTrue(text.contains("test_depth{pool=\"pace\"} 7\n"));
+    assertTrue(text.contains("test_seconds_bucket{stage=\"keygen\",le=\"0.1\"} 1\n"));
+    assertTrue(text.contains("test_seconds_bucket{stage=\"keygen\",le=\"1\"} 2\n"));
+    assertTrue(text.contains("test_seconds_bucket{stage=\"keygen\",le=\"+Inf\"} 3\n"));
+    assertTrue(text.contains("test_seconds_sum{stage=\"keygen\"} 5.55\n"));
+    assertTrue(text.contains("test_seconds_count{stage=\"keygen\"} 3\n"));
+    assertTrue(text.indexOf("test_apdus_total") < text.indexOf("test_depth"), "Metrics are sorted by name");
+    assertEquals(3, histogram.count("keygen"));
+  }
+
+  @Test
+  void rejectsMismatchedLabelsAndTypes() {
+    MetricsRegistry registry = new MetricsRegistry();
+    MetricsRegistry.Counter counter = registry.counter("test_total", "Test.", "ins", "sw");
+    assertThrows(IllegalArgumentException.class, () -> counter.inc("B0"));
+    assertThrows(IllegalArgumentException.class, () -> registry.gauge("test_total", "Test."));
+    assertThrows(IllegalArgumentException.class, () -> registry.counter("bad-name", "Test."));
+
+    registry.gauge("test_label", "Quoted.", "path").set(1, "a\"b\\c");
+    assertTrue(registry.scrape().contains("test_label{path=\"a\\\"b\\\\c\"} 1\n"));
+  }
+
+  @Test
+  void exportsOverHttpAndToFile() throws Exception {
+    MetricsRegistry registry = new MetricsRegistry();
+    registry.counter("test_issued_total", "Issued.").inc();
+    Path dump = tempDir.resolve("metrics").resolve("emu.prom");
+    try (MetricsExporter exporter = MetricsExporter.start(registry, new InetSocketAddress("127.0.0.1", 0), dump,
+        Duration.ofHours(1))) {
+      HttpResponse<String> response = HttpClient.newHttpClient().send(
+          HttpRequest.newBuilder(URI.create("http://127.0.0.1:" + exporter.getAddress().getPort() + "/metrics")).build(),
+          HttpResponse.BodyHandlers.ofString());
+      assertEquals(200, response.statusCode());
+      assertTrue(response.headers().firstValue("Content-Type").orElse("").startsWith("text/plain; version=0.0.4"));
+      assertTrue(response.body().contains("test_issued_total 1\n"));
+      registry.counter("test_issued_total", "Issued.").inc();
+    }
+    assertTrue(Files.readString(dump, StandardCharsets.UTF_8).contains("test_issued_total 2\n"),
+        "Closing the exporter writes a final dump");
+  }
+}
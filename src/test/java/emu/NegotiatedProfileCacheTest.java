@@ -0,0 +1,87 @@
+package emu;
+
+import org.jmrtd.lds.ChipAuthenticationInfo;
+import org.jmrtd.lds.PACEInfo;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigInteger;
+import java.security.KeyPairGenerator;
+import java.security.interfaces.ECPublicKey;
+import java.security.spec.ECGenParameterSpec;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class NegotiatedProfileCacheTest {
+
+  private static final byte[] CARD_ACCESS = {0x31, 0x14, 0x30, 0x12};
+  private static final byte[] OTHER_CARD_ACCESS = {0x31, 0x14, 0x30, 0x13};
+
+  @Test
+  void remembersPaceChoicePerDocumentAndPreference() {
+    NegotiatedProfileCache cache = new NegotiatedProfileCache(16);
+    PACEInfo info = new PACEInfo(PACEInfo.ID_PACE_ECDH_GM_AES_CBC_CMAC_128, 2,
+        BigInteger.valueOf(PACEInfo.PARAM_ID_ECP_NIST_P256_R1));
+
+    assertNull(cache.pace(CARD_ACCESS, "gm"));
+    cache.rememberPace(CARD_ACCESS, "gm", info);
+
+    NegotiatedProfileCache.PaceChoice choice = cache.pace(CARD_ACCESS.clone(), " GM ");
+    assertNotNull(choice, "Lookups match by content and normalized preference");
+    assertTrue(choice.matches(info));
+    assertNull(cache.pace(OTHER_CARD_ACCESS, "GM"), "Another document must not match");
+    assertNull(cache.pace(CARD_ACCESS, "IM"), "Another preference must not match");
+
+    cache.forgetPace(CARD_ACCESS, "GM");
+    assertNull(cache.pace(CARD_ACCESS, "GM"));
+  }
+
+  @Test
+  void remembersChipAuthenticationAndActiveAuthenticationChoices() {
+    NegotiatedProfileCache cache = new NegotiatedProfileCache(16);
+    byte[] dg14 = {0x6E, 0x02, 0x31, 0x00};
+    byte[] dg15 = {0x6F, 0x02, 0x30, 0x00};
+    ChipAuthenticationInfo info = new ChipAuthenticationInfo(
+        ChipAuthenticationInfo.ID_CA_ECDH_AES_CBC_CMAC_128, ChipAuthenticationInfo.VERSION_1, BigInteger.ONE);
+
+    cache.rememberChipAuthentication(dg14, info, "AES");
+    cache.rememberActiveAuthentication(dg15, "SHA224withECDSA");
+
+    NegotiatedProfileCache.ChipAuthChoice chipAuth = cache.chipAuthentication(dg14);
+    assertTrue(chipAuth.matches(info));
+    assertEquals("AES", chipAuth.cipherAlgorithm);
+    assertEquals("SHA224withECDSA", cache.activeAuthentication(dg15));
+    assertNull(cache.activeAuthentication(dg14), "Kinds must not collide on the same bytes");
+
+    cache.forgetActiveAuthentication(dg15);
+    assertNull(cache.activeAuthentication(dg15));
+    assertEquals(2, cache.getHits());
+  }
+
+  @Test
+  void evictsLeastRecentlyUsedBeyondCapacity() {
+    NegotiatedProfileCache cache = new NegotiatedProfileCache(2);
+    cache.rememberActiveAuthentication(new byte[] {1}, "A");
+    cache.rememberActiveAuthentication(new byte[] {2}, "B");
+    assertEquals("A", cache.activeAuthentication(new byte[] {1}));
+    cache.rememberActiveAuthentication(new byte[] {3}, "C");
+
+    assertEquals(2, cache.size());
+    assertEquals("A", cache.activeAuthentication(new byte[] {1}));
+    assertNull(cache.activeAuthentication(new byte[] {2}));
+  }
+
+  @Test
+  void rememberedEcdsaAlgorithmIsTriedFirst() throws Exception {
+    KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+    generator.initialize(new ECGenParameterSpec("secp256r1"));
+    ECPublicKey key = (ECPublicKey) generator.generateKeyPair().getPublic();
+
+    List<String> defaults = SimRunner.buildEcdsaSignatureCandidates(key, null);
+    assertEquals("SHA256withECDSA", defaults.get(0));
+
+    List<String> remembered = SimRunner.buildEcdsaSignatureCandidates(key, "SHA224withECDSA");
+    assertEquals("SHA224withECDSA", remembered.get(0));
+    assertEquals(defaults.size(), remembered.size(), "Remembered algorithm must not be duplicated");
+  }
+}
@@ -0,0 +1,83 @@
+package emu;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.jmrtd.lds.PACEInfo;
+import org.junit.jupiter.api.Test;
+
+import java.security.KeyPair;
+import java.security.Security;
+import java.security.interfaces.ECPrivateKey;
+import java.security.interfaces.ECPublicKey;
+import java.security.spec.ECParameterSpec;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.KeyAgreement;
+
+import sos.passportapplet.pace.PacePrecomputation;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PacePrecomputationTest {
+
+  static {
+    if (Security.getProvider(BouncyCastleProvider.PROVIDER_NAME) == null) {
+      Security.addProvider(new BouncyCastleProvider());
+    }
+  }
+
+  @Test
+  void pooledKeyPairsAreValidAndNeverReused() throws Exception {
+    try (PacePrecomputation pool = PacePrecomputation.start(4)) {
+      ECParameterSpec params = (ECParameterSpec) PACEInfo.toParameterSpec(PACEInfo.PARAM_ID_ECP_BRAINPOOL_P256_R1);
+      pool.prepare(params);
+
+      // A spec rebuilt for the next session must land in the same domain pool.
+      ECParameterSpec rebuilt = (ECParameterSpec) PACEInfo.toParameterSpec(PACEInfo.PARAM_ID_ECP_BRAINPOOL_P256_R1);
+      KeyPair first = takePooled(pool, rebuilt);
+      KeyPair second = pool.takeKeyPair(rebuilt);
+      assertNotEquals(((ECPrivateKey) first.getPrivate()).getS(), ((ECPrivateKey) second.getPrivate()).getS());
+      assertEquals(256, ((ECPublicKey) first.getPublic()).getParams().getCurve().getField().getFieldSize());
+      assertArrayEquals(agree(first, second), agree(second, first), "Public keys must match their private keys");
+    }
+  }
+
+  @Test
+  void emptyPoolFallsBackInlineAndCountsMisses() throws Exception {
+    PacePrecomputation pool = PacePrecomputation.start(1);
+    pool.close();
+    ECParameterSpec params = (ECParameterSpec) PACEInfo.toParameterSpec(PACEInfo.PARAM_ID_ECP_NIST_P256_R1);
+    KeyPair inline = pool.takeKeyPair(params);
+    assertNotNull(inline.getPrivate());
+    byte[] nonce = pool.takeNonce(16);
+    assertEquals(16, nonce.length);
+    assertFalse(Arrays.equals(nonce, pool.takeNonce(16)));
+    assertEquals(0, pool.getHits());
+    assertEquals(3, pool.getMisses());
+  }
+
+  @Test
+  void rejectsNonPositiveDepth() {
+    assertThrows(IllegalArgumentException.class, () -> PacePrecomputation.start(0));
+  }
+
+  private static KeyPair takePooled(PacePrecomputation pool, ECParameterSpec params) throws Exception {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (System.nanoTime() < deadline) {
+      long hits = pool.getHits();
+      KeyPair pair = pool.takeKeyPair(params);
+      if (pool.getHits() > hits) {
+        return pair;
+      }
+      Thread.sleep(20);
+    }
+    return fail("Pool never served a precomputed key pair");
+  }
+
+  private static byte[] agree(KeyPair own, KeyPair peer) throws Exception {
+    KeyAgreement agreement = KeyAgreement.getInstance("ECDH", BouncyCastleProvider.PROVIDER_NAME);
+    agreement.init(own.getPrivate());
+    agreement.doPhase(peer.getPublic(), true);
+    return agreement.generateSecret();
+  }
+}
@@ -0,0 +1,108 @@
+package emu;
+
+import com.licel.jcardsim.smartcardio.CardSimulator;
+import com.licel.jcardsim.smartcardio.CardTerminalSimulator;
+import javacard.framework.AID;
+
+import javax.smartcardio.Card;
+import javax.smartcardio.CardChannel;
+import javax.smartcardio.CommandAPDU;
+import javax.smartcardio.ResponseAPDU;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ProvisioningContainerTest {
+
+  private static final byte[] MRTD_AID = new byte[]{(byte) 0xA0, 0x00, 0x00, 0x02, 0x47, 0x10, 0x01};
+  private static final byte[] DATE = {2, 5, 0, 6, 0, 1};
+
+  @Test
+  void encodesEveryStepIntoOneContainer() {
+    IssuerSecretEncoder.Provisioning provisioning = IssuerSecretEncoder.provisioning()
+        .mrzSeed(IssuerSecretEncoder.encodeMrzSeed("123456789", "750101", "250101"))
+        .paceSecrets(IssuerSecretEncoder.encodePaceSecrets("123456", null, null))
+        .openComSodReads(Boolean.TRUE)
+        .currentDate(DATE)
+        .locked()
+        .personalized();
+
+    byte[] container = provisioning.encode();
+    assertNotNull(container);
+    assertEquals(0x68, container[0] & 0xFF);
+    assertEquals(container.length - 2, container[1] & 0xFF);
+    List<Integer> tags = new ArrayList<>();
+    for (int offset = 2; offset < container.length; offset += 2 + (container[offset + 1] & 0xFF)) {
+      tags.add(container[offset] & 0xFF);
+    }
+    assertEquals(List.of(0x62, 0x65, 0x67, 0x69, 0x6A), tags);
+    assertEquals((byte) 0xAD, container[container.length - 1], "LOCKED wins over a later PERSONALIZED");
+
+    List<Integer> p2s = new ArrayList<>();
+    for (IssuerSecretEncoder.Command command : provisioning.commands()) {
+      p2s.add(command.p2);
+    }
+    assertEquals(List.of(0x62, 0x65, 0xFE, 0x67, 0xAF, 0xAD), p2s);
+
+    assertTrue(IssuerSecretEncoder.provisioning().isEmpty());
+    assertNull(IssuerSecretEncoder.provisioning().encode());
+    String longSecret = "9".repeat(120);
+    assertNull(IssuerSecretEncoder.provisioning()
+        .paceSecrets(IssuerSecretEncoder.encodePaceSecrets(longSecret, longSecret, longSecret))
+        .encode(), "Containers beyond a short APDU go out as separate commands");
+  }
+
+  @Test
+  void appliesContainerInOneCommandAndRejectsItAsAWhole() throws Exception {
+    CardSimulator simulator = new CardSimulator();
+    AID aid = new AID(MRTD_AID, (short) 0, (byte) MRTD_AID.length);
+    simulator.installApplet(aid, sos.passportapplet.PassportApplet.class);
+    Card card = CardTerminalSimulator.terminal(simulator).connect("*");
+    CardChannel channel = card.getBasicChannel();
+    selectApplet(channel);
+
+    byte[] mrzSeed = IssuerSecretEncoder.encodeMrzSeed("123456789", "750101", "250101");
+    byte[] badDate = IssuerSecretEncoder.provisioning()
+        .mrzSeed(mrzSeed)
+        .currentDate(new byte[]{2, 5, 0, 6, 0, 'x'})
+        .locked()
+        .encode();
+    assertEquals(0x6A80, putProvisioning(channel, badDate).getSW());
+    ResponseAPDU earlyLock = channel.transmit(new CommandAPDU(0x00, 0xDA, 0xDE, 0xAD, new byte[0]));
+    assertEquals(0x6985, earlyLock.getSW(), "Rejected container must not change the lifecycle");
+
+    byte[] duplicate = {0x68, 0x06, 0x69, 0x01, 0x01, 0x69, 0x01, 0x00};
+    assertEquals(0x6A80, putProvisioning(channel, duplicate).getSW());
+
+    byte[] container = IssuerSecretEncoder.provisioning()
+        .mrzSeed(mrzSeed)
+        .paceSecrets(IssuerSecretEncoder.encodePaceSecrets("123456", null, null))
+        .openComSodReads(Boolean.TRUE)
+        .currentDate(DATE)
+        .locked()
+        .encode();
+    assertEquals(0x9000, putProvisioning(channel, container).getSW());
+
+    ResponseAPDU mrzAfterLock = channel.transmit(new CommandAPDU(0x00, 0xDA, 0x00, 0x62, mrzSeed));
+    assertEquals(0x6985, mrzAfterLock.getSW(), "Container must leave the chip LOCKED");
+    ResponseAPDU lockAgain = channel.transmit(new CommandAPDU(0x00, 0xDA, 0xDE, 0xAD, new byte[0]));
+    assertEquals(0x9000, lockAgain.getSW());
+
+    card.disconnect(false);
+  }
+
+  private static ResponseAPDU putProvisioning(CardChannel channel, byte[] container) throws Exception {
+    return channel.transmit(new CommandAPDU(0x00, 0xDA, 0x00, IssuerSecretEncoder.P2_PROVISIONING, container));
+  }
+
+  private static void selectApplet(CardChannel channel) throws Exception {
+    ResponseAPDU response = channel.transmit(new CommandAPDU(0x00, 0xA4, 0x04, 0x0C, MRTD_AID));
+    if (response.getSW() != 0x9000) {
+      throw new IllegalStateException("SELECT AID failed: SW=" + Integer.toHexString(response.getSW()));
+    }
+  }
+}
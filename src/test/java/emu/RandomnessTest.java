@@ -0,0 +1,77 @@
+package emu;
+
+import org.junit.jupiter.api.Test;
+
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RandomnessTest {
+
+  @Test
+  void seededGeneratorsAreReproducibleAcrossThreads() throws Exception {
+    byte[] expected = draw(Randomness.seededRandom(42L));
+    ExecutorService pool = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<byte[]>> results = new ArrayList<>();
+      for (int i = 0; i < 8; i++) {
+        results.add(pool.submit(() -> draw(Randomness.seededRandom(42L))));
+      }
+      for (Future<byte[]> result : results) {
+        assertArrayEquals(expected, result.get(5, TimeUnit.SECONDS));
+      }
+    } finally {
+      pool.shutdownNow();
+    }
+    assertFalse(Arrays.equals(expected, draw(Randomness.seededRandom(43L))));
+  }
+
+  @Test
+  void eachThreadKeepsItsOwnGenerator() throws Exception {
+    SecureRandom mine = Randomness.threadRandom();
+    assertSame(mine, Randomness.threadRandom());
+
+    ExecutorService pool = Executors.newSingleThreadExecutor();
+    try {
+      SecureRandom other = pool.submit(Randomness::threadRandom).get(5, TimeUnit.SECONDS);
+      assertNotSame(mine, other);
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  @Test
+  void ctrMechanismIsSelectableAndSeedDependent() {
+    Randomness.DrbgProvider hash = new Randomness.DrbgProvider(new SecureRandom(), Randomness.Mechanism.HASH_SHA256);
+    Randomness.DrbgProvider ctr = new Randomness.DrbgProvider(new SecureRandom(), Randomness.Mechanism.fromName("ctr"));
+    assertEquals(Randomness.Mechanism.CTR_AES256, ctr.getMechanism());
+
+    assertArrayEquals(draw(ctr.seededRandom(7L)), draw(ctr.seededRandom(7L)));
+    assertFalse(Arrays.equals(draw(hash.seededRandom(7L)), draw(ctr.seededRandom(7L))));
+    assertThrows(IllegalArgumentException.class, () -> Randomness.Mechanism.fromName("dual_ec"));
+  }
+
+  @Test
+  void threadGeneratorSurvivesReseedInterval() {
+    Randomness.DrbgProvider provider = new Randomness.DrbgProvider(new SecureRandom(), Randomness.Mechanism.HASH_SHA256);
+    SecureRandom first = provider.threadRandom();
+    byte[] buffer = new byte[16];
+    for (int i = 0; i <= Randomness.DrbgProvider.RESEED_INTERVAL; i++) {
+      provider.threadRandom().nextBytes(buffer);
+    }
+    assertSame(first, provider.threadRandom());
+  }
+
+  private static byte[] draw(SecureRandom random) {
+    byte[] bytes = new byte[64];
+    random.nextBytes(bytes);
+    return bytes;
+  }
+}
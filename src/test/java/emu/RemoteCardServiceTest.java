@@ -0,0 +1,90 @@
+package emu;
+
+import com.licel.jcardsim.smartcardio.CardSimulator;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.sf.scuba.smartcards.CardServiceException;
+import net.sf.scuba.smartcards.CommandAPDU;
+import net.sf.scuba.smartcards.ResponseAPDU;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RemoteCardServiceTest {
+
+  private static final byte[] ATR = {0x3B, (byte) 0x80, (byte) 0x80, 0x01, 0x01};
+
+  @Test
+  void pipelinedBatchKeepsResponsesInOrder() throws Exception {
+    try (VirtualCardServer server = VirtualCardServer.start(loopback(), CountingSimulator::new, 1)) {
+      RemoteCardService service = new RemoteCardService(server.getAddress(), 4);
+      AtomicInteger events = new AtomicInteger();
+      service.addAPDUListener(event -> events.incrementAndGet());
+      service.open();
+      try {
+        assertArrayEquals(ATR, service.getATR());
+        List<CommandAPDU> commands = new ArrayList<>();
+        for (int i = 0; i < 21; i++) {
+          commands.add(new CommandAPDU(0x00, 0xB0, i >> 8, i & 0xFF, 0x10));
+        }
+        List<ResponseAPDU> responses = service.transmitAll(commands);
+        assertEquals(commands.size(), responses.size());
+        for (int i = 0; i < responses.size(); i++) {
+          assertEquals(0x9000, responses.get(i).getSW());
+          assertEquals(i, responses.get(i).getData()[0] & 0xFF, "Response " + i + " arrived out of order");
+        }
+
+        ResponseAPDU single = service.transmit(new CommandAPDU(0x00, 0xA4, 0x04, 0x0C));
+        assertEquals(21, single.getData()[0] & 0xFF);
+        assertEquals(22, events.get());
+
+        service.reset();
+        assertEquals(0, service.transmit(new CommandAPDU(0x00, 0xB0, 0x00, 0x00, 0x01)).getData()[0]);
+      } finally {
+        service.close();
+      }
+      assertFalse(service.isOpen());
+      assertThrows(CardServiceException.class, () -> service.transmit(new CommandAPDU(0x00, 0xB0, 0x00, 0x00)));
+    }
+  }
+
+  @Test
+  void unreachableServerIsReportedAsConnectionLoss() throws Exception {
+    InetSocketAddress address;
+    try (VirtualCardServer server = VirtualCardServer.start(loopback(), CountingSimulator::new, 0)) {
+      address = server.getAddress();
+    }
+    RemoteCardService service = new RemoteCardService(address);
+    CardServiceException error = assertThrows(CardServiceException.class, service::open);
+    assertTrue(service.isConnectionLost(error));
+    assertFalse(service.isOpen());
+  }
+
+  private static InetSocketAddress loopback() {
+    return new InetSocketAddress("127.0.0.1", 0);
+  }
+
+  /** Answers each command with the number of commands seen since the last reset, plus 9000. */
+  private static final class CountingSimulator extends CardSimulator {
+    private int count;
+
+    @Override
+    public byte[] transmitCommand(byte[] command) {
+      return new byte[] {(byte) count++, (byte) 0x90, 0x00};
+    }
+
+    @Override
+    public byte[] getATR() {
+      return ATR.clone();
+    }
+
+    @Override
+    public void reset() {
+      count = 0;
+    }
+  }
+}
@@ -0,0 +1,111 @@
+package emu;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.List;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SessionReportAggregatorTest {
+
+  @TempDir
+  Path tempDir;
+
+  @Test
+  void aggregatesOutcomesModesPresenceAndLatency() throws Exception {
+    for (int i = 0; i < 40; i++) {
+      SessionReport report = new SessionReport();
+      report.session.transport = "jcardsim";
+      report.session.smMode = i % 4 == 0 ? "BAC" : "PACE";
+      report.session.completedAt = Instant.EPOCH;
+      report.session.durationMs = (long) (i + 1) * 10L;
+      report.dataGroups.addPresent(1);
+      if (i % 2 == 0) {
+        report.dataGroups.addPresent(2);
+      }
+      if (i % 5 == 0) {
+        report.setTerminalAuthentication(SessionReport.TerminalAuth.fromOutcome(
+            true, i % 10 == 0, false, false, null, null, List.of()));
+      }
+      report.write(tempDir.resolve("report-" + i + ".json"));
+    }
+    Files.writeString(tempDir.resolve("broken.json"), "{\"session\": ");
+    Files.writeString(tempDir.resolve("notes.txt"), "ignored");
+
+    SessionReportAggregator.Summary summary = new SessionReportAggregator(4).aggregateDirectory(tempDir);
+
+    assertEquals(40, summary.getReportCount());
+    assertEquals(1, summary.getUnreadableCount());
+    assertEquals(10L, (long) summary.getSecureMessagingModes().get("BAC"));
+    assertEquals(30L, (long) summary.getSecureMessagingModes().get("PACE"));
+    assertEquals(40L, (long) summary.getPassiveAuthOutcomes().get("SKIPPED"));
+    assertEquals(40L, (long) summary.getActiveAuthOutcomes().get("SKIPPED"));
+    assertEquals(4L, (long) summary.getTerminalAuthOutcomes().get("PASS"));
+    assertEquals(4L, (long) summary.getTerminalAuthOutcomes().get("FAIL"));
+    assertEquals(32L, (long) summary.getTerminalAuthOutcomes().get("SKIPPED"));
+    assertEquals(40, summary.getDataGroupPresence(1));
+    assertEquals(20, summary.getDataGroupPresence(2));
+    assertEquals(0, summary.getDataGroupPresence(3));
+    assertEquals(40, summary.getLatencySampleCount());
+    assertEquals(200, summary.getLatencyPercentile(50), 4);
+    assertEquals(400, summary.getLatencyPercentile(100));
+
+    ByteArrayOutputStream json = new ByteArrayOutputStream();
+    summary.writeJson(json);
+    JsonNode root = new ObjectMapper().readTree(json.toByteArray());
+    assertEquals(40, root.get("reports").asInt());
+    assertEquals(0.75, root.path("smMode").path("PACE").path("rate").asDouble(), 1e-9);
+    assertEquals(20, root.path("dgPresence").path("DG2").asInt());
+
+    StringWriter csv = new StringWriter();
+    summary.writeCsv(csv);
+    assertTrue(csv.toString().startsWith("metric,key,count,rate\n"));
+    assertTrue(csv.toString().contains("smMode,BAC,10,0.2500"));
+  }
+
+  @Test
+  void singleThreadedAndParallelSummariesMatch() throws Exception {
+    for (int i = 0; i < 25; i++) {
+      SessionReport report = new SessionReport();
+      report.session.smMode = "CA_AES";
+      report.session.durationMs = (long) i * 37L;
+      report.write(tempDir.resolve("r" + i + ".json"));
+    }
+
+    SessionReportAggregator.Summary serial = new SessionReportAggregator(1).aggregateDirectory(tempDir);
+    SessionReportAggregator.Summary parallel = new SessionReportAggregator(3).aggregateDirectory(tempDir);
+
+    assertEquals(serial.getReportCount(), parallel.getReportCount());
+    assertEquals(serial.getSecureMessagingModes(), parallel.getSecureMessagingModes());
+    assertEquals(serial.getLatencyPercentile(90), parallel.getLatencyPercentile(90));
+    ByteArrayOutputStream a = new ByteArrayOutputStream();
+    ByteArrayOutputStream b = new ByteArrayOutputStream();
+    serial.writeJson(a);
+    parallel.writeJson(b);
+    assertEquals(a.toString(StandardCharsets.UTF_8), b.toString(StandardCharsets.UTF_8));
+  }
+
+  @Test
+  void latencyHistogramKeepsRelativeErrorSmall() {
+    SessionReportAggregator.LatencyHistogram histogram = new SessionReportAggregator.LatencyHistogram();
+    for (long value : new long[] {0, 1, 127, 128, 255, 1_000, 65_432, 3_600_000, Long.MAX_VALUE}) {
+      long lower = SessionReportAggregator.LatencyHistogram.lowerBound(
+          SessionReportAggregator.LatencyHistogram.indexOf(value));
+      assertTrue(lower <= value, "bucket lower bound must not exceed " + value);
+      assertTrue(value - lower <= Math.max(0L, value / 64), "bucket too coarse for " + value);
+      histogram.record(value);
+    }
+    assertEquals(Long.MAX_VALUE, histogram.percentile(100));
+    assertEquals(0, histogram.percentile(0));
+  }
+}
@@ -0,0 +1,169 @@
+package emu;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import net.sf.scuba.smartcards.CardService;
+import net.sf.scuba.smartcards.CommandAPDU;
+import net.sf.scuba.smartcards.ResponseAPDU;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SessionTracerTest {
+
+  @TempDir
+  Path tempDir;
+
+  @Test
+  void writesNestedSpansInChromeTraceFormat() throws Exception {
+    Path file = tempDir.resolve("trace.json");
+    try (SessionTracer tracer = SessionTracer.start(file)) {
+      assertTrue(SessionTracer.isActive());
+      runSession("session A");
+    }
+    assertFalse(SessionTracer.isActive());
+
+    JsonNode trace = new ObjectMapper().readTree(file.toFile());
+    List<JsonNode> spans = spans(trace);
+    JsonNode session = find(spans, "session A");
+    JsonNode phase = find(spans, "READING");
+    JsonNode step = find(spans, "DG1");
+    JsonNode apdu = find(spans, "INS B0");
+    assertEquals("phase", phase.get("cat").asText());
+    assertEquals("ok", step.get("args").get("outcome").asText());
+    assertEquals(11, step.get("args").get("bytes").asLong());
+    assertEquals("9000", apdu.get("args").get("sw").asText());
+    assertContains(session, phase);
+    assertContains(phase, step);
+    assertContains(step, apdu);
+    assertTrue(threadNames(trace).contains("session A"));
+  }
+
+  @Test
+  void concurrentSessionsGetTheirOwnTracks() throws Exception {
+    Path file = tempDir.resolve("concurrent.json");
+    try (SessionTracer tracer = SessionTracer.start(file)) {
+      List<Thread> threads = new ArrayList<>();
+      for (String name : List.of("session 1", "session 2", "session 3")) {
+        Thread thread = new Thread(() -> {
+          try {
+            runSession(name);
+          } catch (Exception e) {
+            throw new IllegalStateException(e);
+          }
+        });
+        threads.add(thread);
+        thread.start();
+      }
+      for (Thread thread : threads) {
+        thread.join();
+      }
+    }
+
+    List<JsonNode> spans = spans(new ObjectMapper().readTree(file.toFile()));
+    Set<Integer> sessionTracks = new HashSet<>();
+    for (String name : List.of("session 1", "session 2", "session 3")) {
+      sessionTracks.add(find(spans, name).get("tid").asInt());
+    }
+    assertEquals(3, sessionTracks.size());
+  }
+
+  @Test
+  void hooksAreInertWithoutATracer() {
+    assertFalse(SessionTracer.isActive());
+    assertEquals(0L, SessionTracer.begin());
+    assertNull(SessionTracer.openTrack("ignored"));
+    SimEvents sink = new SimEvents() {};
+    assertSame(sink, SessionTracer.tracePhases(sink));
+    assertThrows(IllegalStateException.class, () -> {
+      try (SessionTracer first = SessionTracer.start(tempDir.resolve("a.json"))) {
+        SessionTracer.start(tempDir.resolve("b.json"));
+      }
+    });
+  }
+
+  private static void runSession(String name) throws Exception {
+    SimEvents sink = SessionTracer.tracePhases(new SimEvents() {});
+    try (SessionTracer.Track track = SessionTracer.openTrack(name)) {
+      sink.onPhase(SimPhase.READING, "Reading");
+      LoggingCardService service = new LoggingCardService(new FixedResponseService(), null);
+      JfrEvents.ProtocolStep step = JfrEvents.beginStep(service);
+      service.transmit(new CommandAPDU(0x00, 0xB0, 0x00, 0x00, 4));
+      step.finish("DG1", "ok");
+      sink.onPhase(SimPhase.COMPLETE, "Done");
+    }
+  }
+
+  private static void assertContains(JsonNode outer, JsonNode inner) {
+    assertEquals(outer.get("tid").asInt(), inner.get("tid").asInt());
+    double outerStart = outer.get("ts").asDouble();
+    double innerStart = inner.get("ts").asDouble();
+    assertTrue(outerStart <= innerStart, outer.get("name") + " starts before " + inner.get("name"));
+    assertTrue(innerStart + inner.get("dur").asDouble() <= outerStart + outer.get("dur").asDouble() + 0.001,
+        outer.get("name") + " ends after " + inner.get("name"));
+  }
+
+  private static List<JsonNode> spans(JsonNode trace) {
+    List<JsonNode> spans = new ArrayList<>();
+    for (JsonNode event : trace.get("traceEvents")) {
+      if ("X".equals(event.get("ph").asText())) {
+        spans.add(event);
+      }
+    }
+    return spans;
+  }
+
+  private static Set<String> threadNames(JsonNode trace) {
+    Set<String> names = new HashSet<>();
+    for (JsonNode event : trace.get("traceEvents")) {
+      if ("thread_name".equals(event.get("name").asText())) {
+        names.add(event.get("args").get("name").asText());
+      }
+    }
+    return names;
+  }
+
+  private static JsonNode find(List<JsonNode> spans, String name) {
+    return spans.stream()
+        .filter(span -> name.equals(span.get("name").asText()))
+        .findFirst()
+        .orElseThrow(() -> new AssertionError("No span named " + name));
+  }
+
+  private static final class FixedResponseService extends CardService {
+    @Override
+    public void open() {
+    }
+
+    @Override
+    public boolean isOpen() {
+      return true;
+    }
+
+    @Override
+    public ResponseAPDU transmit(CommandAPDU apdu) {
+      return new ResponseAPDU(new byte[] {1, 2, 3, 4, (byte) 0x90, 0x00});
+    }
+
+    @Override
+    public byte[] getATR() {
+      return new byte[0];
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public boolean isConnectionLost(Exception e) {
+      return false;
+    }
+  }
+}
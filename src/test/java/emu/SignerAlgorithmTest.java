@@ -0,0 +1,119 @@
+package emu;
+
+import org.bouncycastle.asn1.cms.CMSObjectIdentifiers;
+import org.bouncycastle.asn1.cms.ContentInfo;
+import org.bouncycastle.cms.CMSSignedData;
+import org.bouncycastle.cms.SignerInformation;
+import org.bouncycastle.cms.jcajce.JcaSimpleSignerInfoVerifierBuilder;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.jmrtd.lds.CardAccessFile;
+import org.jmrtd.lds.PACEInfo;
+import org.jmrtd.lds.SODFile;
+import org.jmrtd.lds.SecurityInfo;
+import org.jmrtd.lds.SignedDataUtil;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.security.interfaces.ECPublicKey;
+import java.security.interfaces.RSAPublicKey;
+import java.util.Arrays;
+
+import emu.PersonalizationSupport.SODArtifacts;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SignerAlgorithmTest {
+
+  static {
+    System.setProperty("java.awt.headless", "true");
+  }
+
+  @Test
+  void ecdsaSignersUseEcKeysOnTheirConfiguredCurves() throws Exception {
+    PersonalizationJob job = baseJob()
+        .signatureAlgorithm("SHA256withECDSA")
+        .docSignerCurve("brainpoolP256r1")
+        .cscaSignatureAlgorithm("SHA384withECDSA")
+        .cscaCurve("secp384r1")
+        .build();
+    SODArtifacts artifacts = PersonalizationSupport.buildArtifacts(job);
+
+    ECPublicKey docSignerKey = (ECPublicKey) artifacts.getDocSignerCert().getPublicKey();
+    assertEquals(256, docSignerKey.getParams().getCurve().getField().getFieldSize());
+    ECPublicKey cscaKey = (ECPublicKey) artifacts.getCscaCert().getPublicKey();
+    assertEquals(384, cscaKey.getParams().getCurve().getField().getFieldSize());
+
+    artifacts.getDocSignerCert().verify(cscaKey, BouncyCastleProvider.PROVIDER_NAME);
+    assertSodSignatureValid(artifacts);
+  }
+
+  @Test
+  void pssAliasesProduceVerifiableSod() throws Exception {
+    PersonalizationJob job = baseJob()
+        .signatureAlgorithm("SHA256withRSA/PSS")
+        .cscaSignatureAlgorithm("RSASSA-PSS")
+        .build();
+    assertEquals("SHA256withRSAandMGF1", job.getSignatureAlgorithm());
+    assertEquals("SHA256withRSAandMGF1", job.getCscaSignatureAlgorithm());
+
+    SODArtifacts artifacts = PersonalizationSupport.buildArtifacts(job);
+    assertTrue(artifacts.getDocSignerCert().getPublicKey() instanceof RSAPublicKey);
+    artifacts.getDocSignerCert().verify(artifacts.getCscaCert().getPublicKey(), BouncyCastleProvider.PROVIDER_NAME);
+
+    SODFile sod = new SODFile(new ByteArrayInputStream(artifacts.getSodBytes()));
+    assertEquals(artifacts.getDataGroupHashes().keySet(), sod.getDataGroupHashes().keySet());
+    for (Integer dg : artifacts.getDataGroupHashes().keySet()) {
+      assertArrayEquals(artifacts.getDataGroupHashes().get(dg), sod.getDataGroupHashes().get(dg));
+    }
+    assertEquals(artifacts.getDocSignerCert(), sod.getDocSigningCertificate());
+    assertSodSignatureValid(artifacts);
+  }
+
+  @Test
+  void cardAccessAdvertisesConfiguredPaceDomain() throws Exception {
+    PersonalizationJob job = baseJob()
+        .paceDomainParameterId(PACEInfo.PARAM_ID_ECP_BRAINPOOL_P256_R1)
+        .build();
+    SODArtifacts artifacts = PersonalizationSupport.buildArtifacts(job);
+
+    CardAccessFile cardAccess = new CardAccessFile(new ByteArrayInputStream(artifacts.getCardAccessBytes()));
+    int paceInfos = 0;
+    for (SecurityInfo info : cardAccess.getSecurityInfos()) {
+      if (info instanceof PACEInfo) {
+        paceInfos++;
+        assertEquals(PACEInfo.PARAM_ID_ECP_BRAINPOOL_P256_R1, ((PACEInfo) info).getParameterId().intValue());
+      }
+    }
+    assertEquals(job.getPaceOids().size(), paceInfos);
+
+    assertThrows(IllegalArgumentException.class,
+        () -> PersonalizationJob.builder().paceDomainParameterId(PACEInfo.PARAM_ID_GFP_2048_256));
+  }
+
+  @Test
+  void rsaRemainsTheDefault() throws Exception {
+    SODArtifacts artifacts = PersonalizationSupport.buildArtifacts(baseJob().build());
+    assertTrue(artifacts.getCscaCert().getPublicKey() instanceof RSAPublicKey);
+    assertEquals(PersonalizationJob.defaultSignatureAlgorithm(), artifacts.getJob().getCscaSignatureAlgorithm());
+    assertSodSignatureValid(artifacts);
+  }
+
+  private static void assertSodSignatureValid(SODArtifacts artifacts) throws Exception {
+    byte[] sod = artifacts.getSodBytes();
+    int offset = 2 + ((sod[1] & 0x80) != 0 ? sod[1] & 0x7F : 0);
+    CMSSignedData cms = new CMSSignedData(new ContentInfo(CMSObjectIdentifiers.signedData,
+        SignedDataUtil.readSignedData(new ByteArrayInputStream(Arrays.copyOfRange(sod, offset, sod.length)))));
+    SignerInformation signer = cms.getSignerInfos().getSigners().iterator().next();
+    assertTrue(signer.verify(new JcaSimpleSignerInfoVerifierBuilder()
+        .setProvider(BouncyCastleProvider.PROVIDER_NAME)
+        .build(artifacts.getDocSignerCert())));
+  }
+
+  private static PersonalizationJob.Builder baseJob() {
+    return PersonalizationJob.builder()
+        .withMrzInfo(TestCardManager.defaultMrz())
+        .enableDataGroup(3, false)
+        .enableDataGroup(4, false)
+        .deterministicSeed(34L);
+  }
+}
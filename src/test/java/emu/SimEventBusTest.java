@@ -0,0 +1,115 @@
+package emu;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SimEventBusTest {
+
+  @TempDir
+  Path tempDir;
+
+  @Test
+  void deliversInOrderToEverySubscriberOffTheSessionThread() {
+    List<String> first = Collections.synchronizedList(new ArrayList<>());
+    List<String> second = Collections.synchronizedList(new ArrayList<>());
+    List<Thread> deliveryThreads = Collections.synchronizedList(new ArrayList<>());
+    try (SimEventBus bus = new SimEventBus()) {
+      bus.subscribe("first", new SimEvents() {
+        @Override
+        public void onPhase(SimPhase phase, String detail) {
+          deliveryThreads.add(Thread.currentThread());
+          first.add(phase.name());
+        }
+
+        @Override
+        public void onLog(SimLogCategory category, String message) {
+          first.add(message);
+        }
+      });
+      bus.subscribe("second", batch -> {
+        for (SimEventBus.Event event : batch) {
+          second.add(Long.toString(event.getSequence()));
+        }
+      }, 16, SimEventBus.Overflow.BLOCK);
+
+      bus.onPhase(SimPhase.CONNECTING, "start");
+      for (int i = 0; i < 100; i++) {
+        bus.onLog(SimLogCategory.APDU, "line " + i);
+      }
+      bus.onPhase(SimPhase.COMPLETE, "done");
+    }
+
+    assertEquals(102, first.size(), "close() delivers everything queued");
+    assertEquals("CONNECTING", first.get(0));
+    assertEquals("line 0", first.get(1));
+    assertEquals("line 99", first.get(100));
+    assertEquals("COMPLETE", first.get(101));
+    assertFalse(deliveryThreads.contains(Thread.currentThread()));
+    List<String> expected = new ArrayList<>();
+    for (int i = 1; i <= 102; i++) {
+      expected.add(Integer.toString(i));
+    }
+    assertEquals(expected, second);
+  }
+
+  @Test
+  void slowSubscriberDropsOrBlocksByPolicy() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    SimEventBus.Subscriber stalled = batch -> release.await(5, TimeUnit.SECONDS);
+    SimEventBus.Subscription dropping;
+    SimEventBus.Subscription blocking;
+    try (SimEventBus bus = new SimEventBus()) {
+      dropping = bus.subscribe("dropping", stalled, 4, SimEventBus.Overflow.DROP);
+      long started = System.nanoTime();
+      for (int i = 0; i < 50; i++) {
+        bus.onLog(SimLogCategory.GENERAL, "event " + i);
+      }
+      assertTrue(System.nanoTime() - started < TimeUnit.SECONDS.toNanos(2), "Dropping never waits");
+      assertTrue(dropping.getDropped() >= 40, "dropped=" + dropping.getDropped());
+
+      blocking = bus.subscribe("blocking", batch -> Thread.sleep(1), 2, SimEventBus.Overflow.BLOCK);
+      for (int i = 0; i < 20; i++) {
+        bus.onLog(SimLogCategory.GENERAL, "event " + i);
+      }
+      release.countDown();
+    }
+    assertEquals(50 + 20, dropping.getDelivered() + dropping.getDropped());
+    assertEquals(20, blocking.getDelivered());
+    assertEquals(0, blocking.getDropped());
+    assertTrue(blocking.getBlocked() > 0);
+  }
+
+  @Test
+  void writesEventsAsNdjson() throws Exception {
+    Path file = tempDir.resolve("events").resolve("session.ndjson");
+    try (SimEventBus bus = new SimEventBus()) {
+      bus.subscribe("file", SimEventBus.ndjsonFile(file), 64, SimEventBus.Overflow.BLOCK);
+      bus.onPhase(SimPhase.READING, "Reading \"DG1\"");
+      bus.onLog(SimLogCategory.SECURITY, "BAC ok");
+    }
+
+    List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+    assertEquals(2, lines.size());
+    ObjectMapper mapper = new ObjectMapper();
+    JsonNode phase = mapper.readTree(lines.get(0));
+    assertEquals("phase", phase.get("type").asText());
+    assertEquals("READING", phase.get("phase").asText());
+    assertEquals("Reading \"DG1\"", phase.get("detail").asText());
+    JsonNode log = mapper.readTree(lines.get(1));
+    assertEquals("SECURITY", log.get("category").asText());
+    assertEquals(2, log.get("seq").asLong());
+  }
+}
@@ -0,0 +1,94 @@
+package emu;
+
+import com.licel.jcardsim.smartcardio.CardSimulator;
+import com.licel.jcardsim.smartcardio.CardTerminalSimulator;
+import javacard.framework.AID;
+
+import net.sf.scuba.smartcards.CardServiceException;
+import net.sf.scuba.smartcards.CommandAPDU;
+import net.sf.scuba.smartcards.ResponseAPDU;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import javax.smartcardio.Card;
+import javax.smartcardio.CardChannel;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SimulatorCardServiceTest {
+
+  private static final byte[] MRTD_AID = {(byte) 0xA0, 0x00, 0x00, 0x02, 0x47, 0x10, 0x01};
+  private static final byte[] SELECT_AID = {0x00, (byte) 0xA4, 0x04, 0x0C, 0x07,
+      (byte) 0xA0, 0x00, 0x00, 0x02, 0x47, 0x10, 0x01};
+  private static final byte[] SELECT_COM = {0x00, (byte) 0xA4, 0x02, 0x0C, 0x02, 0x01, 0x1E};
+
+  @Test
+  void serviceRejectsCommandsUntilOpened() throws Exception {
+    SimulatorCardService service = new SimulatorCardService(new CardSimulator());
+    assertFalse(service.isOpen());
+    assertThrows(CardServiceException.class, () -> service.transmit(new CommandAPDU(SELECT_AID)));
+    service.open();
+    assertTrue(service.isOpen());
+    service.close();
+    assertFalse(service.isOpen());
+    assertEquals("DIRECT", service.card().getProtocol());
+  }
+
+  @Test
+  void directResponsesMatchTheSmartcardioPath() throws Exception {
+    SimulatorCardService direct = new SimulatorCardService(blankCard());
+    direct.open();
+    Card terminalCard = CardTerminalSimulator.terminal(blankCard()).connect("*");
+    CardChannel viaTerminal = terminalCard.getBasicChannel();
+
+    for (byte[] command : new byte[][] {SELECT_AID, SELECT_COM}) {
+      ResponseAPDU response = direct.transmit(new CommandAPDU(command));
+      javax.smartcardio.ResponseAPDU expected = viaTerminal.transmit(new javax.smartcardio.CommandAPDU(command));
+      assertArrayEquals(expected.getBytes(), response.getBytes());
+    }
+    terminalCard.disconnect(false);
+  }
+
+  @Test
+  void channelViewSharesTheSimulatorAndReusesBuffers() throws Exception {
+    SimulatorCardService direct = new SimulatorCardService(blankCard());
+    CardChannel channel = direct.card().getBasicChannel();
+    assertEquals(0x9000, channel.transmit(new javax.smartcardio.CommandAPDU(SELECT_AID)).getSW());
+
+    ByteBuffer response = ByteBuffer.allocate(258);
+    for (int i = 0; i < 2; i++) {
+      response.clear();
+      int length = channel.transmit(ByteBuffer.wrap(SELECT_COM), response);
+      assertEquals(2, length, "Selecting a missing EF answers with a bare status word");
+      assertEquals(0x6A82, ((response.get(0) & 0xFF) << 8) | (response.get(1) & 0xFF));
+    }
+  }
+
+  @Test
+  void simRunnerCompletesSessionOverDirectTransport() throws Exception {
+    SimConfig config = new SimConfig.Builder()
+        .docNumber(TestCardManager.DEFAULT_DOC)
+        .dateOfBirth(TestCardManager.DEFAULT_DOB)
+        .dateOfExpiry(TestCardManager.DEFAULT_DOE)
+        .seed(true)
+        .transport(SimTransport.DIRECT)
+        .build();
+
+    SessionReport report = new SimRunner().run(config, null);
+    assertEquals("DIRECT", report.session.transport);
+    assertNotNull(report.dataGroups.getDg1Mrz(), "DG1 must be read over the direct service");
+  }
+
+  private static CardSimulator blankCard() {
+    CardSimulator simulator = new CardSimulator();
+    simulator.installApplet(new AID(MRTD_AID, (short) 0, (byte) MRTD_AID.length), sos.passportapplet.PassportApplet.class);
+    return simulator;
+  }
+}
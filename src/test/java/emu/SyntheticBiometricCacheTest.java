@@ -0,0 +1,129 @@
+package emu;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import emu.PersonalizationSupport.SODArtifacts;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SyntheticBiometricCacheTest {
+
+  static {
+    System.setProperty("java.awt.headless", "true");
+  }
+
+  @Test
+  void repeatedRequestsShareOneRender() throws Exception {
+    SyntheticBiometricCache cache = new SyntheticBiometricCache(1024);
+    AtomicInteger renders = new AtomicInteger();
+    SyntheticBiometricCache.Loader loader = () -> {
+      renders.incrementAndGet();
+      return new byte[] {1, 2, 3};
+    };
+
+    byte[] first = cache.get("dg3", 10, 20, loader);
+    byte[] second = cache.get("dg3", 10, 20, loader);
+    cache.get("dg3", 20, 10, loader);
+
+    assertSame(first, second);
+    assertEquals(2, renders.get());
+    assertEquals(1, cache.getHits());
+    assertEquals(6, cache.getCachedBytes());
+  }
+
+  @Test
+  void evictsLeastRecentlyUsedPastCapacity() throws Exception {
+    SyntheticBiometricCache cache = new SyntheticBiometricCache(10);
+    AtomicInteger renders = new AtomicInteger();
+    SyntheticBiometricCache.Loader four = () -> {
+      renders.incrementAndGet();
+      return new byte[4];
+    };
+
+    cache.get("a", 1, 1, four);
+    cache.get("b", 1, 1, four);
+    cache.get("a", 1, 1, four);
+    cache.get("c", 1, 1, four);
+    assertEquals(8, cache.getCachedBytes());
+    assertEquals(3, renders.get());
+
+    cache.get("a", 1, 1, four);
+    assertEquals(3, renders.get(), "recently used entry must survive eviction");
+    cache.get("b", 1, 1, four);
+    assertEquals(4, renders.get(), "least recently used entry must have been evicted");
+
+    cache.get("huge", 1, 1, () -> new byte[11]);
+    assertTrue(cache.getCachedBytes() <= 10, "oversized entries are returned but not retained");
+  }
+
+  @Test
+  void failedRenderIsNotCached() throws Exception {
+    SyntheticBiometricCache cache = new SyntheticBiometricCache(1024);
+    assertThrows(IOException.class, () -> cache.get("face-jpeg", 1, 1, () -> {
+      throw new IOException("encoder unavailable");
+    }));
+    assertArrayEquals(new byte[] {7}, cache.get("face-jpeg", 1, 1, () -> new byte[] {7}));
+  }
+
+  @Test
+  void concurrentCallersWaitForTheInFlightRender() throws Exception {
+    SyntheticBiometricCache cache = new SyntheticBiometricCache(1024);
+    AtomicInteger renders = new AtomicInteger();
+    CountDownLatch release = new CountDownLatch(1);
+    ExecutorService pool = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<byte[]>> results = new ArrayList<>();
+      for (int i = 0; i < 4; i++) {
+        results.add(pool.submit(() -> cache.get("dg4", 64, 64, () -> {
+          renders.incrementAndGet();
+          try {
+            release.await(5, TimeUnit.SECONDS);
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+          return new byte[] {4};
+        })));
+      }
+      Thread.sleep(100);
+      release.countDown();
+      for (Future<byte[]> result : results) {
+        assertArrayEquals(new byte[] {4}, result.get(5, TimeUnit.SECONDS));
+      }
+      assertEquals(1, renders.get());
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  @Test
+  void artifactsReuseSyntheticBiometricsThroughReadOnlyViews() throws Exception {
+    PersonalizationJob job = PersonalizationJob.builder()
+        .withMrzInfo(TestCardManager.defaultMrz())
+        .deterministicSeed(31L)
+        .build();
+
+    SODArtifacts first = PersonalizationSupport.buildArtifacts(job);
+    long hitsBefore = PersonalizationSupport.syntheticBiometricCache().getHits();
+    SODArtifacts second = PersonalizationSupport.buildArtifacts(job);
+
+    assertTrue(PersonalizationSupport.syntheticBiometricCache().getHits() > hitsBefore);
+    assertArrayEquals(first.getDg2Bytes(), second.getDg2Bytes());
+    assertArrayEquals(first.getDg3Bytes(), second.getDg3Bytes());
+    assertArrayEquals(first.getDg4Bytes(), second.getDg4Bytes());
+    ByteBuffer dg3 = first.getDataGroupBuffer(3);
+    assertTrue(dg3.isReadOnly(), "Shared renders must only be exposed read-only");
+    assertEquals(dg3, second.getDataGroupBuffer(3));
+    assertNotSame(first.getDg3Bytes(), first.getDg3Bytes());
+  }
+}
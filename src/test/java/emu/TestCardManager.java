@@ -42,6 +42,21 @@ final class TestCardManager {
   private TestCardManager() {
   }
 
+  /** TD3 MRZ over the default document number and dates, for tests that only need a valid holder. */
+  static MRZInfo defaultMrz() {
+    return MRZInfo.createTD3MRZInfo(
+        "P<",
+        "UTO",
+        "TEST",
+        "SUBJECT",
+        DEFAULT_DOC,
+        "UTO",
+        DEFAULT_DOB,
+        Gender.FEMALE,
+        DEFAULT_DOE,
+        "");
+  }
+
   static TestCard provisionCard() throws Exception {
     return provisionCard(false, false);
   }
@@ -0,0 +1,120 @@
+package emu;
+
+import com.licel.jcardsim.smartcardio.CardSimulator;
+import org.junit.jupiter.api.Test;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class VirtualCardServerTest {
+
+  private static final byte[] ATR = {0x3B, (byte) 0x80, (byte) 0x80, 0x01, 0x01};
+
+  @Test
+  void servesManyConcurrentCardsOverVpcdFraming() throws Exception {
+    int clients = 64;
+    try (VirtualCardServer server = VirtualCardServer.start(loopback(), EchoSimulator::new, 8)) {
+      assertEquals(8, server.getPooledCards());
+      ExecutorService executor = Executors.newFixedThreadPool(16);
+      try {
+        List<Future<?>> sessions = new ArrayList<>();
+        for (int c = 0; c < clients; c++) {
+          int id = c;
+          sessions.add(executor.submit(() -> {
+            try (Socket socket = new Socket()) {
+              socket.connect(server.getAddress());
+              DataInputStream in = new DataInputStream(socket.getInputStream());
+              DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+              send(out, new byte[] {0x01});
+              send(out, new byte[] {0x04});
+              assertArrayEquals(ATR, receive(in));
+              for (int i = 0; i < 10; i++) {
+                byte[] apdu = {0x00, (byte) 0xB0, (byte) id, (byte) i, 0x04};
+                send(out, apdu);
+                byte[] response = receive(in);
+                assertEquals(apdu.length + 2, response.length);
+                assertEquals((byte) id, response[2]);
+                assertEquals((byte) i, response[3]);
+                assertEquals((byte) 0x90, response[response.length - 2]);
+              }
+            }
+            return null;
+          }));
+        }
+        for (Future<?> session : sessions) {
+          session.get(30, TimeUnit.SECONDS);
+        }
+      } finally {
+        executor.shutdownNow();
+      }
+      assertEquals(clients * 12L, server.getCommandCount());
+      assertTrue(server.getIssuedCards() <= clients, "Cards are recycled rather than issued per connection");
+    }
+  }
+
+  @Test
+  void powerControlMessagesAreNotAnswered() throws Exception {
+    try (VirtualCardServer server = VirtualCardServer.start(loopback(), EchoSimulator::new, 1);
+         Socket socket = new Socket()) {
+      socket.connect(server.getAddress());
+      socket.setSoTimeout(300);
+      DataInputStream in = new DataInputStream(socket.getInputStream());
+      DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+      send(out, new byte[] {0x00});
+      send(out, new byte[] {0x02});
+      assertThrows(SocketTimeoutException.class, in::readUnsignedShort);
+    }
+  }
+
+  @Test
+  void failedIssuanceFailsStartup() {
+    IOException error = assertThrows(IOException.class, () -> VirtualCardServer.start(loopback(), () -> {
+      throw new IllegalStateException("no keys");
+    }, 1));
+    assertTrue(error.getMessage().contains("no keys"));
+  }
+
+  private static InetSocketAddress loopback() {
+    return new InetSocketAddress("127.0.0.1", 0);
+  }
+
+  private static void send(DataOutputStream out, byte[] payload) throws IOException {
+    out.writeShort(payload.length);
+    out.write(payload);
+    out.flush();
+  }
+
+  private static byte[] receive(DataInputStream in) throws IOException {
+    byte[] payload = new byte[in.readUnsignedShort()];
+    in.readFully(payload);
+    return payload;
+  }
+
+  /** Answers every command with itself plus 9000, standing in for a personalized applet. */
+  private static final class EchoSimulator extends CardSimulator {
+    @Override
+    public byte[] transmitCommand(byte[] command) {
+      byte[] response = new byte[command.length + 2];
+      System.arraycopy(command, 0, response, 0, command.length);
+      response[command.length] = (byte) 0x90;
+      return response;
+    }
+
+    @Override
+    public byte[] getATR() {
+      return ATR.clone();
+    }
+  }
+}
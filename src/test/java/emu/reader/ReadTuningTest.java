@@ -0,0 +1,82 @@
+package emu.reader;
+
+import net.sf.scuba.smartcards.CardServiceException;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ReadTuningTest {
+
+    // PC/SC contactless ATR whose historical bytes carry card capabilities 73 00 00 40 (extended Lc/Le).
+    private static final byte[] EXTENDED_ATR = {0x3B, (byte) 0x85, (byte) 0x80, 0x01, (byte) 0x80, 0x73, 0x00, 0x00, 0x40, 0x00};
+    private static final byte[] SHORT_ONLY_ATR = {0x3B, (byte) 0x85, (byte) 0x80, 0x01, (byte) 0x80, 0x73, 0x00, 0x00, 0x00, 0x00};
+    private static final byte[] SILENT_ATR = {0x3B, (byte) 0x84, (byte) 0x80, 0x01, 0x47, 0x11, 0x22, 0x33, 0x00};
+
+    @Test
+    void atrCapabilitiesChooseTheStartingRung() {
+        assertEquals(Boolean.TRUE, ReadTuning.extendedLengthSupport(EXTENDED_ATR));
+        assertEquals(Boolean.FALSE, ReadTuning.extendedLengthSupport(SHORT_ONLY_ATR));
+        assertNull(ReadTuning.extendedLengthSupport(SILENT_ATR));
+
+        assertTrue(ReadTuning.initial(EXTENDED_ATR).isExtendedLength());
+        assertEquals(ReadTuning.DEFAULT, ReadTuning.initial(SHORT_ONLY_ATR));
+        assertTrue(ReadTuning.initial(SILENT_ATR).isExtendedLength(), "Unknown support is probed");
+    }
+
+    @Test
+    void lengthErrorsStepDownTheLadder() {
+        ReadTuning start = ReadTuning.initial(EXTENDED_ATR);
+        ReadTuning smaller = start.fallback(0x6700);
+        assertTrue(smaller.maxBlockSize() < start.maxBlockSize());
+
+        // 6Cxx names the bytes available; the protected response of the next rung must fit.
+        ReadTuning hinted = start.fallback(0x6CC0);
+        assertFalse(hinted.isExtendedLength());
+        assertEquals(160, hinted.maxBlockSize());
+
+        ReadTuning last = ReadTuning.DEFAULT;
+        for (ReadTuning next = last.fallback(0x6700); next != null; next = next.fallback(0x6700)) {
+            assertTrue(next.maxBlockSize() < last.maxBlockSize());
+            last = next;
+        }
+        assertEquals(64, last.maxBlockSize());
+    }
+
+    @Test
+    void lengthErrorStatusIsFoundThroughWrappers() {
+        Exception wrapped = new IOException("read failed", new CardServiceException("Read binary failed", 0x6C10));
+        assertEquals(0x6C10, ReadTuning.lengthErrorStatus(wrapped));
+        assertEquals(-1, ReadTuning.lengthErrorStatus(new CardServiceException("File not found", 0x6A82)));
+
+        IllegalStateException rejected = assertThrows(IllegalStateException.class, () -> RealPassportReaderTask.readOptionalFile(
+                () -> {
+                    throw new CardServiceException("Wrong length", 0x6700);
+                }, message -> { }, "DG2"));
+        assertEquals(0x6700, ReadTuning.lengthErrorStatus(rejected), "Optional reads must not swallow length errors");
+    }
+
+    @Test
+    void storePersistsTuningPerAtr(@TempDir Path directory) throws Exception {
+        Path file = directory.resolve("tuning.properties");
+        ReadTuningStore store = new ReadTuningStore(file);
+        ReadTuning tuned = ReadTuning.DEFAULT.fallback(0x6700);
+        store.remember(EXTENDED_ATR, tuned);
+        assertTrue(Files.isRegularFile(file));
+
+        ReadTuningStore reloaded = new ReadTuningStore(file);
+        assertEquals(tuned, reloaded.lookup(EXTENDED_ATR.clone()));
+        assertNull(reloaded.lookup(SHORT_ONLY_ATR));
+        assertEquals(tuned, ReadTuning.decode(tuned.encode()));
+        assertNull(ReadTuning.decode("garbage"));
+    }
+}
@@ -0,0 +1,176 @@
+package emu.reader;
+
+import com.licel.jcardsim.smartcardio.CardSimulator;
+import javacard.framework.AID;
+
+import org.jmrtd.BACKey;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.smartcardio.CardTerminal;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ReaderStationTest {
+
+    private static final byte[] MRTD_AID = {(byte) 0xA0, 0x00, 0x00, 0x02, 0x47, 0x10, 0x01};
+    private static final BACKey KEY = new BACKey("123456789", "750101", "250101");
+    private static final Duration POLL = Duration.ofMillis(20);
+
+    @Test
+    void readsAllTerminalsConcurrentlyAndQueuesSnapshots() throws Exception {
+        SimulatedTerminalFactory.PresenceTerminal[] terminals = {
+                new SimulatedTerminalFactory.PresenceTerminal("Reader A"),
+                new SimulatedTerminalFactory.PresenceTerminal("Reader B"),
+                new SimulatedTerminalFactory.PresenceTerminal("Reader C")
+        };
+        // Every read blocks until all three are in flight, so a serial station would time out.
+        CountDownLatch inFlight = new CountDownLatch(terminals.length);
+        ReaderStation.TerminalReader reader = (terminal, key, logger) -> {
+            inFlight.countDown();
+            if (!inFlight.await(5, TimeUnit.SECONDS)) {
+                throw new IllegalStateException("Reads were not concurrent");
+            }
+            return snapshot(terminal.getName());
+        };
+
+        try (ReaderStation station = station(reader, terminals).start()) {
+            assertEquals(List.of("Reader A", "Reader B", "Reader C"), station.getTerminalNames());
+            for (SimulatedTerminalFactory.PresenceTerminal terminal : terminals) {
+                terminal.insert();
+            }
+
+            Set<String> documents = new HashSet<>();
+            for (int i = 0; i < terminals.length; i++) {
+                ReaderStation.Read read = station.poll(5, TimeUnit.SECONDS);
+                assertNotNull(read, "Every terminal must deliver an outcome");
+                assertTrue(read.isSuccess(), () -> String.valueOf(read.error()));
+                assertEquals(read.terminalName(), read.snapshot().documentNumber());
+                documents.add(read.snapshot().documentNumber());
+            }
+            assertEquals(3, documents.size());
+
+            ReaderStation.Stats stats = station.getStats();
+            assertEquals(3, stats.documents());
+            assertEquals(0, stats.failures());
+            assertEquals(Map.of("Reader A", 1L, "Reader B", 1L, "Reader C", 1L), stats.documentsPerTerminal());
+            assertTrue(stats.documentsPerMinute() > 0.0);
+        }
+    }
+
+    @Test
+    void rearmsOnlyAfterCardRemovalAndReportsFailures() throws Exception {
+        SimulatedTerminalFactory.PresenceTerminal terminal = new SimulatedTerminalFactory.PresenceTerminal("Kiosk");
+        AtomicInteger attempts = new AtomicInteger();
+        ReaderStation.TerminalReader reader = (t, key, logger) -> {
+            if (attempts.incrementAndGet() == 1) {
+                throw new IllegalStateException("BAC failed");
+            }
+            return snapshot(key.getDocumentNumber());
+        };
+
+        try (ReaderStation station = station(reader, terminal).start()) {
+            terminal.insert();
+            ReaderStation.Read failed = station.poll(5, TimeUnit.SECONDS);
+            assertNotNull(failed);
+            assertFalse(failed.isSuccess());
+            assertNull(failed.snapshot());
+            assertEquals("BAC failed", failed.error().getMessage());
+
+            assertNull(station.poll(200, TimeUnit.MILLISECONDS), "A card left on the reader must not be read twice");
+
+            terminal.remove();
+            Thread.sleep(POLL.toMillis() * 10); // let the worker observe the empty reader
+            terminal.insert();
+            ReaderStation.Read retried = station.poll(5, TimeUnit.SECONDS);
+            assertNotNull(retried);
+            assertTrue(retried.isSuccess());
+            assertEquals("123456789", retried.snapshot().documentNumber());
+
+            ReaderStation.Stats stats = station.getStats();
+            assertEquals(1, stats.documents());
+            assertEquals(1, stats.failures());
+            assertEquals(2, attempts.get());
+        }
+    }
+
+    @Test
+    void sinkReceivesOutcomesInsteadOfTheCaller() throws Exception {
+        SimulatedTerminalFactory.PresenceTerminal terminal = new SimulatedTerminalFactory.PresenceTerminal("Kiosk");
+        List<String> threads = new CopyOnWriteArrayList<>();
+        CountDownLatch delivered = new CountDownLatch(1);
+        ReaderStation station = ReaderStation.builder(t -> KEY)
+                .terminalFactory(SimulatedTerminalFactory.of(terminal))
+                .reader((t, key, logger) -> snapshot("123456789"))
+                .pollInterval(POLL)
+                .sink(read -> {
+                    threads.add(Thread.currentThread().getName());
+                    delivered.countDown();
+                })
+                .logger(message -> { })
+                .build();
+        try (ReaderStation started = station.start()) {
+            terminal.insert();
+            assertTrue(delivered.await(5, TimeUnit.SECONDS));
+            assertEquals(List.of("reader-station-sink"), threads);
+        }
+        assertThrows(IllegalStateException.class, station::start, "A station runs once");
+    }
+
+    @Test
+    void simulatedReadersSurfacePerTerminalOutcomes() throws Exception {
+        // Unpersonalized applets reject BAC; the station must report each reader and keep running.
+        CardTerminal first = SimulatedTerminalFactory.simulated(blankCard(), "Simulated Reader 0");
+        CardTerminal second = SimulatedTerminalFactory.simulated(blankCard(), "Simulated Reader 1");
+        try (ReaderStation station = ReaderStation.builder(t -> KEY)
+                .terminalFactory(SimulatedTerminalFactory.of(first, second))
+                .pollInterval(POLL)
+                .logger(message -> { })
+                .build()
+                .start()) {
+            Set<String> terminals = new HashSet<>();
+            for (int i = 0; i < 2; i++) {
+                ReaderStation.Read read = station.poll(30, TimeUnit.SECONDS);
+                assertNotNull(read);
+                assertFalse(read.isSuccess());
+                terminals.add(read.terminalName());
+            }
+            assertEquals(Set.of("Simulated Reader 0", "Simulated Reader 1"), terminals);
+            assertEquals(2, station.getStats().failures());
+        }
+    }
+
+    private static ReaderStation station(ReaderStation.TerminalReader reader, CardTerminal... terminals) throws Exception {
+        return ReaderStation.builder(t -> KEY)
+                .terminalFactory(SimulatedTerminalFactory.of(terminals))
+                .reader(reader)
+                .pollInterval(POLL)
+                .logger(message -> { })
+                .build();
+    }
+
+    private static CardSimulator blankCard() {
+        CardSimulator simulator = new CardSimulator();
+        simulator.installApplet(new AID(MRTD_AID, (short) 0, (byte) MRTD_AID.length), sos.passportapplet.PassportApplet.class);
+        return simulator;
+    }
+
+    private static RealPassportSnapshot snapshot(String documentNumber) {
+        return new RealPassportSnapshot(documentNumber, "750101", "250101", null, "", "", null, null,
+                Map.of(1, new byte[] {0x61, 0x00}), null, null, null);
+    }
+}
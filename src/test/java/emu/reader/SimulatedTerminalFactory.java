@@ -0,0 +1,254 @@
+package emu.reader;
+
+import com.licel.jcardsim.smartcardio.CardSimulator;
+import com.licel.jcardsim.smartcardio.CardTerminalSimulator;
+
+import java.security.NoSuchAlgorithmException;
+import java.security.Provider;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+
+import javax.smartcardio.ATR;
+import javax.smartcardio.Card;
+import javax.smartcardio.CardChannel;
+import javax.smartcardio.CardException;
+import javax.smartcardio.CardNotPresentException;
+import javax.smartcardio.CardTerminal;
+import javax.smartcardio.CardTerminals;
+import javax.smartcardio.TerminalFactory;
+import javax.smartcardio.TerminalFactorySpi;
+
+/**
+ * {@link TerminalFactory} stand-in exposing several readers to code that discovers terminals the
+ * PC/SC way. Readers are either jcardsim-backed ({@link #simulated}) or bare presence switches
+ * ({@link PresenceTerminal}) for exercising the station without a card stack.
+ */
+final class SimulatedTerminalFactory {
+
+    /**
+     * The applet keeps its lifecycle and session state in static fields, so simulators in one JVM
+     * are not independent chips. Card sessions are serialized across all simulated readers.
+     */
+    private static final Semaphore APPLET_SESSIONS = new Semaphore(1, true);
+
+    private SimulatedTerminalFactory() {
+    }
+
+    static TerminalFactory of(CardTerminal... terminals) throws NoSuchAlgorithmException {
+        return TerminalFactory.getInstance(Spi.TYPE, Arrays.asList(terminals), new SimulatedProvider());
+    }
+
+    /** A reader with {@code simulator} permanently on it. */
+    static CardTerminal simulated(CardSimulator simulator, String name) {
+        return new SerializedTerminal(CardTerminalSimulator.terminal(simulator, name));
+    }
+
+    private static final class SimulatedProvider extends Provider {
+        private static final long serialVersionUID = 1L;
+
+        SimulatedProvider() {
+            super("EmuSimulatedTerminals", "1.0", "Simulated PC/SC terminals for tests");
+            put("TerminalFactory." + Spi.TYPE, Spi.class.getName());
+        }
+    }
+
+    /** Instantiated reflectively by {@link TerminalFactory#getInstance}. */
+    public static final class Spi extends TerminalFactorySpi {
+        static final String TYPE = "EmuSimulated";
+
+        private final List<CardTerminal> terminals;
+
+        @SuppressWarnings("unchecked")
+        public Spi(Object params) {
+            this.terminals = Collections.unmodifiableList(new ArrayList<>((List<CardTerminal>) params));
+        }
+
+        @Override
+        protected CardTerminals engineTerminals() {
+            return new CardTerminals() {
+                @Override
+                public List<CardTerminal> list(State state) throws CardException {
+                    if (state == State.ALL) {
+                        return terminals;
+                    }
+                    List<CardTerminal> matching = new ArrayList<>();
+                    for (CardTerminal terminal : terminals) {
+                        boolean present = terminal.isCardPresent();
+                        if ((state == State.CARD_PRESENT) == present) {
+                            matching.add(terminal);
+                        }
+                    }
+                    return matching;
+                }
+
+                @Override
+                public boolean waitForChange(long timeout) {
+                    throw new UnsupportedOperationException("Poll the individual terminals instead");
+                }
+            };
+        }
+    }
+
+    /** Holds {@link #APPLET_SESSIONS} from connect until the card is disconnected. */
+    private static final class SerializedTerminal extends CardTerminal {
+        private final CardTerminal delegate;
+
+        SerializedTerminal(CardTerminal delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public String getName() {
+            return delegate.getName();
+        }
+
+        @Override
+        public Card connect(String protocol) throws CardException {
+            APPLET_SESSIONS.acquireUninterruptibly();
+            try {
+                return new SerializedCard(delegate.connect(protocol));
+            } catch (CardException | RuntimeException e) {
+                APPLET_SESSIONS.release();
+                throw e;
+            }
+        }
+
+        @Override
+        public boolean isCardPresent() throws CardException {
+            return delegate.isCardPresent();
+        }
+
+        @Override
+        public boolean waitForCardPresent(long timeout) throws CardException {
+            return delegate.waitForCardPresent(timeout);
+        }
+
+        @Override
+        public boolean waitForCardAbsent(long timeout) throws CardException {
+            return delegate.waitForCardAbsent(timeout);
+        }
+    }
+
+    private static final class SerializedCard extends Card {
+        private final Card delegate;
+        private boolean released;
+
+        SerializedCard(Card delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public ATR getATR() {
+            return delegate.getATR();
+        }
+
+        @Override
+        public String getProtocol() {
+            return delegate.getProtocol();
+        }
+
+        @Override
+        public CardChannel getBasicChannel() {
+            return delegate.getBasicChannel();
+        }
+
+        @Override
+        public CardChannel openLogicalChannel() throws CardException {
+            return delegate.openLogicalChannel();
+        }
+
+        @Override
+        public void beginExclusive() throws CardException {
+            delegate.beginExclusive();
+        }
+
+        @Override
+        public void endExclusive() throws CardException {
+            delegate.endExclusive();
+        }
+
+        @Override
+        public byte[] transmitControlCommand(int controlCode, byte[] command) throws CardException {
+            return delegate.transmitControlCommand(controlCode, command);
+        }
+
+        @Override
+        public void disconnect(boolean reset) throws CardException {
+            try {
+                delegate.disconnect(reset);
+            } finally {
+                synchronized (this) {
+                    if (!released) {
+                        released = true;
+                        APPLET_SESSIONS.release();
+                    }
+                }
+            }
+        }
+    }
+
+    /** Reader whose card presence is toggled by the test; connecting is not supported. */
+    static final class PresenceTerminal extends CardTerminal {
+        private final String name;
+        private boolean present;
+
+        PresenceTerminal(String name) {
+            this.name = name;
+        }
+
+        synchronized void insert() {
+            present = true;
+            notifyAll();
+        }
+
+        synchronized void remove() {
+            present = false;
+            notifyAll();
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public Card connect(String protocol) throws CardException {
+            throw new CardNotPresentException("Presence-only terminal " + name);
+        }
+
+        @Override
+        public synchronized boolean isCardPresent() {
+            return present;
+        }
+
+        @Override
+        public boolean waitForCardPresent(long timeout) throws CardException {
+            return awaitPresence(true, timeout);
+        }
+
+        @Override
+        public boolean waitForCardAbsent(long timeout) throws CardException {
+            return awaitPresence(false, timeout);
+        }
+
+        private synchronized boolean awaitPresence(boolean wanted, long timeout) throws CardException {
+            long deadline = System.currentTimeMillis() + timeout;
+            while (present != wanted) {
+                long remaining = timeout == 0 ? 0 : deadline - System.currentTimeMillis();
+                if (timeout != 0 && remaining <= 0) {
+                    return false;
+                }
+                try {
+                    wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new CardException("Interrupted while waiting on " + name, e);
+                }
+            }
+            return true;
+        }
+    }
+}